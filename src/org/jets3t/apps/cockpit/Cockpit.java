@@ -140,6 +140,7 @@ import org.jets3t.service.utils.ByteFormatter;
 import org.jets3t.service.utils.FileComparer;
 import org.jets3t.service.utils.FileComparerResults;
 import org.jets3t.service.utils.Mimetypes;
+import org.jets3t.service.utils.ObjectListingIndex;
 import org.jets3t.service.utils.ObjectUtils;
 import org.jets3t.service.utils.RestUtils;
 import org.jets3t.service.utils.TimeFormatter;
@@ -258,6 +259,11 @@ public class Cockpit extends JApplet implements S3ServiceEventListener, ActionLi
     
     private EncryptionUtil encryptionUtil = null;
     private Jets3tProperties cockpitProperties = null;
+    
+    /**
+     * The listing index of the bucket whose object details are being retrieved, if any.
+     */
+    private ObjectListingIndex objectDetailsListingIndex = null;
     private SkinsFactory skinsFactory = null;
     
     /**
@@ -1964,8 +1970,10 @@ public class Cockpit extends JApplet implements S3ServiceEventListener, ActionLi
                 }
             };
                                 
-            FileComparerResults comparisonResults = FileComparer.getInstance()
+            FileComparer fileComparer = FileComparer.getInstance();
+            FileComparerResults comparisonResults = fileComparer
                     .buildDiscrepancyLists(localFilesMap, s3ObjectsMap, progressWatcher);
+            fileComparer.saveMD5HashCache();
             
             stopProgressDialog();
             
@@ -2217,8 +2225,7 @@ public class Cockpit extends JApplet implements S3ServiceEventListener, ActionLi
         long bytesToProcess = 0;
         for (Iterator iter = fileKeysForUpload.iterator(); iter.hasNext();) {
             File file = (File) uploadingFilesMap.get(iter.next().toString());
-            bytesToProcess += file.length() *
-                (cockpitPreferences.isUploadEncryptionActive() || cockpitPreferences.isUploadCompressionActive() ? 3 : 1); 
+            bytesToProcess += file.length(); 
         }
         
         BytesProgressWatcher progressWatcher = new BytesProgressWatcher(bytesToProcess) {
@@ -2241,7 +2248,9 @@ public class Cockpit extends JApplet implements S3ServiceEventListener, ActionLi
             S3Object newObject = ObjectUtils
                 .createObjectForUpload(fileKey, file, 
                     (cockpitPreferences.isUploadEncryptionActive() ? encryptionUtil : null),
-                    cockpitPreferences.isUploadCompressionActive(), progressWatcher);
+                    cockpitPreferences.isUploadCompressionActive(), 
+                    cockpitProperties.getBoolProperty("uploads.stream-transformed-data", false),
+                    progressWatcher);
             
             String aclPreferenceString = cockpitPreferences.getUploadACLPermission();
             if (CockpitPreferences.UPLOAD_ACL_PERMISSION_PRIVATE.equals(aclPreferenceString)) {
@@ -2663,10 +2672,16 @@ public class Cockpit extends JApplet implements S3ServiceEventListener, ActionLi
      * true if objects details were successfully retrieved.
      */
     private boolean retrieveObjectsDetails(final S3Object[] candidateObjects) {
-        // Identify which of the candidate objects have incomplete metadata.
+        // Identify which of the candidate objects have incomplete metadata, completing those
+        // whose details are unchanged since they were recorded in the bucket's listing index.
+        objectDetailsListingIndex = ObjectListingIndex.getInstance(
+            cockpitProperties, getCurrentSelectedBucket().getName());
         ArrayList s3ObjectsIncompleteList = new ArrayList();
         for (int i = 0; i < candidateObjects.length; i++) {
-            if (!candidateObjects[i].isMetadataComplete()) {
+            if (!candidateObjects[i].isMetadataComplete()
+                && (objectDetailsListingIndex == null 
+                    || !objectDetailsListingIndex.applyCachedDetails(candidateObjects[i])))
+            {
                 s3ObjectsIncompleteList.add(candidateObjects[i]);
             }
         }
@@ -2711,6 +2726,9 @@ public class Cockpit extends JApplet implements S3ServiceEventListener, ActionLi
                         
                         originalObject.replaceAllMetadata(objectWithDetails.getMetadataMap());
                         originalObject.setMetadataComplete(true);
+                        if (objectDetailsListingIndex != null) {
+                            objectDetailsListingIndex.update(objectWithDetails);
+                        }
                         log.debug("Updated table with " + originalObject.getKey() 
                             + ", content-type=" + originalObject.getContentType());
                     }
@@ -2725,6 +2743,15 @@ public class Cockpit extends JApplet implements S3ServiceEventListener, ActionLi
         else if (ServiceEvent.EVENT_COMPLETED == event.getEventCode()) {
             // Stop GetObjectHead progress display.
             stopProgressDialog();                    
+            
+            if (objectDetailsListingIndex != null) {
+                try {
+                    objectDetailsListingIndex.save();
+                } catch (IOException e) {
+                    log.warn("Unable to save listing index " 
+                        + objectDetailsListingIndex.getIndexFile(), e);
+                }
+            }
         }
         else if (ServiceEvent.EVENT_CANCELLED == event.getEventCode()) {
             stopProgressDialog();        
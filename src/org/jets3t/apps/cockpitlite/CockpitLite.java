@@ -1476,8 +1476,10 @@ public class CockpitLite extends JApplet implements S3ServiceEventListener, Acti
                         }
                     };
                                         
-                    FileComparerResults comparisonResults = FileComparer.getInstance()
+                    FileComparer fileComparer = FileComparer.getInstance();
+                    FileComparerResults comparisonResults = fileComparer
                         .buildDiscrepancyLists(localFilesMap, s3ObjectsMap, progressWatcher);
+                    fileComparer.saveMD5HashCache();
                     
                     stopProgressDialog(); 
                     
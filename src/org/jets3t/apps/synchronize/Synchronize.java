@@ -23,6 +23,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -47,13 +48,17 @@ import org.jets3t.service.multithread.S3ServiceEventAdaptor;
 import org.jets3t.service.multithread.S3ServiceMulti;
 import org.jets3t.service.multithread.ServiceEvent;
 import org.jets3t.service.multithread.ThreadWatcher;
+import org.jets3t.service.multithread.WorkQueue;
 import org.jets3t.service.security.AWSCredentials;
 import org.jets3t.service.security.EncryptionUtil;
 import org.jets3t.service.utils.ByteFormatter;
 import org.jets3t.service.utils.FileComparer;
 import org.jets3t.service.utils.FileComparerResults;
 import org.jets3t.service.utils.Mimetypes;
+import org.jets3t.service.utils.ObjectListingIndex;
 import org.jets3t.service.utils.ObjectUtils;
+import org.jets3t.service.utils.S3KeyComparator;
+import org.jets3t.service.utils.SortedFileIterator;
 import org.jets3t.service.utils.TimeFormatter;
 import org.jets3t.service.utils.FileComparer.PartialObjectListing;
 
@@ -72,6 +77,12 @@ public class Synchronize {
     protected static final int REPORT_LEVEL_DIFFERENCES = 2;
     protected static final int REPORT_LEVEL_ALL = 3;
     
+    /**
+     * The number of local files compared at a time, after which the files to transfer are 
+     * passed to the next pipeline stage.
+     */
+    private static final int COMPARE_GROUP_SIZE = 100;
+    
     private S3Service s3Service = null;
     
     private boolean doAction = false; // Files will only be transferred if true. 
@@ -92,6 +103,7 @@ public class Synchronize {
     private final ByteFormatter byteFormatter = new ByteFormatter();
     private final TimeFormatter timeFormatter = new TimeFormatter();
     private FileComparer fileComparer = null;
+    private ObjectListingIndex listingIndex = null;
     private int maxTemporaryStringLength = 0;
 
     
@@ -171,20 +183,85 @@ public class Synchronize {
     private S3Object prepareUploadObject(String targetKey, File file, String aclString, EncryptionUtil encryptionUtil) 
         throws Exception 
     {        
-        S3Object newObject = ObjectUtils
-            .createObjectForUpload(targetKey, file, encryptionUtil, isGzipEnabled, null);
+        S3Object newObject = ObjectUtils.createObjectForUpload(targetKey, file, encryptionUtil, 
+            isGzipEnabled, properties.getBoolProperty("uploads.stream-transformed-data", false), 
+            null);
 
+        AccessControlList acl = getCannedAcl(aclString);
+        if (acl != null) {
+            newObject.setAcl(acl);
+        }
+        
+        return newObject;
+    }
+    
+    /**
+     * @param aclString the ACL to apply to uploaded objects
+     * @return 
+     * the canned ACL corresponding to the ACL string, or null for the default private ACL. 
+     * 
+     * @throws Exception
+     * if the ACL string is not valid. 
+     */
+    private AccessControlList getCannedAcl(String aclString) throws Exception {
         if ("PUBLIC_READ".equalsIgnoreCase(aclString)) {
-            newObject.setAcl(AccessControlList.REST_CANNED_PUBLIC_READ);                        
+            return AccessControlList.REST_CANNED_PUBLIC_READ;                        
         } else if ("PUBLIC_READ_WRITE".equalsIgnoreCase(aclString)) {
-            newObject.setAcl(AccessControlList.REST_CANNED_PUBLIC_READ_WRITE);            
+            return AccessControlList.REST_CANNED_PUBLIC_READ_WRITE;            
         } else if ("PRIVATE".equalsIgnoreCase(aclString)) {
             // Private is the default, no need to add an ACL
+            return null;
         } else {
             throw new Exception("Invalid value for ACL string: " + aclString);
         }
+    }
+    
+    /**
+     * A thread that runs one stage of an upload or download pipeline, reading work items from
+     * the previous stage's queue and adding them to the next stage's queue. The output queue 
+     * is closed when the stage finishes. If the stage fails, both queues are aborted so the
+     * neighbouring stages stop, and the failure is rethrown by {@link #throwError()}.
+     */
+    private abstract static class PipelineStage extends Thread {
+        private final WorkQueue inputQueue;
+        private final WorkQueue outputQueue;
+        private Throwable error = null;
+        
+        public PipelineStage(String name, WorkQueue inputQueue, WorkQueue outputQueue) {
+            super(name);
+            this.inputQueue = inputQueue;
+            this.outputQueue = outputQueue;
+            setDaemon(true);
+        }
         
-        return newObject;
+        protected abstract void runStage() throws Exception;
+        
+        public void run() {
+            try {
+                runStage();
+                outputQueue.close();
+            } catch (Throwable t) {
+                error = t;
+                if (inputQueue != null) {
+                    inputQueue.abort();
+                }
+                outputQueue.abort();
+            }
+        }
+        
+        /**
+         * Rethrows the failure of this stage, if it failed. This method must only be called 
+         * once the stage's thread has finished.
+         * 
+         * @throws Exception
+         */
+        public void throwError() throws Exception {
+            if (error instanceof Exception) {
+                throw (Exception) error;
+            } else if (error != null) {
+                throw new Exception(error);
+            }
+        }
     }
     
 
@@ -203,7 +280,7 @@ public class Synchronize {
         return detailsText;
     }
     
-    private void printOutputLine(String line, int level) {
+    private synchronized void printOutputLine(String line, int level) {
         if ((isQuiet && level > REPORT_LEVEL_NONE) || reportLevel < level) {
             return;
         }
@@ -224,7 +301,7 @@ public class Synchronize {
      * if true, the line is printed followed by a carriage return such
      * that the next line output to the console will overwrite it.
      */
-    private void printProgressLine(String line) {
+    private synchronized void printProgressLine(String line) {
         if (isQuiet || isNoProgress) {
             return;
         }
@@ -275,10 +352,36 @@ public class Synchronize {
         String rootObjectPath, String aclString,
         BytesProgressWatcher progressWatcher) throws Exception 
     {        
-        FileComparerResults mergedDiscrepancyResults = new FileComparerResults();
-        String priorLastKey = null;
-        String lastFileKeypathChecked = "";
-        long totalObjectsListed = 0;
+        uploadLocalDirectoryToS3(fileComparer.iterateFilesInKeyOrder(filesMap), bucket,
+            rootObjectPath, aclString, progressWatcher);
+    }
+    
+    /**
+     * Copies local files to S3, storing them in the given root path, as described for 
+     * {@link #uploadLocalDirectoryToS3(Map, S3Bucket, String, String, BytesProgressWatcher)}.
+     * <p>
+     * The local files are taken from an iterator that returns them in the same order in which
+     * S3 lists objects, so each batch of listed objects is compared with the local files up to 
+     * the batch's last key without the local files being sorted or searched again. In batch
+     * mode only the local files for the current batch are held in memory, unless local files
+     * will be moved to S3.
+     * 
+     * @param localFiles    an iterator over the local files, with '/'-delimited file paths as keys 
+     * @param bucket        the bucket to put the objects in (will be created if necessary)
+     * @param rootObjectPath    the root path where objects are put (will be created if necessary)
+     * @param aclString     the ACL to apply to the uploaded object
+     * @param progressWatcher a class that reports on the progress of this method
+     * 
+     * @throws Exception
+     */
+    public void uploadLocalDirectoryToS3(SortedFileIterator localFiles, final S3Bucket bucket, 
+        final String rootObjectPath, final String aclString,
+        final BytesProgressWatcher progressWatcher) throws Exception 
+    {        
+        final FileComparerResults mergedDiscrepancyResults = new FileComparerResults();
+        
+        // Local files that will be deleted once they have been moved to S3.
+        final Map filesMovedMap = new HashMap();
 
         EncryptionUtil encryptionUtil = null;
         if (isEncryptionEnabled) {
@@ -286,118 +389,67 @@ public class Synchronize {
                 .getStringProperty("crypto.algorithm", "PBEWithMD5AndDES");
             encryptionUtil = new EncryptionUtil(cryptoPassword, algorithm, EncryptionUtil.DEFAULT_VERSION);
         }
+        getCannedAcl(aclString);
         
-        // Repeat upload actions until all objects in bucket have been listed.
-        do {
-            // List objects in S3. Listing may be complete, or partial.
-            printProgressLine("Listing objects in S3" 
-                + (isBatchMode ? " (Batch mode. Objects listed so far: " 
-                    + totalObjectsListed + ")" : ""));        
-            
-            PartialObjectListing partialListing = fileComparer.buildS3ObjectMapPartial(
-                s3Service, bucket, rootObjectPath, priorLastKey, !isBatchMode,
-                isSkipMetadata, serviceEventAdaptor);            
-            if (serviceEventAdaptor.wasErrorThrown()) {
-                throw new Exception("Unable to build map of S3 Objects", 
-                    serviceEventAdaptor.getErrorThrown());
-            }
-
-            // Retrieve details from listing.
-            priorLastKey = partialListing.getPriorLastKey();
-            Map s3ObjectsMap = partialListing.getObjectsMap();
-            totalObjectsListed += partialListing.getObjectsMap().size();
-            
-            ArrayList sortedS3ObjectKeys = new ArrayList(s3ObjectsMap.keySet());
-            Collections.sort(sortedS3ObjectKeys);
-    
-            // Compare the listed objects with the local sytem.
-            printProgressLine("Comparing S3 contents with local system");        
-            FileComparerResults discrepancyResults = fileComparer.buildDiscrepancyLists(
-                filesMap, s3ObjectsMap, progressWatcher);
-
-            // Merge S3 objects and discrepancies to track overall changes.
-            mergedDiscrepancyResults.merge(discrepancyResults);
-                       
-            // Sort upload file candidates by path.
-            ArrayList sortedFilesKeys = new ArrayList(filesMap.keySet());
-            Collections.sort(sortedFilesKeys);
-            
-            Set objectsToUpload = new HashSet();
+        if (!doAction) {
+            compareForUpload(localFiles, bucket, rootObjectPath, mergedDiscrepancyResults,
+                filesMovedMap, progressWatcher, null);
+        } else {
+            // Compare, transform and upload files in a pipeline, so files are hashed and 
+            // prepared while earlier files are uploaded. 
+            int queueSize = properties.getIntProperty("synchronize.pipeline-queue-size", 16);
+            final WorkQueue filesToTransform = new WorkQueue(queueSize);
+            final WorkQueue objectsToUpload = new WorkQueue(queueSize);
+            final SortedFileIterator localFilesToCompare = localFiles;
+            final EncryptionUtil transformEncryptionUtil = encryptionUtil;
             
-            // Iterate through local files and perform the necessary action to synchronise them with S3.
-            Iterator fileKeyIter = sortedFilesKeys.iterator();
-            while (fileKeyIter.hasNext()) {
-                String relativeKeyPath = (String) fileKeyIter.next();
-                
-                if (isBatchMode) {
-                    if (priorLastKey != null && relativeKeyPath.compareTo(priorLastKey) > 0) {
-                        // We do not yet have the S3 object listing to compare this file.
-                        continue;
-                    }
-                    
-                    if (relativeKeyPath.compareTo(lastFileKeypathChecked) <= 0) {
-                        // We have already handled this file in a prior batch.
-                        continue;
-                    } else {
-                        lastFileKeypathChecked = relativeKeyPath;
-                    }
+            PipelineStage compareStage = new PipelineStage(
+                "jets3t-synchronize-compare", null, filesToTransform) 
+            {
+                protected void runStage() throws Exception {
+                    compareForUpload(localFilesToCompare, bucket, rootObjectPath, 
+                        mergedDiscrepancyResults, filesMovedMap, progressWatcher, filesToTransform);
                 }
-                
-                File file = (File) filesMap.get(relativeKeyPath);
-                
-                String targetKey = relativeKeyPath;
-                if (rootObjectPath.length() > 0) {
-                    if (rootObjectPath.endsWith(Constants.FILE_PATH_DELIM)) {
-                        targetKey = rootObjectPath + targetKey;                         
-                    } else {
-                        targetKey = rootObjectPath + Constants.FILE_PATH_DELIM + targetKey;                         
-                    }
-                }
-    
-                if (discrepancyResults.onlyOnClientKeys.contains(relativeKeyPath)) {
-                    printOutputLine("N " + relativeKeyPath, REPORT_LEVEL_ACTIONS);
-                    objectsToUpload.add(prepareUploadObject(targetKey, file, aclString, encryptionUtil));
-                } else if (discrepancyResults.updatedOnClientKeys.contains(relativeKeyPath)) {
-                    printOutputLine("U " + relativeKeyPath, REPORT_LEVEL_ACTIONS);
-                    objectsToUpload.add(prepareUploadObject(targetKey, file, aclString, encryptionUtil));
-                } else if (discrepancyResults.alreadySynchronisedKeys.contains(relativeKeyPath)) {
-                    if (isForce) {
-                        printOutputLine("F " + relativeKeyPath, REPORT_LEVEL_ACTIONS);
-                        objectsToUpload.add(prepareUploadObject(targetKey, file, aclString, encryptionUtil));
-                    } else {
-                        printOutputLine("- " + relativeKeyPath, REPORT_LEVEL_ALL);
-                    }
-                } else if (discrepancyResults.updatedOnServerKeys.contains(relativeKeyPath)) {
-                    // This file has been updated on the server-side.
-                    if (isKeepFiles) {
-                        printOutputLine("r " + relativeKeyPath, REPORT_LEVEL_DIFFERENCES);                    
-                    } else {
-                        printOutputLine("R " + relativeKeyPath, REPORT_LEVEL_ACTIONS);
-                        objectsToUpload.add(prepareUploadObject(targetKey, file, aclString, encryptionUtil));
+            };
+            PipelineStage transformStage = new PipelineStage(
+                "jets3t-synchronize-transform", filesToTransform, objectsToUpload) 
+            {
+                protected void runStage() throws Exception {
+                    while (filesToTransform.hasNext()) {
+                        Object[] targetKeyAndFile = (Object[]) filesToTransform.next();
+                        S3Object newObject = prepareUploadObject((String) targetKeyAndFile[0], 
+                            (File) targetKeyAndFile[1], aclString, transformEncryptionUtil);
+                        if (!objectsToUpload.put(newObject)) {
+                            return;
+                        }
                     }
-                } else {
-                    // Uh oh, program error here. The safest thing to do is abort!
-                    throw new SynchronizeException("Invalid discrepancy comparison details for file " 
-                        + file.getPath() 
-                        + ". Sorry, this is a program error - aborting to keep your data safe");
                 }
+            };
+            compareStage.start();
+            transformStage.start();
+            
+            try {
+                (new S3ServiceMulti(s3Service, serviceEventAdaptor)).putObjects(bucket, objectsToUpload);
+            } finally {
+                // Release the earlier stages if the uploads stopped early.
+                filesToTransform.abort();
+                objectsToUpload.abort();
+                compareStage.join();
+                transformStage.join();
             }
-                    
-            // Upload New/Updated/Forced/Replaced objects to S3.
-            if (doAction && objectsToUpload.size() > 0) {
-                S3Object[] objects = (S3Object[]) objectsToUpload.toArray(new S3Object[objectsToUpload.size()]);
-                (new S3ServiceMulti(s3Service, serviceEventAdaptor)).putObjects(bucket, objects);
-                if (serviceEventAdaptor.wasErrorThrown()) {
-                    Throwable thrown = serviceEventAdaptor.getErrorThrown();
-                    if (thrown instanceof Exception) {
-                        throw (Exception) thrown;
-                    } else {
-                        throw new Exception(thrown);
-                    }
+            if (serviceEventAdaptor.wasErrorThrown()) {
+                Throwable thrown = serviceEventAdaptor.getErrorThrown();
+                if (thrown instanceof Exception) {
+                    throw (Exception) thrown;
+                } else {
+                    throw new Exception(thrown);
                 }
             }
-        } while (priorLastKey != null);
+            compareStage.throwError();
+            transformStage.throwError();
+        }
         
+
         // Delete objects on S3 that don't correspond with local files.
         List objectsToDelete = new ArrayList();
         Iterator serverOnlyIter = mergedDiscrepancyResults.onlyOnServerKeys.iterator();
@@ -450,7 +502,7 @@ public class Synchronize {
             Iterator filesMovedIter = filesMoved.iterator();
             while (filesMovedIter.hasNext()) {
                 String keyPath = (String) filesMovedIter.next();
-                File file = (File) filesMap.get(keyPath);
+                File file = (File) filesMovedMap.get(keyPath);
                 
                 printOutputLine("M " + keyPath, REPORT_LEVEL_ACTIONS);
                 if (doAction) {
@@ -496,37 +548,189 @@ public class Synchronize {
     }
         
     /**
-     * Copies the contents of a root path in S3 to the local file system.
-     * <p>
-     * A set of comparisons is used to determine exactly how the S3 objects/files differ from the
-     * local target, and files are transferred based on these comparisons and options set by the user.
-     * <p>
-     * If an object is gzipped (according to its Content-Type) and the gzip option is set, the object
-     * is inflated. If an object is encrypted (according to the metadata item 
-     * {@link Constants#METADATA_JETS3T_CRYPTO_ALGORITHM}) and the crypt option is set, the object 
-     * is decrypted. If encrypted and/or gzipped objects are restored without the corresponding option 
-     * being set, the user will be responsible for inflating or decrypting the data.
-     * <p>
-     * <b>Note</b>: If a file was backed-up with both encryption and gzip options it cannot be 
-     * restored with only the gzip option set, as files are gzipped prior to being encrypted and cannot
-     * be inflated without first being decrypted.
+     * Lists the objects in S3 and compares them with the local files, reporting the action 
+     * to take for each file and passing the files to upload to the next pipeline stage.
      * 
-     * @param filesMap      a map of the local <code>File</code>s with '/'-delimited file paths as keys 
-     * @param rootObjectPath    the root path in S3 where backed-up objects were stored
-     * @param localDirectory the directory to which the S3 objects will be restored
-     * @param bucket        the bucket into which files were backed up
-     * @param progressWatcher a class that reports on the progress of this method
-     * 
-     * @throws Exception
+     * @param filesToTransform
+     * the queue to which the target key and file of each file to upload are added, as an 
+     * Object array, or null if no files will be uploaded.
      */
-    public void restoreFromS3ToLocalDirectory(Map filesMap, String rootObjectPath, 
-        File localDirectory, S3Bucket bucket,
-        BytesProgressWatcher progressWatcher) throws Exception 
+    private void compareForUpload(SortedFileIterator localFiles, S3Bucket bucket, 
+        String rootObjectPath, FileComparerResults mergedDiscrepancyResults, Map filesMovedMap,
+        BytesProgressWatcher progressWatcher, WorkQueue filesToTransform) throws Exception 
     {
-        FileComparerResults mergedDiscrepancyResults = new FileComparerResults();
         String priorLastKey = null;
         long totalObjectsListed = 0;
+        
+        // Repeat upload actions until all objects in bucket have been listed.
+        do {
+            // List objects in S3. Listing may be complete, or partial.
+            printProgressLine("Listing objects in S3" 
+                + (isBatchMode ? " (Batch mode. Objects listed so far: " 
+                    + totalObjectsListed + ")" : ""));        
+            
+            // The transfers share serviceEventAdaptor, so the listing gets its own adaptor.
+            S3ServiceEventAdaptor listingEventAdaptor = new SynchronizeEventAdaptor();
+            PartialObjectListing partialListing = fileComparer.buildS3ObjectMapPartial(
+                s3Service, bucket, rootObjectPath, priorLastKey, !isBatchMode,
+                isSkipMetadata, listingEventAdaptor);
+            if (listingEventAdaptor.wasErrorThrown()) {
+                throw new Exception("Unable to build map of S3 Objects", 
+                    listingEventAdaptor.getErrorThrown());
+            }
+
+            // Retrieve details from listing.
+            priorLastKey = partialListing.getPriorLastKey();
+            Map s3ObjectsMap = partialListing.getObjectsMap();
+            totalObjectsListed += partialListing.getObjectsMap().size();
+            
+            // Take the local files up to the last listed key, which are all the files that
+            // can correspond to the listed objects. Later files are left for later batches.
+            Map filesMap = new HashMap();
+            List sortedFilesKeys = takeFilesForListing(localFiles, s3ObjectsMap, 
+                priorLastKey == null, filesMap);
+            if (isMoveEnabled) {
+                filesMovedMap.putAll(filesMap);
+            }
+    
+            // Compare the listed objects with the local sytem in groups of keys, so the 
+            // first files can be uploaded before the whole batch has been hashed.
+            printProgressLine("Comparing S3 contents with local system");        
+            List sortedS3ObjectKeys = new ArrayList(s3ObjectsMap.keySet());
+            Collections.sort(sortedS3ObjectKeys, S3KeyComparator.INSTANCE);
+            int fileIndex = 0;
+            int s3KeyIndex = 0;
+            do {
+                int groupStart = fileIndex;
+                Map groupFilesMap = new HashMap();
+                Map groupObjectsMap = new HashMap();
+                int groupEnd = Math.min(fileIndex + COMPARE_GROUP_SIZE, sortedFilesKeys.size());
+                fileIndex = takeCompareGroup(sortedFilesKeys, fileIndex, groupEnd, filesMap,
+                    sortedS3ObjectKeys, s3KeyIndex, s3ObjectsMap, groupFilesMap, groupObjectsMap);
+                s3KeyIndex += groupObjectsMap.size();
+                
+                FileComparerResults discrepancyResults = fileComparer.buildDiscrepancyLists(
+                    groupFilesMap, groupObjectsMap, progressWatcher);
+                
+                // Track overall changes. Groups cover separate ranges of keys.
+                mergedDiscrepancyResults.mergeDisjoint(discrepancyResults);
+                
+                if (!compareGroupForUpload(sortedFilesKeys.subList(groupStart, fileIndex), 
+                    groupFilesMap, rootObjectPath, discrepancyResults, filesToTransform)) 
+                {
+                    return;
+                }
+            } while (fileIndex < sortedFilesKeys.size());
+        } while (priorLastKey != null);
+    }
+    
+    /**
+     * Reports the action to take for each local file in a group of compared files, and 
+     * passes the files to upload to the next pipeline stage.
+     * 
+     * @return
+     * false if the next pipeline stage has stopped accepting files.
+     */
+    private boolean compareGroupForUpload(List sortedFilesKeys, Map filesMap, 
+        String rootObjectPath, FileComparerResults discrepancyResults, WorkQueue filesToTransform)
+        throws Exception
+    {
+        // Iterate through local files and perform the necessary action to synchronise them with S3.
+        Iterator fileKeyIter = sortedFilesKeys.iterator();
+        while (fileKeyIter.hasNext()) {
+            String relativeKeyPath = (String) fileKeyIter.next();
+            
+            File file = (File) filesMap.get(relativeKeyPath);
+            
+            String targetKey = relativeKeyPath;
+            if (rootObjectPath.length() > 0) {
+                if (rootObjectPath.endsWith(Constants.FILE_PATH_DELIM)) {
+                    targetKey = rootObjectPath + targetKey;                         
+                } else {
+                    targetKey = rootObjectPath + Constants.FILE_PATH_DELIM + targetKey;                         
+                }
+            }
 
+            boolean upload = false;
+            if (discrepancyResults.onlyOnClientKeys.contains(relativeKeyPath)) {
+                printOutputLine("N " + relativeKeyPath, REPORT_LEVEL_ACTIONS);
+                upload = true;
+            } else if (discrepancyResults.updatedOnClientKeys.contains(relativeKeyPath)) {
+                printOutputLine("U " + relativeKeyPath, REPORT_LEVEL_ACTIONS);
+                upload = true;
+            } else if (discrepancyResults.alreadySynchronisedKeys.contains(relativeKeyPath)) {
+                if (isForce) {
+                    printOutputLine("F " + relativeKeyPath, REPORT_LEVEL_ACTIONS);
+                    upload = true;
+                } else {
+                    printOutputLine("- " + relativeKeyPath, REPORT_LEVEL_ALL);
+                }
+            } else if (discrepancyResults.updatedOnServerKeys.contains(relativeKeyPath)) {
+                // This file has been updated on the server-side.
+                if (isKeepFiles) {
+                    printOutputLine("r " + relativeKeyPath, REPORT_LEVEL_DIFFERENCES);                    
+                } else {
+                    printOutputLine("R " + relativeKeyPath, REPORT_LEVEL_ACTIONS);
+                    upload = true;
+                }
+            } else {
+                // Uh oh, program error here. The safest thing to do is abort!
+                throw new SynchronizeException("Invalid discrepancy comparison details for file " 
+                    + file.getPath() 
+                    + ". Sorry, this is a program error - aborting to keep your data safe");
+            }
+            
+            if (upload && filesToTransform != null 
+                && !filesToTransform.put(new Object[] {targetKey, file})) 
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Takes the next group of local files from a batch, along with the listed objects whose 
+     * keys sort up to the group's last file. The last group takes all the remaining objects.
+     * 
+     * @return
+     * the index of the first file after the group.
+     */
+    private int takeCompareGroup(List sortedFilesKeys, int fileIndex, int groupEnd, Map filesMap,
+        List sortedS3ObjectKeys, int s3KeyIndex, Map s3ObjectsMap, 
+        Map groupFilesMap, Map groupObjectsMap)
+    {
+        for (int i = fileIndex; i < groupEnd; i++) {
+            Object key = sortedFilesKeys.get(i);
+            groupFilesMap.put(key, filesMap.get(key));
+        }
+        boolean isLastGroup = (groupEnd >= sortedFilesKeys.size());
+        Object lastFileKey = (groupEnd > 0 ? sortedFilesKeys.get(groupEnd - 1) : null);
+        for (int i = s3KeyIndex; i < sortedS3ObjectKeys.size(); i++) {
+            Object key = sortedS3ObjectKeys.get(i);
+            if (!isLastGroup && S3KeyComparator.INSTANCE.compare(key, lastFileKey) > 0) {
+                break;
+            }
+            groupObjectsMap.put(key, s3ObjectsMap.get(key));
+        }
+        return groupEnd;
+    }
+    
+    /**
+     * Lists the objects in S3 and compares them with the local files, reporting the action 
+     * to take for each object and passing the objects to download to the next pipeline stage.
+     * 
+     * @param objectsToDownload
+     * the queue to which a {@link DownloadPackage} is added for each object to download, 
+     * or null if no objects will be downloaded.
+     */
+    private void compareForDownload(SortedFileIterator localFiles, String rootObjectPath, 
+        File localDirectory, S3Bucket bucket, FileComparerResults mergedDiscrepancyResults, 
+        BytesProgressWatcher progressWatcher, WorkQueue objectsToDownload) throws Exception
+    {
+        String priorLastKey = null;
+        long totalObjectsListed = 0;
+        
         // Repeat download actions until all objects in bucket have been listed.
         do {
             // List objects in S3. Listing may be complete, or partial.
@@ -534,12 +738,14 @@ public class Synchronize {
                 + (isBatchMode ? " (Batch mode. Already listed: " 
                     + totalObjectsListed + ")" : ""));        
             
+            // The transfers share serviceEventAdaptor, so the listing gets its own adaptor.
+            S3ServiceEventAdaptor listingEventAdaptor = new SynchronizeEventAdaptor();
             PartialObjectListing partialListing = fileComparer.buildS3ObjectMapPartial(
                 s3Service, bucket, rootObjectPath, priorLastKey, !isBatchMode,
-                isSkipMetadata, serviceEventAdaptor);        
-            if (serviceEventAdaptor.wasErrorThrown()) {
+                isSkipMetadata, listingEventAdaptor);
+            if (listingEventAdaptor.wasErrorThrown()) {
                 throw new Exception("Unable to build map of S3 Objects", 
-                    serviceEventAdaptor.getErrorThrown());
+                    listingEventAdaptor.getErrorThrown());
             }
             
             // Retrieve details from listing.
@@ -547,100 +753,224 @@ public class Synchronize {
             Map s3ObjectsMap = partialListing.getObjectsMap();
             totalObjectsListed += partialListing.getObjectsMap().size();
             
-            ArrayList sortedS3ObjectKeys = new ArrayList(s3ObjectsMap.keySet());
-            Collections.sort(sortedS3ObjectKeys);
+            // Take the local files that can correspond to the listed objects.
+            Map batchFilesMap = new HashMap();
+            List sortedFilesKeys = takeFilesForListing(localFiles, s3ObjectsMap, 
+                priorLastKey == null, batchFilesMap);
     
-            // Compare the listed objects with the local sytem.
+            // Compare the listed objects with the local sytem in groups of keys, so the 
+            // first objects can be downloaded before the whole batch has been hashed.
             printProgressLine("Comparing S3 contents with local system");        
-            FileComparerResults discrepancyResults = fileComparer.buildDiscrepancyLists(
-                filesMap, s3ObjectsMap, progressWatcher);
-            
-            // Merge S3 objects and discrepancies to track overall changes.
-            mergedDiscrepancyResults.merge(discrepancyResults);
-        
-            // Download objects to local files/directories.
-            List downloadPackagesList = new ArrayList();            
-            Iterator s3KeyIter = sortedS3ObjectKeys.iterator();
-            while (s3KeyIter.hasNext()) {
-                String keyPath = (String) s3KeyIter.next();
-                S3Object s3Object = (S3Object) s3ObjectsMap.get(keyPath);
-
-                // If object metadata is not available, skip zero-byte objects as
-                // we cannot tell whether they are directory placeholders or normal
-                // files.
-                if (!s3Object.isMetadataComplete() && s3Object.getContentLength() == 0) {
-                    continue;
-                }
+            List sortedS3ObjectKeys = new ArrayList(s3ObjectsMap.keySet());
+            Collections.sort(sortedS3ObjectKeys, S3KeyComparator.INSTANCE);
+            int fileIndex = 0;
+            int s3KeyIndex = 0;
+            do {
+                int groupStart = s3KeyIndex;
+                Map groupFilesMap = new HashMap();
+                Map groupObjectsMap = new HashMap();
+                int groupEnd = Math.min(fileIndex + COMPARE_GROUP_SIZE, sortedFilesKeys.size());
+                fileIndex = takeCompareGroup(sortedFilesKeys, fileIndex, groupEnd, batchFilesMap,
+                    sortedS3ObjectKeys, s3KeyIndex, s3ObjectsMap, groupFilesMap, groupObjectsMap);
+                s3KeyIndex += groupObjectsMap.size();
                 
-                File fileTarget = new File(localDirectory, keyPath);
+                FileComparerResults discrepancyResults = fileComparer.buildDiscrepancyLists(
+                    groupFilesMap, groupObjectsMap, progressWatcher);
                 
-                // Create local directories corresponding to objects flagged as dirs.
-                if (Mimetypes.MIMETYPE_JETS3T_DIRECTORY.equals(s3Object.getContentType())) {
-                    if (doAction) {
-                        fileTarget.mkdirs();                    
-                    }
-                }           
-                                
-                if (discrepancyResults.onlyOnServerKeys.contains(keyPath)) {
-                    printOutputLine("N " + keyPath, REPORT_LEVEL_ACTIONS);
-                    DownloadPackage downloadPackage = ObjectUtils.createPackageForDownload(
-                        s3Object, fileTarget, isGzipEnabled, isEncryptionEnabled, cryptoPassword);
-                    if (downloadPackage != null) {
-                        downloadPackagesList.add(downloadPackage);
-                    }
-                } else if (discrepancyResults.updatedOnServerKeys.contains(keyPath)) {
-                    printOutputLine("U " + keyPath, REPORT_LEVEL_ACTIONS);
-                    DownloadPackage downloadPackage = ObjectUtils.createPackageForDownload(
-                        s3Object, fileTarget, isGzipEnabled, isEncryptionEnabled, cryptoPassword);
-                    if (downloadPackage != null) {
-                        downloadPackagesList.add(downloadPackage);
-                    }
-                } else if (discrepancyResults.alreadySynchronisedKeys.contains(keyPath)) {
-                    if (isForce) {
-                        printOutputLine("F " + keyPath, REPORT_LEVEL_ACTIONS);
-                        DownloadPackage downloadPackage = ObjectUtils.createPackageForDownload(
-                            s3Object, fileTarget, isGzipEnabled, isEncryptionEnabled, cryptoPassword);
-                        if (downloadPackage != null) {
-                            downloadPackagesList.add(downloadPackage);
-                        }
-                    } else {
-                        printOutputLine("- " + keyPath, REPORT_LEVEL_ALL);
-                    }
-                } else if (discrepancyResults.updatedOnClientKeys.contains(keyPath)) {
-                    // This file has been updated on the client-side.
-                    if (isKeepFiles) {
-                        printOutputLine("r " + keyPath, REPORT_LEVEL_DIFFERENCES);                    
-                    } else {
-                        printOutputLine("R " + keyPath, REPORT_LEVEL_ACTIONS);
-                        DownloadPackage downloadPackage = ObjectUtils.createPackageForDownload(
-                            s3Object, fileTarget, isGzipEnabled, isEncryptionEnabled, cryptoPassword);
-                        if (downloadPackage != null) {
-                            downloadPackagesList.add(downloadPackage);
-                        }
-                    }
+                // Track overall changes. Groups cover separate ranges of keys.
+                mergedDiscrepancyResults.mergeDisjoint(discrepancyResults);
+                
+                if (!compareGroupForDownload(sortedS3ObjectKeys.subList(groupStart, s3KeyIndex), 
+                    groupObjectsMap, localDirectory, discrepancyResults, objectsToDownload)) 
+                {
+                    return;
+                }
+            } while (fileIndex < sortedFilesKeys.size());
+        } while (priorLastKey != null);
+    }
+    
+    /**
+     * Reports the action to take for each object in a group of compared objects, and passes 
+     * the objects to download to the next pipeline stage.
+     * 
+     * @return
+     * false if the next pipeline stage has stopped accepting objects.
+     */
+    private boolean compareGroupForDownload(List sortedS3ObjectKeys, Map s3ObjectsMap, 
+        File localDirectory, FileComparerResults discrepancyResults, WorkQueue objectsToDownload)
+        throws Exception
+    {
+        Iterator s3KeyIter = sortedS3ObjectKeys.iterator();
+        while (s3KeyIter.hasNext()) {
+            String keyPath = (String) s3KeyIter.next();
+            S3Object s3Object = (S3Object) s3ObjectsMap.get(keyPath);
+
+            // If object metadata is not available, skip zero-byte objects as
+            // we cannot tell whether they are directory placeholders or normal
+            // files.
+            if (!s3Object.isMetadataComplete() && s3Object.getContentLength() == 0) {
+                continue;
+            }
+            
+            File fileTarget = new File(localDirectory, keyPath);
+            
+            // Create local directories corresponding to objects flagged as dirs.
+            if (Mimetypes.MIMETYPE_JETS3T_DIRECTORY.equals(s3Object.getContentType())) {
+                if (doAction) {
+                    fileTarget.mkdirs();                    
+                }
+            }           
+            
+            boolean download = false;
+            if (discrepancyResults.onlyOnServerKeys.contains(keyPath)) {
+                printOutputLine("N " + keyPath, REPORT_LEVEL_ACTIONS);
+                download = true;
+            } else if (discrepancyResults.updatedOnServerKeys.contains(keyPath)) {
+                printOutputLine("U " + keyPath, REPORT_LEVEL_ACTIONS);
+                download = true;
+            } else if (discrepancyResults.alreadySynchronisedKeys.contains(keyPath)) {
+                if (isForce) {
+                    printOutputLine("F " + keyPath, REPORT_LEVEL_ACTIONS);
+                    download = true;
+                } else {
+                    printOutputLine("- " + keyPath, REPORT_LEVEL_ALL);
+                }
+            } else if (discrepancyResults.updatedOnClientKeys.contains(keyPath)) {
+                // This file has been updated on the client-side.
+                if (isKeepFiles) {
+                    printOutputLine("r " + keyPath, REPORT_LEVEL_DIFFERENCES);                    
                 } else {
-                    // Uh oh, program error here. The safest thing to do is abort!
-                    throw new SynchronizeException("Invalid discrepancy comparison details for S3 object " 
-                        + keyPath
-                        + ". Sorry, this is a program error - aborting to keep your data safe");
+                    printOutputLine("R " + keyPath, REPORT_LEVEL_ACTIONS);
+                    download = true;
                 }
+            } else {
+                // Uh oh, program error here. The safest thing to do is abort!
+                throw new SynchronizeException("Invalid discrepancy comparison details for S3 object " 
+                    + keyPath
+                    + ". Sorry, this is a program error - aborting to keep your data safe");
             }
             
-            // Download New/Updated/Forced/Replaced objects from S3.
-            if (doAction && downloadPackagesList.size() > 0) {
-                DownloadPackage[] downloadPackages = (DownloadPackage[]) 
-                    downloadPackagesList.toArray(new DownloadPackage[downloadPackagesList.size()]);
-                (new S3ServiceMulti(s3Service, serviceEventAdaptor)).downloadObjects(bucket, downloadPackages);
-                if (serviceEventAdaptor.wasErrorThrown()) {
-                    Throwable thrown = serviceEventAdaptor.getErrorThrown();
-                    if (thrown instanceof Exception) {
-                        throw (Exception) thrown;
-                    } else {
-                        throw new Exception(thrown);
-                    }
+            if (download && objectsToDownload != null) {
+                DownloadPackage downloadPackage = ObjectUtils.createPackageForDownload(
+                    s3Object, fileTarget, isGzipEnabled, isEncryptionEnabled, cryptoPassword);
+                if (downloadPackage != null && !objectsToDownload.put(downloadPackage)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Takes the local files that correspond to a batch of listed objects from an iterator.
+     * 
+     * @param localFiles
+     * an iterator over the local files in the order in which S3 lists objects.
+     * @param s3ObjectsMap
+     * the listed objects, mapped by relative key.
+     * @param listingComplete
+     * true if this is the last batch of the listing, in which case all the remaining local
+     * files are taken.
+     * @param filesMap
+     * a map to which the keys and files taken are added.
+     * @return
+     * the keys of the files taken, in order.
+     */
+    private List takeFilesForListing(SortedFileIterator localFiles, Map s3ObjectsMap, 
+        boolean listingComplete, Map filesMap) 
+    {
+        String lastListedKey = null;
+        Iterator keyIter = s3ObjectsMap.keySet().iterator();
+        while (keyIter.hasNext()) {
+            String key = (String) keyIter.next();
+            if (lastListedKey == null || S3KeyComparator.INSTANCE.compare(key, lastListedKey) > 0) {
+                lastListedKey = key;
+            }
+        }
+        
+        List sortedFilesKeys = new ArrayList();
+        while (localFiles.hasNext() 
+            && (listingComplete || (lastListedKey != null 
+                && S3KeyComparator.INSTANCE.compare(localFiles.peekKey(), lastListedKey) <= 0)))
+        {
+            String key = localFiles.nextKey();
+            sortedFilesKeys.add(key);
+            filesMap.put(key, localFiles.getFile());
+        }
+        return sortedFilesKeys;
+    }
+        
+    /**
+     * Copies the contents of a root path in S3 to the local file system.
+     * <p>
+     * A set of comparisons is used to determine exactly how the S3 objects/files differ from the
+     * local target, and files are transferred based on these comparisons and options set by the user.
+     * <p>
+     * If an object is gzipped (according to its Content-Type) and the gzip option is set, the object
+     * is inflated. If an object is encrypted (according to the metadata item 
+     * {@link Constants#METADATA_JETS3T_CRYPTO_ALGORITHM}) and the crypt option is set, the object 
+     * is decrypted. If encrypted and/or gzipped objects are restored without the corresponding option 
+     * being set, the user will be responsible for inflating or decrypting the data.
+     * <p>
+     * <b>Note</b>: If a file was backed-up with both encryption and gzip options it cannot be 
+     * restored with only the gzip option set, as files are gzipped prior to being encrypted and cannot
+     * be inflated without first being decrypted.
+     * 
+     * @param filesMap      a map of the local <code>File</code>s with '/'-delimited file paths as keys 
+     * @param rootObjectPath    the root path in S3 where backed-up objects were stored
+     * @param localDirectory the directory to which the S3 objects will be restored
+     * @param bucket        the bucket into which files were backed up
+     * @param progressWatcher a class that reports on the progress of this method
+     * 
+     * @throws Exception
+     */
+    public void restoreFromS3ToLocalDirectory(Map filesMap, final String rootObjectPath, 
+        final File localDirectory, final S3Bucket bucket,
+        final BytesProgressWatcher progressWatcher) throws Exception 
+    {
+        final FileComparerResults mergedDiscrepancyResults = new FileComparerResults();
+        
+        // Compare each batch of listed objects with only the local files up to its last key.
+        final SortedFileIterator localFiles = fileComparer.iterateFilesInKeyOrder(filesMap);
+
+        if (!doAction) {
+            compareForDownload(localFiles, rootObjectPath, localDirectory, bucket, 
+                mergedDiscrepancyResults, progressWatcher, null);
+        } else {
+            // Compare and download objects in a pipeline, so local files are hashed while 
+            // earlier objects are downloaded. Downloaded objects are inflated and decrypted 
+            // as they are written, so downloads need no separate transform stage.
+            int queueSize = properties.getIntProperty("synchronize.pipeline-queue-size", 16);
+            final WorkQueue objectsToDownload = new WorkQueue(queueSize);
+            
+            PipelineStage compareStage = new PipelineStage(
+                "jets3t-synchronize-compare", null, objectsToDownload) 
+            {
+                protected void runStage() throws Exception {
+                    compareForDownload(localFiles, rootObjectPath, localDirectory, bucket, 
+                        mergedDiscrepancyResults, progressWatcher, objectsToDownload);
+                }
+            };
+            compareStage.start();
+            
+            try {
+                (new S3ServiceMulti(s3Service, serviceEventAdaptor)).downloadObjects(
+                    bucket, objectsToDownload);
+            } finally {
+                // Release the compare stage if the downloads stopped early.
+                objectsToDownload.abort();
+                compareStage.join();
+            }
+            if (serviceEventAdaptor.wasErrorThrown()) {
+                Throwable thrown = serviceEventAdaptor.getErrorThrown();
+                if (thrown instanceof Exception) {
+                    throw (Exception) thrown;
+                } else {
+                    throw new Exception(thrown);
                 }
             }
-        } while (priorLastKey != null);                        
+            compareStage.throwError();
+        }
 
         // Delete local files that don't correspond with S3 objects.
         ArrayList dirsToDelete = new ArrayList();
@@ -819,6 +1149,7 @@ public class Synchronize {
         // Compare contents of local directory with contents of S3 path and identify any disrepancies.
         printProgressLine("Listing files in local file system");
         Map filesMap = null;        
+        SortedFileIterator localFiles = null;
         if ("UP".equals(actionCommand)) {
             File[] files = (File[]) fileList.toArray(new File[fileList.size()]);
             for (int i = 0; i < files.length; i++) {
@@ -827,16 +1158,23 @@ public class Synchronize {
                 }
             }
             
-            filesMap = fileComparer.buildFileMap(files, storeEmptyDirectories);
+            if (isBatchMode) {
+                // Walk the local files as each batch of objects is listed, rather than up front.
+                localFiles = fileComparer.iterateFilesInKeyOrder(files, storeEmptyDirectories);
+            } else {
+                filesMap = fileComparer.buildFileMap(files, storeEmptyDirectories);
+            }
         } else if ("DOWN".equals(actionCommand)) {
             filesMap = fileComparer.buildFileMap((File) fileList.get(0), null, true);
         }
         
-        // Calculate total files size.
+        // Calculate total files size, which is not known in advance when files are walked lazily.
         final long filesSizeTotal[] = new long[] { 0 }; 
-        File[] files = (File[]) filesMap.values().toArray(new File[filesMap.size()]);
-        for (int i = 0; i < files.length; i++) {
-            filesSizeTotal[0] += files[i].length();
+        if (filesMap != null) {
+            File[] files = (File[]) filesMap.values().toArray(new File[filesMap.size()]);
+            for (int i = 0; i < files.length; i++) {
+                filesSizeTotal[0] += files[i].length();
+            }
         }
         
         // Monitor generation of MD5 hashes, and provide feedback via progress messages.
@@ -844,23 +1182,45 @@ public class Synchronize {
             public void updateBytesTransferred(long byteCount) {
                 super.updateBytesTransferred(byteCount);
                 
-                int percentage = (int)((double)getBytesTransferred() * 100 / getBytesToTransfer());
-                printProgressLine("Comparing files: " + percentage + "% of " +
-                    byteFormatter.formatByteSize(filesSizeTotal[0]));
+                if (getBytesToTransfer() > 0) {
+                    int percentage = (int)((double)getBytesTransferred() * 100 / getBytesToTransfer());
+                    printProgressLine("Comparing files: " + percentage + "% of " +
+                        byteFormatter.formatByteSize(filesSizeTotal[0]));
+                } else {
+                    printProgressLine("Comparing files: " 
+                        + byteFormatter.formatByteSize(getBytesTransferred()));
+                }
             }
         };
 
+        // Record the objects uploaded and deleted in the bucket's listing index, if any.
+        listingIndex = fileComparer.getListingIndex(bucket.getName());
+
         // Perform the requested action on the set of disrepancies.
-        if ("UP".equals(actionCommand)) {  
-            uploadLocalDirectoryToS3(filesMap, bucket, objectPath, 
-                aclString, progressWatcher);
-        } else if ("DOWN".equals(actionCommand)) {
-            restoreFromS3ToLocalDirectory(filesMap, objectPath, 
-                (File) fileList.get(0), bucket, progressWatcher);
+        try {
+            if ("UP".equals(actionCommand)) {  
+                if (localFiles == null) {
+                    localFiles = fileComparer.iterateFilesInKeyOrder(filesMap);
+                }
+                uploadLocalDirectoryToS3(localFiles, bucket, objectPath, 
+                    aclString, progressWatcher);
+            } else if ("DOWN".equals(actionCommand)) {
+                restoreFromS3ToLocalDirectory(filesMap, objectPath, 
+                    (File) fileList.get(0), bucket, progressWatcher);
+            }
+        } finally {
+            fileComparer.saveListingIndex(listingIndex);
+            fileComparer.saveMD5HashCache();
         }
     }
     
-    S3ServiceEventAdaptor serviceEventAdaptor = new S3ServiceEventAdaptor() {
+    /**
+     * Reports the progress of S3 operations, and records the created and deleted objects in the 
+     * listing index. Transfers and the listings of the compare stage run at the same time, so 
+     * each listing uses its own instance of this adaptor, and an error in one is never mistaken 
+     * for an error in the other.
+     */
+    private class SynchronizeEventAdaptor extends S3ServiceEventAdaptor {
         private void displayProgressStatus(String prefix, ThreadWatcher watcher) {
             String progressMessage = prefix + watcher.getCompletedThreads() + "/" + watcher.getThreadCount();                    
             
@@ -896,6 +1256,12 @@ public class Synchronize {
             super.s3ServiceEventPerformed(event);
             displayIgnoredErrors(event);
             if (ServiceEvent.EVENT_IN_PROGRESS == event.getEventCode()) {
+                if (listingIndex != null) {
+                    S3Object[] createdObjects = event.getCreatedObjects();
+                    for (int i = 0; i < createdObjects.length; i++) {
+                        listingIndex.recordUpload(createdObjects[i]);
+                    }
+                }
                 displayProgressStatus("Upload: ", event.getThreadWatcher());                    
             }
         }
@@ -920,10 +1286,18 @@ public class Synchronize {
             super.s3ServiceEventPerformed(event);
             displayIgnoredErrors(event);
             if (ServiceEvent.EVENT_IN_PROGRESS == event.getEventCode()) {                
+                if (listingIndex != null) {
+                    S3Object[] deletedObjects = event.getDeletedObjects();
+                    for (int i = 0; i < deletedObjects.length; i++) {
+                        listingIndex.remove(deletedObjects[i].getKey());
+                    }
+                }
                 displayProgressStatus("Deleting objects in S3: ", event.getThreadWatcher());
             }
         }
-    };
+    }
+    
+    S3ServiceEventAdaptor serviceEventAdaptor = new SynchronizeEventAdaptor();
 
     /**
      * Prints usage/help information and forces the application to exit with errorcode 1. 
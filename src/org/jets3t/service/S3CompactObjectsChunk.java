@@ -0,0 +1,371 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jets3t.service.model.S3Object;
+import org.jets3t.service.model.S3Owner;
+
+/**
+ * Stores a "chunk" of object listing results in a compact, column-oriented form, for listings
+ * of very many objects where only the details included in a bucket listing are needed.
+ * <p>
+ * Unlike an {@link S3ObjectsChunk}, no {@link S3Object} is created for each listed object.
+ * Instead the details of the objects are held in parallel arrays, and are retrieved by the
+ * object's index in the chunk, from 0 to {@link #getObjectCount()} - 1:
+ * <ul>
+ * <li>sizes and last modified times are stored as primitive longs, and {@link Date} objects
+ * are only created when {@link #getLastModifiedDate(int)} is called</li>
+ * <li>ETags are stored without their surrounding quote characters</li>
+ * <li>owners and storage classes are shared, so all the objects with the same owner refer to
+ * a single {@link S3Owner} object</li>
+ * </ul>
+ * A full S3Object can still be created for any object with {@link #getObject(int)}.
+ * <p>
+ * This class is not thread-safe. Chunks are built by
+ * {@link S3Service#listObjectsChunkedCompact(String, String, String, long, String, boolean)}.
+ *
+ * @author James Murty
+ */
+public class S3CompactObjectsChunk {
+    private static final int INITIAL_CAPACITY = 1000;
+
+    private String bucketName = null;
+    private String prefix = null;
+    private String delimiter = null;
+    private String priorLastKey = null;
+
+    private int objectCount = 0;
+    private String[] keys = null;
+    private long[] contentLengths = null;
+    private long[] lastModifiedTimes = null;
+    private String[] eTags = null;
+    private String[] storageClasses = null;
+    private S3Owner[] owners = null;
+
+    private List commonPrefixes = new ArrayList();
+
+    private final Map ownersById = new HashMap();
+    private final Map storageClassesByName = new HashMap();
+
+    /**
+     * @param bucketName
+     * the name of the bucket whose objects are listed.
+     * @param prefix
+     * the prefix applied to the listing, may be null.
+     * @param delimiter
+     * the delimiter applied to the listing, may be null.
+     */
+    public S3CompactObjectsChunk(String bucketName, String prefix, String delimiter) {
+        this.bucketName = bucketName;
+        this.prefix = prefix;
+        this.delimiter = delimiter;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Adds an object's listing details to the end of this chunk.
+     *
+     * @param key
+     * the object's key.
+     * @param contentLength
+     * the object's size in bytes.
+     * @param lastModifiedTime
+     * the object's last modified date, as a number of milliseconds since January 1, 1970,
+     * 00:00:00 GMT.
+     * @param eTag
+     * the object's ETag, with or without surrounding quote characters. May be null.
+     * @param storageClass
+     * the object's storage class, may be null.
+     * @param ownerId
+     * the canonical ID of the object's owner, may be null if no owner was listed.
+     * @param ownerDisplayName
+     * the display name of the object's owner, may be null.
+     */
+    public void addObject(String key, long contentLength, long lastModifiedTime, String eTag,
+        String storageClass, String ownerId, String ownerDisplayName)
+    {
+        if (objectCount == keys.length) {
+            allocate(Math.max(INITIAL_CAPACITY, keys.length * 2));
+        }
+        if (eTag != null && eTag.length() >= 2 && eTag.startsWith("\"") && eTag.endsWith("\"")) {
+            eTag = eTag.substring(1, eTag.length() - 1);
+        }
+        keys[objectCount] = key;
+        contentLengths[objectCount] = contentLength;
+        lastModifiedTimes[objectCount] = lastModifiedTime;
+        eTags[objectCount] = eTag;
+        storageClasses[objectCount] = internStorageClass(storageClass);
+        owners[objectCount] = internOwner(ownerId, ownerDisplayName);
+        objectCount++;
+    }
+
+    /**
+     * Adds all the objects and common prefixes of another chunk to the end of this chunk, and
+     * takes its prior last key.
+     *
+     * @param chunk
+     * the chunk to append.
+     */
+    public void append(S3CompactObjectsChunk chunk) {
+        for (int i = 0; i < chunk.objectCount; i++) {
+            S3Owner owner = chunk.owners[i];
+            addObject(chunk.keys[i], chunk.contentLengths[i], chunk.lastModifiedTimes[i],
+                chunk.eTags[i], chunk.storageClasses[i],
+                (owner == null ? null : owner.getId()),
+                (owner == null ? null : owner.getDisplayName()));
+        }
+        commonPrefixes.addAll(chunk.commonPrefixes);
+        priorLastKey = chunk.priorLastKey;
+    }
+
+    /**
+     * @param commonPrefix
+     * a common prefix to add to the end of this chunk.
+     */
+    public void addCommonPrefix(String commonPrefix) {
+        commonPrefixes.add(commonPrefix);
+    }
+
+    /**
+     * Releases the unused space at the end of this chunk's arrays, once no more objects will
+     * be added to it.
+     */
+    public void trimToSize() {
+        if (objectCount < keys.length) {
+            allocate(objectCount);
+        }
+    }
+
+    /**
+     * @return
+     * the number of objects in this chunk.
+     */
+    public int getObjectCount() {
+        return objectCount;
+    }
+
+    /**
+     * @return
+     * the key of the object at the given index.
+     */
+    public String getKey(int index) {
+        checkIndex(index);
+        return keys[index];
+    }
+
+    /**
+     * @return
+     * the size in bytes of the object at the given index.
+     */
+    public long getContentLength(int index) {
+        checkIndex(index);
+        return contentLengths[index];
+    }
+
+    /**
+     * @return
+     * the last modified date of the object at the given index, as a number of milliseconds
+     * since January 1, 1970, 00:00:00 GMT.
+     */
+    public long getLastModifiedTime(int index) {
+        checkIndex(index);
+        return lastModifiedTimes[index];
+    }
+
+    /**
+     * @return
+     * a new Date object for the last modified date of the object at the given index.
+     */
+    public Date getLastModifiedDate(int index) {
+        return new Date(getLastModifiedTime(index));
+    }
+
+    /**
+     * @return
+     * the ETag of the object at the given index, without surrounding quote characters, or
+     * null if no ETag was listed.
+     */
+    public String getETag(int index) {
+        checkIndex(index);
+        return eTags[index];
+    }
+
+    /**
+     * @return
+     * the storage class of the object at the given index, or null if none was listed.
+     */
+    public String getStorageClass(int index) {
+        checkIndex(index);
+        return storageClasses[index];
+    }
+
+    /**
+     * @return
+     * the owner of the object at the given index, or null if no owner was listed. Owner
+     * objects are shared by all the objects with the same owner, and must not be modified.
+     */
+    public S3Owner getOwner(int index) {
+        checkIndex(index);
+        return owners[index];
+    }
+
+    /**
+     * Creates an S3Object containing the listing details of the object at the given index,
+     * equivalent to the objects returned by
+     * {@link S3Service#listObjectsChunked(String, String, String, long, String)}.
+     *
+     * @return
+     * a new object.
+     */
+    public S3Object getObject(int index) {
+        checkIndex(index);
+        S3Object object = new S3Object(keys[index]);
+        object.setBucketName(bucketName);
+        object.setContentLength(contentLengths[index]);
+        object.setLastModifiedDate(new Date(lastModifiedTimes[index]));
+        if (eTags[index] != null) {
+            object.setETag(eTags[index]);
+        }
+        if (storageClasses[index] != null) {
+            object.setStorageClass(storageClasses[index]);
+        }
+        if (owners[index] != null) {
+            object.setOwner(new S3Owner(owners[index].getId(), owners[index].getDisplayName()));
+        }
+        return object;
+    }
+
+    /**
+     * @return
+     * the common prefixes in this chunk.
+     */
+    public String[] getCommonPrefixes() {
+        return (String[]) commonPrefixes.toArray(new String[commonPrefixes.size()]);
+    }
+
+    /**
+     * @return
+     * the name of the bucket whose objects are listed.
+     */
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    /**
+     * @return
+     * the prefix applied when this object chunk was generated. If no prefix was
+     * applied, this method will return null.
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return
+     * the delimiter applied when this object chunk was generated. If no
+     * delimiter was applied, this method will return null.
+     */
+    public String getDelimiter() {
+        return delimiter;
+    }
+
+    /**
+     * @return
+     * the key from which the listing should continue if this chunk is incomplete, null
+     * otherwise.
+     */
+    public String getPriorLastKey() {
+        return priorLastKey;
+    }
+
+    /**
+     * @param priorLastKey
+     * the key from which the listing should continue if this chunk is incomplete, null
+     * otherwise.
+     */
+    public void setPriorLastKey(String priorLastKey) {
+        this.priorLastKey = priorLastKey;
+    }
+
+    private S3Owner internOwner(String ownerId, String ownerDisplayName) {
+        if (ownerId == null && ownerDisplayName == null) {
+            return null;
+        }
+        String ownerKey = (ownerId == null ? "" : ownerId);
+        S3Owner owner = (S3Owner) ownersById.get(ownerKey);
+        if (owner == null || !isEqual(owner.getDisplayName(), ownerDisplayName)) {
+            owner = new S3Owner(ownerId, ownerDisplayName);
+            ownersById.put(ownerKey, owner);
+        }
+        return owner;
+    }
+
+    private boolean isEqual(String a, String b) {
+        return (a == null ? b == null : a.equals(b));
+    }
+
+    private String internStorageClass(String storageClass) {
+        if (storageClass == null) {
+            return null;
+        }
+        String shared = (String) storageClassesByName.get(storageClass);
+        if (shared == null) {
+            storageClassesByName.put(storageClass, storageClass);
+            shared = storageClass;
+        }
+        return shared;
+    }
+
+    private void allocate(int capacity) {
+        String[] newKeys = new String[capacity];
+        long[] newContentLengths = new long[capacity];
+        long[] newLastModifiedTimes = new long[capacity];
+        String[] newETags = new String[capacity];
+        String[] newStorageClasses = new String[capacity];
+        S3Owner[] newOwners = new S3Owner[capacity];
+        if (keys != null) {
+            System.arraycopy(keys, 0, newKeys, 0, objectCount);
+            System.arraycopy(contentLengths, 0, newContentLengths, 0, objectCount);
+            System.arraycopy(lastModifiedTimes, 0, newLastModifiedTimes, 0, objectCount);
+            System.arraycopy(eTags, 0, newETags, 0, objectCount);
+            System.arraycopy(storageClasses, 0, newStorageClasses, 0, objectCount);
+            System.arraycopy(owners, 0, newOwners, 0, objectCount);
+        }
+        keys = newKeys;
+        contentLengths = newContentLengths;
+        lastModifiedTimes = newLastModifiedTimes;
+        eTags = newETags;
+        storageClasses = newStorageClasses;
+        owners = newOwners;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= objectCount) {
+            throw new IndexOutOfBoundsException("Index " + index + " is outside the "
+                + objectCount + " objects in this chunk");
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service;
+
+import java.util.LinkedList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Iterates over the chunks of a bucket listing, fetching chunks ahead of the caller in a
+ * background thread so the caller's processing of one chunk overlaps the listing request
+ * for the next.
+ * <p>
+ * Each listing request depends on the last key of the previous chunk, so the requests are
+ * still made one after another. However the request for the next chunk is sent as soon as the
+ * previous chunk has been parsed, rather than after the caller has finished with it, and up
+ * to a given number of chunks are held ready for the caller. When the caller spends as long
+ * on each chunk as a listing request takes, the listing runs at the rate S3 can serve chunks
+ * instead of being held back by the sum of the request latency and the caller's processing.
+ * <p>
+ * The iterator must be closed with {@link #close()} if the caller stops before the end of the
+ * listing, so the background thread stops making requests. An iterator may only be used by
+ * one thread at a time.
+ * <p>
+ * Iterators are created by
+ * {@link S3Service#listObjectsChunkedIterator(String, String, String, long, String)}.
+ *
+ * @author James Murty
+ */
+public class S3ObjectsChunkIterator {
+    private static final Log log = LogFactory.getLog(S3ObjectsChunkIterator.class);
+
+    private final S3Service s3Service;
+    private final String bucketName;
+    private final String prefix;
+    private final String delimiter;
+    private final long maxListingLength;
+    private final int prefetchCount;
+
+    private final LinkedList readyChunks = new LinkedList();
+    private S3ServiceException failure = null;
+    private boolean listingComplete = false;
+    private boolean closed = false;
+    private Thread prefetchThread = null;
+
+    /**
+     * @param s3Service
+     * the service used to perform the listing requests.
+     * @param bucketName
+     * the name of the the bucket whose contents will be listed.
+     * @param prefix
+     * only objects with a key that starts with this prefix will be listed, may be null.
+     * @param delimiter
+     * only list objects with key names up to this delimiter, may be null.
+     * @param maxListingLength
+     * the maximum number of objects to include in each chunk.
+     * @param priorLastKey
+     * the key after which the listing will start, or null to start at the beginning of the
+     * bucket's contents.
+     * @param prefetchCount
+     * the maximum number of chunks that will be fetched ahead of the caller.
+     */
+    public S3ObjectsChunkIterator(S3Service s3Service, String bucketName, String prefix,
+        String delimiter, long maxListingLength, final String priorLastKey, int prefetchCount)
+    {
+        this.s3Service = s3Service;
+        this.bucketName = bucketName;
+        this.prefix = prefix;
+        this.delimiter = delimiter;
+        this.maxListingLength = maxListingLength;
+        this.prefetchCount = Math.max(1, prefetchCount);
+
+        prefetchThread = new Thread(new Runnable() {
+            public void run() {
+                fetchChunks(priorLastKey);
+            }
+        }, "jets3t-listing-" + bucketName);
+        prefetchThread.setDaemon(true);
+        prefetchThread.start();
+    }
+
+    /**
+     * @return
+     * true if there is another chunk in the listing. This method waits until the next chunk
+     * has been fetched, or the end of the listing is known.
+     * @throws S3ServiceException
+     * if a listing request failed. The failure is reported after all the chunks fetched
+     * before it have been returned.
+     */
+    public synchronized boolean hasNextChunk() throws S3ServiceException {
+        while (readyChunks.isEmpty() && !listingComplete && failure == null && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                close();
+                throw new S3ServiceException("Interrupted while waiting for listing of bucket "
+                    + bucketName, e);
+            }
+        }
+        if (!readyChunks.isEmpty()) {
+            return true;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return false;
+    }
+
+    /**
+     * @return
+     * the next chunk in the listing.
+     * @throws S3ServiceException
+     * if a listing request failed, or there are no more chunks.
+     */
+    public synchronized S3ObjectsChunk nextChunk() throws S3ServiceException {
+        if (!hasNextChunk()) {
+            throw new S3ServiceException("No more chunks in listing of bucket " + bucketName);
+        }
+        S3ObjectsChunk chunk = (S3ObjectsChunk) readyChunks.removeFirst();
+        // Wake the prefetch thread, which may be waiting for space for another chunk.
+        notifyAll();
+        return chunk;
+    }
+
+    /**
+     * Stops fetching chunks. Any listing request in progress is allowed to finish, but its
+     * results are discarded.
+     */
+    public synchronized void close() {
+        closed = true;
+        readyChunks.clear();
+        notifyAll();
+    }
+
+    private void fetchChunks(String priorLastKey) {
+        try {
+            do {
+                synchronized (this) {
+                    while (readyChunks.size() >= prefetchCount && !closed) {
+                        wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                }
+
+                S3ObjectsChunk chunk = s3Service.listObjectsChunked(bucketName, prefix,
+                    delimiter, maxListingLength, priorLastKey);
+                priorLastKey = chunk.getPriorLastKey();
+
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    readyChunks.addLast(chunk);
+                    if (priorLastKey == null) {
+                        listingComplete = true;
+                    }
+                    notifyAll();
+                }
+            } while (priorLastKey != null);
+        } catch (S3ServiceException e) {
+            synchronized (this) {
+                failure = e;
+                notifyAll();
+            }
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                failure = new S3ServiceException("Listing of bucket " + bucketName
+                    + " was interrupted", e);
+                notifyAll();
+            }
+        } catch (RuntimeException e) {
+            if (log.isErrorEnabled()) {
+                log.error("Unexpected failure fetching listing of bucket " + bucketName, e);
+            }
+            synchronized (this) {
+                failure = new S3ServiceException("Listing of bucket " + bucketName
+                    + " failed", e);
+                notifyAll();
+            }
+        }
+    }
+
+}
@@ -41,6 +41,7 @@ import org.jets3t.service.impl.rest.httpclient.RestS3Service;
 import org.jets3t.service.model.S3Bucket;
 import org.jets3t.service.model.S3BucketLoggingStatus;
 import org.jets3t.service.model.S3Object;
+import org.jets3t.service.model.S3Owner;
 import org.jets3t.service.multithread.S3ServiceMulti;
 import org.jets3t.service.security.AWSCredentials;
 import org.jets3t.service.utils.RestUtils;
@@ -90,6 +91,12 @@ public abstract class S3Service implements Serializable {
     private boolean isHttpsOnly = true;
     private int internalErrorRetryMax = 5;
     
+    /**
+     * The total number of S3 Internal Server errors encountered by all requests made by
+     * this service.
+     */
+    private long internalErrorCount = 0;
+    
     /**
      * The approximate difference in the current time between your computer and
      * Amazon's S3 server, measured in milliseconds.
@@ -333,6 +340,9 @@ public abstract class S3Service implements Serializable {
     protected void sleepOnInternalError(int internalErrorCount) 
         throws S3ServiceException, InterruptedException 
     {
+        synchronized (this) {
+            this.internalErrorCount++;
+        }
         if (internalErrorCount <= internalErrorRetryMax) {
             long delayMs = 50L * (int) Math.pow(internalErrorCount, 2);
             if (log.isWarnEnabled()) {
@@ -346,6 +356,16 @@ public abstract class S3Service implements Serializable {
         }        
     }
 
+    /**
+     * @return
+     * the total number of S3 Internal Server (500) and Service Unavailable (503) errors
+     * encountered by all the requests this service has made, including errors that were
+     * successfully retried. This count can be sampled to detect when S3 is throttling requests.
+     */
+    public synchronized long getInternalErrorCount() {
+        return internalErrorCount;
+    }
+
     /**
      * @return the AWS Credentials identifying the S3 user, may be null if the service is acting
      * anonymously.
@@ -1373,6 +1393,107 @@ public abstract class S3Service implements Serializable {
             maxListingLength, priorLastKey, completeListing);
     }    
 
+    /**
+     * Lists the objects in a bucket matching a prefix one chunk at a time, fetching chunks 
+     * ahead of the caller in a background thread so the caller can process each chunk while 
+     * the next is being listed. The number of chunks fetched ahead is set by the JetS3t
+     * property <tt>s3service.listing-prefetch-count</tt>.
+     * <p>
+     * The objects returned by this method contain only minimal information
+     * such as the object's size, ETag, and LastModified timestamp. To retrieve
+     * the objects' metadata you must perform follow-up <code>getObject</code>
+     * or <code>getObjectDetails</code> operations.
+     * <p>
+     * This method can be performed by anonymous services. Anonymous services 
+     * can list the contents of a publicly-readable bucket.
+     * 
+     * @param bucketName
+     * the name of the the bucket whose contents will be listed. 
+     * @param prefix
+     * only objects with a key that starts with this prefix will be listed, may be null.
+     * @param delimiter
+     * only list objects with key names up to this delimiter, may be null.
+     * @param maxListingLength
+     * the maximum number of objects to include in each result chunk
+     * @param priorLastKey
+     * the key after which the listing will start. This parameter may be null, in which case 
+     * the listing will start at the beginning of the bucket's object contents.
+     * @return
+     * an iterator over the chunks of the listing, which must be closed if the caller does not
+     * read every chunk.
+     */
+    public S3ObjectsChunkIterator listObjectsChunkedIterator(String bucketName, String prefix, 
+        String delimiter, long maxListingLength, String priorLastKey)
+    {
+        return new S3ObjectsChunkIterator(this, bucketName, prefix, delimiter, 
+            maxListingLength, priorLastKey, 
+            jets3tProperties.getIntProperty("s3service.listing-prefetch-count", 2));
+    }
+
+    /**
+     * Lists all the objects in a bucket matching a prefix, returning their details in a
+     * compact form that uses a fraction of the memory of the S3Objects returned by 
+     * {@link #listObjects(String, String, String, long)}. This method is suitable for 
+     * listings of millions of objects when only the details provided in a bucket listing 
+     * are needed, such as each object's key, size, ETag and last modified date.
+     * <p>
+     * This method can be performed by anonymous services. Anonymous services 
+     * can list the contents of a publicly-readable bucket.
+     * 
+     * @param bucketName
+     * the name of the the bucket whose contents will be listed. 
+     * @param prefix
+     * only objects with a key that starts with this prefix will be listed, may be null.
+     * @param delimiter
+     * only list objects with key names up to this delimiter, may be null.
+     * @return
+     * the details of the objects contained in a bucket whose keys start with the given prefix.
+     * @throws S3ServiceException
+     */
+    public S3CompactObjectsChunk listObjectsCompact(String bucketName, String prefix, 
+        String delimiter) throws S3ServiceException
+    {
+        return listObjectsChunkedCompactImpl(bucketName, prefix, delimiter, 
+            Constants.DEFAULT_OBJECT_LIST_CHUNK_SIZE, null, true);
+    }
+
+    /**
+     * Lists the objects in a bucket matching a prefix, returning their details in a compact
+     * form like {@link #listObjectsCompact(String, String, String)}. Depending on the value of 
+     * the completeListing variable, this method can be set to automatically perform follow-up 
+     * requests to build a complete object listing, or to return only a partial listing.
+     * <p>
+     * This method can be performed by anonymous services. Anonymous services 
+     * can list the contents of a publicly-readable bucket.
+     * 
+     * @param bucketName
+     * the name of the the bucket whose contents will be listed. 
+     * @param prefix
+     * only objects with a key that starts with this prefix will be listed, may be null.
+     * @param delimiter
+     * only list objects with key names up to this delimiter, may be null.
+     * @param maxListingLength
+     * the maximum number of objects to include in each result chunk
+     * @param priorLastKey
+     * the last object key received in a prior call to this method. The next chunk of objects
+     * listed will start with the next object in the bucket <b>after</b> this key name.
+     * This parameter may be null, in which case the listing will start at the beginning of the
+     * bucket's object contents.
+     * @param completeListing
+     * if true, the service class will automatically perform follow-up requests to 
+     * build a complete bucket object listing.
+     * @return
+     * the details of the objects contained in a bucket whose keys start with the given prefix.
+     * @throws S3ServiceException
+     */
+    public S3CompactObjectsChunk listObjectsChunkedCompact(String bucketName, String prefix, 
+        String delimiter, long maxListingLength, String priorLastKey, boolean completeListing) 
+        throws S3ServiceException
+    {
+        return listObjectsChunkedCompactImpl(bucketName, prefix, delimiter, 
+            maxListingLength, priorLastKey, completeListing);
+    }    
+
     /**
      * Creates a bucket in S3 based on the provided bucket object.
      * <p>
@@ -2365,6 +2486,55 @@ public abstract class S3Service implements Serializable {
         String delimiter, long maxListingLength, String priorLastKey, boolean completeListing) 
         throws S3ServiceException;
 
+    /**
+     * Lists objects in a bucket, adding their details to a compact listing chunk.
+     *
+     * <p>
+     * <b>Implementation notes</b>
+     * This default implementation converts the S3Objects listed by 
+     * {@link #listObjectsChunkedImpl(String, String, String, long, String, boolean)} one
+     * chunk at a time, so it saves memory only between chunks. Implementations should override
+     * it to add listed objects to the chunk directly as the listing documents are parsed.
+     * </p>
+     * 
+     * @param bucketName
+     * @param prefix
+     * @param delimiter
+     * @param maxListingLength
+     * @param priorLastKey
+     * @param completeListing
+     * @throws S3ServiceException
+     */
+    protected S3CompactObjectsChunk listObjectsChunkedCompactImpl(String bucketName, 
+        String prefix, String delimiter, long maxListingLength, String priorLastKey, 
+        boolean completeListing) throws S3ServiceException
+    {
+        S3CompactObjectsChunk compactChunk = new S3CompactObjectsChunk(
+            bucketName, prefix, delimiter);
+        do {
+            S3ObjectsChunk chunk = listObjectsChunkedImpl(bucketName, prefix, delimiter, 
+                maxListingLength, priorLastKey, false);
+            S3Object[] objects = chunk.getObjects();
+            for (int i = 0; i < objects.length; i++) {
+                S3Owner owner = objects[i].getOwner();
+                compactChunk.addObject(objects[i].getKey(), objects[i].getContentLength(),
+                    (objects[i].getLastModifiedDate() == null 
+                        ? 0 : objects[i].getLastModifiedDate().getTime()),
+                    objects[i].getETag(), objects[i].getStorageClass(),
+                    (owner == null ? null : owner.getId()), 
+                    (owner == null ? null : owner.getDisplayName()));
+            }
+            String[] commonPrefixes = chunk.getCommonPrefixes();
+            for (int i = 0; i < commonPrefixes.length; i++) {
+                compactChunk.addCommonPrefix(commonPrefixes[i]);
+            }
+            priorLastKey = chunk.getPriorLastKey();
+        } while (completeListing && priorLastKey != null);
+        compactChunk.setPriorLastKey(priorLastKey);
+        compactChunk.trimToSize();
+        return compactChunk;
+    }
+
     /**
      * Creates a bucket.
      * 
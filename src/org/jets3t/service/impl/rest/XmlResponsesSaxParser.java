@@ -19,7 +19,6 @@
 package org.jets3t.service.impl.rest;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -33,6 +32,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jets3t.service.Constants;
 import org.jets3t.service.Jets3tProperties;
+import org.jets3t.service.S3CompactObjectsChunk;
 import org.jets3t.service.S3ServiceException;
 import org.jets3t.service.acl.AccessControlList;
 import org.jets3t.service.acl.CanonicalGrantee;
@@ -40,10 +40,12 @@ import org.jets3t.service.acl.EmailAddressGrantee;
 import org.jets3t.service.acl.GranteeInterface;
 import org.jets3t.service.acl.GroupGrantee;
 import org.jets3t.service.acl.Permission;
+import org.jets3t.service.io.CarriageReturnEscapingInputStream;
 import org.jets3t.service.model.S3Bucket;
 import org.jets3t.service.model.S3BucketLoggingStatus;
 import org.jets3t.service.model.S3Object;
 import org.jets3t.service.model.S3Owner;
+import org.jets3t.service.utils.ServiceDateFormatter;
 import org.jets3t.service.utils.ServiceUtils;
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
@@ -61,11 +63,20 @@ import org.xml.sax.helpers.XMLReaderFactory;
 public class XmlResponsesSaxParser {
     private static final Log log = LogFactory.getLog(XmlResponsesSaxParser.class);
 
-    private XMLReader xr = null;
+    private static final DefaultHandler NO_OP_HANDLER = new DefaultHandler();
+
     private Jets3tProperties properties = null;
 
     /**
-     * Constructs the XML SAX parser.  
+     * A configured XMLReader for each thread that uses this parser. Readers are not 
+     * thread-safe, but can parse any number of documents one after another, so each thread 
+     * reuses its own reader instead of creating one for every document.
+     */
+    private final ThreadLocal threadXmlReader = new ThreadLocal();
+
+    /**
+     * Constructs the XML SAX parser. A single parser may be shared by any number of threads,
+     * and reused for any number of documents.
      * 
      * @param properties
      * the JetS3t properties that will be applied when parsing XML documents.
@@ -76,20 +87,37 @@ public class XmlResponsesSaxParser {
         this.properties = properties;
         
         // Ensure we can load the XML Reader.
+        threadXmlReader.set(createXMLReader());
+    }
+    
+    private static XMLReader createXMLReader() throws S3ServiceException {
         try {
-            xr = XMLReaderFactory.createXMLReader();
+            return XMLReaderFactory.createXMLReader();
         } catch (SAXException e) {
             // oops, lets try doing this (needed in 1.4)
             System.setProperty("org.xml.sax.driver", "org.apache.crimson.parser.XMLReaderImpl");
             try {
                 // Try once more...
-                xr = XMLReaderFactory.createXMLReader();
+                return XMLReaderFactory.createXMLReader();
             } catch (SAXException e2) {
                 throw new S3ServiceException("Couldn't initialize a sax driver for the XMLReader");
             }
         }
     }
     
+    /**
+     * @return
+     * the XMLReader reserved for the calling thread, which is created if necessary.
+     */
+    private XMLReader getXMLReader() throws S3ServiceException {
+        XMLReader xr = (XMLReader) threadXmlReader.get();
+        if (xr == null) {
+            xr = createXMLReader();
+            threadXmlReader.set(xr);
+        }
+        return xr;
+    }
+    
     /**
      * Constructs the XML SAX parser.  
      * @throws S3ServiceException
@@ -116,10 +144,18 @@ public class XmlResponsesSaxParser {
         	}
             BufferedReader breader = new BufferedReader(new InputStreamReader(inputStream,
                 Constants.DEFAULT_ENCODING));
+            XMLReader xr = getXMLReader();
             xr.setContentHandler(handler);
             xr.setErrorHandler(handler);
             xr.parse(new InputSource(breader));
+            // Don't keep the handler and its results reachable from the reused reader.
+            xr.setContentHandler(NO_OP_HANDLER);
+            xr.setErrorHandler(NO_OP_HANDLER);
+            // Release the stream, even if the parser stopped reading at the end of the document.
+            breader.close();
         } catch (Throwable t) {
+            // Discard the reader, in case the failure left it in an unusable state.
+            threadXmlReader.set(null);
             try {
                 inputStream.close();
             } catch (IOException e) {
@@ -143,43 +179,10 @@ public class XmlResponsesSaxParser {
         		log.debug("Sanitizing XML document destined for handler " + handler.getClass());
         	}
             
-            InputStream sanitizedInputStream = null;
-
-            try {
-                /* Read object listing XML document from input stream provided into a 
-                 * string buffer, so we can replace troublesome characters before 
-                 * sending the document to the XML parser.
-                 */
-                StringBuffer listingDocBuffer = new StringBuffer();
-                BufferedReader br = new BufferedReader(
-                    new InputStreamReader(inputStream, Constants.DEFAULT_ENCODING));
-                
-                char[] buf = new char[8192];
-                int read = -1;            
-                while ((read = br.read(buf)) != -1) {
-                    listingDocBuffer.append(buf, 0, read);
-                }  
-                br.close();
-    
-                // Replace any carriage return (\r) characters with explicit XML 
-                // character entities, to prevent the SAX parser from 
-                // misinterpreting 0x0D characters as 0x0A.
-                String listingDoc = listingDocBuffer.toString().replaceAll("\r", "&#013;");      
-
-                sanitizedInputStream = new ByteArrayInputStream(
-                    listingDoc.getBytes(Constants.DEFAULT_ENCODING));                
-            } catch (Throwable t) {
-                try {
-                    inputStream.close();
-                } catch (IOException e) {
-                	if (log.isErrorEnabled()) {
-                		log.error("Unable to close response InputStream after failure sanitizing XML document", e);
-                	}
-                }
-                throw new S3ServiceException("Failed to sanitize XML document destined for handler "
-                    + handler.getClass(), t);            
-            }   
-            return sanitizedInputStream;
+            // Replace any carriage return (\r) characters with explicit XML 
+            // character entities as the document is read by the SAX parser, to prevent 
+            // the parser from misinterpreting 0x0D characters as 0x0A.
+            return new CarriageReturnEscapingInputStream(inputStream);
         }
     }
 
@@ -199,6 +202,25 @@ public class XmlResponsesSaxParser {
         return handler;
     }
 
+    /**
+     * Parses a ListBucket response XML document from an input stream, adding the listed
+     * objects' details to a compact listing chunk instead of creating S3Objects.
+     * @param inputStream
+     * XML data input stream.
+     * @param chunk
+     * the chunk to which the listed objects and common prefixes are added.
+     * @return
+     * the XML handler object populated with data parsed from the XML stream.
+     * @throws S3ServiceException
+     */
+    public CompactListBucketHandler parseListBucketObjectsCompactResponse(
+        InputStream inputStream, S3CompactObjectsChunk chunk) throws S3ServiceException
+    {
+        CompactListBucketHandler handler = new CompactListBucketHandler(chunk);
+        parseXmlInputStream(handler, sanitizeXmlDocument(handler, inputStream));
+        return handler;
+    }
+
     /**
      * Parses a ListAllMyBuckets response XML document from an input stream.
      * @param inputStream
@@ -448,6 +470,160 @@ public class XmlResponsesSaxParser {
         }
     }
 
+    /**
+     * Handler for ListBucket response XML documents that adds the details of each listed 
+     * object to an {@link S3CompactObjectsChunk}, rather than creating an {@link S3Object}
+     * and {@link S3Owner} for each one. A single text buffer is reused for every element, and 
+     * sizes and dates are converted directly from that buffer.
+     * 
+     * @author James Murty
+     */
+    public class CompactListBucketHandler extends DefaultHandler {
+        private S3CompactObjectsChunk chunk = null;
+        private StringBuffer currText = new StringBuffer();
+        private boolean insideContents = false;
+        private boolean insideCommonPrefixes = false;
+        private int objectCount = 0;
+
+        // Details of the object being parsed.
+        private String key = null;
+        private long contentLength = 0;
+        private long lastModifiedTime = 0;
+        private String eTag = null;
+        private String storageClass = null;
+        private String ownerId = null;
+        private String ownerDisplayName = null;
+
+        // Listing properties.
+        private boolean listingTruncated = false;
+        private String lastKey = null;        
+        private String nextMarker = null;
+
+        public CompactListBucketHandler(S3CompactObjectsChunk chunk) {
+            super();
+            this.chunk = chunk;
+        }
+
+        /**
+         * @see ListBucketHandler#getMarkerForNextListing()
+         */
+        public String getMarkerForNextListing() {
+            if (listingTruncated) {
+                if (nextMarker != null) {
+                    return nextMarker;
+                } else if (lastKey != null) {
+                    return lastKey;                    
+                } else {
+                	if (log.isWarnEnabled()) {
+                		log.warn("Unable to find Next Marker or Last Key for truncated listing");
+                	}
+                    return null;
+                }                
+            } else {
+                return null;
+            }
+        }
+
+        /**
+         * @return
+         * true if the listing document was truncated, and therefore only contained a subset of the
+         * available S3 objects.
+         */
+        public boolean isListingTruncated() {
+            return listingTruncated;
+        }
+
+        /**
+         * @return
+         * the number of objects from this listing document that were added to the chunk.
+         */
+        public int getObjectCount() {
+            return objectCount;
+        }
+
+        public void startElement(String uri, String name, String qName, Attributes attrs) {
+            if (name.equals("Contents")) {
+                insideContents = true;
+                key = null;
+                contentLength = 0;
+                lastModifiedTime = 0;
+                eTag = null;
+                storageClass = null;
+                ownerId = null;
+                ownerDisplayName = null;
+            } else if (name.equals("CommonPrefixes")) {
+                insideCommonPrefixes = true;
+            }
+            currText.setLength(0);
+        }
+
+        public void endElement(String uri, String name, String qName) {
+            if (insideContents) {
+                if (name.equals("Key")) {
+                    key = currText.toString();
+                    lastKey = key;
+                } else if (name.equals("Size")) {
+                    contentLength = parseLong(currText);
+                } else if (name.equals("LastModified")) {
+                    try {
+                        lastModifiedTime = ServiceDateFormatter.parseIso8601Time(currText);
+                    } catch (ParseException e) {
+                        throw new RuntimeException("Unexpected date format in list bucket output", e);
+                    }
+                } else if (name.equals("ETag")) {
+                    eTag = currText.toString();
+                } else if (name.equals("StorageClass")) {
+                    storageClass = currText.toString();
+                } else if (name.equals("ID")) {
+                    ownerId = currText.toString();
+                } else if (name.equals("DisplayName")) {
+                    ownerDisplayName = currText.toString();
+                } else if (name.equals("Contents")) {
+                    chunk.addObject(key, contentLength, lastModifiedTime, eTag, storageClass, 
+                        ownerId, ownerDisplayName);
+                    objectCount++;
+                    insideContents = false;
+                }
+            } else if (insideCommonPrefixes) {
+                if (name.equals("Prefix")) {
+                    chunk.addCommonPrefix(currText.toString());
+                } else if (name.equals("CommonPrefixes")) {
+                    insideCommonPrefixes = false;
+                }
+            } else if (name.equals("NextMarker")) {
+                nextMarker = currText.toString();
+            } else if (name.equals("IsTruncated")) {
+                String isTruncatedStr = currText.toString().toLowerCase(Locale.getDefault());
+                if (isTruncatedStr.startsWith("false")) {
+                    listingTruncated = false;
+                } else if (isTruncatedStr.startsWith("true")) {
+                    listingTruncated = true;
+                } else {
+                    throw new RuntimeException("Invalid value for IsTruncated field: "
+                        + isTruncatedStr);
+                }
+            }
+            currText.setLength(0);
+        }
+
+        public void characters(char ch[], int start, int length) {
+            this.currText.append(ch, start, length);
+        }
+
+        private long parseLong(StringBuffer text) {
+            long value = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    // Let Long report the problem, or handle anything unusual such as a sign.
+                    return Long.parseLong(text.toString().trim());
+                }
+                value = value * 10 + (c - '0');
+            }
+            return value;
+        }
+    }
+
     /**
      * Handler for ListAllMyBuckets response XML documents.
      * The document is parsed into {@link S3Bucket}s available via the {@link #getBuckets()} method.
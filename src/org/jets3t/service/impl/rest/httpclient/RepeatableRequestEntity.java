@@ -23,13 +23,13 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Random;
 
 import org.apache.commons.httpclient.methods.RequestEntity;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.jets3t.service.Constants;
-import org.jets3t.service.Jets3tProperties;
+import org.jets3t.service.io.BandwidthLimiter;
+import org.jets3t.service.io.BandwidthShaper;
+import org.jets3t.service.io.BufferPool;
 import org.jets3t.service.io.InputStreamWrapper;
 import org.jets3t.service.io.ProgressMonitoredInputStream;
 import org.jets3t.service.io.RepeatableInputStream;
@@ -37,12 +37,16 @@ import org.jets3t.service.utils.ServiceUtils;
 
 /**
  * An HttpClient request entity whose underlying data can be re-read (that is, repeated) 
- * if necessary to retry failed transmissions. This class also provides basic byte-rate
- * throttling by throttling the reading of request bodies, the throttling value is set
- * with the JetS3t property <tt>httpclient.read-throttle</tt>. If Logging is enabled
+ * if necessary to retry failed transmissions. This class also limits the rate at which 
+ * request bodies are written with a {@link BandwidthLimiter}, by default the JVM-wide upload
+ * limiter configured with the JetS3t property <tt>httpclient.read-throttle</tt>. If Logging is enabled
  * for this class the MD5 hash values (Base64 and Hex) are logged after all data has 
  * been written to the output stream.
  * <p>
+ * If the MD5 hash of the data is already known, for example because it was computed when the
+ * data was prepared for upload, it can be given to the entity so the data is not hashed
+ * again as it is written.
+ * <p>
  * This class works by taking advantage of the reset capability of the original
  * data input stream, or by wrapping the input stream in a reset-able class if
  * it is not so capable. 
@@ -63,13 +67,21 @@ public class RepeatableRequestEntity implements RequestEntity {
     private long bytesWritten = 0;    
     private InputStream repeatableInputStream = null;
     private ProgressMonitoredInputStream progressMonitoredIS = null;
+    private BandwidthLimiter bandwidthLimiter = null;
     
+    /**
+     * The JVM-wide upload limit in bytes per second, as set by the JetS3t property 
+     * <tt>httpclient.read-throttle</tt>. This field is updated when entities are created.
+     * 
+     * @deprecated as of JetS3t version 0.6.2, upload rates are controlled by a 
+     * {@link BandwidthLimiter}. Changing this field has no effect, use the limiter returned by
+     * {@link BandwidthShaper#getUploadLimiter()} on the {@link BandwidthShaper#getGlobalShaper()}
+     * shaper instead.
+     */
     protected static long MAX_BYTES_PER_SECOND = 0; 
-    private static volatile long bytesWrittenThisSecond = 0;
-    private static volatile long currentSecondMonitored = 0;
-    private static final Random random = new Random();    
     
     private byte[] dataMD5Hash = null;
+    private byte[] knownMD5Hash = null;
 
     /**
      * Creates a repeatable request entity for the input stream provided.
@@ -92,6 +104,44 @@ public class RepeatableRequestEntity implements RequestEntity {
      * @param contentLength
      */
     public RepeatableRequestEntity(String name, InputStream is, String contentType, long contentLength) {
+        this(name, is, contentType, contentLength, 
+            BandwidthShaper.getGlobalShaper().getUploadLimiter());
+    }
+    
+    /**
+     * Creates a repeatable request entity for the input stream provided, as for
+     * {@link #RepeatableRequestEntity(String, InputStream, String, long)}, whose data will be 
+     * written no faster than the given limiter allows.
+     * 
+     * @param is
+     * @param contentType
+     * @param contentLength
+     * @param bandwidthLimiter
+     * the limiter that controls how quickly this entity's data is written, or null for no limit.
+     */
+    public RepeatableRequestEntity(String name, InputStream is, String contentType, 
+        long contentLength, BandwidthLimiter bandwidthLimiter) 
+    {
+        this(name, is, contentType, contentLength, bandwidthLimiter, null);
+    }
+    
+    /**
+     * Creates a repeatable request entity for the input stream provided, as for
+     * {@link #RepeatableRequestEntity(String, InputStream, String, long, BandwidthLimiter)},
+     * whose data has the given MD5 hash. 
+     * 
+     * @param is
+     * @param contentType
+     * @param contentLength
+     * @param bandwidthLimiter
+     * the limiter that controls how quickly this entity's data is written, or null for no limit.
+     * @param knownMD5Hash
+     * the MD5 hash of the data, which is returned by {@link #getMD5DigestOfData()} instead of 
+     * a hash computed as the data is written. If null, the hash is computed.
+     */
+    public RepeatableRequestEntity(String name, InputStream is, String contentType, 
+        long contentLength, BandwidthLimiter bandwidthLimiter, byte[] knownMD5Hash) 
+    {
         if (is == null) {
             throw new IllegalArgumentException("InputStream cannot be null");
         }
@@ -99,6 +149,10 @@ public class RepeatableRequestEntity implements RequestEntity {
         this.name = name;
         this.contentLength = contentLength;
         this.contentType = contentType;
+        this.bandwidthLimiter = (bandwidthLimiter != null ? bandwidthLimiter : new BandwidthLimiter(0));
+        this.knownMD5Hash = knownMD5Hash;
+        
+        MAX_BYTES_PER_SECOND = BandwidthShaper.getGlobalShaper().getUploadLimiter().getBytesPerSecond();
         
         InputStream inputStream = is;
         while (true) {
@@ -123,9 +177,6 @@ public class RepeatableRequestEntity implements RequestEntity {
             this.is = new RepeatableInputStream(is);
             this.repeatableInputStream = this.is;
         }
-
-        MAX_BYTES_PER_SECOND = 1024 * Jets3tProperties.getInstance(Constants.JETS3T_PROPERTIES_FILENAME)
-            .getLongProperty("httpclient.read-throttle", 0);
     }
     
     public long getContentLength() {
@@ -171,28 +222,34 @@ public class RepeatableRequestEntity implements RequestEntity {
         }
         
         MessageDigest messageDigest = null;
-        try {
-            messageDigest = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-        	if (log.isWarnEnabled()) {
-        		log.warn("Unable to calculate MD5 hash of data sent as algorithm is not available", e);
-        	}
+        if (knownMD5Hash == null) {
+            try {
+                messageDigest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+            	if (log.isWarnEnabled()) {
+            		log.warn("Unable to calculate MD5 hash of data sent as algorithm is not available", e);
+            	}
+            }
         }
         
-        byte[] tmp = new byte[1024];
-        int count = 0;
-
-        while ((count = this.is.read(tmp)) >= 0) {
-            throttle(count);
-            
-            bytesWritten += count;
-            
-            out.write(tmp, 0, count);
-            
-            if (messageDigest != null) {
-                messageDigest.update(tmp, 0, count);
-            }            
-        }                
+        byte[] tmp = BufferPool.getInstance().takeBuffer(BufferPool.DEFAULT_TRANSFER_BUFFER_SIZE);
+        try {
+            int count = 0;
+    
+            while ((count = this.is.read(tmp, 0, bandwidthLimiter.getChunkSize(tmp.length))) >= 0) {
+                bandwidthLimiter.acquire(count);
+                
+                bytesWritten += count;
+                
+                out.write(tmp, 0, count);
+                
+                if (messageDigest != null) {
+                    messageDigest.update(tmp, 0, count);
+                }            
+            }                
+        } finally {
+            BufferPool.getInstance().releaseBuffer(tmp);
+        }
         
         if (messageDigest != null) {
             dataMD5Hash = messageDigest.digest();
@@ -205,10 +262,13 @@ public class RepeatableRequestEntity implements RequestEntity {
     
     /**
      * @return
-     * The MD5 digest of the data transmitted by this RequestEntity.
+     * The MD5 digest of the data transmitted by this RequestEntity, or the known MD5 hash
+     * of the data if one was given when the entity was created.
      */
     public byte[] getMD5DigestOfData() {
-        if (dataMD5Hash != null) {
+        if (knownMD5Hash != null) {
+            return knownMD5Hash;
+        } else if (dataMD5Hash != null) {
             return dataMD5Hash;
         } else {
             return new byte[0];
@@ -216,61 +276,20 @@ public class RepeatableRequestEntity implements RequestEntity {
     }
     
     /**
-     * Throttles the speed at which data is written by this request entity to the 
-     * maximum rate in KB/s specified by {@link #MAX_BYTES_PER_SECOND}. The method
-     * works by repeatedly delaying its completion until writing the requested number
-     * of bytes will not exceed the imposed limit for the current second. The delay
-     * imposed each time the completion is deferred is a random value between 0-250ms.   
-     * <p>
-     * This method is static and is shared by all instances of this class, so the byte 
-     * rate limit applies for all currently active RepeatableRequestEntity instances. 
+     * Waits until the given number of bytes can be written without exceeding the JVM-wide 
+     * upload limit.
      * 
      * @param bytesToWrite
      * the count of bytes that will be written once this method returns. 
      * @throws IOException
-     * an exception is thrown if the sleep delay is interrupted.
+     * an exception is thrown if the wait is interrupted.
+     * 
+     * @deprecated as of JetS3t version 0.6.2, this method delegates to the upload limiter of
+     * the {@link BandwidthShaper#getGlobalShaper()} shaper. Use 
+     * {@link BandwidthLimiter#acquire(int)} instead.
      */
     protected static void throttle(int bytesToWrite) throws IOException {
-        if (MAX_BYTES_PER_SECOND <= 0) {
-            // No throttling is applied.
-            return;
-        }
-        
-        // All calculations are based on the current second time interval.
-        long currentSecond = System.currentTimeMillis() / 1000;
-        boolean willExceedThrottle;
-        
-        // All calculations are synchronized as this method can be called by multiple threads.
-        synchronized (random) {
-            // Check whether a new second has ticked over.
-            boolean isCurrentSecond = currentSecond == currentSecondMonitored;
-            
-            // If a new second hasn't ticked over, we must limit the number of extra bytes
-            // written this second.
-            willExceedThrottle = isCurrentSecond 
-                && bytesWrittenThisSecond + bytesToWrite > MAX_BYTES_PER_SECOND;
-                
-            if (!isCurrentSecond) {
-                // We are in a brand new second, it is safe to write some bytes.
-                currentSecondMonitored = currentSecond;
-                bytesWrittenThisSecond = bytesToWrite;            
-            }
-            if (!willExceedThrottle) {
-                // We can write bytes without exceeding the limit.
-                bytesWrittenThisSecond += bytesToWrite;   
-            }
-        }
-        
-        if (willExceedThrottle) {
-            // Sleep for a random interval, then make a recursive call to see if we 
-            // will be allowed to write bytes then.
-            try {
-                Thread.sleep(random.nextInt(250));
-            } catch (InterruptedException e) {
-                throw new IOException("Throttling of transmission was interrupted");
-            }
-            throttle(bytesToWrite);
-        } 
+        BandwidthShaper.getGlobalShaper().getUploadLimiter().acquire(bytesToWrite);
     }
     
 }
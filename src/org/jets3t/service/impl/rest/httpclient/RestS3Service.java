@@ -20,8 +20,10 @@ package org.jets3t.service.impl.rest.httpclient;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.ParseException;
 import java.util.ArrayList;
@@ -62,14 +64,19 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jets3t.service.Constants;
 import org.jets3t.service.Jets3tProperties;
+import org.jets3t.service.S3CompactObjectsChunk;
 import org.jets3t.service.S3ObjectsChunk;
 import org.jets3t.service.S3Service;
 import org.jets3t.service.S3ServiceException;
 import org.jets3t.service.acl.AccessControlList;
 import org.jets3t.service.impl.rest.HttpException;
 import org.jets3t.service.impl.rest.XmlResponsesSaxParser;
+import org.jets3t.service.impl.rest.XmlResponsesSaxParser.CompactListBucketHandler;
 import org.jets3t.service.impl.rest.XmlResponsesSaxParser.CopyObjectResultHandler;
 import org.jets3t.service.impl.rest.XmlResponsesSaxParser.ListBucketHandler;
+import org.jets3t.service.io.BandwidthLimitedInputStream;
+import org.jets3t.service.io.BandwidthLimiter;
+import org.jets3t.service.io.BandwidthShaper;
 import org.jets3t.service.io.UnrecoverableIOException;
 import org.jets3t.service.model.CreateBucketConfiguration;
 import org.jets3t.service.model.S3Bucket;
@@ -105,6 +112,8 @@ public class RestS3Service extends S3Service implements SignedUrlHandler {
     private HttpClient httpClient = null;
     private MultiThreadedHttpConnectionManager connectionManager = null;
     private CredentialsProvider credentialsProvider = null;
+    private transient BandwidthShaper bandwidthShaper = null;
+    private transient XmlResponsesSaxParser xmlResponsesSaxParser = null;
     
     /**
      * Constructs the service and initialises the properties.
@@ -197,6 +206,71 @@ public class RestS3Service extends S3Service implements SignedUrlHandler {
         initHttpConnection(hostConfig);
     }
     
+    /**
+     * Returns the shaper that limits the bandwidth used by this service's uploads and downloads.
+     * The shaper's limits are configured with the JetS3t properties 
+     * <tt>s3service.upload-throttle</tt>, <tt>s3service.download-throttle</tt>, 
+     * <tt>s3service.per-host-upload-throttle</tt> and 
+     * <tt>s3service.per-host-download-throttle</tt> (all in KB/s), and may be changed at 
+     * any time. The JVM-wide limits of {@link BandwidthShaper#getGlobalShaper()} also apply.
+     * 
+     * @return
+     * this service's bandwidth shaper.
+     */
+    public synchronized BandwidthShaper getBandwidthShaper() {
+        if (bandwidthShaper == null) {
+            bandwidthShaper = new BandwidthShaper(BandwidthShaper.getGlobalShaper(),
+                1024 * jets3tProperties.getLongProperty("s3service.upload-throttle", 0),
+                1024 * jets3tProperties.getLongProperty("s3service.download-throttle", 0),
+                1024 * jets3tProperties.getLongProperty("s3service.per-host-upload-throttle", 0),
+                1024 * jets3tProperties.getLongProperty("s3service.per-host-download-throttle", 0));
+        }
+        return bandwidthShaper;
+    }
+    
+    /**
+     * Returns the parser used for this service's XML response documents. The parser is 
+     * created once with this service's JetS3t properties and shared by all of the service's 
+     * threads, each of which reuses its own SAX XMLReader for every document it parses.
+     * 
+     * @return
+     * this service's XML response parser.
+     * @throws S3ServiceException
+     */
+    protected synchronized XmlResponsesSaxParser getXmlResponsesSaxParser() 
+        throws S3ServiceException 
+    {
+        if (xmlResponsesSaxParser == null) {
+            xmlResponsesSaxParser = new XmlResponsesSaxParser(jets3tProperties);
+        }
+        return xmlResponsesSaxParser;
+    }
+    
+    /**
+     * Wraps a response data stream so it is read no faster than the download limits of this 
+     * service's bandwidth shaper allow for the given host.
+     */
+    private InputStream limitDownloadBandwidth(InputStream inputStream, String hostname) {
+        BandwidthLimiter limiter = getBandwidthShaper().getDownloadLimiter(hostname);
+        if (limiter.isLimited()) {
+            return new BandwidthLimitedInputStream(inputStream, limiter);
+        } else {
+            return inputStream;
+        }
+    }
+    
+    /**
+     * @return
+     * the host name in the URL, or an empty string if the URL cannot be parsed.
+     */
+    private String getHostnameFromUrl(String url) {
+        try {
+            return new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+    
     /**
      * Initialises, or re-initialises, the underlying HttpConnectionManager and 
      * HttpClient objects this service will use to communicate with S3. If proxy
@@ -1052,16 +1126,21 @@ public class RestS3Service extends S3Service implements SignedUrlHandler {
             getCurrentTimeWithOffset()));
         
         // Generate a canonical string representing the operation.
+        Header[] requestHeaders = httpMethod.getRequestHeaders();
+        String[] headerNames = new String[requestHeaders.length];
+        String[] headerValues = new String[requestHeaders.length];
+        for (int i = 0; i < requestHeaders.length; i++) {
+            headerNames[i] = requestHeaders[i].getName();
+            headerValues[i] = requestHeaders[i].getValue();
+        }
         String canonicalString = RestUtils.makeCanonicalString(
-                httpMethod.getName(), fullUrl,
-                convertHeadersToMap(httpMethod.getRequestHeaders()), null);
+                httpMethod.getName(), fullUrl, headerNames, headerValues, null);
         if (log.isDebugEnabled()) {
             log.debug("Canonical string ('|' is a newline): " + canonicalString.replace('\n', '|'));
         }
         
-        // Sign the canonical string.
-        String signedCanonical = ServiceUtils.signWithHmacSha1(
-                getAWSCredentials().getSecretKey(), canonicalString);
+        // Sign the canonical string, reusing the credentials' initialised signer.
+        String signedCanonical = getAWSCredentials().getRequestSigner().sign(canonicalString);
         
         // Add encoded authorization to connection as HTTP Authorization header. 
         String authorizationString = "AWS " + getAWSCredentials().getAccessKey() + ":" + signedCanonical;
@@ -1172,7 +1251,7 @@ public class RestS3Service extends S3Service implements SignedUrlHandler {
                 contentType);
         }
 
-        S3Bucket[] buckets = (new XmlResponsesSaxParser()).parseListMyBucketsResponse(
+        S3Bucket[] buckets = getXmlResponsesSaxParser().parseListMyBucketsResponse(
             new HttpMethodReleaseInputStream(httpMethod)).getBuckets();
         return buckets;
     }
@@ -1221,7 +1300,7 @@ public class RestS3Service extends S3Service implements SignedUrlHandler {
             ListBucketHandler listBucketHandler = null;
             
             try {
-                listBucketHandler = (new XmlResponsesSaxParser())
+                listBucketHandler = getXmlResponsesSaxParser()
                     .parseListBucketObjectsResponse(
                         new HttpMethodReleaseInputStream(httpMethod));
                 ioErrorRetryCount = 0;
@@ -1281,6 +1360,81 @@ public class RestS3Service extends S3Service implements SignedUrlHandler {
         }
     }
     
+    protected S3CompactObjectsChunk listObjectsChunkedCompactImpl(String bucketName, 
+        String prefix, String delimiter, long maxListingLength, String priorLastKey, 
+        boolean completeListing) throws S3ServiceException 
+    {        
+        HashMap parameters = new HashMap();
+        if (prefix != null) {
+            parameters.put("prefix", prefix);
+        } 
+        if (delimiter != null) {
+            parameters.put("delimiter", delimiter);
+        }
+        if (maxListingLength > 0) {
+            parameters.put("max-keys", String.valueOf(maxListingLength));
+        }
+
+        S3CompactObjectsChunk chunk = new S3CompactObjectsChunk(bucketName, prefix, delimiter);
+        
+        boolean incompleteListing = true;
+        int ioErrorRetryCount = 0;
+            
+        while (incompleteListing) {
+            if (priorLastKey != null) {
+                parameters.put("marker", priorLastKey);
+            } else {
+                parameters.remove("marker");
+            }
+            
+            HttpMethodBase httpMethod = performRestGet(bucketName, null, parameters, null);
+            CompactListBucketHandler listBucketHandler = null;
+            
+            // Parse into a separate chunk, so a failed attempt leaves no partial results.
+            S3CompactObjectsChunk pageChunk = new S3CompactObjectsChunk(bucketName, prefix, delimiter);
+            try {
+                listBucketHandler = getXmlResponsesSaxParser()
+                    .parseListBucketObjectsCompactResponse(
+                        new HttpMethodReleaseInputStream(httpMethod), pageChunk);
+                ioErrorRetryCount = 0;
+            } catch (S3ServiceException e) {
+                if (e.getCause() instanceof IOException && ioErrorRetryCount < 5) {
+                    ioErrorRetryCount++;
+                    if (log.isWarnEnabled()) {
+                        log.warn("Retrying bucket listing failure due to IO error", e);
+                    }
+                    continue;
+                } else {
+                    throw e;
+                }
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Found " + listBucketHandler.getObjectCount() + " objects in one batch");
+            }
+            
+            incompleteListing = listBucketHandler.isListingTruncated();            
+            if (incompleteListing) {
+                priorLastKey = listBucketHandler.getMarkerForNextListing();
+                if (log.isDebugEnabled()) {
+                    log.debug("Yet to receive complete listing of bucket contents, "
+                        + "last key for prior chunk: " + priorLastKey);
+                }
+            } else {
+                priorLastKey = null;
+            }
+            pageChunk.setPriorLastKey(priorLastKey);
+            chunk.append(pageChunk);
+            
+            if (!completeListing)
+                break;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Found " + chunk.getObjectCount() + " objects in total");
+        }
+        chunk.trimToSize();
+        return chunk;
+    }
+    
     protected void deleteObjectImpl(String bucketName, String objectKey) throws S3ServiceException {
         performRestDelete(bucketName, objectKey);
     }    
@@ -1294,7 +1448,7 @@ public class RestS3Service extends S3Service implements SignedUrlHandler {
         requestParameters.put("acl","");
 
         HttpMethodBase httpMethod = performRestGet(bucketName, objectKey, requestParameters, null);
-        return (new XmlResponsesSaxParser()).parseAccessControlListResponse(
+        return getXmlResponsesSaxParser().parseAccessControlListResponse(
             new HttpMethodReleaseInputStream(httpMethod)).getAccessControlList();
     }
     
@@ -1307,7 +1461,7 @@ public class RestS3Service extends S3Service implements SignedUrlHandler {
         requestParameters.put("acl","");
 
         HttpMethodBase httpMethod = performRestGet(bucketName, null, requestParameters, null);
-        return (new XmlResponsesSaxParser()).parseAccessControlListResponse(
+        return getXmlResponsesSaxParser().parseAccessControlListResponse(
             new HttpMethodReleaseInputStream(httpMethod)).getAccessControlList();
     }
 
@@ -1380,6 +1534,21 @@ public class RestS3Service extends S3Service implements SignedUrlHandler {
         performRestDelete(bucketName, null);
     }    
     
+    /**
+     * @return
+     * the MD5 hash set in an object's Content-MD5 header, or null if the object has no hash. 
+     * Because S3 rejects data that does not match this header, the hash does not need to be 
+     * computed again as the data is sent.
+     */
+    private byte[] getKnownMD5Hash(S3Object object) {
+        // Only the Content-MD5 header is checked by S3, not an ETag from an earlier request.
+        String md5HashBase64 = (String) object.getMetadata(S3Object.METADATA_HEADER_CONTENT_MD5);
+        if (md5HashBase64 == null) {
+            return null;
+        }
+        return ServiceUtils.fromBase64(md5HashBase64);
+    }
+    
     /**
      * Beware of high memory requirements when creating large S3 objects when the Content-Length
      * is not set in the object.
@@ -1397,7 +1566,9 @@ public class RestS3Service extends S3Service implements SignedUrlHandler {
                     log.debug("Uploading object data with Content-Length: " + object.getContentLength());
                 }
                 requestEntity = new RepeatableRequestEntity(object.getKey(),                     
-                    object.getDataInputStream(), object.getContentType(), object.getContentLength());
+                    object.getDataInputStream(), object.getContentType(), object.getContentLength(),
+                    getBandwidthShaper().getUploadLimiter(generateS3HostnameForBucket(bucketName)),
+                    getKnownMD5Hash(object));
             } else {
                 // Use InputStreamRequestEntity for objects with an unknown content length, as the
                 // entity will cache the results and doesn't need to know the data length in advance.
@@ -1587,7 +1758,7 @@ public class RestS3Service extends S3Service implements SignedUrlHandler {
         HttpMethodAndByteCount methodAndByteCount = performRestPut(
             destinationBucketName, destinationObjectKey, metadata, null, null, false);
         
-        CopyObjectResultHandler handler = (new XmlResponsesSaxParser()).parseCopyObjectResponse(
+        CopyObjectResultHandler handler = getXmlResponsesSaxParser().parseCopyObjectResponse(
                 new HttpMethodReleaseInputStream(methodAndByteCount.getHttpMethod()));
         
         // Release HTTP connection manually. This should already have been done by the
@@ -1704,7 +1875,8 @@ public class RestS3Service extends S3Service implements SignedUrlHandler {
         responseObject.setMetadataComplete(true); // Flag this object as having the complete metadata set.
         if (!headOnly) {
             HttpMethodReleaseInputStream releaseIS = new HttpMethodReleaseInputStream(httpMethod);
-            responseObject.setDataInputStream(releaseIS);
+            responseObject.setDataInputStream(limitDownloadBandwidth(releaseIS, 
+                generateS3HostnameForBucket(bucketName)));
         } else {                
             // Release connection after HEAD (there's no response content)
             if (log.isDebugEnabled()) {
@@ -1727,7 +1899,7 @@ public class RestS3Service extends S3Service implements SignedUrlHandler {
         requestParameters.put("location","");
     
         HttpMethodBase httpMethod = performRestGet(bucketName, null, requestParameters, null);
-        return (new XmlResponsesSaxParser()).parseBucketLocationResponse(
+        return getXmlResponsesSaxParser().parseBucketLocationResponse(
             new HttpMethodReleaseInputStream(httpMethod));        
     }
 
@@ -1742,7 +1914,7 @@ public class RestS3Service extends S3Service implements SignedUrlHandler {
         requestParameters.put("logging","");
 
         HttpMethodBase httpMethod = performRestGet(bucketName, null, requestParameters, null);
-        return (new XmlResponsesSaxParser()).parseLoggingStatusResponse(
+        return getXmlResponsesSaxParser().parseLoggingStatusResponse(
             new HttpMethodReleaseInputStream(httpMethod)).getBucketLoggingStatus();        
     }
 
@@ -1803,7 +1975,9 @@ public class RestS3Service extends S3Service implements SignedUrlHandler {
         
         if (object.getDataInputStream() != null) {
             putMethod.setRequestEntity(new RepeatableRequestEntity(object.getKey(),
-                object.getDataInputStream(), object.getContentType(), object.getContentLength()));
+                object.getDataInputStream(), object.getContentType(), object.getContentLength(),
+                getBandwidthShaper().getUploadLimiter(getHostnameFromUrl(signedPutUrl)),
+                getKnownMD5Hash(object)));
         }
 
         performRequest(putMethod, 200);
@@ -1920,7 +2094,7 @@ public class RestS3Service extends S3Service implements SignedUrlHandler {
         requestParameters.put("acl","");
 
 	    performRequest(httpMethod, 200);
-        return (new XmlResponsesSaxParser()).parseAccessControlListResponse(
+        return getXmlResponsesSaxParser().parseAccessControlListResponse(
             new HttpMethodReleaseInputStream(httpMethod)).getAccessControlList();
 	}    
     
@@ -1995,7 +2169,8 @@ public class RestS3Service extends S3Service implements SignedUrlHandler {
         responseObject.setMetadataComplete(true); // Flag this object as having the complete metadata set.
         if (!headOnly) {
             HttpMethodReleaseInputStream releaseIS = new HttpMethodReleaseInputStream(httpMethod);
-            responseObject.setDataInputStream(releaseIS);
+            responseObject.setDataInputStream(limitDownloadBandwidth(releaseIS, 
+                getHostnameFromUrl(signedGetOrHeadUrl)));
         } else {                
             // Release connection after HEAD (there's no response content)
             if (log.isDebugEnabled()) {
@@ -0,0 +1,78 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream wrapper that limits the rate at which data is read from the underlying stream
+ * with a {@link BandwidthLimiter}. Reads are broken into chunks recommended by the limiter so
+ * data is paced smoothly.
+ *
+ * @author James Murty
+ */
+public class BandwidthLimitedInputStream extends InputStream implements InputStreamWrapper {
+    private InputStream inputStream = null;
+    private BandwidthLimiter limiter = null;
+
+    /**
+     * @param inputStream
+     * the input stream to wrap.
+     * @param limiter
+     * the limiter that controls how quickly data may be read.
+     */
+    public BandwidthLimitedInputStream(InputStream inputStream, BandwidthLimiter limiter) {
+        if (inputStream == null) {
+            throw new IllegalArgumentException(
+                "BandwidthLimitedInputStream cannot run with a null InputStream");
+        }
+        this.inputStream = inputStream;
+        this.limiter = limiter;
+    }
+
+    public int read() throws IOException {
+        int read = inputStream.read();
+        if (read != -1) {
+            limiter.acquire(1);
+        }
+        return read;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = inputStream.read(b, off, limiter.getChunkSize(len));
+        if (read > 0) {
+            limiter.acquire(read);
+        }
+        return read;
+    }
+
+    public int available() throws IOException {
+        return inputStream.available();
+    }
+
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
+    public InputStream getWrappedInputStream() {
+        return inputStream;
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.io;
+
+import java.io.IOException;
+
+/**
+ * A token bucket that limits the rate at which bytes are transferred by all the threads
+ * that share it.
+ * <p>
+ * Tokens, each representing one byte, are added to the bucket continuously at the configured
+ * rate, and the bucket holds at most a quarter of a second's worth of tokens so only short
+ * bursts are allowed after a period of inactivity. A thread about to transfer data calls
+ * {@link #acquire(int)}, which takes tokens for the bytes and sleeps just long enough for the
+ * bucket to cover any shortfall. Tokens are handed out in the order threads ask for them, so
+ * no thread is starved, and there is no polling or random delay.
+ * <p>
+ * A limiter may have a parent limiter, such as a limiter for all of a service's connections
+ * that is the parent of a limiter for a single host. Bytes acquired from a limiter are also
+ * acquired from all of its ancestors, and the caller waits until every limiter in the chain
+ * can cover the transfer.
+ * <p>
+ * The rate of a limiter can be changed at any time with {@link #setBytesPerSecond(long)}, and
+ * a rate of zero or less disables that limiter.
+ *
+ * @author James Murty
+ */
+public class BandwidthLimiter {
+
+    /**
+     * The smallest number of bytes that {@link #getChunkSize(int)} will recommend.
+     */
+    private static final int MIN_CHUNK_SIZE = 1024;
+
+    private final BandwidthLimiter parent;
+    private long bytesPerSecond = 0;
+    private double availableBytes = 0;
+    private long lastRefillTimeMS = 0;
+
+    /**
+     * @param bytesPerSecond
+     * the maximum transfer rate in bytes per second, or 0 for no limit.
+     * @param parent
+     * a limiter that also applies to all transfers through this limiter, may be null.
+     */
+    public BandwidthLimiter(long bytesPerSecond, BandwidthLimiter parent) {
+        this.parent = parent;
+        setBytesPerSecond(bytesPerSecond);
+    }
+
+    /**
+     * @param bytesPerSecond
+     * the maximum transfer rate in bytes per second, or 0 for no limit.
+     */
+    public BandwidthLimiter(long bytesPerSecond) {
+        this(bytesPerSecond, null);
+    }
+
+    /**
+     * Changes the transfer rate of this limiter, which takes effect immediately for all the
+     * threads using it.
+     *
+     * @param bytesPerSecond
+     * the maximum transfer rate in bytes per second, or 0 for no limit.
+     */
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        this.availableBytes = getCapacity();
+        this.lastRefillTimeMS = System.currentTimeMillis();
+    }
+
+    /**
+     * @return
+     * the maximum transfer rate of this limiter in bytes per second, or 0 if it has no limit.
+     */
+    public synchronized long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return
+     * this limiter's parent, or null if it has none.
+     */
+    public BandwidthLimiter getParent() {
+        return parent;
+    }
+
+    /**
+     * @return
+     * true if this limiter or any of its ancestors has a rate limit.
+     */
+    public boolean isLimited() {
+        for (BandwidthLimiter limiter = this; limiter != null; limiter = limiter.parent) {
+            if (limiter.getBytesPerSecond() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Recommends how many bytes a caller should transfer at a time, so that each call to
+     * {@link #acquire(int)} waits for no more than about a tenth of a second and the
+     * transfer is paced smoothly instead of in large bursts.
+     *
+     * @param maxChunkSize
+     * the largest number of bytes the caller can transfer at once.
+     * @return
+     * the recommended number of bytes to transfer at a time, no more than maxChunkSize.
+     */
+    public int getChunkSize(int maxChunkSize) {
+        long chunkSize = maxChunkSize;
+        for (BandwidthLimiter limiter = this; limiter != null; limiter = limiter.parent) {
+            long rate = limiter.getBytesPerSecond();
+            if (rate > 0) {
+                chunkSize = Math.min(chunkSize, Math.max(MIN_CHUNK_SIZE, rate / 10));
+            }
+        }
+        return (int) Math.min(maxChunkSize, chunkSize);
+    }
+
+    /**
+     * Takes tokens for the given number of bytes from this limiter and its ancestors,
+     * waiting until the tokens are available if necessary.
+     *
+     * @param byteCount
+     * the number of bytes that will be transferred once this method returns.
+     * @throws IOException
+     * if the thread is interrupted while waiting.
+     */
+    public void acquire(int byteCount) throws IOException {
+        if (byteCount <= 0) {
+            return;
+        }
+        long waitMS = 0;
+        for (BandwidthLimiter limiter = this; limiter != null; limiter = limiter.parent) {
+            waitMS = Math.max(waitMS, limiter.reserve(byteCount));
+        }
+        if (waitMS > 0) {
+            try {
+                Thread.sleep(waitMS);
+            } catch (InterruptedException e) {
+                throw new IOException("Bandwidth limiting of transfer was interrupted");
+            }
+        }
+    }
+
+    /**
+     * Takes tokens for the given number of bytes, allowing the bucket to go into debt.
+     *
+     * @return
+     * how many milliseconds the caller must wait before the debt is paid off.
+     */
+    private synchronized long reserve(int byteCount) {
+        if (bytesPerSecond <= 0) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        availableBytes = Math.min(getCapacity(),
+            availableBytes + (now - lastRefillTimeMS) * bytesPerSecond / 1000.0);
+        lastRefillTimeMS = now;
+
+        availableBytes -= byteCount;
+        if (availableBytes >= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(-availableBytes * 1000 / bytesPerSecond);
+    }
+
+    private double getCapacity() {
+        return Math.max(MIN_CHUNK_SIZE, bytesPerSecond / 4.0);
+    }
+
+}
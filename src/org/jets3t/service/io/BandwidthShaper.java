@@ -0,0 +1,206 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.io;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jets3t.service.Constants;
+import org.jets3t.service.Jets3tProperties;
+
+/**
+ * Manages the {@link BandwidthLimiter}s that apply to uploads and downloads within one scope,
+ * such as a single S3 service, with separate limits for each direction and separate limits
+ * for each S3 host name (that is, each bucket addressed with a virtual host name).
+ * <p>
+ * Shapers form a hierarchy. The global shaper, available from {@link #getGlobalShaper()},
+ * applies to every transfer in the JVM and is configured with the JetS3t properties
+ * <tt>httpclient.read-throttle</tt> (uploads) and <tt>httpclient.download-throttle</tt>
+ * (downloads), both in KB/s. Each service has its own shaper whose limiters have the global
+ * shaper's limiters as parents, so a transfer is limited by its host's limit, its service's
+ * limit and the global limit.
+ * <p>
+ * All limits can be changed at runtime through the shaper's limiters, or for per-host limits
+ * with {@link #setPerHostUploadBytesPerSecond(long)} and
+ * {@link #setPerHostDownloadBytesPerSecond(long)}.
+ * <p>
+ * A shaper keeps the per-host limiters of at most {@link #MAX_PER_HOST_LIMITERS} hosts in each
+ * direction, discarding those of the least recently used hosts beyond this. A host whose
+ * limiter was discarded is given a new limiter when it is next used.
+ *
+ * @author James Murty
+ */
+public class BandwidthShaper {
+    /**
+     * The maximum number of hosts whose limiters are kept for each direction.
+     */
+    public static final int MAX_PER_HOST_LIMITERS = 256;
+
+    private static BandwidthShaper globalShaper = null;
+
+    private final BandwidthLimiter uploadLimiter;
+    private final BandwidthLimiter downloadLimiter;
+
+    private long perHostUploadBytesPerSecond = 0;
+    private long perHostDownloadBytesPerSecond = 0;
+    private final Map perHostUploadLimiters = new PerHostLimiterMap();
+    private final Map perHostDownloadLimiters = new PerHostLimiterMap();
+
+    /**
+     * Holds per-host limiters in least recently used order, discarding the limiters of the
+     * least recently used hosts once there are more than {@link #MAX_PER_HOST_LIMITERS}.
+     */
+    private static class PerHostLimiterMap extends LinkedHashMap {
+        private static final long serialVersionUID = -2384717720353018843L;
+
+        public PerHostLimiterMap() {
+            super(16, 0.75f, true);
+        }
+
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+            return size() > MAX_PER_HOST_LIMITERS;
+        }
+    }
+
+    /**
+     * @param parent
+     * the shaper whose limits also apply to all transfers through this shaper, may be null.
+     * @param uploadBytesPerSecond
+     * the maximum rate for all uploads through this shaper, or 0 for no limit.
+     * @param downloadBytesPerSecond
+     * the maximum rate for all downloads through this shaper, or 0 for no limit.
+     * @param perHostUploadBytesPerSecond
+     * the maximum rate for uploads to any one host through this shaper, or 0 for no limit.
+     * @param perHostDownloadBytesPerSecond
+     * the maximum rate for downloads from any one host through this shaper, or 0 for no limit.
+     */
+    public BandwidthShaper(BandwidthShaper parent, long uploadBytesPerSecond,
+        long downloadBytesPerSecond, long perHostUploadBytesPerSecond,
+        long perHostDownloadBytesPerSecond)
+    {
+        this.uploadLimiter = new BandwidthLimiter(uploadBytesPerSecond,
+            (parent != null ? parent.getUploadLimiter() : null));
+        this.downloadLimiter = new BandwidthLimiter(downloadBytesPerSecond,
+            (parent != null ? parent.getDownloadLimiter() : null));
+        this.perHostUploadBytesPerSecond = perHostUploadBytesPerSecond;
+        this.perHostDownloadBytesPerSecond = perHostDownloadBytesPerSecond;
+    }
+
+    /**
+     * @return
+     * the shaper that applies to all transfers in the JVM, configured with the JetS3t
+     * properties <tt>httpclient.read-throttle</tt> and <tt>httpclient.download-throttle</tt>.
+     */
+    public static synchronized BandwidthShaper getGlobalShaper() {
+        if (globalShaper == null) {
+            Jets3tProperties jets3tProperties =
+                Jets3tProperties.getInstance(Constants.JETS3T_PROPERTIES_FILENAME);
+            globalShaper = new BandwidthShaper(null,
+                1024 * jets3tProperties.getLongProperty("httpclient.read-throttle", 0),
+                1024 * jets3tProperties.getLongProperty("httpclient.download-throttle", 0),
+                0, 0);
+        }
+        return globalShaper;
+    }
+
+    /**
+     * @return
+     * the limiter for all uploads through this shaper.
+     */
+    public BandwidthLimiter getUploadLimiter() {
+        return uploadLimiter;
+    }
+
+    /**
+     * @return
+     * the limiter for all downloads through this shaper.
+     */
+    public BandwidthLimiter getDownloadLimiter() {
+        return downloadLimiter;
+    }
+
+    /**
+     * @param hostname
+     * the name of the host data is uploaded to.
+     * @return
+     * the limiter for uploads to the given host, whose parent is this shaper's upload limiter.
+     */
+    public BandwidthLimiter getUploadLimiter(String hostname) {
+        synchronized (perHostUploadLimiters) {
+            BandwidthLimiter limiter = (BandwidthLimiter) perHostUploadLimiters.get(hostname);
+            if (limiter == null) {
+                limiter = new BandwidthLimiter(perHostUploadBytesPerSecond, uploadLimiter);
+                perHostUploadLimiters.put(hostname, limiter);
+            }
+            return limiter;
+        }
+    }
+
+    /**
+     * @param hostname
+     * the name of the host data is downloaded from.
+     * @return
+     * the limiter for downloads from the given host, whose parent is this shaper's download
+     * limiter.
+     */
+    public BandwidthLimiter getDownloadLimiter(String hostname) {
+        synchronized (perHostDownloadLimiters) {
+            BandwidthLimiter limiter = (BandwidthLimiter) perHostDownloadLimiters.get(hostname);
+            if (limiter == null) {
+                limiter = new BandwidthLimiter(perHostDownloadBytesPerSecond, downloadLimiter);
+                perHostDownloadLimiters.put(hostname, limiter);
+            }
+            return limiter;
+        }
+    }
+
+    /**
+     * Changes the upload limit that applies to each host, for current and future transfers.
+     *
+     * @param bytesPerSecond
+     * the maximum rate for uploads to any one host, or 0 for no limit.
+     */
+    public void setPerHostUploadBytesPerSecond(long bytesPerSecond) {
+        synchronized (perHostUploadLimiters) {
+            perHostUploadBytesPerSecond = bytesPerSecond;
+            Iterator iter = perHostUploadLimiters.values().iterator();
+            while (iter.hasNext()) {
+                ((BandwidthLimiter) iter.next()).setBytesPerSecond(bytesPerSecond);
+            }
+        }
+    }
+
+    /**
+     * Changes the download limit that applies to each host, for current and future transfers.
+     *
+     * @param bytesPerSecond
+     * the maximum rate for downloads from any one host, or 0 for no limit.
+     */
+    public void setPerHostDownloadBytesPerSecond(long bytesPerSecond) {
+        synchronized (perHostDownloadLimiters) {
+            perHostDownloadBytesPerSecond = bytesPerSecond;
+            Iterator iter = perHostDownloadLimiters.values().iterator();
+            while (iter.hasNext()) {
+                ((BandwidthLimiter) iter.next()).setBytesPerSecond(bytesPerSecond);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.io;
+
+import java.util.LinkedList;
+
+/**
+ * A shared pool of reusable byte array buffers, used to transfer data through JetS3t's
+ * streams and request entities without allocating new buffers for every request.
+ * <p>
+ * Buffers are pooled in size classes that are powers of two, from {@link #MIN_POOLED_SIZE}
+ * to {@link #MAX_POOLED_SIZE} bytes. A request for a buffer is satisfied with a buffer from
+ * the smallest class that is at least as large as the size requested, so callers must use the
+ * buffer's actual length rather than the size they asked for. Requests for buffers larger
+ * than the largest size class are allocated directly and are not retained when released.
+ * <p>
+ * Only a limited number of buffers are retained in each size class, and only a limited number
+ * of bytes across all the size classes, so a temporary burst of activity does not leave the
+ * pool holding large amounts of memory. Buffers beyond these limits are simply left for the
+ * garbage collector when they are released.
+ * <p>
+ * A buffer must not be used after it has been released, and must not be released more than
+ * once.
+ *
+ * @author James Murty
+ */
+public class BufferPool {
+
+    /**
+     * The default size of the buffers used to copy data between streams, 64KB.
+     */
+    public static final int DEFAULT_TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The smallest size class of buffers kept by the pool, 1KB.
+     */
+    public static final int MIN_POOLED_SIZE = 1024;
+
+    /**
+     * The largest size class of buffers kept by the pool, 1MB.
+     */
+    public static final int MAX_POOLED_SIZE = 1024 * 1024;
+
+    /**
+     * The maximum number of buffers retained in each size class.
+     */
+    private static final int MAX_RETAINED_PER_SIZE_CLASS = 64;
+
+    /**
+     * The maximum number of bytes retained by the pool across all size classes, 16MB.
+     */
+    public static final long MAX_RETAINED_BYTES = 16 * 1024 * 1024;
+
+    private static final BufferPool sharedInstance = new BufferPool();
+
+    private final LinkedList[] sizeClasses;
+    private long retainedBytes = 0;
+
+    private BufferPool() {
+        int sizeClassCount = sizeClassIndex(MAX_POOLED_SIZE) + 1;
+        sizeClasses = new LinkedList[sizeClassCount];
+        for (int i = 0; i < sizeClassCount; i++) {
+            sizeClasses[i] = new LinkedList();
+        }
+    }
+
+    /**
+     * @return
+     * the buffer pool shared by all of JetS3t's streams and request entities.
+     */
+    public static BufferPool getInstance() {
+        return sharedInstance;
+    }
+
+    /**
+     * Takes a buffer from the pool, allocating a new buffer if none of a suitable size is
+     * available.
+     *
+     * @param minimumSize
+     * the smallest buffer the caller can use.
+     * @return
+     * a buffer of at least the minimum size. The buffer's contents are undefined.
+     */
+    public byte[] takeBuffer(int minimumSize) {
+        if (minimumSize > MAX_POOLED_SIZE) {
+            return new byte[minimumSize];
+        }
+        int index = sizeClassIndex(minimumSize);
+        LinkedList sizeClass = sizeClasses[index];
+        synchronized (sizeClasses) {
+            if (!sizeClass.isEmpty()) {
+                byte[] buffer = (byte[]) sizeClass.removeFirst();
+                retainedBytes -= buffer.length;
+                return buffer;
+            }
+        }
+        return new byte[MIN_POOLED_SIZE << index];
+    }
+
+    /**
+     * Returns a buffer to the pool so it can be reused. Buffers that were not taken from
+     * the pool are accepted if their length matches a size class.
+     *
+     * @param buffer
+     * the buffer to return, which the caller must not use again. Ignored if null.
+     */
+    public void releaseBuffer(byte[] buffer) {
+        if (buffer == null || buffer.length < MIN_POOLED_SIZE || buffer.length > MAX_POOLED_SIZE) {
+            return;
+        }
+        int index = sizeClassIndex(buffer.length);
+        if ((MIN_POOLED_SIZE << index) != buffer.length) {
+            // Not a size class buffer.
+            return;
+        }
+        LinkedList sizeClass = sizeClasses[index];
+        synchronized (sizeClasses) {
+            if (sizeClass.size() < MAX_RETAINED_PER_SIZE_CLASS
+                && retainedBytes + buffer.length <= MAX_RETAINED_BYTES)
+            {
+                sizeClass.addFirst(buffer);
+                retainedBytes += buffer.length;
+            }
+        }
+    }
+
+    /**
+     * @return
+     * the index of the smallest size class that holds at least the given number of bytes.
+     */
+    private static int sizeClassIndex(int size) {
+        int index = 0;
+        while ((MIN_POOLED_SIZE << index) < size) {
+            index++;
+        }
+        return index;
+    }
+
+}
@@ -0,0 +1,175 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream wrapper that replaces every carriage return (0x0D) byte in an XML document
+ * with the character entity <code>&amp;#013;</code> as the document is read, so an XML parser
+ * does not normalise the carriage returns in element text to line feeds.
+ * <p>
+ * The document must be in an ASCII-compatible encoding such as UTF-8, in which the byte 0x0D
+ * never occurs within a multi-byte character. All other bytes are passed through unchanged.
+ * <p>
+ * When this stream is closed, any data remaining in the underlying stream is read and
+ * discarded before it is closed, because XML parsers often stop reading at the end of the
+ * root element. Consuming the whole underlying stream lets a
+ * {@link org.jets3t.service.impl.rest.httpclient.HttpMethodReleaseInputStream} release its
+ * connection for reuse, rather than aborting it.
+ *
+ * @author James Murty
+ */
+public class CarriageReturnEscapingInputStream extends InputStream implements InputStreamWrapper {
+    private static final byte[] ESCAPED_CARRIAGE_RETURN = new byte[] {
+        '&', '#', '0', '1', '3', ';'
+    };
+
+    private InputStream inputStream = null;
+
+    private byte[] buffer = null;
+    private int bufferPosition = 0;
+    private int bufferLimit = 0;
+
+    /**
+     * The index of the next byte of the escape sequence to return, or the sequence's length
+     * when no escape sequence is in progress.
+     */
+    private int escapePosition = ESCAPED_CARRIAGE_RETURN.length;
+
+    private boolean underlyingStreamConsumed = false;
+    private boolean closed = false;
+
+    private final byte[] singleByte = new byte[1];
+
+    /**
+     * @param inputStream
+     * the stream containing the XML document to escape.
+     */
+    public CarriageReturnEscapingInputStream(InputStream inputStream) {
+        if (inputStream == null) {
+            throw new IllegalArgumentException(
+                "CarriageReturnEscapingInputStream cannot run with a null InputStream");
+        }
+        this.inputStream = inputStream;
+        this.buffer = BufferPool.getInstance().takeBuffer(8192);
+    }
+
+    public int read() throws IOException {
+        int read = -1;
+        while ((read = read(singleByte, 0, 1)) == 0) {
+            // Keep trying until a byte is available or the stream ends.
+        }
+        return (read == -1 ? -1 : singleByte[0] & 0xFF);
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        int written = 0;
+        while (written < len) {
+            if (escapePosition < ESCAPED_CARRIAGE_RETURN.length) {
+                b[off + written++] = ESCAPED_CARRIAGE_RETURN[escapePosition++];
+                continue;
+            }
+            if (bufferPosition == bufferLimit) {
+                // Only block for more data if nothing has been returned yet.
+                if (written > 0 && inputStream.available() <= 0) {
+                    break;
+                }
+                if (!fillBuffer()) {
+                    break;
+                }
+            }
+            // Copy bytes up to the next carriage return in a single pass.
+            int start = bufferPosition;
+            int end = Math.min(bufferLimit, start + (len - written));
+            int i = start;
+            while (i < end && buffer[i] != '\r') {
+                i++;
+            }
+            System.arraycopy(buffer, start, b, off + written, i - start);
+            written += i - start;
+            bufferPosition = i;
+            if (i < end) {
+                // Skip the carriage return and begin its escape sequence.
+                bufferPosition++;
+                escapePosition = 0;
+            }
+        }
+        return (written == 0 ? -1 : written);
+    }
+
+    public int available() throws IOException {
+        if (closed) {
+            return 0;
+        }
+        return (ESCAPED_CARRIAGE_RETURN.length - escapePosition)
+            + (bufferLimit - bufferPosition) + inputStream.available();
+    }
+
+    /**
+     * Reads and discards any data left in the underlying stream, then closes it.
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            while (!underlyingStreamConsumed) {
+                bufferPosition = bufferLimit;
+                fillBuffer();
+            }
+        } finally {
+            BufferPool.getInstance().releaseBuffer(buffer);
+            buffer = null;
+            inputStream.close();
+        }
+    }
+
+    public InputStream getWrappedInputStream() {
+        return inputStream;
+    }
+
+    /**
+     * @return
+     * false if the underlying stream has no more data.
+     */
+    private boolean fillBuffer() throws IOException {
+        if (underlyingStreamConsumed) {
+            return false;
+        }
+        int read = inputStream.read(buffer, 0, buffer.length);
+        if (read == -1) {
+            underlyingStreamConsumed = true;
+            bufferPosition = bufferLimit = 0;
+            return false;
+        }
+        bufferPosition = 0;
+        bufferLimit = read;
+        return true;
+    }
+
+}
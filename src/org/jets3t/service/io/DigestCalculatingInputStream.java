@@ -0,0 +1,163 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Input stream wrapper that computes digests of the data read through it, and counts the bytes
+ * read, so data can be hashed as it is passed to another stream or file rather than being
+ * read again afterwards.
+ * <p>
+ * Several digests can be computed at once. To hash data both before and after it is
+ * transformed, for example by {@link GZipDeflatingInputStream}, wrap the original stream and
+ * the transforming stream in separate instances of this class. The digests are available from
+ * {@link #getDigest(String)} once all the data has been read.
+ * <p>
+ * This stream does not support {@link #mark(int)} and {@link #reset()}, as data that has
+ * been hashed cannot be removed from a digest.
+ *
+ * @author James Murty
+ */
+public class DigestCalculatingInputStream extends InputStream implements InputStreamWrapper {
+    private final InputStream inputStream;
+    private final String[] algorithms;
+    private final MessageDigest[] messageDigests;
+    private final byte[][] digests;
+    private long bytesRead = 0;
+
+    /**
+     * Computes an MD5 digest of the data read from the given stream.
+     *
+     * @param inputStream
+     * the input stream to wrap, whose data will be hashed.
+     * @throws NoSuchAlgorithmException
+     */
+    public DigestCalculatingInputStream(InputStream inputStream) throws NoSuchAlgorithmException {
+        this(inputStream, new String[] {"MD5"});
+    }
+
+    /**
+     * Computes digests with each of the given algorithms of the data read from the given stream.
+     *
+     * @param inputStream
+     * the input stream to wrap, whose data will be hashed.
+     * @param algorithms
+     * the names of the digest algorithms, such as "MD5" or "SHA-1".
+     * @throws NoSuchAlgorithmException
+     */
+    public DigestCalculatingInputStream(InputStream inputStream, String[] algorithms)
+        throws NoSuchAlgorithmException
+    {
+        if (inputStream == null) {
+            throw new IllegalArgumentException(
+                "DigestCalculatingInputStream cannot run with a null InputStream");
+        }
+        this.inputStream = inputStream;
+        this.algorithms = algorithms;
+        this.messageDigests = new MessageDigest[algorithms.length];
+        this.digests = new byte[algorithms.length][];
+        for (int i = 0; i < algorithms.length; i++) {
+            messageDigests[i] = MessageDigest.getInstance(algorithms[i]);
+        }
+    }
+
+    public int read() throws IOException {
+        int read = inputStream.read();
+        if (read != -1) {
+            for (int i = 0; i < messageDigests.length; i++) {
+                messageDigests[i].update((byte) read);
+            }
+            bytesRead++;
+        }
+        return read;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = inputStream.read(b, off, len);
+        if (read > 0) {
+            for (int i = 0; i < messageDigests.length; i++) {
+                messageDigests[i].update(b, off, read);
+            }
+            bytesRead += read;
+        }
+        return read;
+    }
+
+    public int available() throws IOException {
+        return inputStream.available();
+    }
+
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
+    public boolean markSupported() {
+        return false;
+    }
+
+    public InputStream getWrappedInputStream() {
+        return inputStream;
+    }
+
+    /**
+     * @return
+     * the number of bytes read through this stream.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Returns the digest of the data read through this stream with the given algorithm. The
+     * digest is completed by the first call to this method, so it should only be called once
+     * all the data has been read.
+     *
+     * @param algorithm
+     * one of the algorithms given when this stream was created.
+     * @return
+     * the digest of the data read.
+     * @throws IllegalArgumentException
+     * if the algorithm was not one of those given when this stream was created.
+     */
+    public synchronized byte[] getDigest(String algorithm) {
+        for (int i = 0; i < algorithms.length; i++) {
+            if (algorithms[i].equalsIgnoreCase(algorithm)) {
+                if (digests[i] == null) {
+                    digests[i] = messageDigests[i].digest();
+                }
+                return digests[i];
+            }
+        }
+        throw new IllegalArgumentException("Digest algorithm " + algorithm
+            + " is not computed by this stream");
+    }
+
+    /**
+     * @return
+     * the MD5 digest of the data read through this stream, as for {@link #getDigest(String)}.
+     */
+    public byte[] getMD5Digest() {
+        return getDigest("MD5");
+    }
+
+}
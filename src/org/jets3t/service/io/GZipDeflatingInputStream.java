@@ -34,8 +34,8 @@ public class GZipDeflatingInputStream extends InputStream implements InputStream
 	
 	Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
 	private InputStream inputStream = null;	
-	private byte[] buffer = new byte[BUFFER_SIZE];
-	private byte[] deflatedBytes = new byte[BUFFER_SIZE];
+	private byte[] buffer = BufferPool.getInstance().takeBuffer(BUFFER_SIZE);
+	private byte[] deflatedBytes = BufferPool.getInstance().takeBuffer(BUFFER_SIZE);
 	private CRC32 crc = new CRC32();
 	int bufferOffset = 0;
 	int bufferEnd = 0;
@@ -105,8 +105,18 @@ public class GZipDeflatingInputStream extends InputStream implements InputStream
 	private int getDeflatedBufferAvail() {
 		return bufferEnd - bufferOffset;
 	}
+	
+	/*
+	 * The buffers are returned to the shared pool on close, so no data can be read afterwards.
+	 */
+	private void ensureOpen() throws IOException {
+		if (deflatedBytes == null) {
+			throw new IOException("Stream closed");
+		}
+	}
 
 	public int read() throws IOException {
+		ensureOpen();
 		if (getDeflatedBufferAvail() == 0) {
 			primeDeflateBuffer();
 		}
@@ -118,6 +128,7 @@ public class GZipDeflatingInputStream extends InputStream implements InputStream
 	}
 		
 	public int read(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
 		if (getDeflatedBufferAvail() == 0) {
 			primeDeflateBuffer();
 		}
@@ -141,6 +152,7 @@ public class GZipDeflatingInputStream extends InputStream implements InputStream
 	}
 	
 	public int available() throws IOException {
+		ensureOpen();
 		if (EOFTail) {
 			return -1;
 		} else if (getDeflatedBufferAvail() == 0) {
@@ -152,6 +164,14 @@ public class GZipDeflatingInputStream extends InputStream implements InputStream
 	public void close() throws IOException {
 		EOFTail = true;
 		inputStream.close();
+		if (buffer != null) {
+			// Return buffers to the shared pool, they are not used once EOFTail is set.
+			BufferPool.getInstance().releaseBuffer(buffer);
+			BufferPool.getInstance().releaseBuffer(deflatedBytes);
+			buffer = null;
+			deflatedBytes = null;
+			deflater.end();
+		}
 	}
 	
 	public InputStream getWrappedInputStream() {
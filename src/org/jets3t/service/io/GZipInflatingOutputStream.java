@@ -51,7 +51,7 @@ public class GZipInflatingOutputStream extends OutputStream implements OutputStr
     private Inflater inflater = new Inflater(true);
     private CRC32 crc = new CRC32();
     private OutputStream outputStream = null;    
-    private byte[] inflatedBytes = new byte[BUFFER_SIZE];
+    private byte[] inflatedBytes = BufferPool.getInstance().takeBuffer(BUFFER_SIZE);
     
     // Variables used to parse Header.
     private boolean finishedHeader = false;
@@ -194,6 +194,9 @@ public class GZipInflatingOutputStream extends OutputStream implements OutputStr
         if (len <= 0) {
             return;
         }
+        if (inflatedBytes == null) {
+            throw new IOException("Cannot write to closed GZip output stream");
+        }
 
         if (!finishedHeader) {
             // Keep parsing header data until the header is finished.
@@ -229,6 +232,11 @@ public class GZipInflatingOutputStream extends OutputStream implements OutputStr
 
     public void close() throws IOException {
         outputStream.close();
+        
+        if (inflatedBytes != null) {
+            BufferPool.getInstance().releaseBuffer(inflatedBytes);
+            inflatedBytes = null;
+        }
 
         if (inflater != null) {
             // Check that the data stream has been correctly unzipped.
@@ -0,0 +1,68 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream wrapper that can be interrupted, like {@link InterruptableInputStream}, and that
+ * also notifies a {@link BytesProgressWatcher} of the bytes read through it, like
+ * {@link ProgressMonitoredInputStream}. Combining both jobs in one wrapper saves a layer of
+ * method calls on every read when large volumes of data are transferred.
+ *
+ * @author James Murty
+ */
+public class MonitoredInterruptableInputStream extends InterruptableInputStream {
+    private BytesProgressWatcher progressWatcher = null;
+
+    /**
+     * @param inputStream
+     *        the input stream to wrap.
+     * @param progressWatcher
+     *        a watcher object that is notified of the bytes read from the stream.
+     */
+    public MonitoredInterruptableInputStream(InputStream inputStream,
+        BytesProgressWatcher progressWatcher)
+    {
+        super(inputStream);
+        if (inputStream == null) {
+            throw new IllegalArgumentException(
+                "MonitoredInterruptableInputStream cannot run with a null InputStream");
+        }
+        this.progressWatcher = progressWatcher;
+    }
+
+    public int read() throws IOException {
+        int read = super.read();
+        if (read != -1) {
+            progressWatcher.updateBytesTransferred(1);
+        }
+        return read;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            progressWatcher.updateBytesTransferred(read);
+        }
+        return read;
+    }
+
+}
@@ -52,6 +52,7 @@ public class RepeatableInputStream extends InputStream implements InputStreamWra
     private int bufferOffset = 0;
     private long bytesReadPastMark = 0;
     private byte[] buffer = null;
+    private byte[] singleByte = new byte[1];
     
     /**
      * Creates a repeatable input stream based on another input stream.
@@ -71,10 +72,10 @@ public class RepeatableInputStream extends InputStream implements InputStreamWra
         this.is = inputStream;        
 
         this.bufferSize = bufferSize;
-        this.buffer = new byte[this.bufferSize];            
+        this.buffer = BufferPool.getInstance().takeBuffer(this.bufferSize);            
         
         if (log.isDebugEnabled()) {
-        	log.debug("Underlying input stream will be repeatable up to " + this.buffer.length + " bytes");
+        	log.debug("Underlying input stream will be repeatable up to " + this.bufferSize + " bytes");
         }
     }
 
@@ -127,18 +128,19 @@ public class RepeatableInputStream extends InputStream implements InputStreamWra
     		log.debug("Input stream marked at " + bytesReadPastMark + " bytes");
     	}
     	if (bytesReadPastMark <= bufferSize && buffer != null) {
-            // Clear buffer of already-read data to make more space.
+            // Clear buffer of already-read data to make more space, by shifting the unread data 
+            // to the start of the buffer.
     		// it is safe to cast bytesReadPastMark to an int because it is known to be less than bufferSize, which is an int
-            byte[] newBuffer = new byte[this.bufferSize];
-    		System.arraycopy(buffer, bufferOffset, newBuffer, 0, (int)(bytesReadPastMark - bufferOffset));
-            this.buffer = newBuffer;
+    		System.arraycopy(buffer, bufferOffset, buffer, 0, (int)(bytesReadPastMark - bufferOffset));
             this.bytesReadPastMark -= bufferOffset;
     		this.bufferOffset = 0;
     	} else {
             // If mark is called after the buffer was already exceeded, create a new buffer.
     		this.bufferOffset = 0;
             this.bytesReadPastMark = 0;
-            this.buffer = new byte[this.bufferSize];
+            if (this.buffer == null) {
+                this.buffer = BufferPool.getInstance().takeBuffer(this.bufferSize);
+            }
     	}
     }
 
@@ -146,17 +148,23 @@ public class RepeatableInputStream extends InputStream implements InputStreamWra
         return is.available();
     }
 
+    /**
+     * Closes the wrapped input stream and returns this stream's buffer to the 
+     * {@link BufferPool}, after which the stream's data cannot be repeated.
+     */
     public void close() throws IOException {
         is.close();
+        if (buffer != null) {
+            BufferPool.getInstance().releaseBuffer(buffer);
+            buffer = null;
+        }
     }
 
     public int read(byte[] out, int outOffset, int outLength) throws IOException {
-        byte[] tmp = new byte[outLength];
-
         // Check whether we already have buffered data.
         if (bufferOffset < bytesReadPastMark && buffer != null) {
             // Data is being repeated, so read from buffer instead of wrapped input stream.            
-            int bytesFromBuffer = tmp.length;
+            int bytesFromBuffer = outLength;
             if (bufferOffset + bytesFromBuffer > bytesReadPastMark) {
                 bytesFromBuffer = (int) bytesReadPastMark - bufferOffset;
             }
@@ -167,16 +175,16 @@ public class RepeatableInputStream extends InputStream implements InputStreamWra
             return bytesFromBuffer;
         }
         
-        // Read data from input stream.
-        int count = is.read(tmp);
+        // Read data from input stream directly into the output byte array.
+        int count = is.read(out, outOffset, outLength);
         
         if (count <= 0) {
             return count;
         }
         
         // Fill the buffer with data, as long as we won't exceed its capacity.
-        if (bytesReadPastMark + count <= bufferSize) {
-            System.arraycopy(tmp, 0, buffer, (int) bytesReadPastMark, count);
+        if (bytesReadPastMark + count <= bufferSize && buffer != null) {
+            System.arraycopy(out, outOffset, buffer, (int) bytesReadPastMark, count);
             bufferOffset += count;
         } else if (buffer != null) {
             // We have exceeded the buffer capacity, after which point it is of no use. Free the memory.
@@ -184,21 +192,19 @@ public class RepeatableInputStream extends InputStream implements InputStreamWra
         		log.debug("Buffer size " + bufferSize + " has been exceeded and the input stream " 
                 + "will not be repeatable until the next mark. Freeing buffer memory");
         	}
+            BufferPool.getInstance().releaseBuffer(buffer);
             buffer = null;
         }
         
-        // Write to output byte array.
-        System.arraycopy(tmp, 0, out, outOffset, count);
         bytesReadPastMark += count;
 
         return count;
     }
 
     public int read() throws IOException {
-        byte[] tmp = new byte[1];
-        int count = read(tmp);
+        int count = read(singleByte, 0, 1);
         if (count != -1) {
-            return tmp[0];
+            return singleByte[0] & 0xFF;
         } else {
             return count;
         }
@@ -0,0 +1,149 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.io;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+
+import org.jets3t.service.security.EncryptionUtil;
+
+/**
+ * Input stream that reads a file's data gzipped and/or encrypted on-the-fly, so transformed
+ * data can be uploaded without first being written to a temporary file.
+ * <p>
+ * The file is only opened when data is first read. This stream supports {@link #reset()},
+ * which reopens the file and starts the transformation again from the beginning, so requests
+ * can be repeated. The transformations must therefore produce the same output each time,
+ * which is the case for {@link GZipDeflatingInputStream} and {@link EncryptionUtil}.
+ * <p>
+ * If the expected length of the transformed data is given, a read that would produce more
+ * data, or that reaches the end of the data early, fails with an IOException rather than
+ * sending a request whose body does not match its Content-Length.
+ *
+ * @author James Murty
+ */
+public class TransformedFileInputStream extends InputStream {
+    private final File file;
+    private final boolean gzip;
+    private final EncryptionUtil encryptionUtil;
+    private final long expectedLength;
+
+    private InputStream inputStream = null;
+    private long bytesRead = 0;
+
+    /**
+     * @param file
+     * the file whose data is transformed.
+     * @param gzip
+     * if true, the data is gzipped.
+     * @param encryptionUtil
+     * if not null, the data is encrypted with this utility, after being gzipped.
+     * @param expectedLength
+     * the length of the transformed data, or -1 if the length is not checked.
+     */
+    public TransformedFileInputStream(File file, boolean gzip, EncryptionUtil encryptionUtil,
+        long expectedLength)
+    {
+        this.file = file;
+        this.gzip = gzip;
+        this.encryptionUtil = encryptionUtil;
+        this.expectedLength = expectedLength;
+    }
+
+    private InputStream getInputStream() throws IOException {
+        if (inputStream == null) {
+            InputStream is = new BufferedInputStream(new FileInputStream(file));
+            try {
+                if (gzip) {
+                    is = new GZipDeflatingInputStream(is);
+                }
+                if (encryptionUtil != null) {
+                    is = encryptionUtil.encrypt(is);
+                }
+            } catch (GeneralSecurityException e) {
+                is.close();
+                IOException ioe = new IOException("Unable to encrypt data from file " + file);
+                ioe.initCause(e);
+                throw ioe;
+            }
+            inputStream = is;
+        }
+        return inputStream;
+    }
+
+    private int countBytesRead(int count) throws IOException {
+        if (count >= 0) {
+            bytesRead += count;
+            if (expectedLength >= 0 && bytesRead > expectedLength) {
+                throw new IOException("Transformed data from file " + file
+                    + " is longer than the expected " + expectedLength + " bytes");
+            }
+        } else if (expectedLength >= 0 && bytesRead != expectedLength) {
+            throw new IOException("Transformed data from file " + file + " is " + bytesRead
+                + " bytes long rather than the expected " + expectedLength + " bytes");
+        }
+        return count;
+    }
+
+    public int read() throws IOException {
+        int b = getInputStream().read();
+        countBytesRead(b < 0 ? -1 : 1);
+        return b;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        return countBytesRead(getInputStream().read(b, off, len));
+    }
+
+    public int available() throws IOException {
+        return (inputStream == null ? 0 : inputStream.available());
+    }
+
+    public boolean markSupported() {
+        return true;
+    }
+
+    /**
+     * Does nothing, as this stream can only be reset to the beginning of the data.
+     */
+    public void mark(int readlimit) {
+    }
+
+    /**
+     * Closes the file, so the transformed data is produced again from the beginning of the
+     * file by the next read.
+     */
+    public void reset() throws IOException {
+        close();
+        bytesRead = 0;
+    }
+
+    public void close() throws IOException {
+        if (inputStream != null) {
+            InputStream is = inputStream;
+            inputStream = null;
+            is.close();
+        }
+    }
+
+}
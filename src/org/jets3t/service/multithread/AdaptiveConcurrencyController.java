@@ -0,0 +1,183 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.multithread;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jets3t.service.S3Service;
+
+/**
+ * Adjusts the number of requests a multi-threaded operation runs at once, using an
+ * additive-increase, multiplicative-decrease (AIMD) strategy based on observed request
+ * throughput, latency and S3 Internal Server (500) or Service Unavailable (503) errors.
+ * <p>
+ * The window of concurrent requests starts at the operation's configured thread count.
+ * Each sampling period, if the window was fully used and throughput did not fall, the
+ * window grows by one. If throughput drops noticeably the window shrinks by one. If S3
+ * reports 500 or 503 errors the window is halved immediately, and if the average request
+ * latency rises well above the best latency seen so far without a matching gain in
+ * throughput, the window is cut by a quarter.
+ * <p>
+ * This class is not thread-safe, it is only used by the thread that manages an operation.
+ *
+ * @author James Murty
+ */
+class AdaptiveConcurrencyController {
+    private static final Log log = LogFactory.getLog(AdaptiveConcurrencyController.class);
+
+    /**
+     * Minimum time over which throughput and latency are sampled before the window is adjusted.
+     */
+    private static final long SAMPLE_INTERVAL_MS = 1000;
+
+    /**
+     * Latency more than this multiple of the best average latency is treated as congestion.
+     */
+    private static final double LATENCY_CONGESTION_FACTOR = 2.0;
+
+    /**
+     * Throughput must fall below this fraction of the prior sample to count as a drop.
+     */
+    private static final double THROUGHPUT_DROP_FACTOR = 0.9;
+
+    private final S3Service s3Service;
+    private final int minWindow;
+    private final int maxWindow;
+    private int window;
+
+    private long lastInternalErrorCount = 0;
+
+    private long sampleStartTimeMS = 0;
+    private long sampleCompletedCount = 0;
+    private long sampleTotalLatencyMS = 0;
+    private boolean sampleWindowSaturated = false;
+
+    private double priorThroughput = -1;
+    private double bestAverageLatencyMS = Double.MAX_VALUE;
+
+    /**
+     * @param s3Service
+     * the service performing requests, whose count of internal errors is monitored.
+     * @param initialWindow
+     * the number of concurrent requests to start with.
+     * @param minWindow
+     * the smallest number of concurrent requests the window may shrink to.
+     * @param maxWindow
+     * the largest number of concurrent requests the window may grow to.
+     */
+    public AdaptiveConcurrencyController(S3Service s3Service, int initialWindow,
+        int minWindow, int maxWindow)
+    {
+        this.s3Service = s3Service;
+        this.minWindow = Math.max(1, minWindow);
+        this.maxWindow = Math.max(this.minWindow, maxWindow);
+        this.window = Math.min(this.maxWindow, Math.max(this.minWindow, initialWindow));
+        this.lastInternalErrorCount = s3Service.getInternalErrorCount();
+        this.sampleStartTimeMS = System.currentTimeMillis();
+    }
+
+    /**
+     * @return
+     * the number of requests that should currently be run at once.
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Notes whether all the slots in the current window are in use. The window will only grow
+     * after a sample period in which it was fully used, since otherwise there is no evidence
+     * that more concurrency would help.
+     *
+     * @param inFlightCount
+     * the number of requests currently running.
+     */
+    public void requestsStarted(int inFlightCount) {
+        if (inFlightCount >= window) {
+            sampleWindowSaturated = true;
+        }
+    }
+
+    /**
+     * Records the completion of a request, and adjusts the window if S3 has reported errors
+     * or if a full sample period has elapsed.
+     *
+     * @param latencyMS
+     * how long the completed request took.
+     * @param wasServiceError
+     * true if the request failed with an S3 500 or 503 error.
+     */
+    public void requestCompleted(long latencyMS, boolean wasServiceError) {
+        sampleCompletedCount++;
+        sampleTotalLatencyMS += latencyMS;
+
+        long internalErrorCount = s3Service.getInternalErrorCount();
+        boolean newServiceErrors = wasServiceError || internalErrorCount > lastInternalErrorCount;
+        lastInternalErrorCount = internalErrorCount;
+
+        long now = System.currentTimeMillis();
+        long sampleElapsedMS = now - sampleStartTimeMS;
+
+        if (newServiceErrors) {
+            // Back off sharply when S3 asks us to slow down.
+            setWindow(window / 2, "S3 reported 500/503 errors");
+            // Forget the prior throughput, which was measured with a window S3 could not sustain.
+            priorThroughput = -1;
+            startNewSample(now);
+        } else if (sampleElapsedMS >= SAMPLE_INTERVAL_MS) {
+            double throughput = (double) sampleCompletedCount * 1000 / sampleElapsedMS;
+            double averageLatencyMS = (double) sampleTotalLatencyMS / sampleCompletedCount;
+            bestAverageLatencyMS = Math.min(bestAverageLatencyMS, averageLatencyMS);
+
+            boolean throughputDropped = priorThroughput > 0
+                && throughput < priorThroughput * THROUGHPUT_DROP_FACTOR;
+            boolean throughputRose = priorThroughput < 0 || throughput >= priorThroughput;
+
+            if (averageLatencyMS > bestAverageLatencyMS * LATENCY_CONGESTION_FACTOR && !throughputRose) {
+                setWindow(window - Math.max(1, window / 4), "request latency is rising");
+            } else if (throughputDropped) {
+                setWindow(window - 1, "throughput dropped");
+            } else if (throughputRose && sampleWindowSaturated) {
+                setWindow(window + 1, "throughput is holding or rising");
+            }
+
+            priorThroughput = throughput;
+            startNewSample(now);
+        }
+    }
+
+    private void startNewSample(long now) {
+        sampleStartTimeMS = now;
+        sampleCompletedCount = 0;
+        sampleTotalLatencyMS = 0;
+        sampleWindowSaturated = false;
+    }
+
+    private void setWindow(int newWindow, String reason) {
+        newWindow = Math.min(maxWindow, Math.max(minWindow, newWindow));
+        if (newWindow != window) {
+            if (log.isDebugEnabled()) {
+                log.debug("Adjusting concurrent request window from " + window + " to "
+                    + newWindow + " because " + reason);
+            }
+            window = newWindow;
+        }
+    }
+
+}
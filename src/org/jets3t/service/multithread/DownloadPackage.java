@@ -20,7 +20,9 @@ package org.jets3t.service.multithread;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -92,6 +94,14 @@ public class DownloadPackage {
     	return signedUrl != null;
     }
     
+    public boolean isUnzipping() {
+        return isUnzipping;
+    }
+    
+    public EncryptionUtil getEncryptionUtil() {
+        return encryptionUtil;
+    }
+    
     public boolean isAppendToFile() {
         return appendToFile;
     }
@@ -112,12 +122,29 @@ public class DownloadPackage {
      * @throws Exception
      */
     public OutputStream getOutputStream() throws Exception {
+        return getOutputStream(false);
+    }
+    
+    /**
+     * Creates an output stream to receive the object's data, as for {@link #getOutputStream()},
+     * that will append data to the output file even if this package is not set to append.
+     * This is used by {@link S3ServiceMulti} to resume interrupted downloads.
+     * 
+     * @param forceAppend
+     * if true the output stream will append data to the output file, otherwise the package's
+     * {@link #isAppendToFile()} setting applies.
+     * @return
+     * an output stream that writes data to the output file managed by this class. 
+     * 
+     * @throws Exception
+     */
+    OutputStream getOutputStream(boolean forceAppend) throws Exception {
         // Create parent directories for file, if necessary.
         if (outputFile.getParentFile() != null) {
             outputFile.getParentFile().mkdirs();
         }                                    
         
-        OutputStream outputStream = new FileOutputStream(outputFile, appendToFile);
+        OutputStream outputStream = new FileOutputStream(outputFile, appendToFile || forceAppend);
         if (isUnzipping) {
             log.debug("Inflating gzipped data for object: " + object.getKey());                    
             outputStream = new GZipInflatingOutputStream(outputStream);            
@@ -129,4 +156,28 @@ public class DownloadPackage {
         return outputStream;       
     }    
     
+    /**
+     * Opens a channel to write the object's data directly to the output file. This is only 
+     * suitable for packages that do not unzip or decrypt the object's data.
+     * 
+     * @param forceAppend
+     * if true the channel will append data to the output file, otherwise the package's
+     * {@link #isAppendToFile()} setting applies.
+     * @return
+     * a channel that writes data to the output file managed by this class.
+     * 
+     * @throws IOException
+     */
+    FileChannel getFileChannel(boolean forceAppend) throws IOException {
+        if (isUnzipping || encryptionUtil != null) {
+            throw new IllegalStateException("Cannot write directly to file channel for object '" 
+                + object.getKey() + "' as its data must be unzipped or decrypted");
+        }
+        // Create parent directories for file, if necessary.
+        if (outputFile.getParentFile() != null) {
+            outputFile.getParentFile().mkdirs();
+        }                                    
+        return new FileOutputStream(outputFile, appendToFile || forceAppend).getChannel();
+    }
+    
 }
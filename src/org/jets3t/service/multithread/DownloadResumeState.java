@@ -0,0 +1,166 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.multithread;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jets3t.service.model.S3Object;
+
+/**
+ * Records which S3 object a download's output file is receiving, in a small state file kept
+ * alongside the output file while the download is in progress. If the download is interrupted
+ * the state file is left behind, and a later download of the same object to the same file
+ * can use it to confirm that the partial file holds the start of that object's current data.
+ * The later download then only needs to fetch the data that is missing from the file.
+ * <p>
+ * The state file has the name of the output file plus the suffix {@link #STATE_FILE_SUFFIX},
+ * and is deleted once the download completes.
+ *
+ * @author James Murty
+ */
+class DownloadResumeState {
+    private static final Log log = LogFactory.getLog(DownloadResumeState.class);
+
+    public static final String STATE_FILE_SUFFIX = ".jets3t-download";
+
+    private static final String PROPERTY_KEY = "key";
+    private static final String PROPERTY_ETAG = "etag";
+    private static final String PROPERTY_CONTENT_LENGTH = "content-length";
+
+    /**
+     * @param outputFile
+     * a download's output file.
+     * @return
+     * the state file used to track the download to the given output file.
+     */
+    public static File getStateFile(File outputFile) {
+        return new File(outputFile.getParentFile(), outputFile.getName() + STATE_FILE_SUFFIX);
+    }
+
+    /**
+     * Determines how much of an object's data has already been downloaded to an output file
+     * by an earlier, incomplete, download.
+     *
+     * @param outputFile
+     * the download's output file.
+     * @param object
+     * the object to be downloaded, with its ETag and content length.
+     * @return
+     * the number of bytes at the start of the output file that belong to the object, or 0 if
+     * the download must start from the beginning. Downloads must start from the beginning if
+     * there is no state file, or if the state file describes a different object, a different
+     * version of the object (ETag), or if the output file is not shorter than the object.
+     */
+    public static long findResumeOffset(File outputFile, S3Object object) {
+        File stateFile = getStateFile(outputFile);
+        if (object.getETag() == null || !stateFile.exists() || !outputFile.exists()) {
+            return 0;
+        }
+
+        Properties state = new Properties();
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(stateFile);
+            state.load(inputStream);
+        } catch (IOException e) {
+            if (log.isWarnEnabled()) {
+                log.warn("Unable to read download state file " + stateFile + ", download of '"
+                    + object.getKey() + "' will start from the beginning", e);
+            }
+            return 0;
+        } finally {
+            closeQuietly(inputStream);
+        }
+
+        long partialLength = outputFile.length();
+        if (object.getKey().equals(state.getProperty(PROPERTY_KEY))
+            && object.getETag().equals(state.getProperty(PROPERTY_ETAG))
+            && String.valueOf(object.getContentLength()).equals(
+                state.getProperty(PROPERTY_CONTENT_LENGTH))
+            && partialLength > 0 && partialLength < object.getContentLength())
+        {
+            return partialLength;
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Writes the state file for a download that is about to start.
+     *
+     * @param outputFile
+     * the download's output file.
+     * @param object
+     * the object being downloaded. The object must have a known ETag and content length for
+     * a later download to be able to resume.
+     */
+    public static void writeState(File outputFile, S3Object object) throws IOException {
+        if (object.getETag() == null) {
+            return;
+        }
+        Properties state = new Properties();
+        state.setProperty(PROPERTY_KEY, object.getKey());
+        state.setProperty(PROPERTY_ETAG, object.getETag());
+        state.setProperty(PROPERTY_CONTENT_LENGTH, String.valueOf(object.getContentLength()));
+
+        if (outputFile.getParentFile() != null) {
+            outputFile.getParentFile().mkdirs();
+        }
+        OutputStream outputStream = new FileOutputStream(getStateFile(outputFile));
+        try {
+            state.store(outputStream, "JetS3t download in progress");
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Deletes the state file for a download, if there is one.
+     *
+     * @param outputFile
+     * the download's output file.
+     */
+    public static void clearState(File outputFile) {
+        File stateFile = getStateFile(outputFile);
+        if (stateFile.exists() && !stateFile.delete()) {
+            if (log.isWarnEnabled()) {
+                log.warn("Unable to delete download state file " + stateFile);
+            }
+        }
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        if (inputStream != null) {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                // Nothing more we can do.
+            }
+        }
+    }
+
+}
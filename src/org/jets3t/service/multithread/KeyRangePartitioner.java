@@ -0,0 +1,352 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.multithread;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jets3t.service.utils.S3KeyComparator;
+
+/**
+ * Divides the key space of a bucket listing into ranges that can be listed in parallel, and
+ * divides ranges further while they are being listed so that all the listing threads are kept
+ * busy, whatever the layout of the bucket's keys.
+ * <p>
+ * A range contains the keys after its start key and up to and including its end key. The
+ * listing of a range starts with the start key as the marker, and stops at the first key
+ * beyond the end key. The ranges always cover the whole key space exactly once, because a
+ * range is only ever divided into smaller ranges with the same combined extent.
+ * <p>
+ * The listing begins with a single range. Each time a page of a range has been listed, the
+ * thread listing it calls {@link #splitIfIdle(KeyRange, String, String)}, and if other
+ * threads are idle the unlisted remainder of the range is divided by treating keys as
+ * numbers written in the printable ASCII characters seen so far. Each page listed serves as
+ * a sample of how densely keys lie, and ranges that turn out to hold many keys keep being
+ * divided until the listing is done.
+ *
+ * @author James Murty
+ */
+class KeyRangePartitioner {
+    private static final Log log = LogFactory.getLog(KeyRangePartitioner.class);
+
+    private static final char MIN_SPLIT_CHAR = ' ';
+    private static final char MAX_SPLIT_CHAR = '~';
+
+    /**
+     * The maximum number of characters beyond the common prefix of two keys used to
+     * interpolate between them.
+     */
+    private static final int MAX_SPLIT_DIGITS = 64;
+
+    /**
+     * A range of keys to be listed.
+     */
+    static class KeyRange {
+        private final String startAfterKey;
+        private String endKey;
+
+        KeyRange(String startAfterKey, String endKey) {
+            this.startAfterKey = startAfterKey;
+            this.endKey = endKey;
+        }
+
+        /**
+         * @return
+         * the key after which this range starts, or null if it starts at the beginning of the
+         * listing.
+         */
+        String getStartAfterKey() {
+            return startAfterKey;
+        }
+
+        /**
+         * @return
+         * the last key that may belong to this range, or null if the range extends to the end
+         * of the listing.
+         */
+        synchronized String getEndKey() {
+            return endKey;
+        }
+
+        /**
+         * @return
+         * true if the given key lies beyond the end of this range.
+         */
+        synchronized boolean isBeyondEnd(String key) {
+            return endKey != null && S3KeyComparator.INSTANCE.compare(key, endKey) > 0;
+        }
+
+        synchronized void setEndKey(String endKey) {
+            this.endKey = endKey;
+        }
+
+        public String toString() {
+            return "(" + startAfterKey + ", " + getEndKey() + "]";
+        }
+    }
+
+    private final String prefix;
+    private final int targetRangeCount;
+    private final LinkedList pendingRanges = new LinkedList();
+    private int activeRangeCount = 0;
+    private Runnable rangesAddedCallback = null;
+
+    /**
+     * The lowest and highest printable characters seen in listed keys after the prefix. Split
+     * keys are built from this range of characters, so no ranges are created in parts of the
+     * key space that the bucket's keys do not use, such as the letters beyond 'f' for keys
+     * made of hexadecimal digits.
+     */
+    private char lowestKeyChar = MAX_SPLIT_CHAR;
+    private char highestKeyChar = MIN_SPLIT_CHAR;
+
+    /**
+     * @param prefix
+     * the prefix of all the keys in the listing, may be null.
+     * @param targetRangeCount
+     * the number of ranges that should be listed at once, usually the number of listing
+     * threads.
+     */
+    KeyRangePartitioner(String prefix, int targetRangeCount) {
+        this.prefix = (prefix == null ? "" : prefix);
+        this.targetRangeCount = Math.max(1, targetRangeCount);
+        pendingRanges.add(new KeyRange(null, null));
+    }
+
+    /**
+     * @param callback
+     * invoked whenever new ranges become available, so the thread starting range listings can
+     * start them promptly. May be null.
+     */
+    synchronized void setRangesAddedCallback(Runnable callback) {
+        this.rangesAddedCallback = callback;
+    }
+
+    synchronized boolean hasPendingRange() {
+        return !pendingRanges.isEmpty();
+    }
+
+    /**
+     * @return
+     * the next range to list, which must be reported with {@link #rangeCompleted(KeyRange)}
+     * once it has been listed.
+     */
+    synchronized KeyRange takePendingRange() {
+        activeRangeCount++;
+        return (KeyRange) pendingRanges.removeFirst();
+    }
+
+    synchronized void rangeCompleted(KeyRange range) {
+        activeRangeCount--;
+    }
+
+    /**
+     * Records the characters used by listed keys, to guide how ranges are divided.
+     *
+     * @param keys
+     * keys listed from any range.
+     */
+    void keysListed(String[] keys) {
+        char lowest = MAX_SPLIT_CHAR;
+        char highest = MIN_SPLIT_CHAR;
+        for (int i = 0; i < keys.length; i++) {
+            String key = keys[i];
+            for (int j = prefix.length(); j < key.length(); j++) {
+                char c = key.charAt(j);
+                if (c < lowest && c >= MIN_SPLIT_CHAR) {
+                    lowest = c;
+                }
+                if (c > highest && c <= MAX_SPLIT_CHAR) {
+                    highest = c;
+                }
+            }
+        }
+        synchronized (this) {
+            lowestKeyChar = (char) Math.min(lowestKeyChar, lowest);
+            highestKeyChar = (char) Math.max(highestKeyChar, highest);
+        }
+    }
+
+    /**
+     * Divides the unlisted remainder of a range if fewer ranges are being listed than there
+     * are threads to list them. The given range keeps the first part of the remainder, and
+     * the other parts become pending ranges.
+     *
+     * @param range
+     * a range that is being listed by the calling thread.
+     * @param pageFirstKey
+     * the first key of the latest page listed in the range.
+     * @param lastListedKey
+     * the last key listed in the range so far.
+     * @return
+     * true if the range was divided.
+     */
+    boolean splitIfIdle(KeyRange range, String pageFirstKey, String lastListedKey) {
+        Runnable callback = null;
+        synchronized (this) {
+            int idleCount = targetRangeCount - activeRangeCount - pendingRanges.size();
+            if (idleCount <= 0) {
+                return false;
+            }
+
+            char minChar = (char) Math.min(lowestKeyChar, highestKeyChar);
+            char maxChar = (char) Math.min(MAX_SPLIT_CHAR, highestKeyChar + 1);
+            String upperBound = range.getEndKey();
+            if (upperBound == null) {
+                // Interpolate up to the key just beyond the listed characters. Keys beyond
+                // this bound still belong to the last range.
+                upperBound = prefix + maxChar;
+            }
+            String[] splitKeys = computeSplitKeys(pageFirstKey, lastListedKey, upperBound,
+                idleCount + 1, minChar, maxChar);
+            if (splitKeys.length == 0) {
+                return false;
+            }
+
+            String originalEndKey = range.getEndKey();
+            range.setEndKey(splitKeys[0]);
+            for (int i = 0; i < splitKeys.length; i++) {
+                String endKey = (i + 1 < splitKeys.length ? splitKeys[i + 1] : originalEndKey);
+                pendingRanges.addLast(new KeyRange(splitKeys[i], endKey));
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Divided listing range after key '" + lastListedKey + "' at keys "
+                    + java.util.Arrays.asList(splitKeys));
+            }
+            callback = rangesAddedCallback;
+        }
+        if (callback != null) {
+            callback.run();
+        }
+        return true;
+    }
+
+    /**
+     * Chooses up to (parts - 1) keys, in ascending order, that lie strictly between two keys
+     * and divide the space between them, treating keys as numbers whose digits are the
+     * characters from minChar to maxChar. There may be fewer keys, or none, if the given keys
+     * are too close together.
+     * <p>
+     * The space listed by the latest page, from its first key to the low key, is used to
+     * judge how densely keys are packed. If the space remaining is so much larger than that
+     * page that keys are clearly clustered, for example beneath a long common prefix, the
+     * split keys are placed at doubling distances from the low key. Otherwise they divide the
+     * space into equal parts.
+     *
+     * @param pageFirstKey
+     * the first key of the latest page listed, no greater than lowKey.
+     * @param lowKey
+     * the last key listed.
+     * @param highKey
+     * the key up to which the space will be divided.
+     */
+    static String[] computeSplitKeys(String pageFirstKey, String lowKey, String highKey,
+        int parts, char minChar, char maxChar)
+    {
+        if (S3KeyComparator.INSTANCE.compare(lowKey, highKey) >= 0 || parts < 2) {
+            return new String[0];
+        }
+        if (pageFirstKey == null || S3KeyComparator.INSTANCE.compare(pageFirstKey, lowKey) > 0) {
+            pageFirstKey = lowKey;
+        }
+
+        int commonLength = 0;
+        while (commonLength < pageFirstKey.length() && commonLength < highKey.length()
+            && pageFirstKey.charAt(commonLength) == highKey.charAt(commonLength))
+        {
+            commonLength++;
+        }
+        String commonPrefix = pageFirstKey.substring(0, commonLength);
+        int digits = Math.max(lowKey.length(), highKey.length()) - commonLength + 1;
+        digits = Math.min(MAX_SPLIT_DIGITS, Math.max(1, digits));
+
+        BigInteger radix = BigInteger.valueOf(maxChar - minChar + 1);
+        BigInteger firstValue = toNumber(pageFirstKey, commonLength, digits, minChar, radix);
+        BigInteger lowValue = toNumber(lowKey, commonLength, digits, minChar, radix);
+        BigInteger highValue = toNumber(highKey, commonLength, digits, minChar, radix);
+        BigInteger remaining = highValue.subtract(lowValue);
+        BigInteger pageWidth = lowValue.subtract(firstValue);
+
+        int splitCount = parts - 1;
+        boolean clustered = pageWidth.signum() > 0 && pageWidth.multiply(
+            BigInteger.ONE.shiftLeft(splitCount).subtract(BigInteger.ONE)).compareTo(remaining) < 0;
+
+        List splitKeys = new ArrayList();
+        String previousKey = lowKey;
+        for (int i = 1; i <= splitCount; i++) {
+            BigInteger offset = null;
+            if (clustered) {
+                offset = pageWidth.multiply(BigInteger.ONE.shiftLeft(i).subtract(BigInteger.ONE));
+            } else {
+                offset = remaining.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(parts));
+            }
+            String splitKey = commonPrefix
+                + toKeySuffix(lowValue.add(offset), digits, minChar, radix);
+            if (S3KeyComparator.INSTANCE.compare(splitKey, previousKey) > 0
+                && S3KeyComparator.INSTANCE.compare(splitKey, highKey) < 0)
+            {
+                splitKeys.add(splitKey);
+                previousKey = splitKey;
+            }
+        }
+        return (String[]) splitKeys.toArray(new String[splitKeys.size()]);
+    }
+
+    /**
+     * Converts the characters of a key from the given offset into a number. Missing characters
+     * count as the lowest digit, and characters outside the digit range count as the nearest
+     * digit, so the order of the numbers never contradicts the order of the keys.
+     */
+    private static BigInteger toNumber(String key, int offset, int digits, char minChar,
+        BigInteger radix)
+    {
+        int maxDigit = radix.intValue() - 1;
+        BigInteger value = BigInteger.ZERO;
+        for (int i = offset; i < offset + digits; i++) {
+            int digit = 0;
+            if (i < key.length()) {
+                digit = Math.max(0, Math.min(maxDigit, key.charAt(i) - minChar));
+            }
+            value = value.multiply(radix).add(BigInteger.valueOf(digit));
+        }
+        return value;
+    }
+
+    private static String toKeySuffix(BigInteger value, int digits, char minChar,
+        BigInteger radix)
+    {
+        char[] chars = new char[digits];
+        for (int i = digits - 1; i >= 0; i--) {
+            BigInteger[] quotientAndRemainder = value.divideAndRemainder(radix);
+            chars[i] = (char) (minChar + quotientAndRemainder[1].intValue());
+            value = quotientAndRemainder[0];
+        }
+        // Trailing minimum characters add nothing to the position of a split key.
+        int length = digits;
+        while (length > 1 && chars[length - 1] == minChar) {
+            length--;
+        }
+        return new String(chars, 0, length);
+    }
+
+}
@@ -31,6 +31,11 @@ import org.jets3t.service.S3ObjectsChunk;
  * bucket listing operation. Each chunk object will contain a prefix identifying 
  * the prefix value used by the listing operation that produced the chunk.
  * These objects are available via {@link #getChunkList()}. 
+ * <p>
+ * If the listing is streamed, as by
+ * {@link S3ServiceMulti#listObjects(String, String[], String, long, int)} with a
+ * maxBufferedPages value greater than zero, each chunk holds a single page of the listing
+ * and the listing of a prefix may be spread over many chunks and events.
  *  
  * @author James Murty
  */
@@ -0,0 +1,355 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.multithread;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jets3t.service.S3Service;
+import org.jets3t.service.S3ServiceException;
+import org.jets3t.service.io.BufferPool;
+import org.jets3t.service.io.BytesProgressWatcher;
+import org.jets3t.service.io.InterruptableInputStream;
+import org.jets3t.service.model.S3Bucket;
+import org.jets3t.service.model.S3Object;
+
+/**
+ * Downloads a single large S3 object to a file by splitting the object into byte ranges,
+ * fetching several ranges at once with ranged GET requests, and writing each range's data
+ * directly to its offset in the file with positional {@link FileChannel} writes.
+ * <p>
+ * The thread calling {@link #download()} fetches ranges itself, with the help of a small
+ * number of dedicated range threads. The range threads are deliberately not taken from the
+ * {@link S3ServiceMulti} worker pool, because the calling thread is usually one of that pool's
+ * workers and would otherwise wait on tasks that cannot start while the pool is busy.
+ * <p>
+ * If a range fails part way through, only the remainder of that range is requested again,
+ * up to a maximum number of retries per range. Every request includes an If-Match
+ * precondition on the object's ETag, when it is known, so that ranges from different versions
+ * of an object are never combined into one file. If the download fails, the output file is
+ * deleted rather than left at the object's full length with ranges missing.
+ *
+ * @author James Murty
+ */
+class ParallelRangeDownloader {
+    private static final Log log = LogFactory.getLog(ParallelRangeDownloader.class);
+
+    private final S3Service s3Service;
+    private final S3Bucket bucket;
+    private final S3Object object;
+    private final File outputFile;
+    private final long rangeSize;
+    private final int threadCount;
+    private final int rangeRetryMax;
+    private final BytesProgressWatcher progressMonitor;
+
+    private final long objectLength;
+    private final long rangeCount;
+    private long nextRangeIndex = 0;
+
+    private FileChannel fileChannel = null;
+    private S3Object resultObject = null;
+    private Throwable failure = null;
+    private volatile boolean interrupted = false;
+    private final Set activeInputStreams = new HashSet();
+
+    /**
+     * @param s3Service
+     * the service used to perform the ranged GET requests.
+     * @param bucket
+     * the bucket containing the object.
+     * @param object
+     * the object to download, which must have a known content length.
+     * @param outputFile
+     * the file the object's data will be written to. Any existing file is overwritten.
+     * @param rangeSize
+     * the number of bytes to fetch in each ranged GET request.
+     * @param threadCount
+     * the maximum number of ranges to fetch at once.
+     * @param rangeRetryMax
+     * the number of times a failed range will be retried before the download fails.
+     * @param progressMonitor
+     * a watcher that is updated as data is written to the output file.
+     */
+    public ParallelRangeDownloader(S3Service s3Service, S3Bucket bucket, S3Object object,
+        File outputFile, long rangeSize, int threadCount, int rangeRetryMax,
+        BytesProgressWatcher progressMonitor)
+    {
+        this.s3Service = s3Service;
+        this.bucket = bucket;
+        this.object = object;
+        this.outputFile = outputFile;
+        this.rangeSize = Math.max(1, rangeSize);
+        this.threadCount = Math.max(1, threadCount);
+        this.rangeRetryMax = Math.max(0, rangeRetryMax);
+        this.progressMonitor = progressMonitor;
+
+        this.objectLength = object.getContentLength();
+        this.rangeCount = (objectLength + this.rangeSize - 1) / this.rangeSize;
+    }
+
+    /**
+     * Downloads the object's data to the output file, and returns once all the ranges have
+     * been written or the download has failed.
+     *
+     * @return
+     * the object's details and metadata, as returned by S3 with the first range fetched.
+     * @throws Exception
+     * the failure of the first range that could not be downloaded, even after retries.
+     */
+    public S3Object download() throws Exception {
+        if (outputFile.getParentFile() != null) {
+            outputFile.getParentFile().mkdirs();
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(outputFile, "rw");
+        try {
+            randomAccessFile.setLength(objectLength);
+            fileChannel = randomAccessFile.getChannel();
+
+            int helperThreadCount = (int) Math.min(threadCount - 1, rangeCount - 1);
+            List helperThreads = new ArrayList();
+            for (int i = 0; i < helperThreadCount; i++) {
+                Thread thread = new Thread(new Runnable() {
+                    public void run() {
+                        fetchRanges();
+                    }
+                }, "jets3t-range-" + object.getKey() + "-" + (i + 1));
+                thread.setDaemon(true);
+                thread.start();
+                helperThreads.add(thread);
+            }
+
+            // This thread fetches ranges too, rather than sitting idle.
+            fetchRanges();
+
+            Iterator threadIter = helperThreads.iterator();
+            while (threadIter.hasNext()) {
+                Thread thread = (Thread) threadIter.next();
+                while (thread.isAlive()) {
+                    try {
+                        thread.join();
+                    } catch (InterruptedException e) {
+                        interrupt();
+                    }
+                }
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+
+        synchronized (this) {
+            if (failure != null || interrupted) {
+                deleteIncompleteFile();
+            }
+            if (failure instanceof Exception) {
+                throw (Exception) failure;
+            } else if (failure != null) {
+                throw new S3ServiceException("Ranged download of object '" + object.getKey()
+                    + "' failed", failure);
+            }
+            if (interrupted) {
+                throw new IOException("Ranged download of object '" + object.getKey()
+                    + "' was interrupted");
+            }
+            resultObject.setContentLength(objectLength);
+            resultObject.setDataInputStream(null);
+            return resultObject;
+        }
+    }
+
+    /**
+     * Stops the download by interrupting any ranges that are being fetched, and preventing
+     * any further ranges from being started.
+     */
+    public void interrupt() {
+        interrupted = true;
+        synchronized (activeInputStreams) {
+            Iterator iter = activeInputStreams.iterator();
+            while (iter.hasNext()) {
+                ((InterruptableInputStream) iter.next()).interrupt();
+            }
+        }
+    }
+
+    /**
+     * Deletes the output file after a failed or interrupted download. The file was sized to
+     * the object's full length before any ranges were fetched, so a partial file would
+     * otherwise look like a complete download. Ranges are fetched out of order, so the file
+     * cannot be used to resume the download either.
+     */
+    private void deleteIncompleteFile() {
+        if (outputFile.exists() && !outputFile.delete()) {
+            if (log.isWarnEnabled()) {
+                log.warn("Unable to delete incomplete file " + outputFile
+                    + " after ranged download of object '" + object.getKey() + "' failed");
+            }
+        }
+    }
+
+    /**
+     * @return
+     * the index of the next range to fetch, or -1 if there are no more ranges to fetch or
+     * the download has failed.
+     */
+    private synchronized long takeNextRangeIndex() {
+        if (interrupted || failure != null || nextRangeIndex >= rangeCount) {
+            return -1;
+        }
+        return nextRangeIndex++;
+    }
+
+    private void fetchRanges() {
+        long rangeIndex = -1;
+        while ((rangeIndex = takeNextRangeIndex()) >= 0) {
+            long rangeStart = rangeIndex * rangeSize;
+            long rangeEnd = Math.min(rangeStart + rangeSize, objectLength) - 1;
+            try {
+                fetchRange(rangeStart, rangeEnd);
+            } catch (Throwable t) {
+                synchronized (this) {
+                    if (failure == null) {
+                        failure = t;
+                    }
+                }
+                // Stop the other ranges, the download cannot succeed.
+                interrupt();
+            }
+        }
+    }
+
+    private void fetchRange(long rangeStart, long rangeEnd) throws Exception {
+        String[] ifMatchTags = null;
+        if (object.getETag() != null) {
+            ifMatchTags = new String[] {object.getETag()};
+        }
+
+        byte[] buffer = BufferPool.getInstance().takeBuffer(BufferPool.DEFAULT_TRANSFER_BUFFER_SIZE);
+        try {
+            fetchRange(rangeStart, rangeEnd, ifMatchTags, buffer);
+        } finally {
+            BufferPool.getInstance().releaseBuffer(buffer);
+        }
+    }
+
+    private void fetchRange(long rangeStart, long rangeEnd, String[] ifMatchTags, byte[] buffer)
+        throws Exception
+    {
+        long position = rangeStart;
+        int failureCount = 0;
+
+        while (position <= rangeEnd) {
+            InterruptableInputStream inputStream = null;
+            try {
+                S3Object rangeObject = s3Service.getObject(bucket, object.getKey(),
+                    null, null, ifMatchTags, null, new Long(position), new Long(rangeEnd));
+                synchronized (this) {
+                    if (resultObject == null) {
+                        resultObject = rangeObject;
+                    }
+                }
+
+                inputStream = new InterruptableInputStream(rangeObject.getDataInputStream());
+                synchronized (activeInputStreams) {
+                    activeInputStreams.add(inputStream);
+                }
+                if (interrupted) {
+                    inputStream.interrupt();
+                }
+
+                int byteCount = -1;
+                while (position <= rangeEnd && (byteCount = inputStream.read(buffer, 0,
+                    (int) Math.min(buffer.length, rangeEnd - position + 1))) != -1)
+                {
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, byteCount);
+                    while (byteBuffer.hasRemaining()) {
+                        position += fileChannel.write(byteBuffer, position);
+                    }
+                    if (progressMonitor != null) {
+                        progressMonitor.updateBytesTransferred(byteCount);
+                    }
+                }
+                if (position <= rangeEnd) {
+                    throw new IOException("Data for range " + rangeStart + "-" + rangeEnd
+                        + " of object '" + object.getKey() + "' ended " + (rangeEnd - position + 1)
+                        + " bytes early");
+                }
+            } catch (Exception e) {
+                if (interrupted || !isRetryable(e) || ++failureCount > rangeRetryMax) {
+                    throw e;
+                }
+                if (log.isWarnEnabled()) {
+                    log.warn("Retrying range " + position + "-" + rangeEnd + " of object '"
+                        + object.getKey() + "' after failure " + failureCount + " of "
+                        + rangeRetryMax, e);
+                }
+                try {
+                    Thread.sleep(50L * failureCount * failureCount);
+                } catch (InterruptedException ie) {
+                    throw e;
+                }
+            } finally {
+                if (inputStream != null) {
+                    synchronized (activeInputStreams) {
+                        activeInputStreams.remove(inputStream);
+                    }
+                    closeQuietly(inputStream);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return
+     * false for failures that will recur no matter how often the range is requested, such as
+     * a missing object or an object that has changed since the download began.
+     */
+    private boolean isRetryable(Exception e) {
+        if (e instanceof S3ServiceException) {
+            int responseCode = ((S3ServiceException) e).getResponseCode();
+            if (responseCode >= 400 && responseCode < 500) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Unable to close input stream for range of object '"
+                    + object.getKey() + "'", e);
+            }
+        }
+    }
+
+}
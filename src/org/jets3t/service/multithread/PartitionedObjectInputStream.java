@@ -0,0 +1,295 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.multithread;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jets3t.service.Constants;
+import org.jets3t.service.S3Service;
+import org.jets3t.service.S3ServiceException;
+import org.jets3t.service.model.S3Bucket;
+import org.jets3t.service.model.S3Object;
+import org.jets3t.service.utils.ServiceUtils;
+
+/**
+ * Reassembles the data of an object uploaded in parts by reading the part objects listed in
+ * its manifest one after another, so the data can be consumed as if it came from a single
+ * object. See {@link PartitionedUpload} for the manifest format.
+ * <p>
+ * Each part is requested with an If-Match precondition on the ETag recorded in the manifest,
+ * so parts from a different version of the object are never mixed in. The length and MD5 hash
+ * of each part's data are checked against the manifest as the part is read, and an
+ * IOException is thrown if they do not match.
+ * <p>
+ * A stream can start part way through the object's data, to resume an earlier download. In
+ * this case the parts before the start offset are not requested at all, and only the
+ * remainder of the part containing the start offset is requested. The MD5 hash of this first,
+ * partial, part cannot be checked, though its length still is.
+ *
+ * @author James Murty
+ */
+class PartitionedObjectInputStream extends InputStream {
+    private static final Log log = LogFactory.getLog(PartitionedObjectInputStream.class);
+
+    private final S3Service s3Service;
+    private final S3Bucket bucket;
+    private final String key;
+    private final String[] partKeys;
+    private final long[] partLengths;
+    private final String[] partETags;
+    private final long totalLength;
+
+    private int partIndex = -1;
+    private long partOffset = 0;
+    private long partBytesRead = 0;
+    private InputStream partInputStream = null;
+    private MessageDigest partDigest = null;
+    private long startOffset = 0;
+    private boolean closed = false;
+
+    /**
+     * @param s3Service
+     * the service used to download the parts.
+     * @param bucket
+     * the bucket containing the manifest and its parts.
+     * @param manifest
+     * the manifest object, including its data input stream. The manifest's data is read, and
+     * its input stream closed, by this constructor.
+     * @param startOffset
+     * the offset within the reassembled data at which the stream will start.
+     * @throws IOException
+     * if the manifest cannot be read, or does not match its metadata.
+     */
+    public PartitionedObjectInputStream(S3Service s3Service, S3Bucket bucket, S3Object manifest,
+        long startOffset) throws IOException
+    {
+        this.s3Service = s3Service;
+        this.bucket = bucket;
+        this.key = manifest.getKey();
+
+        List lines = readManifestLines(manifest);
+        partKeys = new String[lines.size()];
+        partLengths = new long[lines.size()];
+        partETags = new String[lines.size()];
+        long length = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            // Part keys may contain spaces, so the line is split from its end.
+            String line = (String) lines.get(i);
+            int etagSeparator = line.lastIndexOf(' ');
+            int lengthSeparator = (etagSeparator > 0 ? line.lastIndexOf(' ', etagSeparator - 1) : -1);
+            if (lengthSeparator <= 0) {
+                throw new IOException("Invalid line " + (i + 1) + " in manifest of '" + key
+                    + "': " + line);
+            }
+            partKeys[i] = line.substring(0, lengthSeparator);
+            partETags[i] = line.substring(etagSeparator + 1);
+            try {
+                partLengths[i] = Long.parseLong(line.substring(lengthSeparator + 1, etagSeparator));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid part length on line " + (i + 1)
+                    + " in manifest of '" + key + "': " + line);
+            }
+            length += partLengths[i];
+        }
+        totalLength = length;
+
+        if (partKeys.length != PartitionedUpload.getPartCount(manifest)) {
+            throw new IOException("Manifest of '" + key + "' lists " + partKeys.length
+                + " parts, but its metadata states there are "
+                + manifest.getMetadata(PartitionedUpload.METADATA_PARTS_COUNT));
+        }
+        Object expectedLength = manifest.getMetadata(PartitionedUpload.METADATA_PARTS_LENGTH);
+        if (expectedLength != null && !String.valueOf(totalLength).equals(expectedLength.toString())) {
+            throw new IOException("Parts listed in manifest of '" + key + "' total " + totalLength
+                + " bytes, but its metadata states the object has " + expectedLength + " bytes");
+        }
+        if (startOffset < 0 || startOffset > totalLength) {
+            throw new IOException("Cannot start reading '" + key + "' at byte " + startOffset
+                + ", the object has " + totalLength + " bytes");
+        }
+        this.startOffset = startOffset;
+    }
+
+    private List readManifestLines(S3Object manifest) throws IOException {
+        List lines = new ArrayList();
+        InputStream manifestInputStream = null;
+        try {
+            manifestInputStream = manifest.getDataInputStream();
+        } catch (S3ServiceException e) {
+            IOException ioe = new IOException("Unable to read manifest of '" + key + "'");
+            ioe.initCause(e);
+            throw ioe;
+        }
+        if (manifestInputStream == null) {
+            throw new IOException("Manifest of '" + key + "' has no data");
+        }
+        try {
+            BufferedReader reader = new BufferedReader(
+                new InputStreamReader(manifestInputStream, Constants.DEFAULT_ENCODING));
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0) {
+                    lines.add(line);
+                }
+            }
+        } finally {
+            manifestInputStream.close();
+        }
+        return lines;
+    }
+
+    /**
+     * @return
+     * the total length of the reassembled data, including any data before the start offset.
+     */
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     * Finishes the current part, checking its data against the manifest, and opens the next
+     * part that has data at or after the start offset.
+     *
+     * @return
+     * false if there are no more parts.
+     */
+    private boolean openNextPart() throws IOException {
+        if (partInputStream != null) {
+            finishPart();
+        }
+
+        partIndex++;
+        while (partIndex < partKeys.length && startOffset > 0
+            && startOffset >= partLengths[partIndex])
+        {
+            startOffset -= partLengths[partIndex];
+            partIndex++;
+        }
+        if (partIndex >= partKeys.length) {
+            return false;
+        }
+
+        partOffset = startOffset;
+        startOffset = 0;
+        partBytesRead = 0;
+        try {
+            partDigest = (partOffset == 0 ? MessageDigest.getInstance("MD5") : null);
+        } catch (NoSuchAlgorithmException e) {
+            if (log.isWarnEnabled()) {
+                log.warn("Unable to calculate MD5 hash of part '" + partKeys[partIndex] + "'", e);
+            }
+            partDigest = null;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Downloading part " + (partIndex + 1) + " of " + partKeys.length
+                + " of '" + key + "' from '" + partKeys[partIndex] + "'"
+                + (partOffset > 0 ? " starting at byte " + partOffset : ""));
+        }
+        try {
+            S3Object part = s3Service.getObject(bucket, partKeys[partIndex], null, null,
+                new String[] {partETags[partIndex]}, null,
+                (partOffset > 0 ? new Long(partOffset) : null), null);
+            partInputStream = part.getDataInputStream();
+        } catch (S3ServiceException e) {
+            IOException ioe = new IOException("Unable to download part '" + partKeys[partIndex]
+                + "' of '" + key + "'");
+            ioe.initCause(e);
+            throw ioe;
+        }
+        if (partInputStream == null) {
+            throw new IOException("Part '" + partKeys[partIndex] + "' of '" + key
+                + "' has no data");
+        }
+        return true;
+    }
+
+    private void finishPart() throws IOException {
+        InputStream finishedInputStream = partInputStream;
+        partInputStream = null;
+        finishedInputStream.close();
+
+        String partKey = partKeys[partIndex];
+        long expectedLength = partLengths[partIndex] - partOffset;
+        if (partBytesRead != expectedLength) {
+            throw new IOException("Part '" + partKey + "' of '" + key + "' has " + partBytesRead
+                + " bytes rather than the " + expectedLength + " bytes listed in the manifest");
+        }
+        if (partDigest != null) {
+            String hashHex = ServiceUtils.toHex(partDigest.digest());
+            if (!hashHex.equals(partETags[partIndex])) {
+                throw new IOException("Part '" + partKey + "' of '" + key + "' has MD5 hash "
+                    + hashHex + " rather than the hash " + partETags[partIndex]
+                    + " listed in the manifest");
+            }
+        }
+    }
+
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int count = 0;
+        while ((count = read(b, 0, 1)) == 0) {
+            // Retry until a byte is read or the data ends.
+        }
+        return (count < 0 ? -1 : b[0] & 0xFF);
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream for '" + key + "' is closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            if (partInputStream == null && !openNextPart()) {
+                return -1;
+            }
+            int count = partInputStream.read(b, off, len);
+            if (count < 0) {
+                finishPart();
+                continue;
+            }
+            partBytesRead += count;
+            if (partDigest != null) {
+                partDigest.update(b, off, count);
+            }
+            return count;
+        }
+    }
+
+    public void close() throws IOException {
+        closed = true;
+        if (partInputStream != null) {
+            InputStream openInputStream = partInputStream;
+            partInputStream = null;
+            openInputStream.close();
+        }
+    }
+
+}
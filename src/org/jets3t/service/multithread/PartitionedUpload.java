@@ -0,0 +1,612 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.multithread;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jets3t.service.Constants;
+import org.jets3t.service.Jets3tProperties;
+import org.jets3t.service.S3ServiceException;
+import org.jets3t.service.acl.AccessControlList;
+import org.jets3t.service.model.S3Bucket;
+import org.jets3t.service.model.S3Object;
+import org.jets3t.service.utils.Mimetypes;
+import org.jets3t.service.utils.ServiceUtils;
+
+/**
+ * Splits a large file into parts that are uploaded to S3 as separate objects, so each part
+ * can be sent, and retried, independently of the others, and tracks which parts have been
+ * uploaded so an interrupted upload can be resumed. Uploads are performed by
+ * {@link S3ServiceMulti#putObjectInParts(S3Bucket, S3Object, File)}.
+ * <p>
+ * S3 has no way to join objects together, so the parts remain separate objects. Each part
+ * is stored under the object's key plus the suffix {@link #PART_KEY_SEPARATOR} and the part's
+ * index, and once all the parts are uploaded a small manifest object is stored under the
+ * object's key itself. The manifest has the content type {@link #MANIFEST_CONTENT_TYPE}, the
+ * object's own metadata, and metadata items describing the parts. Its data lists the key,
+ * length and MD5 hash of each part in order, one part per line, so the original data can be
+ * reassembled by downloading the parts in turn. The download methods of
+ * {@link S3ServiceMulti} do this automatically when the object they download turns out to be
+ * a manifest, but a plain {@link org.jets3t.service.S3Service#getObject(S3Bucket, String)}
+ * returns the manifest itself.
+ * <p>
+ * While an upload is in progress the parts that have been uploaded are recorded in a state
+ * file. State files are kept in the directory named by the JetS3t property
+ * <tt>uploads.state-directory</tt>, by default <tt>~/.jets3t/uploads</tt>, rather than beside
+ * the data file, whose directory may be read-only or may itself be synchronized to S3. Each
+ * state file is named by a hash of the bucket name, the object's key and the data file's
+ * absolute path, plus the suffix {@link #STATE_FILE_SUFFIX}. A later upload of the same file
+ * to the same object, with the same part size, skips the parts recorded in the state file
+ * provided the file's length and last-modified date have not changed. The state file is
+ * deleted once the manifest object is uploaded.
+ *
+ * @author James Murty
+ */
+public class PartitionedUpload {
+    private static final Log log = LogFactory.getLog(PartitionedUpload.class);
+
+    public static final String STATE_FILE_SUFFIX = ".jets3t-upload";
+
+    /**
+     * Separates an object's key from the index of a part in the keys of part objects.
+     */
+    public static final String PART_KEY_SEPARATOR = ".jets3t-part-";
+
+    /**
+     * The content type of manifest objects. The content type of the original data is stored
+     * in the metadata item {@link #METADATA_PARTS_CONTENT_TYPE}.
+     */
+    public static final String MANIFEST_CONTENT_TYPE = "application/x-jets3t-parts";
+
+    public static final String METADATA_PARTS_COUNT = "jets3t-parts-count";
+    public static final String METADATA_PARTS_SIZE = "jets3t-parts-size";
+    public static final String METADATA_PARTS_LENGTH = "jets3t-parts-length";
+    public static final String METADATA_PARTS_CONTENT_TYPE = "jets3t-parts-content-type";
+
+    /**
+     * Metadata item holding the hex-encoded MD5 hash of the parts' MD5 hashes, concatenated in
+     * order, followed by a dash and the number of parts.
+     */
+    public static final String METADATA_PARTS_MD5 = "jets3t-parts-md5";
+
+    /**
+     * Metadata item added to each part object, naming the key of the object it belongs to.
+     */
+    public static final String METADATA_PART_OF = "jets3t-part-of";
+
+    private static final String PROPERTY_BUCKET = "bucket";
+    private static final String PROPERTY_KEY = "key";
+    private static final String PROPERTY_FILE_PATH = "file-path";
+    private static final String PROPERTY_FILE_LENGTH = "file-length";
+    private static final String PROPERTY_FILE_LAST_MODIFIED = "file-last-modified";
+    private static final String PROPERTY_PART_SIZE = "part-size";
+    private static final String PROPERTY_PART_PREFIX = "part.";
+
+    private static final int PART_INDEX_DIGITS = 5;
+
+    private final String bucketName;
+    private final String key;
+    private final File file;
+    private final File stateFile;
+    private final long partSize;
+    private final long fileLength;
+    private final long fileLastModified;
+    private final int partCount;
+    private final String[] partETags;
+
+    /**
+     * @param bucket
+     * the bucket the object is uploaded to.
+     * @param key
+     * the key of the object.
+     * @param file
+     * the file containing the object's data.
+     * @param partSize
+     * the number of bytes in each part, except the last which may be shorter.
+     * @param stateDirectory
+     * the directory in which the upload's state file is kept.
+     */
+    PartitionedUpload(S3Bucket bucket, String key, File file, long partSize, 
+        File stateDirectory) 
+    {
+        this.bucketName = bucket.getName();
+        this.key = key;
+        this.file = file;
+        this.stateFile = getStateFile(stateDirectory, bucketName, key, file);
+        this.partSize = Math.max(1, partSize);
+        this.fileLength = file.length();
+        this.fileLastModified = file.lastModified();
+        this.partCount = (int) Math.max(1, (fileLength + this.partSize - 1) / this.partSize);
+        this.partETags = new String[partCount];
+    }
+
+    /**
+     * @param manifest
+     * an object, which need only include its metadata.
+     * @return
+     * true if the object is the manifest of an object uploaded in parts.
+     */
+    public static boolean isManifest(S3Object manifest) {
+        return MANIFEST_CONTENT_TYPE.equals(manifest.getContentType())
+            && manifest.containsMetadata(METADATA_PARTS_COUNT);
+    }
+
+    /**
+     * @param manifest
+     * the manifest object of an object uploaded in parts.
+     * @return
+     * the number of parts listed by the manifest, or 0 if the object is not a manifest.
+     */
+    public static int getPartCount(S3Object manifest) {
+        if (!isManifest(manifest)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(manifest.getMetadata(METADATA_PARTS_COUNT).toString());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @param key
+     * the key of an object uploaded in parts.
+     * @param partIndex
+     * the index of a part, starting from 0.
+     * @return
+     * the key of the part object.
+     */
+    public static String getPartKey(String key, int partIndex) {
+        String index = String.valueOf(partIndex);
+        StringBuffer partKey = new StringBuffer(key).append(PART_KEY_SEPARATOR);
+        for (int i = index.length(); i < PART_INDEX_DIGITS; i++) {
+            partKey.append('0');
+        }
+        return partKey.append(index).toString();
+    }
+
+    /**
+     * @param jets3tProperties
+     * @return
+     * the directory named by the property <tt>uploads.state-directory</tt>, in which the state
+     * files of uploads in parts are kept, or <tt>~/.jets3t/uploads</tt> if it is not set.
+     */
+    public static File getStateDirectory(Jets3tProperties jets3tProperties) {
+        String directoryName = jets3tProperties.getStringProperty(
+            "uploads.state-directory", null);
+        if (directoryName == null || directoryName.trim().length() == 0) {
+            return new File(Constants.DEFAULT_PREFERENCES_DIRECTORY, "uploads");
+        }
+        directoryName = directoryName.trim();
+        if (directoryName.startsWith("~")) {
+            return new File(System.getProperty("user.home"), directoryName.substring(1));
+        }
+        return new File(directoryName);
+    }
+
+    /**
+     * @param stateDirectory
+     * the directory in which state files are kept.
+     * @param bucketName
+     * the bucket the file is uploaded to.
+     * @param key
+     * the key of the object the file is uploaded to.
+     * @param dataFile
+     * a file being uploaded in parts.
+     * @return
+     * the state file used to track the upload of the given file to the given object.
+     */
+    public static File getStateFile(File stateDirectory, String bucketName, String key,
+        File dataFile)
+    {
+        String uploadId = bucketName + "\n" + key + "\n" + dataFile.getAbsolutePath();
+        try {
+            String hashHex = ServiceUtils.toHex(ServiceUtils.computeMD5Hash(
+                uploadId.getBytes(Constants.DEFAULT_ENCODING)));
+            return new File(stateDirectory, hashHex + STATE_FILE_SUFFIX);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to compute name of upload state file: " + e);
+        }
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return
+     * the file in which the parts that have been uploaded are recorded.
+     */
+    public File getStateFile() {
+        return stateFile;
+    }
+
+    public int getPartCount() {
+        return partCount;
+    }
+
+    public long getPartLength(int partIndex) {
+        return Math.min(partSize, fileLength - partIndex * partSize);
+    }
+
+    public String getPartKey(int partIndex) {
+        return getPartKey(key, partIndex);
+    }
+
+    /**
+     * @return
+     * the index of the part with the given key, or -1 if the key is not one of this upload's
+     * part keys.
+     */
+    public int getPartIndex(String partKey) {
+        String prefix = key + PART_KEY_SEPARATOR;
+        if (!partKey.startsWith(prefix)) {
+            return -1;
+        }
+        try {
+            int partIndex = Integer.parseInt(partKey.substring(prefix.length()));
+            return (partIndex >= 0 && partIndex < partCount ? partIndex : -1);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public synchronized boolean isPartCompleted(int partIndex) {
+        return partETags[partIndex] != null;
+    }
+
+    /**
+     * Records that a part has been uploaded. The state file is not updated until
+     * {@link #writeState()} is called.
+     *
+     * @param partIndex
+     * @param etag
+     * the ETag returned by S3 for the part, which is the MD5 hash of the part's data.
+     */
+    public synchronized void partCompleted(int partIndex, String etag) {
+        partETags[partIndex] = etag;
+    }
+
+    /**
+     * Creates an object to upload one part of the file. The part's data is read directly from
+     * its range of the file, and the data stream can be reset so the upload can be repeated.
+     *
+     * @param partIndex
+     * @param acl
+     * the access control list to apply to the part, which should match that of the object so
+     * the parts can be read by anyone who can read the object.
+     * @return
+     * an object for the part, ready to be uploaded.
+     */
+    public S3Object createPartObject(int partIndex, AccessControlList acl) {
+        long partLength = getPartLength(partIndex);
+        S3Object part = new S3Object(getPartKey(partIndex));
+        part.setAcl(acl);
+        part.setContentType(Mimetypes.MIMETYPE_OCTET_STREAM);
+        part.setContentLength(partLength);
+        part.addMetadata(METADATA_PART_OF, key);
+        part.setDataInputStream(
+            new FileRangeInputStream(file, partIndex * partSize, partLength));
+        return part;
+    }
+
+    /**
+     * Creates the manifest object that describes the uploaded parts, to be uploaded once all
+     * the parts have been uploaded.
+     *
+     * @param object
+     * the object being uploaded, whose ACL, metadata and content type are applied to the
+     * manifest.
+     * @return
+     * the manifest object, with its data.
+     * @throws S3ServiceException
+     * if any parts have not been uploaded, or if the file has changed since the upload began.
+     */
+    public synchronized S3Object createManifestObject(S3Object object) throws S3ServiceException {
+        if (file.length() != fileLength || file.lastModified() != fileLastModified) {
+            throw new S3ServiceException("File " + file + " changed while it was being uploaded"
+                + " in parts to '" + key + "'");
+        }
+
+        StringBuffer manifestData = new StringBuffer();
+        MessageDigest partsDigest = null;
+        try {
+            partsDigest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new S3ServiceException("Unable to compute MD5 hash of parts", e);
+        }
+        for (int i = 0; i < partCount; i++) {
+            if (partETags[i] == null) {
+                throw new S3ServiceException("Part " + i + " of '" + key
+                    + "' has not been uploaded");
+            }
+            partsDigest.update(ServiceUtils.fromHex(partETags[i]));
+            manifestData.append(getPartKey(i)).append(' ').append(getPartLength(i))
+                .append(' ').append(partETags[i]).append('\n');
+        }
+
+        S3Object manifest = new S3Object(key);
+        manifest.setAcl(object.getAcl());
+        Map metadata = object.getModifiableMetadata();
+        metadata.remove(S3Object.METADATA_HEADER_CONTENT_MD5);
+        metadata.remove(S3Object.METADATA_HEADER_HASH_MD5);
+        manifest.addAllMetadata(metadata);
+        manifest.addMetadata(METADATA_PARTS_CONTENT_TYPE, (object.getContentType() != null
+            ? object.getContentType() : Mimetypes.MIMETYPE_OCTET_STREAM));
+        manifest.addMetadata(METADATA_PARTS_COUNT, String.valueOf(partCount));
+        manifest.addMetadata(METADATA_PARTS_SIZE, String.valueOf(partSize));
+        manifest.addMetadata(METADATA_PARTS_LENGTH, String.valueOf(fileLength));
+        manifest.addMetadata(METADATA_PARTS_MD5,
+            ServiceUtils.toHex(partsDigest.digest()) + "-" + partCount);
+        manifest.setContentType(MANIFEST_CONTENT_TYPE);
+
+        try {
+            byte[] data = manifestData.toString().getBytes(Constants.DEFAULT_ENCODING);
+            manifest.setContentLength(data.length);
+            manifest.setMd5Hash(ServiceUtils.computeMD5Hash(data));
+            manifest.setDataInputStream(new ByteArrayInputStream(data));
+        } catch (Exception e) {
+            throw new S3ServiceException("Unable to create manifest for '" + key + "'", e);
+        }
+        return manifest;
+    }
+
+    /**
+     * Reads the state file left by an earlier, incomplete, upload of the file, and records
+     * the parts it lists as uploaded if it describes an upload of the same file to the same
+     * object with the same part size.
+     *
+     * @return
+     * the number of parts that were already uploaded.
+     */
+    public synchronized int loadState() {
+        if (!stateFile.exists()) {
+            return 0;
+        }
+
+        Properties state = new Properties();
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(stateFile);
+            state.load(inputStream);
+        } catch (IOException e) {
+            if (log.isWarnEnabled()) {
+                log.warn("Unable to read upload state file " + stateFile + ", upload of '"
+                    + key + "' will start from the beginning", e);
+            }
+            return 0;
+        } finally {
+            closeQuietly(inputStream);
+        }
+
+        if (!bucketName.equals(state.getProperty(PROPERTY_BUCKET))
+            || !key.equals(state.getProperty(PROPERTY_KEY))
+            || !file.getAbsolutePath().equals(state.getProperty(PROPERTY_FILE_PATH))
+            || !String.valueOf(fileLength).equals(state.getProperty(PROPERTY_FILE_LENGTH))
+            || !String.valueOf(fileLastModified).equals(
+                state.getProperty(PROPERTY_FILE_LAST_MODIFIED))
+            || !String.valueOf(partSize).equals(state.getProperty(PROPERTY_PART_SIZE)))
+        {
+            return 0;
+        }
+
+        int completedCount = 0;
+        for (int i = 0; i < partCount; i++) {
+            String etag = state.getProperty(PROPERTY_PART_PREFIX + i);
+            if (etag != null) {
+                partETags[i] = etag;
+                completedCount++;
+            }
+        }
+        return completedCount;
+    }
+
+    /**
+     * Writes the state file, listing the parts that have been uploaded so far.
+     */
+    public synchronized void writeState() throws IOException {
+        Properties state = new Properties();
+        state.setProperty(PROPERTY_BUCKET, bucketName);
+        state.setProperty(PROPERTY_KEY, key);
+        state.setProperty(PROPERTY_FILE_PATH, file.getAbsolutePath());
+        state.setProperty(PROPERTY_FILE_LENGTH, String.valueOf(fileLength));
+        state.setProperty(PROPERTY_FILE_LAST_MODIFIED, String.valueOf(fileLastModified));
+        state.setProperty(PROPERTY_PART_SIZE, String.valueOf(partSize));
+        for (int i = 0; i < partCount; i++) {
+            if (partETags[i] != null) {
+                state.setProperty(PROPERTY_PART_PREFIX + i, partETags[i]);
+            }
+        }
+
+        // Replace the state file in one step, so an interruption cannot leave it half-written.
+        File stateDirectory = stateFile.getParentFile();
+        if (!stateDirectory.exists() && !stateDirectory.mkdirs()) {
+            throw new IOException("Unable to create upload state directory " + stateDirectory);
+        }
+        File tempFile = new File(stateFile.getParentFile(), stateFile.getName() + ".tmp");
+        OutputStream outputStream = new FileOutputStream(tempFile);
+        try {
+            state.store(outputStream, "JetS3t upload in progress");
+        } finally {
+            outputStream.close();
+        }
+        if (!tempFile.renameTo(stateFile)) {
+            stateFile.delete();
+            if (!tempFile.renameTo(stateFile)) {
+                throw new IOException("Unable to write upload state file " + stateFile);
+            }
+        }
+    }
+
+    /**
+     * Deletes the state file, if there is one.
+     */
+    public void clearState() {
+        if (stateFile.exists() && !stateFile.delete()) {
+            if (log.isWarnEnabled()) {
+                log.warn("Unable to delete upload state file " + stateFile);
+            }
+        }
+    }
+
+    /**
+     * @return
+     * the part objects, with only their keys set, that belonged to an earlier version of the
+     * object with the given manifest but are not replaced by this upload's parts.
+     */
+    public S3Object[] getStalePartObjects(S3Object previousManifest) {
+        int previousPartCount = (previousManifest == null ? 0 : getPartCount(previousManifest));
+        if (previousPartCount <= partCount) {
+            return new S3Object[0];
+        }
+        S3Object[] staleParts = new S3Object[previousPartCount - partCount];
+        for (int i = 0; i < staleParts.length; i++) {
+            staleParts[i] = new S3Object(getPartKey(partCount + i));
+        }
+        return staleParts;
+    }
+
+    public String toString() {
+        StringBuffer sb = new StringBuffer("PartitionedUpload [key=").append(key)
+            .append(", file=").append(file).append(", parts=").append(partCount)
+            .append(", completed=");
+        int completedCount = 0;
+        for (int i = 0; i < partCount; i++) {
+            if (isPartCompleted(i)) {
+                completedCount++;
+            }
+        }
+        return sb.append(completedCount).append("]").toString();
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        if (inputStream != null) {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                // Nothing more we can do.
+            }
+        }
+    }
+
+    /**
+     * Reads a range of bytes from a file. The file is only opened when data is first read, so
+     * parts waiting to be uploaded do not hold file handles. The stream supports
+     * {@link #mark(int)} and {@link #reset()} anywhere within the range, so requests can be
+     * repeated.
+     */
+    private static class FileRangeInputStream extends InputStream {
+        private final File file;
+        private final long rangeStart;
+        private final long rangeLength;
+        private RandomAccessFile randomAccessFile = null;
+        private long position = 0;
+        private long markPosition = 0;
+
+        public FileRangeInputStream(File file, long rangeStart, long rangeLength) {
+            this.file = file;
+            this.rangeStart = rangeStart;
+            this.rangeLength = rangeLength;
+        }
+
+        private RandomAccessFile getFile() throws IOException {
+            if (randomAccessFile == null) {
+                randomAccessFile = new RandomAccessFile(file, "r");
+                randomAccessFile.seek(rangeStart + position);
+            }
+            return randomAccessFile;
+        }
+
+        public int read() throws IOException {
+            if (position >= rangeLength) {
+                return -1;
+            }
+            int b = getFile().read();
+            if (b < 0) {
+                throw new IOException("File " + file + " ended before the end of the range "
+                    + rangeStart + "-" + (rangeStart + rangeLength - 1));
+            }
+            position++;
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= rangeLength) {
+                return -1;
+            }
+            int read = getFile().read(b, off, (int) Math.min(len, rangeLength - position));
+            if (read < 0) {
+                throw new IOException("File " + file + " ended before the end of the range "
+                    + rangeStart + "-" + (rangeStart + rangeLength - 1));
+            }
+            position += read;
+            return read;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = Math.max(0, Math.min(n, rangeLength - position));
+            position += skipped;
+            if (randomAccessFile != null) {
+                randomAccessFile.seek(rangeStart + position);
+            }
+            return skipped;
+        }
+
+        public int available() throws IOException {
+            return (int) Math.min(Integer.MAX_VALUE, rangeLength - position);
+        }
+
+        public boolean markSupported() {
+            return true;
+        }
+
+        public synchronized void mark(int readlimit) {
+            markPosition = position;
+        }
+
+        public synchronized void reset() throws IOException {
+            position = markPosition;
+            if (randomAccessFile != null) {
+                randomAccessFile.seek(rangeStart + position);
+            }
+        }
+
+        public void close() throws IOException {
+            if (randomAccessFile != null) {
+                RandomAccessFile raf = randomAccessFile;
+                randomAccessFile = null;
+                raf.close();
+            }
+        }
+    }
+
+}
@@ -20,16 +20,23 @@ package org.jets3t.service.multithread;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -39,8 +46,10 @@ import org.jets3t.service.S3ObjectsChunk;
 import org.jets3t.service.S3Service;
 import org.jets3t.service.S3ServiceException;
 import org.jets3t.service.acl.AccessControlList;
+import org.jets3t.service.io.BufferPool;
 import org.jets3t.service.io.BytesProgressWatcher;
 import org.jets3t.service.io.InterruptableInputStream;
+import org.jets3t.service.io.MonitoredInterruptableInputStream;
 import org.jets3t.service.io.ProgressMonitoredInputStream;
 import org.jets3t.service.model.S3Bucket;
 import org.jets3t.service.model.S3Object;
@@ -79,6 +88,12 @@ public class S3ServiceMulti implements Serializable {
     private S3Service s3Service = null;
     private ArrayList serviceEventListeners = new ArrayList();
     private final long sleepTime;
+    private transient WorkerThreadPool workerThreadPool = null;
+    
+    /**
+     * How long an idle worker thread is kept alive waiting for new work before it finishes.
+     */
+    private static final long WORKER_THREAD_IDLE_TIMEOUT_MS = 60 * 1000;
     
     /**
      * Construct a multi-threaded service based on an S3Service and which sends event notifications
@@ -140,6 +155,35 @@ public class S3ServiceMulti implements Serializable {
         }
     }    
 
+    /**
+     * Returns the pool of worker threads shared by all the operations performed by this service,
+     * creating the pool if necessary. 
+     * <p>
+     * The pool is large enough to run the greatest of the <tt>s3service.max-thread-count</tt>, 
+     * <tt>s3service.admin-max-thread-count</tt>, <tt>httpclient.max-connections</tt> and
+     * (if adaptive concurrency is enabled) <tt>s3service.adaptive-max-thread-count</tt> 
+     * settings, so concurrent operations can share it without any one operation being starved 
+     * of threads while HTTP connections are available.
+     * 
+     * @return
+     * the worker thread pool for this service.
+     */
+    private synchronized WorkerThreadPool getWorkerThreadPool() {
+        if (workerThreadPool == null) {
+            Jets3tProperties jets3tProperties = this.s3Service.getJetS3tProperties();
+            int maxPoolSize = Math.max(
+                jets3tProperties.getIntProperty("httpclient.max-connections", 4),
+                Math.max(jets3tProperties.getIntProperty("s3service.max-thread-count", 4),
+                    jets3tProperties.getIntProperty("s3service.admin-max-thread-count", 4)));
+            if (jets3tProperties.getBoolProperty("s3service.adaptive-concurrency-enabled", false)) {
+                maxPoolSize = Math.max(maxPoolSize, 
+                    jets3tProperties.getIntProperty("s3service.adaptive-max-thread-count", 0));
+            }
+            workerThreadPool = new WorkerThreadPool(maxPoolSize, WORKER_THREAD_IDLE_TIMEOUT_MS);
+        }
+        return workerThreadPool;
+    }
+    
     /**
      * @return
      * the underlying S3 service implementation.
@@ -265,6 +309,42 @@ public class S3ServiceMulti implements Serializable {
      */
     public boolean listObjects(final String bucketName, final String[] prefixes, 
         final String delimiter, final long maxListingLength) 
+    {
+        return listObjects(bucketName, prefixes, delimiter, maxListingLength, 0);
+    }
+    
+    /**
+     * Lists the objects in a bucket based on an array of prefix strings, and
+     * sends {@link ListObjectsEvent} notification events, optionally reporting each page of
+     * results as soon as it has been listed.
+     * <p>
+     * If maxBufferedPages is greater than zero, the listing is streamed: every page of results 
+     * is sent in its own {@link S3ObjectsChunk} in the next progress event, instead of the 
+     * pages for each prefix being gathered into a single chunk that is only sent once the 
+     * prefix's listing is complete. Event listeners can therefore start working with listed 
+     * objects while the listing continues. Listing threads wait whenever maxBufferedPages 
+     * pages have been listed but not yet sent, so a slow listener holds back the listing 
+     * rather than letting unprocessed pages accumulate in memory. 
+     * 
+     * @param bucketName
+     * the name of the bucket in which the objects are stored.
+     * @param prefixes
+     * an array of prefix strings. A separate listing thread will be run for 
+     * each of these prefix strings.
+     * @param delimiter
+     * an optional delimiter string to apply to each listing operation, may be null. 
+     * @param maxListingLength
+     * the maximum object listing length that will be applied to each listing
+     * operation. This should be a value between 1 and 1000. 
+     * @param maxBufferedPages
+     * the maximum number of pages that may be listed ahead of the event listeners, or 0 to 
+     * send each prefix's complete listing in a single chunk.
+     * 
+     * @return
+     * true if all the threaded tasks completed successfully, false otherwise.
+     */
+    public boolean listObjects(final String bucketName, final String[] prefixes, 
+        final String delimiter, final long maxListingLength, int maxBufferedPages) 
     {
         final Object uniqueOperationId = new Object(); // Special object used to identify this operation.
         final boolean[] success = new boolean[] {false};
@@ -272,19 +352,22 @@ public class S3ServiceMulti implements Serializable {
         int adminMaxThreadCount = this.s3Service.getJetS3tProperties()
             .getIntProperty("s3service.admin-max-thread-count", 4);
         
+        PartialResultBuffer pageBuffer = 
+            (maxBufferedPages > 0 ? new PartialResultBuffer(maxBufferedPages) : null);
+        
         // Start all queries in the background.
         ListObjectsRunnable[] runnables = new ListObjectsRunnable[prefixes.length];
         for (int i = 0; i < runnables.length; i++) {
             runnables[i] = new ListObjectsRunnable(bucketName, prefixes[i], 
-                delimiter, maxListingLength, null);
+                delimiter, maxListingLength, null, pageBuffer);
         }
         
         boolean ignoreExceptions = this.s3Service.getJetS3tProperties()
             .getBoolProperty("s3service.ignore-exceptions-in-multi", false);
                                 
         // Wait for threads to finish, or be cancelled.        
-        (new ThreadGroupManager(runnables, adminMaxThreadCount, new ThreadWatcher(runnables.length), 
-            ignoreExceptions) 
+        ThreadGroupManager threadGroupManager = new ThreadGroupManager(runnables, 
+            adminMaxThreadCount, new ThreadWatcher(runnables.length), ignoreExceptions) 
         {
             public void fireStartEvent(ThreadWatcher threadWatcher) {
                 fireServiceEvent(ListObjectsEvent.newStartedEvent(threadWatcher, uniqueOperationId));        
@@ -306,7 +389,135 @@ public class S3ServiceMulti implements Serializable {
             public void fireIgnoredErrorsEvent(ThreadWatcher threadWatcher, Throwable[] ignoredErrors) {
                 fireServiceEvent(ListObjectsEvent.newIgnoredErrorsEvent(threadWatcher, ignoredErrors, uniqueOperationId));
             }
-        }).run();
+        };
+        threadGroupManager.setPartialResultBuffer(pageBuffer);
+        threadGroupManager.run();
+        
+        return success[0];
+    }
+    
+    /**
+     * Lists the objects in a bucket with the given prefix by listing ranges of the bucket's
+     * keys in parallel, and sends {@link ListObjectsEvent} notification events.
+     * <p>
+     * Unlike {@link #listObjects(String, String[], String, long)}, this method does not require
+     * the caller to know how the bucket's keys are distributed. The listing starts with a
+     * single request, and whenever fewer ranges are being listed than there are threads
+     * available the unlisted remainder of a range is divided into new ranges, using the keys
+     * listed so far as a guide to where the remaining keys lie. Each object is listed exactly
+     * once, in the chunk for the range that contains it.
+     * <p>
+     * The results of each range are sent as an {@link S3ObjectsChunk} without common prefixes,
+     * because no delimiter is applied. The chunks are not sent in key order.
+     * <p>
+     * The maximum number of threads is controlled by the JetS3t configuration property 
+     * <tt>s3service.admin-max-thread-count</tt>.
+     * 
+     * @param bucketName
+     * the name of the bucket in which the objects are stored.
+     * @param prefix
+     * only objects with a key that starts with this prefix will be listed, may be null.
+     * @param maxListingLength
+     * the maximum object listing length that will be applied to each listing request. This
+     * should be a value between 1 and 1000, and 1000 will generally be the best choice. 
+     * 
+     * @return
+     * true if all the threaded tasks completed successfully, false otherwise.
+     */
+    public boolean listObjectsPartitioned(String bucketName, String prefix, 
+        long maxListingLength) 
+    {
+        return listObjectsPartitioned(bucketName, prefix, maxListingLength, 0);
+    }
+    
+    /**
+     * Lists the objects in a bucket with the given prefix by listing ranges of the bucket's
+     * keys in parallel, as for {@link #listObjectsPartitioned(String, String, long)}, and 
+     * optionally reports each page of results as soon as it has been listed.
+     * <p>
+     * If maxBufferedPages is greater than zero, every page of results is sent in its own
+     * {@link S3ObjectsChunk} in the next progress event, and listing threads wait whenever 
+     * maxBufferedPages pages have been listed but not yet sent. 
+     * 
+     * @param bucketName
+     * the name of the bucket in which the objects are stored.
+     * @param prefix
+     * only objects with a key that starts with this prefix will be listed, may be null.
+     * @param maxListingLength
+     * the maximum object listing length that will be applied to each listing request. 
+     * @param maxBufferedPages
+     * the maximum number of pages that may be listed ahead of the event listeners, or 0 to 
+     * send each range's complete listing in a single chunk.
+     * 
+     * @return
+     * true if all the threaded tasks completed successfully, false otherwise.
+     */
+    public boolean listObjectsPartitioned(final String bucketName, final String prefix, 
+        final long maxListingLength, int maxBufferedPages) 
+    {
+        final Object uniqueOperationId = new Object(); // Special object used to identify this operation.
+        final boolean[] success = new boolean[] {false};
+                
+        int adminMaxThreadCount = this.s3Service.getJetS3tProperties()
+            .getIntProperty("s3service.admin-max-thread-count", 4);
+        
+        final KeyRangePartitioner partitioner = 
+            new KeyRangePartitioner(prefix, adminMaxThreadCount);
+        final PartialResultBuffer pageBuffer = 
+            (maxBufferedPages > 0 ? new PartialResultBuffer(maxBufferedPages) : null);
+        Iterator runnables = new Iterator() {
+            public boolean hasNext() {
+                return partitioner.hasPendingRange();
+            }
+            public Object next() {
+                return new ListObjectsRangeRunnable(bucketName, prefix, maxListingLength, 
+                    partitioner, partitioner.takePendingRange(), pageBuffer);
+            }
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        
+        boolean ignoreExceptions = this.s3Service.getJetS3tProperties()
+            .getBoolProperty("s3service.ignore-exceptions-in-multi", false);
+                                
+        final ThreadGroupManager threadGroupManager = new ThreadGroupManager(
+            runnables, adminMaxThreadCount, new ThreadWatcher(0), ignoreExceptions) 
+        {
+            public void fireStartEvent(ThreadWatcher threadWatcher) {
+                fireServiceEvent(ListObjectsEvent.newStartedEvent(threadWatcher, uniqueOperationId));        
+            }
+            public void fireProgressEvent(ThreadWatcher threadWatcher, List chunkList) {                                
+                fireServiceEvent(ListObjectsEvent.newInProgressEvent(threadWatcher, chunkList, 
+                    uniqueOperationId));
+            }
+            public void fireCancelEvent() {
+                fireServiceEvent(ListObjectsEvent.newCancelledEvent(uniqueOperationId));
+            }
+            public void fireCompletedEvent() {
+                success[0] = true;
+                fireServiceEvent(ListObjectsEvent.newCompletedEvent(uniqueOperationId));
+            }
+            public void fireErrorEvent(Throwable throwable) {
+                fireServiceEvent(ListObjectsEvent.newErrorEvent(throwable, uniqueOperationId));
+            }            
+            public void fireIgnoredErrorsEvent(ThreadWatcher threadWatcher, Throwable[] ignoredErrors) {
+                fireServiceEvent(ListObjectsEvent.newIgnoredErrorsEvent(threadWatcher, ignoredErrors, uniqueOperationId));
+            }
+        };
+        
+        // Start listing new ranges as soon as they are split off, rather than when the 
+        // manager next checks for completed runnables.
+        partitioner.setRangesAddedCallback(new Runnable() {
+            public void run() {
+                threadGroupManager.wakeUp();
+            }
+        });
+        
+        threadGroupManager.setPartialResultBuffer(pageBuffer);
+        
+        // Wait for threads to finish, or be cancelled.        
+        threadGroupManager.run();
         
         return success[0];
     }
@@ -458,6 +669,93 @@ public class S3ServiceMulti implements Serializable {
         return success[0];
     }
 
+    /**
+     * Copies multiple objects within or between buckets, pulling each object to copy from the
+     * given iterators only when a thread is available to copy it, and sends 
+     * {@link CopyObjectsEvent} notification events. Because items are pulled on demand, the 
+     * memory used by this method does not grow with the number of objects copied.
+     * <p>
+     * The maximum number of threads is controlled by the JetS3t configuration property 
+     * <tt>s3service.admin-max-thread-count</tt>.
+     * <p>
+     * The thread count reported by the {@link ThreadWatcher} in events is the number of copies
+     * pulled from the iterators so far. The completed event does not include the source keys 
+     * or destination objects, and if the operation is cancelled only the copies that were 
+     * started but not completed are reported as cancelled.
+     * 
+     * @param sourceBucketName
+     * the name of the bucket containing the objects that will be copied.
+     * @param destinationBucketName
+     * the name of the bucket to which the objects will be copied. The destination
+     * bucket may be the same as the source bucket.
+     * @param sourceObjectKeys
+     * an iterator of the key names of the objects that will be copied.
+     * @param destinationObjects
+     * an iterator of objects that will be created by the copy operation, in the same order 
+     * as the source keys. The AccessControlList setting of each object will determine the 
+     * access permissions of the resultant object, and if the replaceMetadata flag is true 
+     * the metadata items in each object will also be applied to the resultant object.
+     * @param replaceMetadata
+     * if true, the metadata items in the destination objects will be stored
+     * in S3 by using the REPLACE metadata copying option. If false, the metadata
+     * items will be copied unchanged from the original objects using the COPY
+     * metadata copying option.
+     * 
+     * @return
+     * true if all the threaded tasks completed successfully, false otherwise.
+     */
+    public boolean copyObjects(final String sourceBucketName, final String destinationBucketName,        
+        final Iterator sourceObjectKeys, final Iterator destinationObjects, final boolean replaceMetadata) 
+    {            
+        final Object uniqueOperationId = new Object(); // Special object used to identify this operation.
+        final boolean[] success = new boolean[] {false};
+                
+        final LazyRunnableIterator runnables = new LazyRunnableIterator(destinationObjects) {
+            protected AbstractRunnable createRunnable(Object workItem) {
+                return new CopyObjectRunnable(sourceBucketName, destinationBucketName, 
+                    (String) sourceObjectKeys.next(), (S3Object) workItem, replaceMetadata);
+            }
+        };
+        
+        int maxThreadCount = this.s3Service.getJetS3tProperties()
+            .getIntProperty("s3service.admin-max-thread-count", 4);
+        
+        boolean ignoreExceptions = this.s3Service.getJetS3tProperties()
+            .getBoolProperty("s3service.ignore-exceptions-in-multi", false);
+                            
+        // Wait for threads to finish, or be cancelled.
+        (new ThreadGroupManager(runnables, maxThreadCount, new ThreadWatcher(0), ignoreExceptions) {
+            public void fireStartEvent(ThreadWatcher threadWatcher) {
+                fireServiceEvent(CopyObjectsEvent.newStartedEvent(threadWatcher, uniqueOperationId));        
+            }
+            public void fireProgressEvent(ThreadWatcher threadWatcher, List completedResults) {
+                Map[] copyResults = (Map[]) completedResults
+                    .toArray(new Map[completedResults.size()]);
+                fireServiceEvent(CopyObjectsEvent.newInProgressEvent(threadWatcher, 
+                    copyResults, uniqueOperationId));
+            }
+            public void fireCancelEvent() {
+                List incompletedObjectsList = runnables.getPendingWorkItems();
+                S3Object[] incompletedObjects = (S3Object[]) incompletedObjectsList
+                    .toArray(new S3Object[incompletedObjectsList.size()]);
+                fireServiceEvent(CopyObjectsEvent.newCancelledEvent(incompletedObjects, uniqueOperationId));
+            }
+            public void fireCompletedEvent() {
+                success[0] = true;
+                fireServiceEvent(CopyObjectsEvent.newCompletedEvent(uniqueOperationId, 
+                    new String[0], new S3Object[0]));
+            }
+            public void fireErrorEvent(Throwable throwable) {
+                fireServiceEvent(CopyObjectsEvent.newErrorEvent(throwable, uniqueOperationId));
+            }
+            public void fireIgnoredErrorsEvent(ThreadWatcher threadWatcher, Throwable[] ignoredErrors) {
+                fireServiceEvent(CopyObjectsEvent.newIgnoredErrorsEvent(threadWatcher, ignoredErrors, uniqueOperationId));
+            }
+        }).run();
+        
+        return success[0];
+    }
+
     /**
      * Creates multiple objects in a bucket, and sends {@link CreateObjectsEvent} notification events.
      * <p>
@@ -528,64 +826,71 @@ public class S3ServiceMulti implements Serializable {
     }
     
     /**
-     * Deletes multiple objects from a bucket, and sends {@link DeleteObjectsEvent} notification events.
+     * Creates multiple objects in a bucket, pulling each object from the given iterator only 
+     * when a thread is available to upload it, and sends {@link CreateObjectsEvent} 
+     * notification events. Because objects are pulled on demand, the memory used by this 
+     * method does not grow with the number of objects uploaded.
      * <p>
      * The maximum number of threads is controlled by the JetS3t configuration property 
-     * <tt>s3service.admin-max-thread-count</tt>.
+     * <tt>s3service.max-thread-count</tt>.
+     * <p>
+     * The thread count reported by the {@link ThreadWatcher} in events is the number of objects
+     * pulled from the iterator so far, and byte transfer information is not available. If the 
+     * operation is cancelled, only the objects whose upload was started but not completed are
+     * reported as cancelled.
      * 
      * @param bucket
-     * the bucket containing the objects to be deleted
+     * the bucket to create the objects in 
      * @param objects
-     * the objects to delete
+     * an iterator of the {@link S3Object}s to create/upload.
      * 
      * @return
      * true if all the threaded tasks completed successfully, false otherwise.
      */
-    public boolean deleteObjects(final S3Bucket bucket, final S3Object[] objects) {
-        final List objectsToDeleteList = new ArrayList();
+    public boolean putObjects(final S3Bucket bucket, Iterator objects) {    
         final Object uniqueOperationId = new Object(); // Special object used to identify this operation.
         final boolean[] success = new boolean[] {false};
-
-        // Start all queries in the background.
-        DeleteObjectRunnable[] runnables = new DeleteObjectRunnable[objects.length];
-        for (int i = 0; i < runnables.length; i++) {
-            objectsToDeleteList.add(objects[i]);
-            runnables[i] = new DeleteObjectRunnable(bucket, objects[i]);
-        }
         
-        int adminMaxThreadCount = this.s3Service.getJetS3tProperties()
-            .getIntProperty("s3service.admin-max-thread-count", 4);
+        final LazyRunnableIterator runnables = new LazyRunnableIterator(objects) {
+            protected AbstractRunnable createRunnable(Object workItem) {
+                S3Object object = (S3Object) workItem;
+                return new CreateObjectRunnable(bucket, object, 
+                    new BytesProgressWatcher(object.getContentLength()));
+            }
+        };
+        
+        int maxThreadCount = this.s3Service.getJetS3tProperties()
+            .getIntProperty("s3service.max-thread-count", 4);
         
         boolean ignoreExceptions = this.s3Service.getJetS3tProperties()
             .getBoolProperty("s3service.ignore-exceptions-in-multi", false);
                             
-        // Wait for threads to finish, or be cancelled.        
-        (new ThreadGroupManager(runnables, adminMaxThreadCount, new ThreadWatcher(runnables.length),
-            ignoreExceptions) 
-        {
+        // Wait for threads to finish, or be cancelled.
+        (new ThreadGroupManager(runnables, maxThreadCount, new ThreadWatcher(0), ignoreExceptions) {
             public void fireStartEvent(ThreadWatcher threadWatcher) {
-                fireServiceEvent(DeleteObjectsEvent.newStartedEvent(threadWatcher, uniqueOperationId));        
+                fireServiceEvent(CreateObjectsEvent.newStartedEvent(threadWatcher, uniqueOperationId));        
             }
             public void fireProgressEvent(ThreadWatcher threadWatcher, List completedResults) {
-                objectsToDeleteList.removeAll(completedResults);
-                S3Object[] deletedObjects = (S3Object[]) completedResults
-                    .toArray(new S3Object[completedResults.size()]);                    
-                fireServiceEvent(DeleteObjectsEvent.newInProgressEvent(threadWatcher, deletedObjects, uniqueOperationId));
+                S3Object[] completedObjects = (S3Object[]) completedResults
+                    .toArray(new S3Object[completedResults.size()]);
+                fireServiceEvent(CreateObjectsEvent.newInProgressEvent(threadWatcher, 
+                    completedObjects, uniqueOperationId));
             }
             public void fireCancelEvent() {
-                S3Object[] remainingObjects = (S3Object[]) objectsToDeleteList
-                    .toArray(new S3Object[objectsToDeleteList.size()]);                    
-                fireServiceEvent(DeleteObjectsEvent.newCancelledEvent(remainingObjects, uniqueOperationId));
+                List incompletedObjectsList = runnables.getPendingWorkItems();
+                S3Object[] incompletedObjects = (S3Object[]) incompletedObjectsList
+                    .toArray(new S3Object[incompletedObjectsList.size()]);
+                fireServiceEvent(CreateObjectsEvent.newCancelledEvent(incompletedObjects, uniqueOperationId));
             }
             public void fireCompletedEvent() {
                 success[0] = true;
-                fireServiceEvent(DeleteObjectsEvent.newCompletedEvent(uniqueOperationId));                    
+                fireServiceEvent(CreateObjectsEvent.newCompletedEvent(uniqueOperationId));
             }
             public void fireErrorEvent(Throwable throwable) {
-                fireServiceEvent(DeleteObjectsEvent.newErrorEvent(throwable, uniqueOperationId));
+                fireServiceEvent(CreateObjectsEvent.newErrorEvent(throwable, uniqueOperationId));
             }
             public void fireIgnoredErrorsEvent(ThreadWatcher threadWatcher, Throwable[] ignoredErrors) {
-                fireServiceEvent(DeleteObjectsEvent.newIgnoredErrorsEvent(threadWatcher, ignoredErrors, uniqueOperationId));
+                fireServiceEvent(CreateObjectsEvent.newIgnoredErrorsEvent(threadWatcher, ignoredErrors, uniqueOperationId));
             }
         }).run();
         
@@ -593,56 +898,342 @@ public class S3ServiceMulti implements Serializable {
     }
     
     /**
-     * Retrieves multiple objects (details and data) from a bucket, and sends 
-     * {@link GetObjectsEvent} notification events.
-     * 
-     * @param bucket
-     * the bucket containing the objects to retrieve.
-     * @param objects
-     * the objects to retrieve.
-     * 
-     * @return
-     * true if all the threaded tasks completed successfully, false otherwise.
-     */
-    public boolean getObjects(S3Bucket bucket, S3Object[] objects) {
-        String[] objectKeys = new String[objects.length];
-        for (int i = 0; i < objects.length; i++) {
-            objectKeys[i] = objects[i].getKey();
-        }
-        return getObjects(bucket, objectKeys);
-    }
-    
-    /**
-     * Retrieves multiple objects (details and data) from a bucket, and sends 
-     * {@link GetObjectsEvent} notification events.
+     * Uploads a large file to an object as a number of parts, which are uploaded concurrently 
+     * and retried independently of each other, and sends {@link CreateObjectsEvent} 
+     * notification events. See {@link PartitionedUpload} for how the parts are stored.
      * <p>
-     * The maximum number of threads is controlled by the JetS3t configuration property 
-     * <tt>s3service.max-thread-count</tt>.
+     * The size of the parts is controlled by the JetS3t configuration property 
+     * <tt>uploads.part-size</tt>, and the number of times a failed part is retried by
+     * <tt>uploads.part-retry-max</tt>. The maximum number of threads is controlled by the 
+     * property <tt>s3service.max-thread-count</tt>. Every part must be uploaded for the 
+     * operation to succeed, so the property <tt>s3service.ignore-exceptions-in-multi</tt> 
+     * does not apply.
+     * <p>
+     * The parts that have been uploaded are recorded in a state file in the directory named by 
+     * the property <tt>uploads.state-directory</tt>, so if the operation fails or is cancelled 
+     * a later call with the same file and object only uploads the missing parts. Once every 
+     * part is uploaded, the manifest object is uploaded to the object's key, any parts left 
+     * over from an earlier, larger, version of the object are deleted, and the state file is 
+     * removed. These final steps are performed after all the part threads have finished, 
+     * before the completed event is sent.
+     * <p>
+     * Progress events report each part object as it is uploaded, and the manifest object 
+     * last.
      * 
      * @param bucket
-     * the bucket containing the objects to retrieve.
-     * @param objectKeys
-     * the key names of the objects to retrieve.
+     * the bucket to create the object in 
+     * @param object
+     * the object to create, whose key, ACL, content type and metadata are applied to the 
+     * manifest. Any data input stream of the object is ignored.
+     * @param dataFile
+     * the file containing the object's data.
      * 
      * @return
-     * true if all the threaded tasks completed successfully, false otherwise.
+     * true if all the parts and the manifest were uploaded, false otherwise.
      */
-    public boolean getObjects(final S3Bucket bucket, final String[] objectKeys) {
-        final List pendingObjectKeysList = new ArrayList();
+    public boolean putObjectInParts(final S3Bucket bucket, final S3Object object, File dataFile) {    
         final Object uniqueOperationId = new Object(); // Special object used to identify this operation.
-        final boolean[] success = new boolean[] {false};
-
-        // Start all queries in the background.
-        GetObjectRunnable[] runnables = new GetObjectRunnable[objectKeys.length];
-        for (int i = 0; i < runnables.length; i++) {
-            pendingObjectKeysList.add(objectKeys[i]);
-            runnables[i] = new GetObjectRunnable(bucket, objectKeys[i], false);
-        }
+        final boolean[] partsUploaded = new boolean[] {false};
         
-        int maxThreadCount = this.s3Service.getJetS3tProperties()
-            .getIntProperty("s3service.max-thread-count", 4);
+        Jets3tProperties jets3tProperties = this.s3Service.getJetS3tProperties();
+        final PartitionedUpload upload = new PartitionedUpload(bucket, object.getKey(), dataFile, 
+            jets3tProperties.getLongProperty("uploads.part-size", 8 * 1024 * 1024),
+            PartitionedUpload.getStateDirectory(jets3tProperties));
+        int partRetryMax = jets3tProperties.getIntProperty("uploads.part-retry-max", 3);
+        int completedPartCount = upload.loadState();
+        if (completedPartCount > 0 && log.isDebugEnabled()) {
+            log.debug("Resuming upload of '" + object.getKey() + "', " + completedPartCount 
+                + " of " + upload.getPartCount() + " parts were already uploaded");
+        }
         
-        boolean ignoreExceptions = this.s3Service.getJetS3tProperties()
+        final List incompletedObjectsList = new ArrayList();
+        List progressWatchers = new ArrayList();
+        List runnables = new ArrayList();
+        for (int i = 0; i < upload.getPartCount(); i++) {
+            if (!upload.isPartCompleted(i)) {
+                BytesProgressWatcher progressMonitor = new BytesProgressWatcher(upload.getPartLength(i));
+                runnables.add(new PutObjectPartRunnable(bucket, upload, i, object.getAcl(), 
+                    partRetryMax, progressMonitor));
+                progressWatchers.add(progressMonitor);
+                incompletedObjectsList.add(new S3Object(upload.getPartKey(i)));
+            }
+        }
+        
+        int maxThreadCount = jets3tProperties.getIntProperty("s3service.max-thread-count", 4);
+        
+        // Wait for threads to finish, or be cancelled.
+        final ThreadWatcher threadWatcher = new ThreadWatcher(
+            (BytesProgressWatcher[]) progressWatchers.toArray(new BytesProgressWatcher[progressWatchers.size()]));
+        (new ThreadGroupManager((AbstractRunnable[]) runnables.toArray(new AbstractRunnable[runnables.size()]), 
+            maxThreadCount, threadWatcher, false) 
+        {
+            public void fireStartEvent(ThreadWatcher threadWatcher) {
+                fireServiceEvent(CreateObjectsEvent.newStartedEvent(threadWatcher, uniqueOperationId));        
+            }
+            public void fireProgressEvent(ThreadWatcher threadWatcher, List completedResults) {
+                S3Object[] completedObjects = (S3Object[]) completedResults
+                    .toArray(new S3Object[completedResults.size()]);
+                for (int i = 0; i < completedObjects.length; i++) {
+                    Iterator iter = incompletedObjectsList.iterator();
+                    while (iter.hasNext()) {
+                        if (completedObjects[i].getKey().equals(((S3Object) iter.next()).getKey())) {
+                            iter.remove();
+                            break;
+                        }
+                    }
+                }
+                fireServiceEvent(CreateObjectsEvent.newInProgressEvent(threadWatcher, 
+                    completedObjects, uniqueOperationId));
+            }
+            public void fireCancelEvent() {
+                S3Object[] incompletedObjects = (S3Object[]) incompletedObjectsList
+                    .toArray(new S3Object[incompletedObjectsList.size()]);
+                fireServiceEvent(CreateObjectsEvent.newCancelledEvent(incompletedObjects, uniqueOperationId));
+            }
+            public void fireCompletedEvent() {
+                // The manifest is uploaded, and the completed event sent, once run() returns.
+                partsUploaded[0] = true;
+            }
+            public void fireErrorEvent(Throwable throwable) {
+                fireServiceEvent(CreateObjectsEvent.newErrorEvent(throwable, uniqueOperationId));
+            }
+            public void fireIgnoredErrorsEvent(ThreadWatcher threadWatcher, Throwable[] ignoredErrors) {
+                fireServiceEvent(CreateObjectsEvent.newIgnoredErrorsEvent(threadWatcher, ignoredErrors, uniqueOperationId));
+            }
+        }).run();
+        
+        if (!partsUploaded[0]) {
+            return false;
+        }
+        S3Object manifest = null;
+        try {
+            manifest = completePartitionedUpload(bucket, object, upload);
+        } catch (S3ServiceException e) {
+            fireServiceEvent(CreateObjectsEvent.newErrorEvent(e, uniqueOperationId));
+            return false;
+        }
+        fireServiceEvent(CreateObjectsEvent.newInProgressEvent(threadWatcher, 
+            new S3Object[] {manifest}, uniqueOperationId));
+        fireServiceEvent(CreateObjectsEvent.newCompletedEvent(uniqueOperationId));
+        return true;
+    }
+    
+    /**
+     * Uploads the manifest of an object whose parts have all been uploaded, deletes any parts 
+     * left over from an earlier version of the object with more parts, and removes the upload's 
+     * state file.
+     * 
+     * @return
+     * the manifest object, as returned by S3.
+     */
+    private S3Object completePartitionedUpload(S3Bucket bucket, S3Object object, 
+        PartitionedUpload upload) throws S3ServiceException 
+    {
+        S3Object previousManifest = null;
+        try {
+            previousManifest = s3Service.getObjectDetails(bucket, object.getKey());
+        } catch (S3ServiceException e) {
+            if (e.getResponseCode() != 404) {
+                throw e;
+            }
+        }
+        
+        S3Object manifest = s3Service.putObject(bucket, upload.createManifestObject(object));
+        
+        S3Object[] staleParts = upload.getStalePartObjects(previousManifest);
+        for (int i = 0; i < staleParts.length; i++) {
+            s3Service.deleteObject(bucket, staleParts[i].getKey());
+        }
+        upload.clearState();
+        return manifest;
+    }
+    
+    /**
+     * Deletes multiple objects from a bucket, and sends {@link DeleteObjectsEvent} notification events.
+     * <p>
+     * The maximum number of threads is controlled by the JetS3t configuration property 
+     * <tt>s3service.admin-max-thread-count</tt>.
+     * 
+     * @param bucket
+     * the bucket containing the objects to be deleted
+     * @param objects
+     * the objects to delete
+     * 
+     * @return
+     * true if all the threaded tasks completed successfully, false otherwise.
+     */
+    public boolean deleteObjects(final S3Bucket bucket, final S3Object[] objects) {
+        final List objectsToDeleteList = new ArrayList();
+        final Object uniqueOperationId = new Object(); // Special object used to identify this operation.
+        final boolean[] success = new boolean[] {false};
+
+        // Start all queries in the background.
+        DeleteObjectRunnable[] runnables = new DeleteObjectRunnable[objects.length];
+        for (int i = 0; i < runnables.length; i++) {
+            objectsToDeleteList.add(objects[i]);
+            runnables[i] = new DeleteObjectRunnable(bucket, objects[i]);
+        }
+        
+        int adminMaxThreadCount = this.s3Service.getJetS3tProperties()
+            .getIntProperty("s3service.admin-max-thread-count", 4);
+        
+        boolean ignoreExceptions = this.s3Service.getJetS3tProperties()
+            .getBoolProperty("s3service.ignore-exceptions-in-multi", false);
+                            
+        // Wait for threads to finish, or be cancelled.        
+        (new ThreadGroupManager(runnables, adminMaxThreadCount, new ThreadWatcher(runnables.length),
+            ignoreExceptions) 
+        {
+            public void fireStartEvent(ThreadWatcher threadWatcher) {
+                fireServiceEvent(DeleteObjectsEvent.newStartedEvent(threadWatcher, uniqueOperationId));        
+            }
+            public void fireProgressEvent(ThreadWatcher threadWatcher, List completedResults) {
+                objectsToDeleteList.removeAll(completedResults);
+                S3Object[] deletedObjects = (S3Object[]) completedResults
+                    .toArray(new S3Object[completedResults.size()]);                    
+                fireServiceEvent(DeleteObjectsEvent.newInProgressEvent(threadWatcher, deletedObjects, uniqueOperationId));
+            }
+            public void fireCancelEvent() {
+                S3Object[] remainingObjects = (S3Object[]) objectsToDeleteList
+                    .toArray(new S3Object[objectsToDeleteList.size()]);                    
+                fireServiceEvent(DeleteObjectsEvent.newCancelledEvent(remainingObjects, uniqueOperationId));
+            }
+            public void fireCompletedEvent() {
+                success[0] = true;
+                fireServiceEvent(DeleteObjectsEvent.newCompletedEvent(uniqueOperationId));                    
+            }
+            public void fireErrorEvent(Throwable throwable) {
+                fireServiceEvent(DeleteObjectsEvent.newErrorEvent(throwable, uniqueOperationId));
+            }
+            public void fireIgnoredErrorsEvent(ThreadWatcher threadWatcher, Throwable[] ignoredErrors) {
+                fireServiceEvent(DeleteObjectsEvent.newIgnoredErrorsEvent(threadWatcher, ignoredErrors, uniqueOperationId));
+            }
+        }).run();
+        
+        return success[0];
+    }
+    
+    /**
+     * Deletes multiple objects from a bucket, pulling each object from the given iterator only 
+     * when a thread is available to delete it, and sends {@link DeleteObjectsEvent} 
+     * notification events. Because objects are pulled on demand, the memory used by this 
+     * method does not grow with the number of objects deleted.
+     * <p>
+     * The maximum number of threads is controlled by the JetS3t configuration property 
+     * <tt>s3service.admin-max-thread-count</tt>.
+     * <p>
+     * The thread count reported by the {@link ThreadWatcher} in events is the number of objects
+     * pulled from the iterator so far. If the operation is cancelled, only the objects whose 
+     * deletion was started but not completed are reported as cancelled.
+     * 
+     * @param bucket
+     * the bucket containing the objects to be deleted
+     * @param objects
+     * an iterator of the {@link S3Object}s to delete
+     * 
+     * @return
+     * true if all the threaded tasks completed successfully, false otherwise.
+     */
+    public boolean deleteObjects(final S3Bucket bucket, Iterator objects) {
+        final Object uniqueOperationId = new Object(); // Special object used to identify this operation.
+        final boolean[] success = new boolean[] {false};
+
+        final LazyRunnableIterator runnables = new LazyRunnableIterator(objects) {
+            protected AbstractRunnable createRunnable(Object workItem) {
+                return new DeleteObjectRunnable(bucket, (S3Object) workItem);
+            }
+        };
+        
+        int adminMaxThreadCount = this.s3Service.getJetS3tProperties()
+            .getIntProperty("s3service.admin-max-thread-count", 4);
+        
+        boolean ignoreExceptions = this.s3Service.getJetS3tProperties()
+            .getBoolProperty("s3service.ignore-exceptions-in-multi", false);
+                            
+        // Wait for threads to finish, or be cancelled.        
+        (new ThreadGroupManager(runnables, adminMaxThreadCount, new ThreadWatcher(0),
+            ignoreExceptions) 
+        {
+            public void fireStartEvent(ThreadWatcher threadWatcher) {
+                fireServiceEvent(DeleteObjectsEvent.newStartedEvent(threadWatcher, uniqueOperationId));        
+            }
+            public void fireProgressEvent(ThreadWatcher threadWatcher, List completedResults) {
+                S3Object[] deletedObjects = (S3Object[]) completedResults
+                    .toArray(new S3Object[completedResults.size()]);                    
+                fireServiceEvent(DeleteObjectsEvent.newInProgressEvent(threadWatcher, deletedObjects, uniqueOperationId));
+            }
+            public void fireCancelEvent() {
+                List remainingObjectsList = runnables.getPendingWorkItems();
+                S3Object[] remainingObjects = (S3Object[]) remainingObjectsList
+                    .toArray(new S3Object[remainingObjectsList.size()]);                    
+                fireServiceEvent(DeleteObjectsEvent.newCancelledEvent(remainingObjects, uniqueOperationId));
+            }
+            public void fireCompletedEvent() {
+                success[0] = true;
+                fireServiceEvent(DeleteObjectsEvent.newCompletedEvent(uniqueOperationId));                    
+            }
+            public void fireErrorEvent(Throwable throwable) {
+                fireServiceEvent(DeleteObjectsEvent.newErrorEvent(throwable, uniqueOperationId));
+            }
+            public void fireIgnoredErrorsEvent(ThreadWatcher threadWatcher, Throwable[] ignoredErrors) {
+                fireServiceEvent(DeleteObjectsEvent.newIgnoredErrorsEvent(threadWatcher, ignoredErrors, uniqueOperationId));
+            }
+        }).run();
+        
+        return success[0];
+    }
+    
+    /**
+     * Retrieves multiple objects (details and data) from a bucket, and sends 
+     * {@link GetObjectsEvent} notification events.
+     * 
+     * @param bucket
+     * the bucket containing the objects to retrieve.
+     * @param objects
+     * the objects to retrieve.
+     * 
+     * @return
+     * true if all the threaded tasks completed successfully, false otherwise.
+     */
+    public boolean getObjects(S3Bucket bucket, S3Object[] objects) {
+        String[] objectKeys = new String[objects.length];
+        for (int i = 0; i < objects.length; i++) {
+            objectKeys[i] = objects[i].getKey();
+        }
+        return getObjects(bucket, objectKeys);
+    }
+    
+    /**
+     * Retrieves multiple objects (details and data) from a bucket, and sends 
+     * {@link GetObjectsEvent} notification events.
+     * <p>
+     * The maximum number of threads is controlled by the JetS3t configuration property 
+     * <tt>s3service.max-thread-count</tt>.
+     * 
+     * @param bucket
+     * the bucket containing the objects to retrieve.
+     * @param objectKeys
+     * the key names of the objects to retrieve.
+     * 
+     * @return
+     * true if all the threaded tasks completed successfully, false otherwise.
+     */
+    public boolean getObjects(final S3Bucket bucket, final String[] objectKeys) {
+        final List pendingObjectKeysList = new ArrayList();
+        final Object uniqueOperationId = new Object(); // Special object used to identify this operation.
+        final boolean[] success = new boolean[] {false};
+
+        // Start all queries in the background.
+        GetObjectRunnable[] runnables = new GetObjectRunnable[objectKeys.length];
+        for (int i = 0; i < runnables.length; i++) {
+            pendingObjectKeysList.add(objectKeys[i]);
+            runnables[i] = new GetObjectRunnable(bucket, objectKeys[i], false);
+        }
+        
+        int maxThreadCount = this.s3Service.getJetS3tProperties()
+            .getIntProperty("s3service.max-thread-count", 4);
+        
+        boolean ignoreExceptions = this.s3Service.getJetS3tProperties()
             .getBoolProperty("s3service.ignore-exceptions-in-multi", false);
                             
         // Wait for threads to finish, or be cancelled.        
@@ -780,6 +1371,76 @@ public class S3ServiceMulti implements Serializable {
         return success[0];
     }
     
+    /**
+     * Retrieves details (but no data) about multiple objects from a bucket, pulling each object
+     * from the given iterator only when a thread is available to perform its HEAD request, and 
+     * sends {@link GetObjectHeadsEvent} notification events. Because objects are pulled on 
+     * demand, the memory used by this method does not grow with the number of objects.
+     * <p>
+     * The maximum number of threads is controlled by the JetS3t configuration property 
+     * <tt>s3service.admin-max-thread-count</tt>.
+     * <p>
+     * The thread count reported by the {@link ThreadWatcher} in events is the number of objects
+     * pulled from the iterator so far. If the operation is cancelled, only the objects whose 
+     * HEAD request was started but not completed are reported as cancelled.
+     * 
+     * @param bucket
+     * the bucket containing the objects whose details will be retrieved.
+     * @param objects
+     * an iterator of the {@link S3Object}s with details to retrieve.
+     * 
+     * @return
+     * true if all the threaded tasks completed successfully, false otherwise.
+     */
+    public boolean getObjectsHeads(final S3Bucket bucket, Iterator objects) {
+        final Object uniqueOperationId = new Object(); // Special object used to identify this operation.
+        final boolean[] success = new boolean[] {false};
+
+        final LazyRunnableIterator runnables = new LazyRunnableIterator(objects) {
+            protected AbstractRunnable createRunnable(Object workItem) {
+                return new GetObjectRunnable(bucket, ((S3Object) workItem).getKey(), true);
+            }
+        };
+
+        int adminMaxThreadCount = this.s3Service.getJetS3tProperties()
+            .getIntProperty("s3service.admin-max-thread-count", 4);
+        
+        boolean ignoreExceptions = this.s3Service.getJetS3tProperties()
+            .getBoolProperty("s3service.ignore-exceptions-in-multi", false);
+                            
+        // Wait for threads to finish, or be cancelled.        
+        (new ThreadGroupManager(runnables, adminMaxThreadCount, new ThreadWatcher(0),
+            ignoreExceptions) 
+        {
+            public void fireStartEvent(ThreadWatcher threadWatcher) {
+                fireServiceEvent(GetObjectHeadsEvent.newStartedEvent(threadWatcher, uniqueOperationId));        
+            }
+            public void fireProgressEvent(ThreadWatcher threadWatcher, List completedResults) {
+                S3Object[] completedObjects = (S3Object[]) completedResults
+                    .toArray(new S3Object[completedResults.size()]);
+                fireServiceEvent(GetObjectHeadsEvent.newInProgressEvent(threadWatcher, completedObjects, uniqueOperationId));
+            }
+            public void fireCancelEvent() {
+                List cancelledObjectsList = runnables.getPendingWorkItems();
+                S3Object[] cancelledObjects = (S3Object[]) cancelledObjectsList
+                    .toArray(new S3Object[cancelledObjectsList.size()]);
+                fireServiceEvent(GetObjectHeadsEvent.newCancelledEvent(cancelledObjects, uniqueOperationId));
+            }
+            public void fireCompletedEvent() {
+                success[0] = true;
+                fireServiceEvent(GetObjectHeadsEvent.newCompletedEvent(uniqueOperationId));                    
+            }
+            public void fireErrorEvent(Throwable throwable) {
+                fireServiceEvent(GetObjectHeadsEvent.newErrorEvent(throwable, uniqueOperationId));
+            }
+            public void fireIgnoredErrorsEvent(ThreadWatcher threadWatcher, Throwable[] ignoredErrors) {
+                fireServiceEvent(GetObjectHeadsEvent.newIgnoredErrorsEvent(threadWatcher, ignoredErrors, uniqueOperationId));
+            }
+        }).run();
+        
+        return success[0];
+    }
+    
     /**
      * Retrieves Access Control List (ACL) information for multiple objects from a bucket, and sends 
      * {@link LookupACLEvent} notification events.
@@ -1018,6 +1679,108 @@ public class S3ServiceMulti implements Serializable {
         return success[0];
     }
 
+    /**
+     * A convenience method to download multiple objects from S3 to pre-existing 
+     * output streams, pulling each download package from the given iterator only when a 
+     * thread is available to perform the download. This method sends 
+     * {@link DownloadObjectsEvent} notification events. Because packages are pulled on demand,
+     * the memory used by this method does not grow with the number of objects downloaded.
+     * <p>
+     * The maximum number of threads is controlled by the JetS3t configuration property 
+     * <tt>s3service.max-thread-count</tt>.
+     * <p>
+     * The thread count reported by the {@link ThreadWatcher} in events is the number of 
+     * packages pulled from the iterator so far, and byte transfer information is not available.
+     * If the operation is cancelled, only the objects whose download was started but not 
+     * completed are reported as cancelled.
+     * 
+     * @param bucket
+     * the bucket containing the objects, may be null if all the download packages are based
+     * on signed URLs.
+     * @param downloadPackages
+     * an iterator of {@link DownloadPackage}s containing the objects to be downloaded, and 
+     * able to build output streams where the objects' contents will be written to.
+     * 
+     * @return
+     * true if all the threaded tasks completed successfully, false otherwise.
+     */
+    public boolean downloadObjects(final S3Bucket bucket, Iterator downloadPackages)
+    {
+        final Object uniqueOperationId = new Object(); // Special object used to identify this operation.        
+        final boolean[] success = new boolean[] {false};
+
+        final boolean restoreLastModifiedDate = this.s3Service.getJetS3tProperties()
+            .getBoolProperty("downloads.restoreLastModifiedDate", false);                
+
+        final LazyRunnableIterator runnables = new LazyRunnableIterator(downloadPackages) {
+            protected AbstractRunnable createRunnable(Object workItem) {
+                DownloadPackage downloadPackage = (DownloadPackage) workItem;
+                if (downloadPackage.isSignedDownload()) {
+                    return new DownloadObjectRunnable(downloadPackage, 
+                        new BytesProgressWatcher(0), restoreLastModifiedDate);
+                } else {
+                    S3Object object = downloadPackage.getObject();
+                    return new DownloadObjectRunnable(bucket, object.getKey(), downloadPackage, 
+                        new BytesProgressWatcher(object.getContentLength()), restoreLastModifiedDate);
+                }
+            }
+        };
+
+        int maxThreadCount = this.s3Service.getJetS3tProperties()
+            .getIntProperty("s3service.max-thread-count", 4);
+        
+        boolean ignoreExceptions = this.s3Service.getJetS3tProperties()
+            .getBoolProperty("s3service.ignore-exceptions-in-multi", false);
+                            
+        // Wait for threads to finish, or be cancelled.        
+        (new ThreadGroupManager(runnables, maxThreadCount, new ThreadWatcher(0), ignoreExceptions) {
+            public void fireStartEvent(ThreadWatcher threadWatcher) {
+                fireServiceEvent(DownloadObjectsEvent.newStartedEvent(threadWatcher, uniqueOperationId));
+            }
+            public void fireProgressEvent(ThreadWatcher threadWatcher, List completedResults) {
+                S3Object[] completedObjects = (S3Object[]) completedResults
+                    .toArray(new S3Object[completedResults.size()]);
+                fireServiceEvent(DownloadObjectsEvent.newInProgressEvent(threadWatcher, completedObjects, uniqueOperationId));
+            }
+            public void fireCancelEvent() {
+                List incompleteObjectDownloadList = new ArrayList();
+                Iterator iter = runnables.getPendingWorkItems().iterator();
+                while (iter.hasNext()) {
+                    DownloadPackage downloadPackage = (DownloadPackage) iter.next();
+                    if (!downloadPackage.isSignedDownload()) {
+                        incompleteObjectDownloadList.add(downloadPackage.getObject());
+                    } else {
+                        try {
+                            URL url = new URL(downloadPackage.getSignedUrl());            
+                            incompleteObjectDownloadList.add(
+                                ServiceUtils.buildObjectFromUrl(url.getHost(), url.getPath()));
+                        } catch (Exception e) {
+                            if (log.isWarnEnabled()) {
+                                log.warn("Unable to determine S3 Object key name from signed URL: " 
+                                    + downloadPackage.getSignedUrl(), e);
+                            }
+                        }
+                    }
+                }
+                S3Object[] incompleteObjects = (S3Object[]) incompleteObjectDownloadList
+                    .toArray(new S3Object[incompleteObjectDownloadList.size()]);
+                fireServiceEvent(DownloadObjectsEvent.newCancelledEvent(incompleteObjects, uniqueOperationId));
+            }
+            public void fireCompletedEvent() {
+                success[0] = true;
+                fireServiceEvent(DownloadObjectsEvent.newCompletedEvent(uniqueOperationId));                    
+            }
+            public void fireErrorEvent(Throwable throwable) {
+                fireServiceEvent(DownloadObjectsEvent.newErrorEvent(throwable, uniqueOperationId));
+            }
+            public void fireIgnoredErrorsEvent(ThreadWatcher threadWatcher, Throwable[] ignoredErrors) {
+                fireServiceEvent(DownloadObjectsEvent.newIgnoredErrorsEvent(threadWatcher, ignoredErrors, uniqueOperationId));
+            }
+        }).run();
+        
+        return success[0];
+    }
+
     /**
      * A convenience method to download multiple objects from S3 to pre-existing 
      * output streams, which is particularly useful for downloading objects to files.
@@ -1575,6 +2338,8 @@ public class S3ServiceMulti implements Serializable {
      */
     private abstract class AbstractRunnable implements Runnable {
         private boolean forceInterrupt = false;
+        private Throwable uncaughtThrowable = null;
+        private long elapsedTimeMS = 0;
 
         public abstract Object getResult();
         
@@ -1593,6 +2358,78 @@ public class S3ServiceMulti implements Serializable {
         }        
     }
     
+    /**
+     * Adapts an iterator of work items into an iterator of runnables for the 
+     * {@link ThreadGroupManager}, creating each runnable only when the manager is ready to start
+     * it. The work items of runnables that have been started but have not yet completed are 
+     * remembered, so they can be reported as incomplete if the operation is cancelled.
+     */
+    private abstract class LazyRunnableIterator implements Iterator {
+        private final Iterator workItems;
+        private final Map pendingWorkItems = new IdentityHashMap();
+        
+        public LazyRunnableIterator(Iterator workItems) {
+            this.workItems = workItems;
+        }
+        
+        /**
+         * @return
+         * a runnable that will perform the operation for the given work item.
+         */
+        protected abstract AbstractRunnable createRunnable(Object workItem);
+        
+        public boolean hasNext() {
+            return workItems.hasNext();
+        }
+        
+        /**
+         * @return
+         * true if {@link #hasNext()} can be called without waiting, which is only false when 
+         * work items are taken from a {@link WorkQueue} that is waiting for its producer.
+         */
+        public boolean isNextReady() {
+            return !(workItems instanceof WorkQueue) || ((WorkQueue) workItems).isNextReady();
+        }
+        
+        /**
+         * @return
+         * the source of work items.
+         */
+        public Iterator getWorkItems() {
+            return workItems;
+        }
+        
+        public Object next() {
+            Object workItem = workItems.next();
+            AbstractRunnable runnable = createRunnable(workItem);
+            synchronized (pendingWorkItems) {
+                pendingWorkItems.put(runnable, workItem);
+            }
+            return runnable;
+        }
+        
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+        protected void runnableCompleted(AbstractRunnable runnable) {
+            synchronized (pendingWorkItems) {
+                pendingWorkItems.remove(runnable);
+            }
+        }
+        
+        /**
+         * @return
+         * the work items that were started but have not completed. Work items that have not 
+         * yet been pulled from the source iterator are not included.
+         */
+        public List getPendingWorkItems() {
+            synchronized (pendingWorkItems) {
+                return new ArrayList(pendingWorkItems.values());
+            }
+        }
+    }
+    
     /**
      * Thread for performing the update/set of Access Control List information for an object.
      */
@@ -1778,7 +2615,9 @@ public class S3ServiceMulti implements Serializable {
     }
 
     /**
-     * Thread for listing the objects in a bucket.
+     * Thread for listing the objects in a bucket. If a page buffer is provided, each page 
+     * except the last is passed to the buffer as soon as it is listed and the last page is
+     * the runnable's result. Otherwise all the pages are gathered into a single result chunk.
      */
     private class ListObjectsRunnable extends AbstractRunnable {
         private Object result = null;
@@ -1787,16 +2626,19 @@ public class S3ServiceMulti implements Serializable {
         private String delimiter = null;
         private long maxListingLength = 1000;
         private String priorLastKey = null;
+        private PartialResultBuffer pageBuffer = null;
         private boolean halted = false;
         
         public ListObjectsRunnable(String bucketName, String prefix, 
-            String delimiter, long maxListingLength, String priorLastKey) 
+            String delimiter, long maxListingLength, String priorLastKey, 
+            PartialResultBuffer pageBuffer) 
         {
             this.bucketName = bucketName;
             this.prefix = prefix;
             this.delimiter = delimiter;
             this.maxListingLength = maxListingLength;
             this.priorLastKey = priorLastKey;
+            this.pageBuffer = pageBuffer;
         }
 
         public void run() {
@@ -1809,18 +2651,118 @@ public class S3ServiceMulti implements Serializable {
                         bucketName, prefix, delimiter, maxListingLength, priorLastKey);                    
                     priorLastKey = chunk.getPriorLastKey();                
                     
-                    allObjects.addAll(Arrays.asList(chunk.getObjects()));
-                    allCommonPrefixes.addAll(Arrays.asList(chunk.getCommonPrefixes()));
+                    if (pageBuffer == null) {
+                        allObjects.addAll(Arrays.asList(chunk.getObjects()));
+                        allCommonPrefixes.addAll(Arrays.asList(chunk.getCommonPrefixes()));
+                    } else if (priorLastKey == null) {
+                        result = chunk;
+                    } else if (!pageBuffer.put(chunk)) {
+                        // The operation has ended, nobody will receive further pages.
+                        halted = true;
+                    }
                 } while (!halted && priorLastKey != null);
                 
+                if (pageBuffer == null || result == null) {
+                    result = new S3ObjectsChunk(
+                        prefix, delimiter,
+                        (S3Object[]) allObjects.toArray(new S3Object[allObjects.size()]),
+                        (String[]) allCommonPrefixes.toArray(new String[allCommonPrefixes.size()]),
+                        null);
+                }
+            } catch (S3ServiceException e) {
+                result = e;
+            }            
+        }
+        
+        public Object getResult() {
+            return result;
+        }        
+        
+        public void forceInterruptCalled() {
+            halted = true;
+        }
+    }
+
+    /**
+     * Thread for listing the objects in one range of a bucket's keys, as part of a listing
+     * partitioned by a {@link KeyRangePartitioner}. After each listing request the thread
+     * offers the unlisted remainder of its range to be divided among idle threads.
+     */
+    private class ListObjectsRangeRunnable extends AbstractRunnable {
+        private Object result = null;
+        private String bucketName = null;
+        private String prefix = null;
+        private long maxListingLength = 1000;
+        private KeyRangePartitioner partitioner = null;
+        private KeyRangePartitioner.KeyRange range = null;
+        private PartialResultBuffer pageBuffer = null;
+        private boolean halted = false;
+        
+        public ListObjectsRangeRunnable(String bucketName, String prefix, long maxListingLength, 
+            KeyRangePartitioner partitioner, KeyRangePartitioner.KeyRange range, 
+            PartialResultBuffer pageBuffer) 
+        {
+            this.bucketName = bucketName;
+            this.prefix = prefix;
+            this.maxListingLength = maxListingLength;
+            this.partitioner = partitioner;
+            this.range = range;
+            this.pageBuffer = pageBuffer;
+        }
+
+        public void run() {
+            try {   
+                List allObjects = new ArrayList();
+                String priorLastKey = range.getStartAfterKey();
+                boolean rangeComplete = false;
+                
+                do {                                
+                    S3ObjectsChunk chunk = s3Service.listObjectsChunked(
+                        bucketName, prefix, null, maxListingLength, priorLastKey);                    
+                    priorLastKey = chunk.getPriorLastKey();
+                    
+                    S3Object[] objects = chunk.getObjects();
+                    String[] keys = new String[objects.length];
+                    for (int i = 0; i < objects.length; i++) {
+                        keys[i] = objects[i].getKey();
+                    }
+                    partitioner.keysListed(keys);
+                    for (int i = 0; i < objects.length; i++) {
+                        if (range.isBeyondEnd(objects[i].getKey())) {
+                            // The remaining objects belong to a following range.
+                            rangeComplete = true;
+                            break;
+                        }
+                        allObjects.add(objects[i]);
+                    }
+                    
+                    if (priorLastKey == null) {
+                        rangeComplete = true;
+                    } else if (!rangeComplete && objects.length > 0) {
+                        partitioner.splitIfIdle(range, objects[0].getKey(), priorLastKey);
+                    }
+                    
+                    if (pageBuffer != null && !rangeComplete) {
+                        S3ObjectsChunk page = new S3ObjectsChunk(prefix, null, 
+                            (S3Object[]) allObjects.toArray(new S3Object[allObjects.size()]),
+                            new String[0], null);
+                        allObjects.clear();
+                        if (!pageBuffer.put(page)) {
+                            // The operation has ended, nobody will receive further pages.
+                            halted = true;
+                        }
+                    }
+                } while (!halted && !rangeComplete);
+                
                 result = new S3ObjectsChunk(
-                    prefix, delimiter,
+                    prefix, null,
                     (S3Object[]) allObjects.toArray(new S3Object[allObjects.size()]),
-                    (String[]) allCommonPrefixes.toArray(new String[allCommonPrefixes.size()]),
-                    null);
+                    new String[0], null);
             } catch (S3ServiceException e) {
                 result = e;
-            }            
+            } finally {
+                partitioner.rangeCompleted(range);
+            }
         }
         
         public Object getResult() {
@@ -1850,18 +2792,118 @@ public class S3ServiceMulti implements Serializable {
             this.s3Object = s3Object;
             this.progressMonitor = progressMonitor;
         }
-
-        public void run() {
+
+        public void run() {
+            try {
+                if (s3Object.getDataInputStream() != null) {
+                    interruptableInputStream = new InterruptableInputStream(s3Object.getDataInputStream());
+                    ProgressMonitoredInputStream pmInputStream = new ProgressMonitoredInputStream(
+                        interruptableInputStream, progressMonitor);
+                    s3Object.setDataInputStream(pmInputStream);
+                }
+                result = s3Service.putObject(bucket, s3Object);
+            } catch (S3ServiceException e) {
+                result = e;
+            }
+        }
+        
+        public Object getResult() {
+            return result;
+        }        
+        
+        public void forceInterruptCalled() {        
+            if (interruptableInputStream != null) {
+                interruptableInputStream.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Thread for uploading one part of an object that is uploaded in parts. The upload of the
+     * part's data is monitored with a {@link ProgressMonitoredInputStream} and can be cancelled 
+     * as the input stream is wrapped in an {@link InterruptableInputStream}. If the upload 
+     * fails, it is started again from the beginning of the part, up to a maximum number of 
+     * retries.
+     */
+    private class PutObjectPartRunnable extends AbstractRunnable {
+        private S3Bucket bucket = null;
+        private PartitionedUpload upload = null;
+        private int partIndex = 0;
+        private AccessControlList acl = null;
+        private int partRetryMax = 0;
+        private volatile InterruptableInputStream interruptableInputStream = null;
+        private BytesProgressWatcher progressMonitor = null;
+        
+        private Object result = null;
+        
+        public PutObjectPartRunnable(S3Bucket bucket, PartitionedUpload upload, int partIndex, 
+            AccessControlList acl, int partRetryMax, BytesProgressWatcher progressMonitor) 
+        {
+            this.bucket = bucket;
+            this.upload = upload;
+            this.partIndex = partIndex;
+            this.acl = acl;
+            this.partRetryMax = Math.max(0, partRetryMax);
+            this.progressMonitor = progressMonitor;
+        }
+
+        public void run() {
+            int failureCount = 0;
+            while (true) {
+                try {
+                    notInterrupted();
+                    S3Object part = upload.createPartObject(partIndex, acl);
+                    interruptableInputStream = new InterruptableInputStream(part.getDataInputStream());
+                    part.setDataInputStream(new ProgressMonitoredInputStream(
+                        interruptableInputStream, progressMonitor));
+                    S3Object uploadedPart = s3Service.putObject(bucket, part);
+                    if (uploadedPart.getETag() == null) {
+                        throw new S3ServiceException("No ETag was returned for part " + partIndex 
+                            + " of '" + upload.getKey() + "'");
+                    }
+                    recordCompletedPart(uploadedPart.getETag());
+                    result = uploadedPart;
+                    return;
+                } catch (InterruptedException e) {
+                    result = e;
+                    return;
+                } catch (S3ServiceException e) {
+                    int responseCode = e.getResponseCode();
+                    boolean isRetryable = (responseCode < 400 || responseCode >= 500
+                        || "RequestTimeout".equals(e.getS3ErrorCode()));
+                    if (!isRetryable || ++failureCount > partRetryMax) {
+                        result = e;
+                        return;
+                    }
+                    if (log.isWarnEnabled()) {
+                        log.warn("Retrying part " + partIndex + " of '" + upload.getKey() 
+                            + "' after failure " + failureCount + " of " + partRetryMax, e);
+                    }
+                    progressMonitor.resetWatcher();
+                    try {
+                        Thread.sleep(50L * failureCount * failureCount);
+                    } catch (InterruptedException ie) {
+                        result = e;
+                        return;
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Records the part in the upload's state file as soon as it is uploaded, so it need not 
+         * be uploaded again if the upload is interrupted. A failure to write the state file 
+         * does not stop the upload.
+         */
+        private void recordCompletedPart(String etag) {
+            upload.partCompleted(partIndex, etag);
             try {
-                if (s3Object.getDataInputStream() != null) {
-                    interruptableInputStream = new InterruptableInputStream(s3Object.getDataInputStream());
-                    ProgressMonitoredInputStream pmInputStream = new ProgressMonitoredInputStream(
-                        interruptableInputStream, progressMonitor);
-                    s3Object.setDataInputStream(pmInputStream);
+                upload.writeState();
+            } catch (IOException e) {
+                if (log.isWarnEnabled()) {
+                    log.warn("Unable to record upload of part " + partIndex + " of '" 
+                        + upload.getKey() + "', an interrupted upload will upload it again", e);
                 }
-                result = s3Service.putObject(bucket, s3Object);
-            } catch (S3ServiceException e) {
-                result = e;
             }
         }
         
@@ -1982,6 +3024,7 @@ public class S3ServiceMulti implements Serializable {
         private S3Bucket bucket = null;
         private DownloadPackage downloadPackage = null;
         private InterruptableInputStream interruptableInputStream = null;
+        private ParallelRangeDownloader rangeDownloader = null;
         private BytesProgressWatcher progressMonitor = null;
         private boolean restoreLastModifiedDate = true;
         
@@ -2011,36 +3054,80 @@ public class S3ServiceMulti implements Serializable {
             S3Object object = null;
 
             try {                
-            	if (!downloadPackage.isSignedDownload()) {
-            		object = s3Service.getObject(bucket, objectKey);
-            	} else {
-                    SignedUrlHandler handler = (SignedUrlHandler) s3Service;
-                    object = handler.getObjectWithSignedUrl(downloadPackage.getSignedUrl());
-            	}
-
-                // Setup monitoring of stream bytes transferred. 
-                interruptableInputStream = new InterruptableInputStream(object.getDataInputStream()); 
-                bufferedInputStream = new BufferedInputStream(
-                    new ProgressMonitoredInputStream(interruptableInputStream, progressMonitor));
+                boolean isResumable = isResumableDownload();
+                long resumeOffset = 0;
+                if (isResumable) {
+                    resumeOffset = DownloadResumeState.findResumeOffset(
+                        downloadPackage.getDataFile(), downloadPackage.getObject());
+                }
                 
-                bufferedOutputStream = new BufferedOutputStream(
-                    downloadPackage.getOutputStream());
-
-                try {
-                    byte[] buffer = new byte[1024];
-                    int byteCount = -1;
-    
-                    while ((byteCount = bufferedInputStream.read(buffer)) != -1) {
-                        bufferedOutputStream.write(buffer, 0, byteCount);
+                if (resumeOffset == 0) {
+                    rangeDownloader = createRangeDownloader();
+                }
+                if (rangeDownloader != null) {
+                    object = rangeDownloader.download();
+                } else {
+                    if (resumeOffset > 0) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Resuming download of object '" + objectKey + "' to file '" 
+                                + downloadPackage.getDataFile() + "' from byte " + resumeOffset);
+                        }
+                        // Fetch only the missing data, provided the object has not changed.
+                        object = s3Service.getObject(bucket, objectKey, null, null, 
+                            new String[] {downloadPackage.getObject().getETag()}, null, 
+                            new Long(resumeOffset), null);
+                        object.setContentLength(resumeOffset + object.getContentLength());
+                        progressMonitor.updateBytesTransferred(resumeOffset);
+                    } else if (!downloadPackage.isSignedDownload()) {
+                        if (isResumable) {
+                            DownloadResumeState.writeState(
+                                downloadPackage.getDataFile(), downloadPackage.getObject());
+                        }
+                        object = s3Service.getObject(bucket, objectKey);
+                    } else {
+                        SignedUrlHandler handler = (SignedUrlHandler) s3Service;
+                        object = handler.getObjectWithSignedUrl(downloadPackage.getSignedUrl());
                     }
-                } finally {
-                    if (bufferedOutputStream != null) {
-                        bufferedOutputStream.close();                        
+                    
+                    if (PartitionedUpload.isManifest(object)) {
+                        object = openPartitionedObject(object, resumeOffset);
                     }
-                    if (bufferedInputStream != null) {
-                        bufferedInputStream.close();                    
+    
+                    int fileChannelBufferSize = getFileChannelBufferSize();
+                    if (fileChannelBufferSize > 0) {
+                        writeToFileChannel(object, fileChannelBufferSize, resumeOffset > 0);
+                    } else {
+                        // Setup monitoring of stream bytes transferred. 
+                        interruptableInputStream = new InterruptableInputStream(object.getDataInputStream()); 
+                        bufferedInputStream = new BufferedInputStream(
+                            new ProgressMonitoredInputStream(interruptableInputStream, progressMonitor));
+                        
+                        bufferedOutputStream = new BufferedOutputStream(
+                            downloadPackage.getOutputStream(resumeOffset > 0));
+        
+                        byte[] buffer = BufferPool.getInstance().takeBuffer(
+                            BufferPool.DEFAULT_TRANSFER_BUFFER_SIZE);
+                        try {
+                            int byteCount = -1;
+            
+                            while ((byteCount = bufferedInputStream.read(buffer)) != -1) {
+                                bufferedOutputStream.write(buffer, 0, byteCount);
+                            }
+                        } finally {
+                            BufferPool.getInstance().releaseBuffer(buffer);
+                            if (bufferedOutputStream != null) {
+                                bufferedOutputStream.close();                        
+                            }
+                            if (bufferedInputStream != null) {
+                                bufferedInputStream.close();                    
+                            }
+                        }                
                     }
-                }                
+                }
+                
+                if (isResumable) {
+                    DownloadResumeState.clearState(downloadPackage.getDataFile());
+                }
 
                 object.setDataInputStream(null);
                 object.setDataInputFile(downloadPackage.getDataFile());
@@ -2097,10 +3184,160 @@ public class S3ServiceMulti implements Serializable {
             return result;
         }
 
+        /**
+         * Replaces the data of a manifest object, returned in place of an object that was 
+         * uploaded in parts, with a stream that downloads and reassembles the parts listed in 
+         * the manifest. The object's content length and content type are set to those of the 
+         * original data, so the reassembled data can be unzipped, decrypted or appended to a 
+         * file like the data of any other object.
+         * 
+         * @param manifest
+         * the manifest object, with its data input stream.
+         * @param resumeOffset
+         * the number of bytes of the original data already downloaded, which will not be 
+         * downloaded again.
+         * @return
+         * the object, whose data input stream provides the original data from the resume offset.
+         */
+        private S3Object openPartitionedObject(S3Object manifest, long resumeOffset) 
+            throws Exception 
+        {
+            if (downloadPackage.isSignedDownload()) {
+                manifest.closeDataInputStream();
+                throw new S3ServiceException("Object '" + manifest.getKey() 
+                    + "' was uploaded in parts, which cannot be downloaded with a signed URL");
+            }
+            if (resumeOffset > 0) {
+                // Only the end of the manifest was fetched, so fetch all of the same version.
+                manifest.closeDataInputStream();
+                manifest = s3Service.getObject(bucket, objectKey, null, null, 
+                    new String[] {manifest.getETag()}, null, null, null);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Object '" + objectKey + "' was uploaded in " 
+                    + PartitionedUpload.getPartCount(manifest) + " parts, which will be reassembled");
+            }
+            
+            PartitionedObjectInputStream partsInputStream = new PartitionedObjectInputStream(
+                s3Service, bucket, manifest, resumeOffset);
+            manifest.setDataInputStream(partsInputStream);
+            manifest.setContentLength(partsInputStream.getTotalLength());
+            manifest.setContentType((String) manifest.getMetadata(
+                PartitionedUpload.METADATA_PARTS_CONTENT_TYPE));
+            return manifest;
+        }
+
+        /**
+         * Objects whose data is written unaltered to a file are copied straight from the HTTP 
+         * response stream into the file's channel, using a single large buffer and a single 
+         * stream wrapper for progress monitoring and interruption, instead of the chain of 
+         * buffered streams needed to unzip or decrypt data.
+         * 
+         * @return
+         * the buffer size to use for copying data to the output file's channel, as set by the 
+         * jets3t property <tt>downloads.file-channel-buffer-size</tt>, or 0 if the data must 
+         * be written through the download package's output stream.
+         */
+        private int getFileChannelBufferSize() {
+            if (downloadPackage.isUnzipping() || downloadPackage.getEncryptionUtil() != null) {
+                return 0;
+            }
+            return s3Service.getJetS3tProperties().getIntProperty(
+                "downloads.file-channel-buffer-size", 256 * 1024);
+        }
+        
+        private void writeToFileChannel(S3Object object, int bufferSize, boolean forceAppend) 
+            throws Exception 
+        {
+            interruptableInputStream = new MonitoredInterruptableInputStream(
+                object.getDataInputStream(), progressMonitor);
+            FileChannel fileChannel = downloadPackage.getFileChannel(forceAppend);
+            byte[] buffer = BufferPool.getInstance().takeBuffer(bufferSize);
+            try {
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+                int byteCount = -1;
+                
+                while ((byteCount = interruptableInputStream.read(buffer, 0, buffer.length)) != -1) {
+                    byteBuffer.clear();
+                    byteBuffer.limit(byteCount);
+                    while (byteBuffer.hasRemaining()) {
+                        fileChannel.write(byteBuffer);
+                    }
+                }
+            } finally {
+                BufferPool.getInstance().releaseBuffer(buffer);
+                fileChannel.close();
+                interruptableInputStream.close();
+            }
+        }
+        
+        /**
+         * Downloads can be resumed if the jets3t property <tt>downloads.resume-enabled</tt> 
+         * is true, and the object's data is written unaltered to a new file. The data of 
+         * gzipped or encrypted objects that are unzipped or decrypted as they are downloaded
+         * cannot be resumed part way through, because the output file does not correspond 
+         * byte-for-byte with the object.
+         * 
+         * @return
+         * true if this download should track its progress with a 
+         * {@link DownloadResumeState} file.
+         */
+        private boolean isResumableDownload() {
+            return s3Service.getJetS3tProperties().getBoolProperty("downloads.resume-enabled", false)
+                && !downloadPackage.isSignedDownload()
+                && !downloadPackage.isUnzipping()
+                && downloadPackage.getEncryptionUtil() == null
+                && !downloadPackage.isAppendToFile();
+        }
+        
+        /**
+         * Creates a downloader that fetches the object's data in parallel byte ranges, if the
+         * jets3t property <tt>downloads.parallel-range-threshold</tt> is set and the object is
+         * at least that large. Ranged downloads are only possible when the object's data is
+         * written directly to a new file, since unzipping, decrypting and appending all require
+         * the data to arrive in order. Signed URL downloads are always performed in one piece,
+         * and objects known to be uploaded in parts are reassembled one part at a time.
+         *  
+         * @return
+         * a range downloader for the object, or null if the object should be downloaded with
+         * a single GET request.
+         */
+        private ParallelRangeDownloader createRangeDownloader() {
+            Jets3tProperties jets3tProperties = s3Service.getJetS3tProperties();
+            long rangeThreshold = jets3tProperties.getLongProperty(
+                "downloads.parallel-range-threshold", 0);
+            S3Object object = downloadPackage.getObject();
+            
+            if (rangeThreshold <= 0
+                || downloadPackage.isSignedDownload()
+                || downloadPackage.isUnzipping()
+                || downloadPackage.getEncryptionUtil() != null
+                || downloadPackage.isAppendToFile()
+                || PartitionedUpload.isManifest(object)
+                || object.getContentLength() < rangeThreshold)
+            {
+                return null;
+            }
+            
+            if (log.isDebugEnabled()) {
+                log.debug("Downloading object '" + objectKey + "' of " + object.getContentLength() 
+                    + " bytes in parallel byte ranges");
+            }
+            return new ParallelRangeDownloader(s3Service, bucket, object, 
+                downloadPackage.getDataFile(),
+                jets3tProperties.getLongProperty("downloads.parallel-range-size", 8 * 1024 * 1024),
+                jets3tProperties.getIntProperty("downloads.parallel-range-thread-count", 4),
+                jets3tProperties.getIntProperty("downloads.parallel-range-retry-max", 3),
+                progressMonitor);
+        }
+        
         public void forceInterruptCalled() {
             if (interruptableInputStream != null) {
                 interruptableInputStream.interrupt();
             }
+            if (rangeDownloader != null) {
+                rangeDownloader.interrupt();
+            }
         }
     }
     
@@ -2159,174 +3396,435 @@ public class S3ServiceMulti implements Serializable {
 
     
 
+    /**
+     * A bounded buffer through which runnables hand intermediate results, such as the pages
+     * of a listing, to their {@link ThreadGroupManager} while they are still running. The 
+     * manager sends buffered results in its next progress event. A runnable that adds a result
+     * to a full buffer waits until the manager has taken the buffered results, so runnables 
+     * cannot get further ahead of the event listeners than the buffer's capacity.
+     */
+    private class PartialResultBuffer {
+        private final LinkedList results = new LinkedList();
+        private final int capacity;
+        private boolean closed = false;
+        private ThreadGroupManager threadGroupManager = null;
+        
+        public PartialResultBuffer(int capacity) {
+            this.capacity = Math.max(1, capacity);
+        }
+        
+        /**
+         * Adds a result to the buffer, waiting for space if the buffer is full.
+         * 
+         * @return
+         * true if the result was added, or false if the buffer has been closed because the 
+         * operation was cancelled or failed.
+         */
+        public boolean put(Object result) {
+            ThreadGroupManager manager = null;
+            synchronized (this) {
+                while (results.size() >= capacity && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                }
+                if (closed) {
+                    return false;
+                }
+                results.addLast(result);
+                manager = threadGroupManager;
+            }
+            if (manager != null) {
+                manager.wakeUp();
+            }
+            return true;
+        }
+        
+        /**
+         * @return
+         * the buffered results in the order they were added, which are removed from the buffer.
+         */
+        public synchronized List takeAll() {
+            List taken = new ArrayList(results);
+            results.clear();
+            notifyAll();
+            return taken;
+        }
+        
+        public synchronized boolean isEmpty() {
+            return results.isEmpty();
+        }
+        
+        /**
+         * Discards any buffered results and releases runnables waiting to add results.
+         */
+        public synchronized void close() {
+            closed = true;
+            results.clear();
+            notifyAll();
+        }
+        
+        synchronized void setThreadGroupManager(ThreadGroupManager threadGroupManager) {
+            this.threadGroupManager = threadGroupManager;
+        }
+    }
+    
     /**
      * The thread group manager is responsible for starting, running and stopping the set of threads
      * required to perform an S3 operation.
      * <p>
-     * The manager starts all the threads, monitors their progress and stops threads when they are   
-     * cancelled or an error occurs - all the while firing the appropriate {@link ServiceEvent} event
-     * notifications.
+     * The manager hands runnables to this service's shared {@link WorkerThreadPool}, keeping no
+     * more than the maximum thread count in flight at once. Each runnable reports its completion 
+     * through a queue, so the manager can start the next pending runnable as soon as a slot frees 
+     * up rather than polling for finished threads. The manager monitors progress and stops 
+     * runnables when they are cancelled or an error occurs - all the while firing the appropriate 
+     * {@link ServiceEvent} event notifications.
      */
     private abstract class ThreadGroupManager {
         private final Log log = LogFactory.getLog(ThreadGroupManager.class);
         private int maxThreadCount = 1;
         
         /**
-         * the set of runnable objects to execute.
+         * the source of runnable objects to execute, which are pulled on demand.
          */
-        private AbstractRunnable[] runnables = null;
+        private Iterator runnableSource = null;
         
         /**
-         * Thread objects that are currently running, where the index corresponds to the 
-         * runnables index. Any AbstractThread runnable that is not started, or has completed,
-         * will have a null value in this array.
+         * the total number of runnables to execute, or -1 if the runnable source is streamed
+         * and the total is not known in advance.
          */
-        private Thread[] threads = null;
+        private long runnableCount = -1;
         
-        private boolean ignoreExceptions = false;
+        /**
+         * the number of runnables that have been pulled from the source and started.
+         */
+        private long startedCount = 0;
         
         /**
-         * set of flags indicating which runnable items have been started
+         * runnables that have been started but whose results have not yet been processed.
          */
-        private boolean started[] = null;
+        private final Set inFlightRunnables = new HashSet();
         
         /**
-         * set of flags indicating which threads have already had In Progress events fired on
-         * their behalf. These threads have finished running.
+         * runnables that have finished running, in order of completion, and are awaiting 
+         * processing by the manager. This list also acts as the lock used to signal the 
+         * manager when a runnable completes or the operation is cancelled.
          */
-        private boolean alreadyFired[] = null;
+        private final LinkedList completedRunnables = new LinkedList();
+        
+        private long completedCount = 0;
+        
+        private boolean ignoreExceptions = false;
         
         private ThreadWatcher threadWatcher = null;
         
         private long lastProgressEventFiredTime = 0;
         
+        private volatile boolean interrupted = false;
+        
+        /**
+         * adjusts the number of runnables started at once, if adaptive concurrency is enabled
+         * with the jets3t property <i>s3service.adaptive-concurrency-enabled</i>. 
+         */
+        private AdaptiveConcurrencyController concurrencyController = null;
+        
+        /**
+         * intermediate results handed over by runnables that are still running, if the 
+         * operation streams such results.
+         */
+        private PartialResultBuffer partialResultBuffer = null;
+        
         
         public ThreadGroupManager(AbstractRunnable[] runnables, int maxThreadCount, 
             ThreadWatcher threadWatcher, boolean ignoreExceptions) 
         {            
-            this.runnables = runnables;
+            this(Arrays.asList(runnables).iterator(), maxThreadCount, threadWatcher, ignoreExceptions);
+            this.runnableCount = runnables.length;
+        }
+        
+        /**
+         * Constructs a manager that pulls runnables from the given iterator only as slots
+         * become available to run them, so no more than the maximum thread count of runnables 
+         * (and the work items they refer to) need be held in memory at once.
+         * <p>
+         * Because the total number of runnables is not known in advance, the thread count 
+         * reported by the thread watcher is the number of runnables pulled from the source so far.   
+         */
+        public ThreadGroupManager(Iterator runnableSource, int maxThreadCount, 
+            ThreadWatcher threadWatcher, boolean ignoreExceptions) 
+        {            
+            this.runnableSource = runnableSource;
             this.maxThreadCount = maxThreadCount;
             this.threadWatcher = threadWatcher;
             this.ignoreExceptions = ignoreExceptions;
             
-            this.threads = new Thread[runnables.length];
-            started = new boolean[runnables.length]; // All values initialized to false.
-            alreadyFired = new boolean[runnables.length]; // All values initialized to false.
+            Jets3tProperties jets3tProperties = s3Service.getJetS3tProperties();
+            if (jets3tProperties.getBoolProperty("s3service.adaptive-concurrency-enabled", false)) {
+                int adaptiveMaxThreadCount = jets3tProperties.getIntProperty(
+                    "s3service.adaptive-max-thread-count", 
+                    jets3tProperties.getIntProperty("httpclient.max-connections", 4));
+                this.concurrencyController = new AdaptiveConcurrencyController(
+                    s3Service, maxThreadCount, 1, adaptiveMaxThreadCount);
+            }
+            this.threadWatcher.updateConcurrencyWindow(getConcurrencyWindow(), 
+                concurrencyController != null);
+            
+            // Wake the manager when work items arrive from a pipeline stage. 
+            if (runnableSource instanceof LazyRunnableIterator
+                && ((LazyRunnableIterator) runnableSource).getWorkItems() instanceof WorkQueue) 
+            {
+                ((WorkQueue) ((LazyRunnableIterator) runnableSource).getWorkItems())
+                    .setItemAvailableTask(new Runnable() {
+                        public void run() {
+                            wakeUp();
+                        }
+                    });
+            }
         }
         
         /**
-         * Determine which threads, if any, have finished since the last time an In Progress event
-         * was fired.
-         * 
          * @return
-         * a list of the threads that finished since the last In Progress event was fired. This list may
-         * be empty.
-         * 
-         * @throws Throwable
+         * true if the runnable source can be asked for the next runnable without waiting for 
+         * a pipeline stage to produce its work item.
          */
-        private ResultsTuple getNewlyCompletedResults() throws Throwable 
-        {
-            ArrayList completedResults = new ArrayList();
-            ArrayList errorResults = new ArrayList();
-            
-            for (int i = 0; i < threads.length; i++) {
-                if (!alreadyFired[i] && started[i] && !threads[i].isAlive()) {
-                    alreadyFired[i] = true;
-                    if (log.isDebugEnabled()) {
-                        log.debug("Thread " + (i+1) + " of " + threads.length 
-                            + " has recently completed, releasing resources");
+        private boolean isRunnableSourceReady() {
+            return !(runnableSource instanceof LazyRunnableIterator)
+                || ((LazyRunnableIterator) runnableSource).isNextReady();
+        }
+        
+        /**
+         * @return
+         * the number of runnables that may currently run at once.
+         */
+        private int getConcurrencyWindow() {
+            if (concurrencyController != null) {
+                return concurrencyController.getWindow();
+            } else {
+                return maxThreadCount;
+            }
+        }
+        
+        /**
+         * Starts pending runnables such that the total of running runnables never exceeds the 
+         * maximum count set in the jets3t property <i>s3service.max-thread-count</i>.
+         */
+        private void startPendingRunnables() {
+            while (!interrupted && isRunnableSourceReady() && runnableSource.hasNext()) {
+                synchronized (inFlightRunnables) {
+                    if (inFlightRunnables.size() >= getConcurrencyWindow()) {
+                        if (concurrencyController != null) {
+                            concurrencyController.requestsStarted(inFlightRunnables.size());
+                        }
+                        return;
                     }
-
-                    if (runnables[i].getResult() instanceof Throwable) {
-                        Throwable throwable = (Throwable) runnables[i].getResult();
-                        runnables[i] = null;
-                        threads[i] = null;
-                        
-                        if (ignoreExceptions) {
-                            // Ignore exceptions
-                            if (log.isWarnEnabled()) {
-                                log.warn("Ignoring exception (property " +
-                                        "s3service.ignore-exceptions-in-multi is set to true)", 
-                                        throwable);
+                }
+                final AbstractRunnable runnable = (AbstractRunnable) runnableSource.next();
+                synchronized (inFlightRunnables) {
+                    inFlightRunnables.add(runnable);
+                }
+                startedCount++;
+                if (runnableCount < 0) {
+                    threadWatcher.updateThreadCount(startedCount);
+                }
+                
+                if (log.isDebugEnabled()) {
+                    log.debug("Thread " + startedCount + " of " 
+                        + (runnableCount < 0 ? "unknown" : String.valueOf(runnableCount)) + " has started");
+                }
+                
+                getWorkerThreadPool().execute(new Runnable() {
+                    public void run() {
+                        long startTimeMS = System.currentTimeMillis();
+                        try {
+                            runnable.run();
+                        } catch (Throwable t) {
+                            runnable.uncaughtThrowable = t;
+                        } finally {
+                            runnable.elapsedTimeMS = System.currentTimeMillis() - startTimeMS;
+                            synchronized (completedRunnables) {
+                                completedRunnables.addLast(runnable);
+                                completedRunnables.notifyAll();
                             }
-                            errorResults.add(throwable);
-                        } else {
-                            throw throwable;
-                        }                        
-                    } else {
-                        completedResults.add(runnables[i].getResult());
-                        runnables[i] = null;
-                        threads[i] = null;
-                    }                    
+                        }
+                    }
+                });
+            }
+        }
+        
+        /**
+         * @return
+         * true if runnables remain that are either running or awaiting start.
+         */
+        private boolean hasPendingRunnables() {
+            synchronized (inFlightRunnables) {
+                if (inFlightRunnables.size() > 0) {
+                    return true;
                 }
             }
-            
-            Throwable[] ignoredErrors = new Throwable[] {};
-            if (errorResults.size() > 0) {
-                ignoredErrors = (Throwable[]) errorResults.toArray(new Throwable[errorResults.size()]);
+            // Keep waiting, rather than blocking, while a pipeline stage produces more work.
+            return !isRunnableSourceReady() || runnableSource.hasNext();
+        }
+        
+        /**
+         * @return
+         * true if a runnable is available from a pipeline stage and there is room to start it.
+         * Other runnable sources are only consulted by {@link #startPendingRunnables()}.
+         */
+        private boolean canStartRunnable() {
+            if (!(runnableSource instanceof LazyRunnableIterator)
+                || !(((LazyRunnableIterator) runnableSource).getWorkItems() instanceof WorkQueue)
+                || !isRunnableSourceReady() || !runnableSource.hasNext()) 
+            {
+                return false;
+            }
+            synchronized (inFlightRunnables) {
+                return inFlightRunnables.size() < getConcurrencyWindow();
+            }
+        }
+
+        /**
+         * Waits until at least one runnable has completed, the operation is cancelled, or the 
+         * given time has elapsed. 
+         * 
+         * @param maxWaitMS
+         * the maximum number of milliseconds to wait.
+         * @return
+         * the runnables that completed since this method was last called, in order of completion.
+         * This list may be empty.
+         * 
+         * @throws InterruptedException
+         */
+        private List waitForCompletedRunnables(long maxWaitMS) throws InterruptedException {
+            synchronized (completedRunnables) {
+                if (completedRunnables.isEmpty() && !interrupted 
+                    && (partialResultBuffer == null || partialResultBuffer.isEmpty())
+                    && !canStartRunnable()) 
+                {
+                    completedRunnables.wait(Math.max(1, maxWaitMS));
+                }
+                List completed = new ArrayList(completedRunnables);
+                completedRunnables.clear();
+                return completed;
             }
-            
-            return new ResultsTuple(completedResults, ignoredErrors);
         }
         
         /**
-         * Starts pending threads such that the total of running threads never exceeds the 
-         * maximum count set in the jets3t property <i>s3service.max-thread-count</i>.
-         *        
+         * Sets the buffer through which runnables hand over intermediate results. Results 
+         * taken from the buffer are sent in progress events as soon as they are available,
+         * ahead of the results of runnables that complete at the same time.
+         * 
+         * @param partialResultBuffer
+         * the buffer shared by this manager's runnables, may be null.
+         */
+        public void setPartialResultBuffer(PartialResultBuffer partialResultBuffer) {
+            this.partialResultBuffer = partialResultBuffer;
+            if (partialResultBuffer != null) {
+                partialResultBuffer.setThreadGroupManager(this);
+            }
+        }
+        
+        /**
+         * Wakes the manager if it is waiting for runnables to complete, so it can start 
+         * runnables that have become available from the runnable source in the meantime.
+         */
+        public void wakeUp() {
+            synchronized (completedRunnables) {
+                completedRunnables.notifyAll();
+            }
+        }
+        
+        /**
+         * Adds the result of a completed runnable to the list of completed results, or to the 
+         * list of error results if the runnable failed and exceptions are being ignored.
+         * 
          * @throws Throwable
+         * the runnable's failure, if it failed and exceptions are not being ignored.
          */
-        private void startPendingThreads() 
-            throws Throwable 
+        private void processCompletedRunnable(AbstractRunnable runnable, 
+            List completedResults, List errorResults) throws Throwable 
         {
-            // Count active threads that are running (i.e. have been started but final event not fired)
-            int runningThreadCount = 0;
-            for (int i = 0; i < runnables.length; i++) {
-                if (started[i] && !alreadyFired[i]) {
-                    runningThreadCount++;
-                }
+            synchronized (inFlightRunnables) {
+                inFlightRunnables.remove(runnable);
+            }
+            completedCount++;
+            if (runnableSource instanceof LazyRunnableIterator) {
+                ((LazyRunnableIterator) runnableSource).runnableCompleted(runnable);
             }
 
-            // Start threads until we are running the maximum number allowed.
-            for (int i = 0; runningThreadCount < maxThreadCount && i < started.length; i++) {
-                if (!started[i]) {
-                    threads[i] = new Thread(runnables[i]);                    
-                    threads[i].start();
-                    started[i] = true;
-                    runningThreadCount++;
-                    if (log.isDebugEnabled()) {
-                        log.debug("Thread " + (i+1) + " of " + runnables.length + " has started");
-                    }
-                }
+            Object result = runnable.getResult();
+            if (result == null && runnable.uncaughtThrowable != null) {
+                result = runnable.uncaughtThrowable;
+            }
+            
+            if (concurrencyController != null) {
+                boolean wasServiceError = (result instanceof S3ServiceException)
+                    && (((S3ServiceException) result).getResponseCode() == 500 
+                        || ((S3ServiceException) result).getResponseCode() == 503);
+                concurrencyController.requestCompleted(runnable.elapsedTimeMS, wasServiceError);
+                threadWatcher.updateConcurrencyWindow(getConcurrencyWindow(), true);
             }
+            
+            if (result instanceof Throwable) {
+                Throwable throwable = (Throwable) result;
+                if (ignoreExceptions) {
+                    // Ignore exceptions
+                    if (log.isWarnEnabled()) {
+                        log.warn("Ignoring exception (property " +
+                                "s3service.ignore-exceptions-in-multi is set to true)", 
+                                throwable);
+                    }
+                    errorResults.add(throwable);
+                } else {
+                    throw throwable;
+                }                        
+            } else {
+                completedResults.add(result);
+            }                    
         }
         
         /**
-         * @return
-         * the number of threads that have not finished running (sum of those currently running, and those awaiting start)
+         * Fires a progress event for the given completed results, and an ignored errors event
+         * if any errors were ignored.
          */
-        private int getPendingThreadCount() {
-            int pendingThreadCount = 0;
-            for (int i = 0; i < runnables.length; i++) {
-                if (!alreadyFired[i]) {
-                    pendingThreadCount++;
+        private void fireProgressEvents(List completedResults, List errorResults, 
+            CancelEventTrigger cancelEventTrigger) 
+        {
+            threadWatcher.updateThreadsCompletedCount(completedCount, cancelEventTrigger);
+            
+            lastProgressEventFiredTime = System.currentTimeMillis();
+            fireProgressEvent(threadWatcher, completedResults);
+            if (completedResults.size() > 0) {
+                if (log.isDebugEnabled()) {
+                    log.debug(completedResults.size() + " threads have recently completed");
                 }
+            }                    
+            
+            if (errorResults.size() > 0) {
+                fireIgnoredErrorsEvent(threadWatcher, 
+                    (Throwable[]) errorResults.toArray(new Throwable[errorResults.size()]));
             }
-            return pendingThreadCount;
         }
         
         /**
-         * Invokes the {@link AbstractRunnable#forceInterrupt} on all threads being managed.
-         *
+         * Invokes the {@link AbstractRunnable#forceInterrupt} on all runnables that are running.
          */
         private void forceInterruptAllRunnables() {
             if (log.isDebugEnabled()) {
                 log.debug("Setting force interrupt flag on all runnables");
             }
-            for (int i = 0; i < runnables.length; i++) {
-                if (runnables[i] != null) {
-                    runnables[i].forceInterrupt();
-                    runnables[i] = null;
-                }
+            AbstractRunnable[] inFlight = null;
+            synchronized (inFlightRunnables) {
+                inFlight = (AbstractRunnable[]) inFlightRunnables.toArray(
+                    new AbstractRunnable[inFlightRunnables.size()]);
+                inFlightRunnables.clear();
+            }
+            for (int i = 0; i < inFlight.length; i++) {
+                inFlight[i].forceInterrupt();
+            }
+            if (partialResultBuffer != null) {
+                partialResultBuffer.close();
             }
         }
         
@@ -2339,8 +3837,6 @@ public class S3ServiceMulti implements Serializable {
                 log.debug("Started ThreadManager");
             }
             
-            final boolean[] interrupted = new boolean[] { false };
-            
             /*
              * Create a cancel event trigger, so all the managed threads can be cancelled if required.
              */
@@ -2353,71 +3849,76 @@ public class S3ServiceMulti implements Serializable {
                     }
                     
                     // Flag that this ThreadManager class should shutdown.
-                    interrupted[0] = true;
+                    interrupted = true;
                     
                     // Set force interrupt flag for all runnables.
                     forceInterruptAllRunnables();
+                    
+                    // Wake the manager if it is waiting for runnables to complete.
+                    synchronized (completedRunnables) {
+                        completedRunnables.notifyAll();
+                    }
                 }
             };
                         
             // Actual thread management happens in the code block below.
             try {
                 // Start some threads
-                startPendingThreads();                
+                startPendingRunnables();                
                 
                 threadWatcher.updateThreadsCompletedCount(0, cancelEventTrigger); 
                 fireStartEvent(threadWatcher);
                 
+                List completedResults = new ArrayList();
+                List errorResults = new ArrayList();
+                
                 // Loop while threads haven't been interrupted/cancelled, and at least one thread is 
                 // still active (ie hasn't finished its work)
-                while (!interrupted[0] && getPendingThreadCount() > 0) {
+                while (!interrupted && hasPendingRunnables()) {
                     try {
-                        Thread.sleep(100);
+                        long timeUntilProgressEvent = 
+                            sleepTime - (System.currentTimeMillis() - lastProgressEventFiredTime);
+                        
+                        Iterator completedIter = waitForCompletedRunnables(timeUntilProgressEvent).iterator();
+                        
+                        // Take intermediate results before processing completed runnables, 
+                        // so a runnable's intermediate results precede its final result.
+                        boolean partialResultsTaken = false;
+                        if (partialResultBuffer != null) {
+                            List partialResults = partialResultBuffer.takeAll();
+                            completedResults.addAll(partialResults);
+                            partialResultsTaken = partialResults.size() > 0;
+                        }
+                        
+                        while (completedIter.hasNext()) {
+                            processCompletedRunnable((AbstractRunnable) completedIter.next(), 
+                                completedResults, errorResults);
+                        }
     
-                        if (interrupted[0]) {
-                            // Do nothing, we've been interrupted during sleep.                        
+                        if (interrupted) {
+                            // Do nothing, we've been interrupted while waiting.                        
                         } else {
-                            if (System.currentTimeMillis() - lastProgressEventFiredTime > sleepTime) {                                
-                                // Fire progress event.
-                                int completedThreads = runnables.length - getPendingThreadCount();                    
-                                threadWatcher.updateThreadsCompletedCount(completedThreads, cancelEventTrigger);
-                                ResultsTuple results = getNewlyCompletedResults();
-                                
-                                lastProgressEventFiredTime = System.currentTimeMillis();
-                                fireProgressEvent(threadWatcher, results.completedResults);
-                                
-                                if (results.errorResults.length > 0) {
-                                    fireIgnoredErrorsEvent(threadWatcher, results.errorResults);
-                                }
-                            }
+                            // Immediately replace completed threads with pending ones.
+                            startPendingRunnables();                
                             
-                            // Start more threads.
-                            startPendingThreads();                
+                            if (partialResultsTaken
+                                || System.currentTimeMillis() - lastProgressEventFiredTime > sleepTime) 
+                            {                                
+                                fireProgressEvents(completedResults, errorResults, cancelEventTrigger);
+                                completedResults = new ArrayList();
+                                errorResults = new ArrayList();
+                            }
                         }
                     } catch (InterruptedException e) {
-                        interrupted[0] = true;
+                        interrupted = true;
                         forceInterruptAllRunnables();
                     }
                 }        
                 
-                if (interrupted[0]) {
+                if (interrupted) {
                     fireCancelEvent();
                 } else {
-                    int completedThreads = runnables.length - getPendingThreadCount();                    
-                    threadWatcher.updateThreadsCompletedCount(completedThreads, cancelEventTrigger);
-                    ResultsTuple results = getNewlyCompletedResults();
-
-                    fireProgressEvent(threadWatcher, results.completedResults);
-                    if (results.completedResults.size() > 0) {
-                        if (log.isDebugEnabled()) {
-                            log.debug(results.completedResults.size() + " threads have recently completed");
-                        }
-                    }                    
-                    
-                    if (results.errorResults.length > 0) {
-                        fireIgnoredErrorsEvent(threadWatcher, results.errorResults);
-                    }
-                    
+                    fireProgressEvents(completedResults, errorResults, cancelEventTrigger);                    
                     fireCompletedEvent();
                 }
             } catch (Throwable t) {
@@ -2425,6 +3926,7 @@ public class S3ServiceMulti implements Serializable {
                     log.error("A thread failed with an exception. Firing ERROR event and cancelling all threads", t);
                 }
                 // Set force interrupt flag for all runnables.
+                interrupted = true;
                 forceInterruptAllRunnables();
                 
                 fireErrorEvent(t);                
@@ -2442,16 +3944,6 @@ public class S3ServiceMulti implements Serializable {
         public abstract void fireErrorEvent(Throwable t);
         
         public abstract void fireIgnoredErrorsEvent(ThreadWatcher threadWatcher, Throwable[] ignoredErrors);
-        
-        private class ResultsTuple {
-            public List completedResults = null;
-            public Throwable[] errorResults = null;
-            
-            public ResultsTuple(List completedResults, Throwable[] errorResults) {
-                this.completedResults = completedResults;
-                this.errorResults = errorResults;
-            }
-        }
     }
     
 }
@@ -48,6 +48,8 @@ import org.jets3t.service.io.BytesProgressWatcher;
 public class ThreadWatcher {
     private long completedThreads = 0;
     private long threadCount = 0;
+    private int concurrencyWindow = 0;
+    private boolean isConcurrencyAdaptive = false;
     private CancelEventTrigger cancelEventListener = null;
     private BytesProgressWatcher[] progressWatchers = null;
 
@@ -60,6 +62,31 @@ public class ThreadWatcher {
         this.threadCount = threadCount;
     }
     
+    /**
+     * Sets the total number of threads involved in an operation. This is used by operations 
+     * whose work items are pulled from an iterator on demand, where the total is not known
+     * until the iterator is exhausted.
+     * 
+     * @param threadCount
+     * the total number of threads known so far.
+     */
+    protected void updateThreadCount(long threadCount) {
+        this.threadCount = threadCount;
+    }
+    
+    /**
+     * Sets the number of threads the operation may currently run at once.
+     * 
+     * @param concurrencyWindow
+     * the maximum number of threads that may currently run at once.
+     * @param isConcurrencyAdaptive
+     * true if the window is adjusted automatically as the operation progresses.
+     */
+    protected void updateConcurrencyWindow(int concurrencyWindow, boolean isConcurrencyAdaptive) {
+        this.concurrencyWindow = concurrencyWindow;
+        this.isConcurrencyAdaptive = isConcurrencyAdaptive;
+    }
+    
     /**
      * Sets information about the number of threads completed and the total number of threads. 
      * 
@@ -101,6 +128,25 @@ public class ThreadWatcher {
         return threadCount;
     }
     
+    /**
+     * @return
+     * the maximum number of threads the operation may currently run at once. If 
+     * {@link #isConcurrencyAdaptive()} is true this value changes as the operation 
+     * progresses, in response to S3's throughput, latency and error responses.
+     */
+    public int getConcurrencyWindow() {
+        return concurrencyWindow;
+    }
+    
+    /**
+     * @return
+     * true if the operation adjusts the number of threads it runs at once, in which case the
+     * current number is available from {@link #getConcurrencyWindow()}.
+     */
+    public boolean isConcurrencyAdaptive() {
+        return isConcurrencyAdaptive;
+    }
+    
     /**
      * If this method returns true, the methods {@link #getBytesTotal()} and {@link #getBytesTransferred()}
      * will contain information about the amount of data being transferred by the watched threads.
@@ -0,0 +1,178 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.multithread;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+/**
+ * A bounded queue through which one stage of a pipeline hands work items to the next.
+ * Producers add items with {@link #put(Object)}, which waits while the queue is full, and
+ * {@link #close()} the queue when they have no more items. Consumers take items through the
+ * {@link Iterator} interface, whose {@link #hasNext()} method waits until an item is available
+ * or the queue is closed.
+ * <p>
+ * A work queue can be passed to the {@link S3ServiceMulti} methods that take an iterator of
+ * work items, such as {@link S3ServiceMulti#putObjects(org.jets3t.service.model.S3Bucket, Iterator)}.
+ * Those methods start a transfer as soon as its item is added to the queue, and go on
+ * reporting the progress of transfers already started while they wait for more items.
+ * <p>
+ * If a stage fails, it should {@link #abort()} the queues it reads from and writes to, so
+ * the stages on either side stop waiting for it.
+ *
+ * @author James Murty
+ */
+public class WorkQueue implements Iterator {
+    private final LinkedList items = new LinkedList();
+    private final int capacity;
+    private boolean closed = false;
+    private boolean aborted = false;
+    private Runnable itemAvailableTask = null;
+
+    /**
+     * @param capacity
+     * the maximum number of items held by the queue, beyond which producers wait.
+     */
+    public WorkQueue(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Adds an item to the queue, waiting for space if the queue is full.
+     *
+     * @param item
+     * @return
+     * true if the item was added, or false if the queue has been aborted.
+     * @throws InterruptedException
+     * @throws IllegalStateException
+     * if the queue has been closed.
+     */
+    public boolean put(Object item) throws InterruptedException {
+        Runnable task = null;
+        synchronized (this) {
+            while (items.size() >= capacity && !aborted) {
+                wait();
+            }
+            if (aborted) {
+                return false;
+            }
+            if (closed) {
+                throw new IllegalStateException("Cannot add items to a closed work queue");
+            }
+            items.addLast(item);
+            notifyAll();
+            task = itemAvailableTask;
+        }
+        if (task != null) {
+            task.run();
+        }
+        return true;
+    }
+
+    /**
+     * Marks the end of the items, so consumers finish once the items in the queue are taken.
+     */
+    public void close() {
+        Runnable task = null;
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+            task = itemAvailableTask;
+        }
+        if (task != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Discards the items in the queue and releases producers and consumers waiting on it.
+     * Later items are refused by {@link #put(Object)}, and consumers see no more items.
+     */
+    public void abort() {
+        Runnable task = null;
+        synchronized (this) {
+            aborted = true;
+            closed = true;
+            items.clear();
+            notifyAll();
+            task = itemAvailableTask;
+        }
+        if (task != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * @return
+     * true if the queue has been aborted.
+     */
+    public synchronized boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * @return
+     * true if {@link #hasNext()} would return without waiting, because an item is available
+     * or the queue has been closed.
+     */
+    public synchronized boolean isNextReady() {
+        return !items.isEmpty() || closed;
+    }
+
+    /**
+     * Waits until an item is available or the queue is closed.
+     *
+     * @return
+     * true if an item is available, false if the queue is closed and empty or was interrupted
+     * while waiting.
+     */
+    public synchronized boolean hasNext() {
+        while (items.isEmpty() && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return !items.isEmpty();
+    }
+
+    public synchronized Object next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more items in work queue");
+        }
+        Object item = items.removeFirst();
+        notifyAll();
+        return item;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Sets a task that is run, outside the queue's lock, whenever an item is added or the queue
+     * is closed. {@link S3ServiceMulti} uses this to wake the thread that starts transfers.
+     */
+    synchronized void setItemAvailableTask(Runnable itemAvailableTask) {
+        this.itemAvailableTask = itemAvailableTask;
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.multithread;
+
+import java.util.LinkedList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A bounded pool of reusable daemon worker threads that run tasks submitted by the
+ * {@link S3ServiceMulti} thread group manager.
+ * <p>
+ * Worker threads are started on demand, up to the pool's maximum size, and are kept
+ * alive between operations so a new thread is not created and destroyed for every
+ * S3 request. Tasks submitted while all the workers are busy wait in a FIFO queue.
+ * Workers that remain idle for longer than the idle timeout are allowed to finish,
+ * so an unused pool does not hold on to threads.
+ *
+ * @author James Murty
+ */
+class WorkerThreadPool {
+    private static final Log log = LogFactory.getLog(WorkerThreadPool.class);
+
+    private final LinkedList taskQueue = new LinkedList();
+    private final int maxThreadCount;
+    private final long idleTimeoutMS;
+
+    private int threadCount = 0;
+    private int idleThreadCount = 0;
+    private int threadSequence = 0;
+    private boolean shutdown = false;
+
+    /**
+     * @param maxThreadCount
+     * the maximum number of worker threads this pool will run at once.
+     * @param idleTimeoutMS
+     * how many milliseconds an idle worker thread will wait for a new task before it finishes.
+     */
+    public WorkerThreadPool(int maxThreadCount, long idleTimeoutMS) {
+        this.maxThreadCount = Math.max(1, maxThreadCount);
+        this.idleTimeoutMS = idleTimeoutMS;
+    }
+
+    /**
+     * Queues a task to be run by the next available worker thread, starting a new worker
+     * if no idle workers are available and the pool is not yet at its maximum size.
+     *
+     * @param task
+     * the task to run.
+     * @throws IllegalStateException
+     * if this pool has been shut down.
+     */
+    public void execute(Runnable task) {
+        synchronized (taskQueue) {
+            if (shutdown) {
+                throw new IllegalStateException("Cannot execute task, worker thread pool has been shut down");
+            }
+            taskQueue.addLast(task);
+
+            if (taskQueue.size() <= idleThreadCount) {
+                // An idle worker is available to pick up the task.
+                taskQueue.notify();
+            } else if (threadCount < maxThreadCount) {
+                startWorkerThread();
+            } else {
+                // All workers are busy, the task will be run when a worker becomes free.
+                taskQueue.notify();
+            }
+        }
+    }
+
+    /**
+     * Stops this pool from accepting new tasks. Tasks that are already queued will still
+     * be run, after which the worker threads will finish.
+     */
+    public void shutdown() {
+        synchronized (taskQueue) {
+            shutdown = true;
+            taskQueue.notifyAll();
+        }
+    }
+
+    /**
+     * @return
+     * the maximum number of worker threads this pool will run at once.
+     */
+    public int getMaxThreadCount() {
+        return maxThreadCount;
+    }
+
+    /**
+     * @return
+     * the number of worker threads currently alive in this pool, whether busy or idle.
+     */
+    public int getThreadCount() {
+        synchronized (taskQueue) {
+            return threadCount;
+        }
+    }
+
+    /**
+     * Must be called while holding the taskQueue lock.
+     */
+    private void startWorkerThread() {
+        threadCount++;
+        Thread thread = new Thread(new Worker(), "jets3t-worker-" + (++threadSequence));
+        thread.setDaemon(true);
+        thread.start();
+        if (log.isDebugEnabled()) {
+            log.debug("Started worker thread " + thread.getName() + ", pool size is now " + threadCount);
+        }
+    }
+
+    /**
+     * Takes tasks from the queue and runs them until the pool is shut down, or until no task
+     * arrives within the idle timeout period.
+     */
+    private class Worker implements Runnable {
+        public void run() {
+            while (true) {
+                Runnable task = null;
+                synchronized (taskQueue) {
+                    long idleDeadline = System.currentTimeMillis() + idleTimeoutMS;
+                    while (taskQueue.isEmpty() && !shutdown) {
+                        long remainingIdleTime = idleDeadline - System.currentTimeMillis();
+                        if (remainingIdleTime <= 0) {
+                            break;
+                        }
+                        idleThreadCount++;
+                        try {
+                            taskQueue.wait(remainingIdleTime);
+                        } catch (InterruptedException e) {
+                            // Ignore, we only finish when idle or shut down.
+                        } finally {
+                            idleThreadCount--;
+                        }
+                    }
+                    if (taskQueue.isEmpty()) {
+                        threadCount--;
+                        if (log.isDebugEnabled()) {
+                            log.debug("Worker thread " + Thread.currentThread().getName()
+                                + " finished, pool size is now " + threadCount);
+                        }
+                        return;
+                    }
+                    task = (Runnable) taskQueue.removeFirst();
+                }
+
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    if (log.isErrorEnabled()) {
+                        log.error("Task failed in worker thread " + Thread.currentThread().getName(), t);
+                    }
+                }
+
+                // Clear any interrupted status left behind by the task before the worker is reused.
+                Thread.interrupted();
+            }
+        }
+    }
+
+}
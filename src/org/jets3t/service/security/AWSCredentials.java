@@ -61,6 +61,7 @@ public class AWSCredentials implements Serializable {
     private String awsAccessKey = null;
     private String awsSecretAccessKey = null;
     private String friendlyName = null;
+    private transient RequestSigner requestSigner = null;
 
     /**
      * Construct credentials.
@@ -106,6 +107,20 @@ public class AWSCredentials implements Serializable {
         return awsSecretAccessKey;
     }
 
+    /**
+     * @return
+     * a signer that calculates request signatures with these credentials' secret key, reusing 
+     * initialised signing algorithms across requests. 
+     * @throws S3ServiceException
+     * if the signer cannot be created from the secret key.
+     */
+    public synchronized RequestSigner getRequestSigner() throws S3ServiceException {
+        if (requestSigner == null) {
+            requestSigner = new RequestSigner(awsSecretAccessKey);
+        }
+        return requestSigner;
+    }
+
     /**
      * @return
      * the friendly name associated with an AWS account, if available. 
@@ -0,0 +1,119 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.security;
+
+import java.io.UnsupportedEncodingException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.jets3t.service.Constants;
+import org.jets3t.service.S3ServiceException;
+
+/**
+ * Signs S3 request canonical strings with the HMAC/SHA1 of an AWS secret key.
+ * <p>
+ * Creating and initialising a {@link Mac} is expensive compared to signing a short canonical
+ * string, so each signer prepares its secret key once and keeps one initialised Mac per
+ * thread, which is reused for every signature that thread calculates. Mac instances are not
+ * thread-safe, so they are never shared between threads.
+ * <p>
+ * A signer for a set of credentials is available from {@link AWSCredentials#getRequestSigner()}.
+ *
+ * @author James Murty
+ */
+public class RequestSigner {
+    private final String awsSecretKey;
+    private final SecretKeySpec signingKey;
+
+    private final ThreadLocal threadMac = new ThreadLocal() {
+        protected Object initialValue() {
+            // The following HMAC/SHA1 code for the signature is taken from the
+            // AWS Platform's implementation of RFC2104 (amazon.webservices.common.Signature)
+            //
+            // Acquire the MAC instance and initialize with the signing key.
+            Mac mac = null;
+            try {
+                mac = Mac.getInstance(Constants.HMAC_SHA1_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                // should not happen
+                throw new RuntimeException("Could not find sha1 algorithm", e);
+            }
+            try {
+                mac.init(signingKey);
+            } catch (InvalidKeyException e) {
+                // also should not happen
+                throw new RuntimeException("Could not initialize the MAC algorithm", e);
+            }
+            return mac;
+        }
+    };
+
+    /**
+     * @param awsSecretKey
+     * the AWS secret key used to sign requests.
+     * @throws S3ServiceException
+     * if the secret key cannot be converted to bytes.
+     */
+    public RequestSigner(String awsSecretKey) throws S3ServiceException {
+        if (awsSecretKey == null) {
+            throw new IllegalArgumentException("AWS Secret Key cannot be null");
+        }
+        this.awsSecretKey = awsSecretKey;
+        try {
+            this.signingKey = new SecretKeySpec(awsSecretKey.getBytes(Constants.DEFAULT_ENCODING),
+                Constants.HMAC_SHA1_ALGORITHM);
+        } catch (UnsupportedEncodingException e) {
+            throw new S3ServiceException("Unable to get bytes from secret string", e);
+        }
+    }
+
+    /**
+     * @return
+     * the AWS secret key this signer uses.
+     */
+    public String getAWSSecretKey() {
+        return awsSecretKey;
+    }
+
+    /**
+     * Calculates the HMAC/SHA1 signature of a string.
+     *
+     * @param canonicalString
+     * canonical string representing the request to sign.
+     * @return
+     * the Base64-encoded signature.
+     * @throws S3ServiceException
+     */
+    public String sign(String canonicalString) throws S3ServiceException {
+        Mac mac = (Mac) threadMac.get();
+        try {
+            // doFinal resets the Mac, leaving it ready for the next signature.
+            byte[] b64 = Base64.encodeBase64(mac.doFinal(
+                canonicalString.getBytes(Constants.DEFAULT_ENCODING)));
+            return new String(b64);
+        } catch (UnsupportedEncodingException e) {
+            throw new S3ServiceException("Unable to get bytes from canonical string", e);
+        }
+    }
+
+}
@@ -25,16 +25,18 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -48,8 +50,8 @@ import org.jets3t.service.Jets3tProperties;
 import org.jets3t.service.S3ObjectsChunk;
 import org.jets3t.service.S3Service;
 import org.jets3t.service.S3ServiceException;
+import org.jets3t.service.io.BufferPool;
 import org.jets3t.service.io.BytesProgressWatcher;
-import org.jets3t.service.io.ProgressMonitoredInputStream;
 import org.jets3t.service.model.S3Bucket;
 import org.jets3t.service.model.S3Object;
 import org.jets3t.service.multithread.GetObjectHeadsEvent;
@@ -74,6 +76,12 @@ public class FileComparer {
     private static final Log log = LogFactory.getLog(FileComparer.class);
     
     private Jets3tProperties jets3tProperties = null;
+
+    /**
+     * The threads that hash local files, which are kept between calls to
+     * {@link #computeMD5Hashes(List, BytesProgressWatcher)}.
+     */
+    private final HasherPool hasherPool = new HasherPool();
     
     /**
      * Constructs the class.
@@ -157,6 +165,17 @@ public class FileComparer {
             }
         }
         
+        ignorePatternList.addAll(buildDefaultIgnoreRegexpList());
+        return ignorePatternList;
+    }
+    
+    /**
+     * @return
+     * a list of Pattern objects representing the files ignored in every directory, whether
+     * or not it contains a <code>.jets3t-ignore</code> file.
+     */
+    protected List buildDefaultIgnoreRegexpList() {
+        ArrayList ignorePatternList = new ArrayList();
         if (jets3tProperties.getBoolProperty("filecomparer.skip-upload-of-md5-files", false))
         {
             Pattern pattern = Pattern.compile(".*\\.md5");
@@ -166,7 +185,6 @@ public class FileComparer {
             }
             ignorePatternList.add(pattern);                                
         }        
-        
         return ignorePatternList;
     }
     
@@ -221,6 +239,33 @@ public class FileComparer {
     public Map buildFileMap(File[] files, boolean includeDirectories) {
         // Build map of files proposed for upload or download.
         HashMap fileMap = new HashMap();
+        Map directoriesMap = new HashMap();
+        selectTopLevelFiles(files, includeDirectories, fileMap, directoriesMap);
+
+        Iterator directoryIter = directoriesMap.entrySet().iterator();
+        while (directoryIter.hasNext()) {
+            Map.Entry entry = (Map.Entry) directoryIter.next();
+            buildFileMapImpl((File) entry.getValue(), entry.getKey() + Constants.FILE_PATH_DELIM, 
+                fileMap, includeDirectories);
+        }
+        return fileMap;
+    }
+    
+    /**
+     * Applies the ignore rules to files and directories named directly by the user, whose 
+     * keys are their names.
+     * 
+     * @param files
+     * @param includeDirectories
+     * @param fileMap
+     * a map to which the keys and files that are not ignored are added, including directories
+     * if includeDirectories is true.
+     * @param directoriesMap
+     * a map to which the keys and directories that are not ignored are added.
+     */
+    private void selectTopLevelFiles(File[] files, boolean includeDirectories, Map fileMap, 
+        Map directoriesMap) 
+    {
         List ignorePatternList = null;
         List ignorePatternListForCurrentDir = null;
         
@@ -244,12 +289,45 @@ public class FileComparer {
                     fileMap.put(files[i].getName(), files[i]);
                 }
                 if (files[i].isDirectory()) {
-                    buildFileMapImpl(files[i], files[i].getName() + Constants.FILE_PATH_DELIM, 
-                        fileMap, includeDirectories);
+                    directoriesMap.put(files[i].getName(), files[i]);
                 }
             }
         }
-        return fileMap;
+    }
+    
+    /**
+     * Returns an iterator over the given files and the contents of the given directories,
+     * in the order in which S3 lists objects. The file keys are the same as those produced
+     * by {@link #buildFileMap(File[], boolean)}, but directories are only listed as the
+     * iteration reaches them.
+     * 
+     * @param files
+     * the set of files/directories to include.
+     * @param includeDirectories
+     * If true all directories, including empty ones, will be included.
+     * 
+     * @return
+     * an iterator over the files' keys and File objects.
+     */
+    public SortedFileIterator iterateFilesInKeyOrder(File[] files, boolean includeDirectories) {
+        Map fileMap = new HashMap();
+        Map directoriesMap = new HashMap();
+        selectTopLevelFiles(files, includeDirectories, fileMap, directoriesMap);
+        return new SortedFileIterator(this, fileMap, directoriesMap, includeDirectories);
+    }
+    
+    /**
+     * Returns an iterator over the files in a File Map, in the order in which S3 lists 
+     * objects.
+     * 
+     * @param filesMap
+     * a map of file path keys to File objects.
+     * 
+     * @return
+     * an iterator over the files' keys and File objects.
+     */
+    public SortedFileIterator iterateFilesInKeyOrder(Map filesMap) {
+        return new SortedFileIterator(this, filesMap, new HashMap(), false);
     }
     
     /**
@@ -318,21 +396,215 @@ public class FileComparer {
      * be possible to store empty directories in S3.
      */
     protected void buildFileMapImpl(File directory, String fileKeyPrefix, Map fileMap, boolean includeDirectories) {
-        List ignorePatternList = buildIgnoreRegexpList(directory);
+        walkDirectories(new File[] {directory}, new String[] {fileKeyPrefix}, 
+            includeDirectories, new FileMapBuilder(fileMap));
+    }
+    
+    /**
+     * Finds all the files and directories inside the given directories, and passes each one
+     * to a visitor as soon as it is found. This allows large directory trees to be processed 
+     * without first building a map of all their contents.
+     * <p> 
+     * File keys are delimited with '/' characters.
+     * <p>
+     * Any file or directory matching a path in a <code>.jets3t-ignore</code> file will be ignored.
+     * <p>
+     * Directories are listed by up to <tt>filecomparer.directory-walker-thread-count</tt> 
+     * threads at once, which greatly reduces the time taken to walk large trees on network 
+     * file systems where every directory listing incurs a round trip. The visitor is called by 
+     * all these threads, in no particular order.
+     * <p>
+     * If the calling thread is interrupted the walk stops early, leaving the thread's interrupt 
+     * flag set, and the visitor will not have been passed every file. Callers that may be 
+     * interrupted must check the flag before relying on the files visited.
+     * 
+     * @param directories
+     * the directories containing the files/directories of interest. The directories are 
+     * <b>not</b> passed to the visitor.
+     * @param fileKeyPrefixes
+     * the prefix added to the key of each file in the corresponding directory. Each prefix
+     * <b>must</b> be empty or end with a '/' character.
+     * @param includeDirectories
+     * If true all directories, including empty ones, will be passed to the visitor.
+     * @param visitor
+     * the visitor to which each file is passed. It must be thread-safe.
+     */
+    public void walkDirectories(File[] directories, String[] fileKeyPrefixes, 
+        final boolean includeDirectories, final FileVisitor visitor)
+    {
+        final LinkedList pendingDirectories = new LinkedList();
+        final LinkedList pendingKeyPrefixes = new LinkedList();
+        for (int i = 0; i < directories.length; i++) {
+            pendingDirectories.add(directories[i]);
+            pendingKeyPrefixes.add(fileKeyPrefixes[i]);
+        }
+        if (pendingDirectories.isEmpty()) {
+            return;
+        }
+
+        final List defaultIgnorePatternList = buildDefaultIgnoreRegexpList();
+        final int[] activeWalkerCount = new int[] { 0 };
+        final RuntimeException[] failure = new RuntimeException[1];
+        final boolean[] stopped = new boolean[] { false };
+        final Thread callingThread = Thread.currentThread();
+
+        Runnable walker = new Runnable() {
+            public void run() {
+                while (true) {
+                    File directory = null;
+                    String fileKeyPrefix = null;
+                    synchronized (pendingDirectories) {
+                        while (pendingDirectories.isEmpty() && activeWalkerCount[0] > 0 
+                            && failure[0] == null && !stopped[0]) 
+                        {
+                            try {
+                                pendingDirectories.wait();
+                            } catch (InterruptedException e) {
+                                // An interrupted helper thread leaves the walk to the others,
+                                // but an interrupted calling thread stops the walk.
+                                Thread.currentThread().interrupt();
+                                if (Thread.currentThread() == callingThread) {
+                                    stopped[0] = true;
+                                    pendingDirectories.notifyAll();
+                                }
+                                return;
+                            }
+                        }
+                        if (pendingDirectories.isEmpty() || failure[0] != null || stopped[0]) {
+                            // All directories have been listed, or the walk has failed.
+                            pendingDirectories.notifyAll();
+                            return;
+                        }
+                        directory = (File) pendingDirectories.removeFirst();
+                        fileKeyPrefix = (String) pendingKeyPrefixes.removeFirst();
+                        activeWalkerCount[0]++;
+                    }
+
+                    List subdirectories = new ArrayList();
+                    List subdirectoryKeyPrefixes = new ArrayList();
+                    try {
+                        walkDirectory(directory, fileKeyPrefix, includeDirectories, 
+                            defaultIgnorePatternList, visitor, 
+                            subdirectories, subdirectoryKeyPrefixes);
+                    } catch (RuntimeException e) {
+                        synchronized (pendingDirectories) {
+                            if (failure[0] == null) {
+                                failure[0] = e;
+                            }
+                        }
+                    } finally {
+                        synchronized (pendingDirectories) {
+                            pendingDirectories.addAll(subdirectories);
+                            pendingKeyPrefixes.addAll(subdirectoryKeyPrefixes);
+                            activeWalkerCount[0]--;
+                            pendingDirectories.notifyAll();
+                        }
+                    }
+                }
+            }
+        };
 
+        int threadCount = Math.max(1, jets3tProperties.getIntProperty(
+            "filecomparer.directory-walker-thread-count", 4));
+        Thread[] threads = new Thread[threadCount - 1];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(walker, "jets3t-directory-walker-" + (i + 1));
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        walker.run();
+        
+        // Wait for the helper threads even if interrupted, so none of them is still calling 
+        // the visitor when this method returns.
+        boolean interrupted = Thread.interrupted();
+        for (int i = 0; i < threads.length; i++) {
+            while (threads[i].isAlive()) {
+                try {
+                    threads[i].join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    synchronized (pendingDirectories) {
+                        stopped[0] = true;
+                        pendingDirectories.notifyAll();
+                    }
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+    
+    /**
+     * Lists one directory, passing its files to the visitor and adding its subdirectories to 
+     * the given lists. Each entry is examined with only one file system request, and the 
+     * directory's <code>.jets3t-ignore</code> file is only read if the listing includes it.
+     */
+    void walkDirectory(File directory, String fileKeyPrefix, boolean includeDirectories,
+        List defaultIgnorePatternList, FileVisitor visitor, 
+        List subdirectories, List subdirectoryKeyPrefixes)
+    {
         File children[] = directory.listFiles();
-        for (int i = 0; children != null && i < children.length; i++) {                        
+        if (children == null) {
+            return;
+        }
+        List ignorePatternList = defaultIgnorePatternList;
+        for (int i = 0; i < children.length; i++) {
+            if (Constants.JETS3T_IGNORE_FILENAME.equals(children[i].getName())) {
+                ignorePatternList = buildIgnoreRegexpList(directory);
+                break;
+            }
+        }
+        
+        for (int i = 0; i < children.length; i++) {                        
             if (!isIgnored(ignorePatternList, children[i])) {
-                if (!children[i].isDirectory() || includeDirectories) {
-                    fileMap.put(fileKeyPrefix + children[i].getName(), children[i]);
+                String fileKey = fileKeyPrefix + children[i].getName();
+                boolean isDirectory = children[i].isDirectory();
+                if (!isDirectory || includeDirectories) {
+                    visitor.visitFile(fileKey, children[i]);
                 }
-                if (children[i].isDirectory()) {
-                    buildFileMapImpl(children[i], fileKeyPrefix + children[i].getName() + "/", 
-                        fileMap, includeDirectories);
+                if (isDirectory) {
+                    subdirectories.add(children[i]);
+                    subdirectoryKeyPrefixes.add(fileKey + Constants.FILE_PATH_DELIM);
                 } 
             }
         }
     }
+    
+    /**
+     * Receives the files found by 
+     * {@link FileComparer#walkDirectories(File[], String[], boolean, FileVisitor)}.
+     */
+    public interface FileVisitor {
+        /**
+         * @param fileKey
+         * the relative path key of the file, delimited with '/' characters.
+         * @param file
+         * a file or directory.
+         */
+        public void visitFile(String fileKey, File file);
+    }
+    
+    /**
+     * Adds each visited file to a File Map.
+     */
+    private static class FileMapBuilder implements FileVisitor {
+        private final Map fileMap;
+        
+        public FileMapBuilder(Map fileMap) {
+            this.fileMap = fileMap;
+        }
+        
+        public void visitFile(String fileKey, File file) {
+            synchronized (fileMap) {
+                fileMap.put(fileKey, file);
+            }
+        }
+    }
         
     /**
      * Lists the objects in a bucket using a partitioning technique to divide
@@ -431,7 +703,8 @@ public class FileComparer {
             (new Thread() {
                 public void run() {
                     s3Multi.listObjects(bucketName, finalPrefixes, 
-                        finalDelimiter, Constants.DEFAULT_OBJECT_LIST_CHUNK_SIZE);
+                        finalDelimiter, Constants.DEFAULT_OBJECT_LIST_CHUNK_SIZE, 
+                        getMaxBufferedListingPages());
                 };
             }).run();
             // Throw any exceptions that occur inside the threads.
@@ -469,6 +742,11 @@ public class FileComparer {
      * with the setting: 
      * filecomparer.bucket-listing.&lt;bucketname>=&lt;delim>,&lt;depth><br>
      * For example: <code>filecomparer.bucket-listing.my-bucket=/,2</code>
+     * <p>
+     * If no such setting exists for the bucket, the objects are listed with
+     * {@link #listObjectsPartitioned(S3Service, String, String)} if the setting
+     * <tt>filecomparer.bucket-listing-auto-partition</tt> is true, or with a single
+     * thread otherwise.
      *  
      * @param s3Service
      * the service object that will be used to perform listing requests.
@@ -493,7 +771,11 @@ public class FileComparer {
         // Find bucket-specific listing properties, if any.
         String bucketListingProperties = jets3tProperties.getStringProperty(
             "filecomparer.bucket-listing." + bucketName, null);
-        if (bucketListingProperties != null) {
+        if (bucketListingProperties == null) {
+            if (jets3tProperties.getBoolProperty("filecomparer.bucket-listing-auto-partition", false)) {
+                return listObjectsPartitioned(s3Service, bucketName, targetPath);
+            }
+        } else {
             String splits[] = bucketListingProperties.split(",");
             if (splits.length != 2) {
                 throw new S3ServiceException(
@@ -509,6 +791,453 @@ public class FileComparer {
             delimiter, toDepth);
     }
 
+    /**
+     * Lists the objects in a bucket using multiple simultaneous threads, dividing the
+     * bucket's key space into ranges automatically as the listing proceeds. Unlike the 
+     * delimiter-based partitioning of
+     * {@link #listObjectsThreaded(S3Service, String, String, String, int)}, this technique
+     * needs no knowledge of the bucket's layout and works for buckets whose keys are not
+     * divided into virtual subdirectories. 
+     * <p>
+     * This method is used by {@link #listObjectsThreaded(S3Service, String, String)} when no
+     * bucket-specific listing property is set, if the jets3t.properties setting
+     * <tt>filecomparer.bucket-listing-auto-partition</tt> is true.
+     *  
+     * @see S3ServiceMulti#listObjectsPartitioned(String, String, long)
+     * 
+     * @param s3Service
+     * the service object that will be used to perform listing requests.
+     * @param bucketName
+     * the name of the bucket whose contents will be listed.
+     * @param targetPath
+     * a root path within the bucket to be listed. If this parameter is null, all
+     * the bucket's objects will be listed. Otherwise, only the objects below the
+     * virtual path specified will be listed.
+     * 
+     * @return
+     * the list of objects under the target path in the bucket, in key order.
+     * 
+     * @throws S3ServiceException
+     */
+    public S3Object[] listObjectsPartitioned(S3Service s3Service, 
+        final String bucketName, final String targetPath) throws S3ServiceException
+    {
+        final List chunks = Collections.synchronizedList(new ArrayList());
+        final S3ServiceException s3ServiceExceptions[] = new S3ServiceException[1]; 
+        
+        S3ServiceMulti s3Multi = new S3ServiceMulti(s3Service, new S3ServiceEventAdaptor() {
+            public void s3ServiceEventPerformed(ListObjectsEvent event) {
+                if (ListObjectsEvent.EVENT_IN_PROGRESS == event.getEventCode()) {
+                    Iterator chunkIter = event.getChunkList().iterator();
+                    while (chunkIter.hasNext()) {
+                        S3ObjectsChunk chunk = (S3ObjectsChunk) chunkIter.next();
+                        if (log.isDebugEnabled()) {
+                            log.debug("Listed " + chunk.getObjects().length
+                                + " objects in a key range of bucket '" + bucketName 
+                                + "' using prefix=" + targetPath);
+                        }
+                        if (chunk.getObjects().length > 0) {
+                            chunks.add(chunk);
+                        }
+                    }
+                } else if (ListObjectsEvent.EVENT_ERROR == event.getEventCode()) {
+                    s3ServiceExceptions[0] = new S3ServiceException(
+                        "Failed to list all objects in S3 bucket", 
+                        event.getErrorCause());                    
+                }
+            }
+        });
+        
+        s3Multi.listObjectsPartitioned(bucketName, targetPath, 
+            Constants.DEFAULT_OBJECT_LIST_CHUNK_SIZE, getMaxBufferedListingPages());
+        // Throw any exceptions that occur inside the threads.
+        if (s3ServiceExceptions[0] != null) {
+            throw s3ServiceExceptions[0];
+        }
+        
+        // Each chunk holds a distinct page of a key range in key order, so ordering the 
+        // chunks by their first key puts the whole listing in key order.
+        S3ObjectsChunk[] sortedChunks = (S3ObjectsChunk[]) chunks.toArray(
+            new S3ObjectsChunk[chunks.size()]);
+        Arrays.sort(sortedChunks, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                String key1 = ((S3ObjectsChunk) o1).getObjects()[0].getKey();
+                String key2 = ((S3ObjectsChunk) o2).getObjects()[0].getKey();
+                return S3KeyComparator.INSTANCE.compare(key1, key2);
+            }
+        });
+        
+        int objectCount = 0;
+        for (int i = 0; i < sortedChunks.length; i++) {
+            objectCount += sortedChunks[i].getObjects().length;
+        }
+        S3Object[] allObjects = new S3Object[objectCount];
+        int offset = 0;
+        for (int i = 0; i < sortedChunks.length; i++) {
+            S3Object[] objects = sortedChunks[i].getObjects();
+            System.arraycopy(objects, 0, allObjects, offset, objects.length);
+            offset += objects.length;
+        }
+        return allObjects;
+    }
+
+    /**
+     * @return
+     * the number of listing pages that threaded listings may hold ahead of this class. Pages
+     * are streamed to this class as they are listed, so allowing one waiting page per listing
+     * thread keeps the threads busy without each thread gathering its entire listing.
+     */
+    private int getMaxBufferedListingPages() {
+        return Math.max(1, jets3tProperties.getIntProperty("s3service.admin-max-thread-count", 4));
+    }
+
+    /**
+     * @param s3Object
+     * @return
+     * the local file date stored in an object's metadata when it was uploaded by JetS3t, or
+     * null if the object has no such metadata.
+     */
+    private String getLocalFileDateMetadata(S3Object s3Object) {
+        String metadataLocalFileDate = (String) s3Object.getMetadata(
+            Constants.METADATA_JETS3T_LOCAL_FILE_DATE);
+        
+        // Try to retrieve the date using the deprecated metadata name
+        if (metadataLocalFileDate == null) {
+            metadataLocalFileDate = (String) s3Object.getMetadata(
+                Constants.METADATA_JETS3T_LOCAL_FILE_DATE_DEPRECATED);
+        }
+        return metadataLocalFileDate;
+    }
+
+    /**
+     * Checks whether a local file has the same size as an S3 object and the same last modified
+     * date as the local file date stored in the object's metadata. The check can only succeed
+     * for objects that were not gzipped or encrypted when they were uploaded, as the size of
+     * the original file is not stored for transformed objects.
+     * 
+     * @param file
+     * @param s3Object
+     * @return
+     * true if the file's size and date match the object's.
+     */
+    private boolean isSizeAndDateMatch(File file, S3Object s3Object) {
+        if (s3Object.containsMetadata(S3Object.METADATA_HEADER_ORIGINAL_HASH_MD5)
+            || s3Object.getContentLength() != file.length())
+        {
+            return false;
+        }
+        String metadataLocalFileDate = getLocalFileDateMetadata(s3Object);
+        if (metadataLocalFileDate == null) {
+            return false;
+        }
+        try {
+            return ServiceUtils.parseIso8601Date(metadataLocalFileDate).getTime() 
+                == file.lastModified();
+        } catch (ParseException e) {
+            if (log.isWarnEnabled()) {
+                log.warn("Unable to parse local file date of object " + s3Object.getKey() 
+                    + ": " + metadataLocalFileDate);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Computes the MD5 hashes of local files, using several threads to hash files whose hashes
+     * are not already known.
+     * <p>
+     * A file's hash is taken from the MD5 hash cache if the <tt>filecomparer.md5-cache-file</tt>
+     * property is set and the cache holds a hash for the file's current size and date, or
+     * from the file's pre-computed <tt>.md5</tt> file if the <tt>filecomparer.use-md5-files</tt>
+     * property is true and this file is newer than the original. Other files are hashed by up
+     * to <tt>filecomparer.md5-hashing-thread-count</tt> threads, by default one per processor,
+     * and their hashes are recorded in the cache and <tt>.md5</tt> files as configured.
+     * <p>
+     * The hash cache is not saved by this method, because it may be called for each of many
+     * groups of files; callers should save it once with {@link #saveMD5HashCache()} when
+     * they are done.
+     *
+     * @param files
+     * the local files to hash, which must not include directories.
+     * @param progressWatcher
+     * a class that reports on the progress of this method, may be null.
+     * @return
+     * a map of the given files to their MD5 hashes.
+     * 
+     * @throws NoSuchAlgorithmException
+     * @throws IOException
+     */
+    public Map computeMD5Hashes(List files, BytesProgressWatcher progressWatcher) 
+        throws NoSuchAlgorithmException, IOException
+    {
+        boolean useMd5Files = jets3tProperties
+            .getBoolProperty("filecomparer.use-md5-files", false);
+        boolean generateMd5Files = jets3tProperties
+            .getBoolProperty("filecomparer.generate-md5-files", false);
+        LocalFileHashCache hashCache = LocalFileHashCache.getInstance(jets3tProperties);
+
+        Map fileHashes = new HashMap(files.size() * 4 / 3 + 1);
+        List filesToHash = new ArrayList();
+        for (int i = 0; i < files.size(); i++) {
+            File file = (File) files.get(i);
+            byte[] computedHash = null;
+            if (hashCache != null) {
+                computedHash = hashCache.getMD5Hash(file);
+            }
+
+            // Check whether a pre-computed MD5 hash file is available
+            File computedHashFile = new File(file.getPath() + ".md5");
+            if (computedHash == null
+                && useMd5Files
+                && computedHashFile.canRead()
+                && computedHashFile.lastModified() > file.lastModified())
+            {
+                try {
+                    // A pre-computed MD5 hash file is available, try to read this hash value
+                    BufferedReader br = new BufferedReader(new FileReader(computedHashFile));
+                    computedHash = ServiceUtils.fromHex(br.readLine().split("\\s")[0]);
+                    br.close();
+                } catch (Exception e) {
+                    if (log.isWarnEnabled()) {
+                        log.warn("Unable to read hash from computed MD5 file", e);
+                    }
+                }
+            }
+
+            if (computedHash != null) {
+                fileHashes.put(file, computedHash);
+                if (progressWatcher != null) {
+                    progressWatcher.updateBytesTransferred(file.length());
+                }
+            } else {
+                filesToHash.add(file);
+            }
+        }
+
+        computeMD5HashesInParallel(filesToHash, fileHashes, progressWatcher);
+
+        for (int i = 0; i < filesToHash.size(); i++) {
+            File file = (File) filesToHash.get(i);
+            byte[] computedHash = (byte[]) fileHashes.get(file);
+            if (hashCache != null) {
+                hashCache.putMD5Hash(file, computedHash);
+            }
+
+            File computedHashFile = new File(file.getPath() + ".md5");
+            if (generateMd5Files && !file.getName().endsWith(".md5") &&
+                (!computedHashFile.exists() 
+                || computedHashFile.lastModified() < file.lastModified()))
+            {
+                // Create or update a pre-computed MD5 hash file.
+                try {
+                    FileWriter fw = new FileWriter(computedHashFile);                            
+                    fw.write(ServiceUtils.toHex(computedHash));
+                    fw.close();
+                } catch (Exception e) {
+                    if (log.isWarnEnabled()) {
+                        log.warn("Unable to write computed MD5 hash to a file", e);
+                    }
+                }
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Hashed " + filesToHash.size() + " of " + files.size() 
+                + " files, other hashes were already known");
+        }
+        return fileHashes;
+    }
+
+    /**
+     * Saves the MD5 hash cache named by the <tt>filecomparer.md5-cache-file</tt> property, if
+     * it is enabled, logging rather than reporting a failure because the cache only saves work.
+     */
+    public void saveMD5HashCache() {
+        LocalFileHashCache hashCache = LocalFileHashCache.getInstance(jets3tProperties);
+        if (hashCache == null) {
+            return;
+        }
+        try {
+            hashCache.save();
+        } catch (IOException e) {
+            if (log.isWarnEnabled()) {
+                log.warn("Unable to save MD5 hash cache " + hashCache.getCacheFile(), e);
+            }
+        }
+    }
+
+    /**
+     * Hashes files using several threads from the hasher pool, the largest files first so that
+     * the threads finish at about the same time. The calling thread hashes files too.
+     */
+    private void computeMD5HashesInParallel(List files, final Map fileHashes, 
+        final BytesProgressWatcher progressWatcher)
+        throws NoSuchAlgorithmException, IOException
+    {
+        final File[] sortedFiles = (File[]) files.toArray(new File[files.size()]);
+        Arrays.sort(sortedFiles, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                long length1 = ((File) o1).length();
+                long length2 = ((File) o2).length();
+                return (length1 > length2 ? -1 : (length1 < length2 ? 1 : 0));
+            }
+        });
+
+        final int[] nextFileIndex = new int[] { 0 };
+        final Exception[] failure = new Exception[1];
+        final Runnable hasher = new Runnable() {
+            public void run() {
+                while (true) {
+                    File file = null;
+                    synchronized (nextFileIndex) {
+                        if (failure[0] != null || nextFileIndex[0] >= sortedFiles.length) {
+                            return;
+                        }
+                        file = sortedFiles[nextFileIndex[0]++];
+                    }
+                    try {
+                        byte[] computedHash = computeMD5Hash(file, progressWatcher);
+                        synchronized (fileHashes) {
+                            fileHashes.put(file, computedHash);
+                        }
+                    } catch (Exception e) {
+                        synchronized (nextFileIndex) {
+                            if (failure[0] == null) {
+                                failure[0] = e;
+                            }
+                        }
+                        return;
+                    }
+                }
+            }
+        };
+
+        int threadCount = Math.min(sortedFiles.length, Math.max(1, jets3tProperties.getIntProperty(
+            "filecomparer.md5-hashing-thread-count", Runtime.getRuntime().availableProcessors())));
+        int pooledHasherCount = Math.max(0, threadCount - 1);
+        final int[] runningHashers = new int[] { pooledHasherCount };
+        Runnable pooledHasher = new Runnable() {
+            public void run() {
+                try {
+                    hasher.run();
+                } finally {
+                    synchronized (nextFileIndex) {
+                        runningHashers[0]--;
+                        nextFileIndex.notifyAll();
+                    }
+                }
+            }
+        };
+        for (int i = 0; i < pooledHasherCount; i++) {
+            hasherPool.execute(pooledHasher);
+        }
+        hasher.run();
+        synchronized (nextFileIndex) {
+            while (runningHashers[0] > 0) {
+                try {
+                    nextFileIndex.wait();
+                } catch (InterruptedException e) {
+                    failure[0] = e;
+                    throw new IOException("Interrupted while hashing files");
+                }
+            }
+        }
+
+        if (failure[0] instanceof IOException) {
+            throw (IOException) failure[0];
+        } else if (failure[0] instanceof NoSuchAlgorithmException) {
+            throw (NoSuchAlgorithmException) failure[0];
+        } else if (failure[0] instanceof RuntimeException) {
+            throw (RuntimeException) failure[0];
+        }
+    }
+
+    /**
+     * Threads that run hashing tasks, started as they are needed and kept until they have been
+     * idle for a minute, so that hashing many small groups of files does not start new threads
+     * for every group.
+     */
+    private static class HasherPool {
+        private static final long IDLE_TIMEOUT_MS = 60 * 1000;
+
+        private final LinkedList tasks = new LinkedList();
+        private int idleThreadCount = 0;
+        private int threadNumber = 0;
+
+        /**
+         * Runs a task on an idle thread, or on a new thread if none is idle.
+         */
+        synchronized void execute(Runnable task) {
+            tasks.addLast(task);
+            if (tasks.size() > idleThreadCount) {
+                Thread thread = new Thread(new Runnable() {
+                    public void run() {
+                        runTasks();
+                    }
+                }, "jets3t-md5-hasher-" + (++threadNumber));
+                thread.setDaemon(true);
+                thread.start();
+            }
+            notifyAll();
+        }
+
+        private void runTasks() {
+            while (true) {
+                Runnable task = null;
+                synchronized (this) {
+                    long idleStartTime = System.currentTimeMillis();
+                    while (tasks.isEmpty()) {
+                        long idleTimeRemaining = 
+                            idleStartTime + IDLE_TIMEOUT_MS - System.currentTimeMillis();
+                        if (idleTimeRemaining <= 0) {
+                            return;
+                        }
+                        idleThreadCount++;
+                        try {
+                            wait(idleTimeRemaining);
+                        } catch (InterruptedException e) {
+                            return;
+                        } finally {
+                            idleThreadCount--;
+                        }
+                    }
+                    task = (Runnable) tasks.removeFirst();
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    if (log.isWarnEnabled()) {
+                        log.warn("Unexpected failure in MD5 hashing thread", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Hashes a file with large reads straight into a pooled buffer.
+     */
+    private byte[] computeMD5Hash(File file, BytesProgressWatcher progressWatcher) 
+        throws NoSuchAlgorithmException, IOException
+    {
+        MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+        byte[] buffer = BufferPool.getInstance().takeBuffer(BufferPool.MAX_POOLED_SIZE);
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            int bytesRead = -1;
+            while ((bytesRead = fis.read(buffer)) != -1) {
+                messageDigest.update(buffer, 0, bytesRead);
+                if (progressWatcher != null) {
+                    progressWatcher.updateBytesTransferred(bytesRead);
+                }
+            }
+            return messageDigest.digest();
+        } finally {
+            fis.close();
+            BufferPool.getInstance().releaseBuffer(buffer);
+        }
+    }
+
     /**
      * Builds an S3 Object Map containing all the objects within the given target path,
      * where the map's key for each object is the relative path to the object.
@@ -532,8 +1261,11 @@ public class FileComparer {
         String prefix = (targetPath.length() > 0 ? targetPath : null);        
         S3Object[] s3ObjectsIncomplete = this.listObjectsThreaded(
             s3Service, bucket.getName(), prefix);
-        return buildS3ObjectMap(s3Service, bucket, targetPath, s3ObjectsIncomplete, 
+        retainListedInIndex(bucket.getName(), prefix, null, null, s3ObjectsIncomplete);
+        Map objectsMap = buildS3ObjectMap(s3Service, bucket, targetPath, s3ObjectsIncomplete, 
             skipMetadata, s3ServiceEventListener);
+        saveListingIndex(getListingIndex(bucket.getName()));
+        return objectsMap;
     }
 
 
@@ -584,16 +1316,69 @@ public class FileComparer {
             objects = chunk.getObjects();
             resultPriorLastKey = chunk.getPriorLastKey();
         }
+        retainListedInIndex(bucket.getName(), prefix, 
+            (completeListing ? null : priorLastKey), resultPriorLastKey, objects);
 
         Map objectsMap = buildS3ObjectMap(s3Service, bucket, targetPath, 
             objects, skipMetadata, s3ServiceEventListener);
+        if (completeListing) {
+            saveListingIndex(getListingIndex(bucket.getName()));
+        }
         return new PartialObjectListing(objectsMap, resultPriorLastKey);
     }
 
+    /**
+     * Returns the listing index for a bucket. The index is shared by every user of the bucket's
+     * index file in this JVM, and holds its changes in memory until it is saved. Methods that
+     * build a map from a complete listing save the index themselves, but callers that build
+     * maps from partial listings, or from objects they listed themselves, must save the index
+     * with {@link #saveListingIndex(ObjectListingIndex)} when they are done, or its unsaved
+     * changes will grow for as long as the JVM runs.
+     * 
+     * @param bucketName
+     * @return
+     * the listing index for the bucket, or null if listing indexes are not enabled by the
+     * <tt>filecomparer.listing-index-directory</tt> property.
+     */
+    public ObjectListingIndex getListingIndex(String bucketName) {
+        return ObjectListingIndex.getInstance(jets3tProperties, bucketName);
+    }
+
+    /**
+     * Removes objects missing from a listing from the bucket's listing index, if there is one.
+     * 
+     * @param bucketName
+     * @param prefix
+     * @param priorLastKey
+     * the key after which the listing started, or null if it started at the beginning.
+     * @param lastKey
+     * the key at which a partial listing stopped, or null if the listing was complete.
+     * @param listedObjects
+     */
+    private void retainListedInIndex(String bucketName, String prefix, String priorLastKey, 
+        String lastKey, S3Object[] listedObjects) 
+    {
+        ObjectListingIndex listingIndex = getListingIndex(bucketName);
+        if (listingIndex == null) {
+            return;
+        }
+        Set listedKeys = new HashSet(listedObjects.length);
+        for (int i = 0; i < listedObjects.length; i++) {
+            listedKeys.add(listedObjects[i].getKey());
+        }
+        listingIndex.retainListed(prefix, priorLastKey, lastKey, listedKeys);
+    }
+
     /**
      * Builds an S3 Object Map containing all the given objects, by retrieving HEAD details about
      * all the objects and using {@link #populateS3ObjectMap(String, S3Object[])} to product an object/key 
      * map.
+     * <p>
+     * If a listing index is enabled for the bucket, objects whose details are recorded in the
+     * index are completed from it without a HEAD request, and the details retrieved for other
+     * objects are recorded in the index. The index is not saved by this method, because it may
+     * be called for each of many batches of a listing; callers should save it once with
+     * {@link #saveListingIndex(ObjectListingIndex)} when they are done.
      * 
      * @see #buildDiscrepancyLists(Map, Map)
      * @see #buildFileMap(File, String, boolean)
@@ -617,8 +1402,28 @@ public class FileComparer {
         if (skipMetadata) {
             s3Objects = s3ObjectsIncomplete;            
         } else {
-            // Retrieve the complete information about all objects listed via GetObjectsHeads.
             final ArrayList s3ObjectsCompleteList = new ArrayList(s3ObjectsIncomplete.length);
+
+            // Complete the objects whose details are unchanged since they were indexed.
+            final ObjectListingIndex listingIndex = getListingIndex(bucket.getName());
+            if (listingIndex != null) {
+                ArrayList uncachedObjects = new ArrayList();
+                for (int i = 0; i < s3ObjectsIncomplete.length; i++) {
+                    if (listingIndex.applyCachedDetails(s3ObjectsIncomplete[i])) {
+                        s3ObjectsCompleteList.add(s3ObjectsIncomplete[i]);
+                    } else {
+                        uncachedObjects.add(s3ObjectsIncomplete[i]);
+                    }
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Listing index provided details of " + s3ObjectsCompleteList.size() 
+                        + " of " + s3ObjectsIncomplete.length + " objects");
+                }
+                s3ObjectsIncomplete = (S3Object[]) uncachedObjects
+                    .toArray(new S3Object[uncachedObjects.size()]);
+            }
+            
+            // Retrieve the complete information about all other objects via GetObjectsHeads.
             final S3ServiceException s3ServiceExceptions[] = new S3ServiceException[1];
             S3ServiceMulti s3ServiceMulti = new S3ServiceMulti(s3Service, new S3ServiceEventAdaptor() {
                 public void s3ServiceEventPerformed(GetObjectHeadsEvent event) {
@@ -626,6 +1431,11 @@ public class FileComparer {
                         S3Object[] finishedObjects = event.getCompletedObjects();
                         if (finishedObjects.length > 0) {
                             s3ObjectsCompleteList.addAll(Arrays.asList(finishedObjects));
+                            if (listingIndex != null) {
+                                for (int i = 0; i < finishedObjects.length; i++) {
+                                    listingIndex.update(finishedObjects[i]);
+                                }
+                            }
                         }
                     } else if (GetObjectHeadsEvent.EVENT_ERROR == event.getEventCode()) {
                         s3ServiceExceptions[0] = new S3ServiceException(
@@ -637,7 +1447,9 @@ public class FileComparer {
             if (s3ServiceEventListener != null) {
                 s3ServiceMulti.addServiceEventListener(s3ServiceEventListener);
             }
-            s3ServiceMulti.getObjectsHeads(bucket, s3ObjectsIncomplete);
+            if (s3ObjectsIncomplete.length > 0) {
+                s3ServiceMulti.getObjectsHeads(bucket, s3ObjectsIncomplete);
+            }
             if (s3ServiceExceptions[0] != null) {
                 throw s3ServiceExceptions[0];
             }        
@@ -648,6 +1460,26 @@ public class FileComparer {
         return populateS3ObjectMap(targetPath, s3Objects);
     }
 
+    /**
+     * Saves a listing index, logging rather than reporting a failure because the index only
+     * saves work and the operation that updated it has succeeded.
+     * 
+     * @param listingIndex
+     * the index to save, may be null.
+     */
+    public void saveListingIndex(ObjectListingIndex listingIndex) {
+        if (listingIndex == null) {
+            return;
+        }
+        try {
+            listingIndex.save();
+        } catch (IOException e) {
+            if (log.isWarnEnabled()) {
+                log.warn("Unable to save listing index " + listingIndex.getIndexFile(), e);
+            }
+        }
+    }
+
     /**
      * Builds a map of key/object pairs each object is associated with a key based on its location
      * in the S3 target path. 
@@ -741,6 +1573,36 @@ public class FileComparer {
         Set alreadySynchronisedKeys = new HashSet();
         Set onlyOnClientKeys = new HashSet();
 
+        // Files whose size and date match the S3 object's are not hashed if the user trusts
+        // these attributes to reveal changes.
+        boolean trustMatchingSizeAndDate = jets3tProperties.getBoolProperty(
+            "filecomparer.trust-matching-size-and-date", false);
+        Set sizeAndDateMatchKeys = new HashSet();
+
+        // Hash all the local files that need to be compared with S3 objects in advance, so
+        // the hashing can be done in parallel.
+        List filesToHash = new ArrayList();
+        Iterator keysIter = s3ObjectsMap.entrySet().iterator();
+        while (keysIter.hasNext()) {
+            Map.Entry entry = (Map.Entry) keysIter.next();
+            File file = (File) filesMap.get(entry.getKey());
+            if (file == null || file.isDirectory()) {
+                continue;
+            }
+            if (trustMatchingSizeAndDate 
+                && isSizeAndDateMatch(file, (S3Object) entry.getValue())) 
+            {
+                sizeAndDateMatchKeys.add(entry.getKey());
+            } else {
+                filesToHash.add(file);
+            }
+        }
+        if (trustMatchingSizeAndDate && log.isDebugEnabled()) {
+            log.debug("Size and date of " + sizeAndDateMatchKeys.size() 
+                + " files match their S3 objects, these files will not be hashed");
+        }
+        Map fileHashes = computeMD5Hashes(filesToHash, progressWatcher);
+
         // Check files on server against local client files.
         Iterator s3ObjectsMapIter = s3ObjectsMap.entrySet().iterator();
         while (s3ObjectsMapIter.hasNext()) {
@@ -787,64 +1649,12 @@ public class FileComparer {
                 if (file.isDirectory()) {
                     // We don't care about directory date changes, as long as it's present.
                     alreadySynchronisedKeys.add(keyPath);
+                } else if (sizeAndDateMatchKeys.contains(keyPath)) {
+                    // The file is trusted to be unchanged.
+                    alreadySynchronisedKeys.add(keyPath);
                 } else {
                     // Compare file hashes.
-                    boolean useMd5Files = jets3tProperties
-                        .getBoolProperty("filecomparer.use-md5-files", false);
-
-                    boolean generateMd5Files = jets3tProperties
-                        .getBoolProperty("filecomparer.generate-md5-files", false);                                        
-                    
-                    byte[] computedHash = null;
-                    
-                    // Check whether a pre-computed MD5 hash file is available
-                    File computedHashFile = new File(file.getPath() + ".md5");
-                    if (useMd5Files
-                        && computedHashFile.canRead()
-                        && computedHashFile.lastModified() > file.lastModified())
-                    {
-                        try {
-                            // A pre-computed MD5 hash file is available, try to read this hash value
-                            BufferedReader br = new BufferedReader(new FileReader(computedHashFile));
-                            computedHash = ServiceUtils.fromHex(br.readLine().split("\\s")[0]);
-                            br.close();
-                        } catch (Exception e) {
-                        	if (log.isWarnEnabled()) {
-                        		log.warn("Unable to read hash from computed MD5 file", e);
-                        	}
-                        }
-                    }
-                    
-                    if (computedHash == null) {
-                        // A pre-computed hash file was not available, or could not be read. 
-                        // Calculate the hash value anew.
-                        InputStream hashInputStream = null;
-                        if (progressWatcher != null) {
-                            hashInputStream = new ProgressMonitoredInputStream( // Report on MD5 hash progress.
-                                new FileInputStream(file), progressWatcher);
-                        } else {
-                            hashInputStream = new FileInputStream(file);
-                        }
-                        computedHash = ServiceUtils.computeMD5Hash(hashInputStream);
-                    }
-                                                                                
-                    String fileHashAsBase64 = ServiceUtils.toBase64(computedHash);
-                    
-                    if (generateMd5Files && !file.getName().endsWith(".md5") &&
-                        (!computedHashFile.exists() 
-                        || computedHashFile.lastModified() < file.lastModified()))
-                    {
-                        // Create or update a pre-computed MD5 hash file.
-                        try {
-                            FileWriter fw = new FileWriter(computedHashFile);                            
-                            fw.write(ServiceUtils.toHex(computedHash));
-                            fw.close();
-                        } catch (Exception e) {
-                        	if (log.isWarnEnabled()) {
-                        		log.warn("Unable to write computed MD5 hash to a file", e);
-                        	}
-                        }
-                    }
+                    String fileHashAsBase64 = ServiceUtils.toBase64((byte[]) fileHashes.get(file));
                     
                     // Get the S3 object's Base64 hash.
                     String objectHash = null;
@@ -867,14 +1677,7 @@ public class FileComparer {
                     } else {
                         // File is out-of-synch. Check which version has the latest date.
                         Date s3ObjectLastModified = null;
-                        String metadataLocalFileDate = (String) s3Object.getMetadata(
-                            Constants.METADATA_JETS3T_LOCAL_FILE_DATE);
-                        
-                        // Try to retrieve the date using the deprecated metadata name
-                        if (metadataLocalFileDate == null) {
-                            metadataLocalFileDate = (String) s3Object.getMetadata(
-                                Constants.METADATA_JETS3T_LOCAL_FILE_DATE_DEPRECATED);
-                        }
+                        String metadataLocalFileDate = getLocalFileDateMetadata(s3Object);
                         
                         if (metadataLocalFileDate == null) {
                             // This is risky as local file times and S3 times don't match!
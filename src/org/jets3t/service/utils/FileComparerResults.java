@@ -78,4 +78,21 @@ public class FileComparerResults {
         onlyOnClientKeys.removeAll(onlyOnServerKeys);        
     }
 
+    /**
+     * Adds the results of comparing keys that are not covered by these results, such as the 
+     * keys in a later range of an object listing. Unlike {@link #merge(FileComparerResults)},
+     * this method does not check whether keys in one list are also present in another, so
+     * its cost depends only on the size of the results added.
+     * 
+     * @param resultsToAdd
+     * results for keys that do not appear in these results.
+     */
+    public void mergeDisjoint(FileComparerResults resultsToAdd) {
+        this.updatedOnServerKeys.addAll(resultsToAdd.updatedOnServerKeys);
+        this.updatedOnClientKeys.addAll(resultsToAdd.updatedOnClientKeys);
+        this.alreadySynchronisedKeys.addAll(resultsToAdd.alreadySynchronisedKeys);
+        this.onlyOnServerKeys.addAll(resultsToAdd.onlyOnServerKeys);
+        this.onlyOnClientKeys.addAll(resultsToAdd.onlyOnClientKeys);
+    }
+
 }
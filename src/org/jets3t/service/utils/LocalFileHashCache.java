@@ -0,0 +1,262 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jets3t.service.Jets3tProperties;
+
+/**
+ * A persistent cache of the MD5 hashes of local files, so files that have not changed since
+ * they were last hashed do not need to be read again.
+ * <p>
+ * Hashes are recorded against each file's absolute path, size and last modified date, and a
+ * cached hash is only used while all three match the file. The cache is held in memory and
+ * written to a single file by {@link #save()}, which makes it a tidier alternative to the
+ * <tt>.md5</tt> files written alongside each local file by the
+ * <tt>filecomparer.generate-md5-files</tt> property. Hashes that have not been used for
+ * {@link #EXPIRY_DAYS} days are discarded when the cache is saved, so hashes of files that
+ * have been deleted or moved do not accumulate.
+ * <p>
+ * The cache is enabled by setting the JetS3t property <tt>filecomparer.md5-cache-file</tt>, and
+ * is obtained with {@link #getInstance(Jets3tProperties)}. This class is thread-safe.
+ *
+ * @author James Murty
+ */
+public class LocalFileHashCache {
+    private static final Log log = LogFactory.getLog(LocalFileHashCache.class);
+
+    private static final int MAGIC_NUMBER = 0x4A334843; // "J3HC"
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * The number of days for which unused hashes are kept in the cache.
+     */
+    public static final int EXPIRY_DAYS = 90;
+
+    private static final Map instancesByPath = new HashMap();
+
+    private final File cacheFile;
+    private final Map entriesByPath = new HashMap();
+    private boolean changed = false;
+
+    /**
+     * The hash recorded for a file.
+     */
+    private static class Entry {
+        final long length;
+        final long lastModified;
+        final byte[] md5Hash;
+        long lastUsed;
+
+        Entry(long length, long lastModified, byte[] md5Hash, long lastUsed) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.md5Hash = md5Hash;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * Opens the hash cache named by the JetS3t property <tt>filecomparer.md5-cache-file</tt>.
+     * Only one cache object is created for each cache file, and it is shared by all callers.
+     *
+     * @param jets3tProperties
+     * the properties that name the cache file.
+     * @return
+     * the hash cache, or null if the cache is not enabled.
+     */
+    public static LocalFileHashCache getInstance(Jets3tProperties jets3tProperties) {
+        String fileName = jets3tProperties.getStringProperty("filecomparer.md5-cache-file", null);
+        if (fileName == null || fileName.trim().length() == 0) {
+            return null;
+        }
+        fileName = fileName.trim();
+        File file = new File(fileName);
+        if (fileName.startsWith("~")) {
+            file = new File(System.getProperty("user.home"), fileName.substring(1));
+        }
+
+        synchronized (instancesByPath) {
+            String path = file.getAbsolutePath();
+            LocalFileHashCache cache = (LocalFileHashCache) instancesByPath.get(path);
+            if (cache == null) {
+                cache = new LocalFileHashCache(file);
+                instancesByPath.put(path, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Opens a hash cache file, or prepares a new cache if the file does not exist. A cache
+     * file that cannot be read is ignored and replaced when the cache is saved.
+     *
+     * @param cacheFile
+     * the file in which the cache is stored.
+     */
+    public LocalFileHashCache(File cacheFile) {
+        this.cacheFile = cacheFile;
+        if (cacheFile.exists()) {
+            try {
+                load();
+            } catch (IOException e) {
+                if (log.isWarnEnabled()) {
+                    log.warn("Ignoring unreadable MD5 hash cache file " + cacheFile, e);
+                }
+                entriesByPath.clear();
+            }
+        }
+    }
+
+    /**
+     * @return
+     * the file in which the cache is stored.
+     */
+    public File getCacheFile() {
+        return cacheFile;
+    }
+
+    /**
+     * @param file
+     * @return
+     * the MD5 hash recorded for the file, or null if no hash is recorded or the file's size
+     * or last modified date have changed since its hash was recorded.
+     */
+    public synchronized byte[] getMD5Hash(File file) {
+        Entry entry = (Entry) entriesByPath.get(file.getAbsolutePath());
+        if (entry == null
+            || entry.length != file.length()
+            || entry.lastModified != file.lastModified())
+        {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (now - entry.lastUsed > 24L * 60 * 60 * 1000) {
+            // Only record use once a day, so unchanged caches are not rewritten on every run.
+            entry.lastUsed = now;
+            changed = true;
+        }
+        return entry.md5Hash;
+    }
+
+    /**
+     * Records the MD5 hash of a file.
+     *
+     * @param file
+     * @param md5Hash
+     * the hash of the file's current contents.
+     */
+    public synchronized void putMD5Hash(File file, byte[] md5Hash) {
+        entriesByPath.put(file.getAbsolutePath(), new Entry(file.length(), file.lastModified(),
+            md5Hash, System.currentTimeMillis()));
+        changed = true;
+    }
+
+    /**
+     * Writes the cache to its file, if it has changed since it was loaded or last saved.
+     *
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        if (!changed) {
+            return;
+        }
+        long expiryTime = System.currentTimeMillis() - EXPIRY_DAYS * 24L * 60 * 60 * 1000;
+        Iterator entryIter = entriesByPath.values().iterator();
+        while (entryIter.hasNext()) {
+            if (((Entry) entryIter.next()).lastUsed < expiryTime) {
+                entryIter.remove();
+            }
+        }
+
+        File directory = cacheFile.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        File tempFile = new File(cacheFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tempFile), 65536));
+        try {
+            out.writeInt(MAGIC_NUMBER);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(entriesByPath.size());
+            entryIter = entriesByPath.entrySet().iterator();
+            while (entryIter.hasNext()) {
+                Map.Entry mapEntry = (Map.Entry) entryIter.next();
+                Entry entry = (Entry) mapEntry.getValue();
+                out.writeUTF((String) mapEntry.getKey());
+                out.writeLong(entry.length);
+                out.writeLong(entry.lastModified);
+                out.writeLong(entry.lastUsed);
+                out.writeByte(entry.md5Hash.length);
+                out.write(entry.md5Hash);
+            }
+        } finally {
+            out.close();
+        }
+        if (cacheFile.exists() && !cacheFile.delete()) {
+            throw new IOException("Unable to replace MD5 hash cache file " + cacheFile);
+        }
+        if (!tempFile.renameTo(cacheFile)) {
+            throw new IOException("Unable to rename " + tempFile + " to " + cacheFile);
+        }
+        changed = false;
+
+        if (log.isDebugEnabled()) {
+            log.debug("Saved MD5 hash cache " + cacheFile + " with " + entriesByPath.size()
+                + " hashes");
+        }
+    }
+
+    private void load() throws IOException {
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(cacheFile), 65536));
+        try {
+            if (in.readInt() != MAGIC_NUMBER || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("File is not an MD5 hash cache in a supported format");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long length = in.readLong();
+                long lastModified = in.readLong();
+                long lastUsed = in.readLong();
+                byte[] md5Hash = new byte[in.readUnsignedByte()];
+                in.readFully(md5Hash);
+                entriesByPath.put(path, new Entry(length, lastModified, md5Hash, lastUsed));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+}
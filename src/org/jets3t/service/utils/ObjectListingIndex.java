@@ -0,0 +1,793 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jets3t.service.Constants;
+import org.jets3t.service.Jets3tProperties;
+import org.jets3t.service.model.S3Object;
+
+/**
+ * A persistent index of the objects in a bucket, which records the details of each object
+ * that can only be obtained with a HEAD request: its content type, user metadata such as the
+ * JetS3t local file date and original MD5 hash, and so on.
+ * <p>
+ * Comparing a large bucket with local files requires a HEAD request for every listed object,
+ * which takes far longer than the listing itself. With an index, an object listed with the
+ * same ETag, size and last modified date as an indexed object is given the indexed details
+ * by {@link #applyCachedDetails(S3Object)}, and only new or changed objects need a HEAD
+ * request. The index is kept up to date by recording the details retrieved by HEAD requests,
+ * the objects uploaded and deleted by JetS3t applications, and the keys missing from each
+ * listing. Because every listed object is verified against its ETag, size and date, changes
+ * made to the bucket by other programs are never hidden by the index. For the same reason
+ * the index does not replace the bucket listing, which is still performed in full; it only
+ * avoids the HEAD requests for unchanged objects.
+ * <p>
+ * The index is stored in a file of key-ordered records that is memory-mapped, so opening an
+ * index of millions of objects takes no time and only the records that are looked up are read
+ * from disk. Changes are held in memory until {@link #save()} merges them with the existing
+ * records into a new file.
+ * <p>
+ * A mapped file cannot be unmapped on request, and on some platforms a file cannot be deleted
+ * or replaced while any index object still maps it. Each save therefore writes a new
+ * generation of the records, in a file named after the index file with the suffix
+ * <tt>.N</tt>, and the index file itself is a small pointer naming the current generation.
+ * Older generations are deleted once nothing maps them, at a later save if necessary.
+ * <p>
+ * Indexes are enabled by setting the JetS3t property
+ * <tt>filecomparer.listing-index-directory</tt> to a directory in which an index file is kept
+ * for each bucket, and are obtained with {@link #getInstance(Jets3tProperties, String)}.
+ * This class is thread-safe.
+ *
+ * @author James Murty
+ */
+public class ObjectListingIndex {
+    private static final Log log = LogFactory.getLog(ObjectListingIndex.class);
+
+    private static final int MAGIC_NUMBER = 0x4A334C49; // "J3LI"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = 24;
+
+    /**
+     * The size of the regions in which the index file is mapped. No record crosses a region
+     * boundary, so each record can be read from a single buffer.
+     */
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    /**
+     * Metadata items that are stored separately or not at all, because they are included in
+     * bucket listings or describe a particular response rather than the object.
+     */
+    private static final String[] UNCACHED_METADATA_NAMES = new String[] {
+        S3Object.METADATA_HEADER_ETAG,
+        S3Object.METADATA_HEADER_CONTENT_LENGTH,
+        S3Object.METADATA_HEADER_LAST_MODIFIED_DATE,
+        S3Object.METADATA_HEADER_DATE,
+        S3Object.METADATA_HEADER_OWNER,
+        S3Object.METADATA_HEADER_STORAGE_CLASS,
+        S3Object.METADATA_HEADER_HASH_MD5,
+        S3Object.METADATA_HEADER_CONTENT_MD5
+    };
+
+    private static final Comparator KEY_ORDER = S3KeyComparator.INSTANCE;
+
+    /**
+     * Marks a key whose object has been removed from the bucket in the pending changes.
+     */
+    private static final Object REMOVED = new Object();
+
+    private static final Map instancesByPath = new HashMap();
+
+    private final File indexFile;
+    private File generationFile = null;
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private long recordCount = 0;
+    private long tableOffset = 0;
+
+    /**
+     * Changes not yet saved to the index file, mapping keys to an {@link Entry} or to
+     * {@link #REMOVED}.
+     */
+    private final TreeMap pendingChanges = new TreeMap(KEY_ORDER);
+
+    /**
+     * The details recorded for an object.
+     */
+    private static class Entry {
+        final String key;
+        final String eTag;
+        final long contentLength;
+        /**
+         * the object's last modified date in milliseconds, or 0 if the date is not yet known
+         * because the object was recorded when JetS3t uploaded it.
+         */
+        final long lastModifiedTime;
+        final String[] metadataNamesAndValues;
+
+        Entry(String key, String eTag, long contentLength, long lastModifiedTime,
+            String[] metadataNamesAndValues)
+        {
+            this.key = key;
+            this.eTag = eTag;
+            this.contentLength = contentLength;
+            this.lastModifiedTime = lastModifiedTime;
+            this.metadataNamesAndValues = metadataNamesAndValues;
+        }
+    }
+
+    /**
+     * Opens the index for a bucket in the directory named by the JetS3t property
+     * <tt>filecomparer.listing-index-directory</tt>. Only one index object is created for each
+     * index file, and it is shared by all callers.
+     *
+     * @param jets3tProperties
+     * the properties that name the index directory.
+     * @param bucketName
+     * the name of the bucket whose objects are indexed.
+     * @return
+     * the bucket's index, or null if indexes are not enabled or the index cannot be opened.
+     */
+    public static ObjectListingIndex getInstance(Jets3tProperties jets3tProperties,
+        String bucketName)
+    {
+        String directoryName = jets3tProperties.getStringProperty(
+            "filecomparer.listing-index-directory", null);
+        if (directoryName == null || directoryName.trim().length() == 0) {
+            return null;
+        }
+        directoryName = directoryName.trim();
+        File directory = new File(directoryName);
+        if (directoryName.startsWith("~")) {
+            directory = new File(System.getProperty("user.home"), directoryName.substring(1));
+        }
+        File file = new File(directory, bucketName + ".index");
+
+        synchronized (instancesByPath) {
+            try {
+                String path = file.getCanonicalPath();
+                ObjectListingIndex index = (ObjectListingIndex) instancesByPath.get(path);
+                if (index == null) {
+                    if (!directory.exists() && !directory.mkdirs()) {
+                        throw new IOException("Unable to create directory " + directory);
+                    }
+                    index = new ObjectListingIndex(file);
+                    instancesByPath.put(path, index);
+                }
+                return index;
+            } catch (IOException e) {
+                if (log.isWarnEnabled()) {
+                    log.warn("Unable to open listing index file " + file
+                        + ", objects will not be indexed", e);
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Opens an index file, or prepares a new index if the file does not exist. An index file
+     * that cannot be read is ignored and replaced when the index is saved.
+     *
+     * @param indexFile
+     * the file that names the current generation of the index's records.
+     * @throws IOException
+     */
+    public ObjectListingIndex(File indexFile) throws IOException {
+        this.indexFile = indexFile;
+        if (indexFile.exists()) {
+            try {
+                mapGenerationFile(readCurrentGeneration());
+            } catch (IOException e) {
+                if (log.isWarnEnabled()) {
+                    log.warn("Ignoring unreadable listing index file " + indexFile, e);
+                }
+                generationFile = null;
+                segments = new MappedByteBuffer[0];
+                recordCount = 0;
+            }
+        }
+    }
+
+    /**
+     * @return
+     * the file that names the current generation of the index's records.
+     */
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * If the index has a record for the given listed object with the same ETag, size and last
+     * modified date, adds the recorded details to the object and marks its metadata complete.
+     *
+     * @param listedObject
+     * an object from a bucket listing.
+     * @return
+     * true if the object was given the indexed details, false if it was not indexed or has
+     * changed since it was indexed.
+     */
+    public synchronized boolean applyCachedDetails(S3Object listedObject) {
+        Entry entry = lookup(listedObject.getKey());
+        if (entry == null
+            || entry.contentLength != listedObject.getContentLength()
+            || entry.eTag == null || !entry.eTag.equals(listedObject.getETag()))
+        {
+            return false;
+        }
+        Date lastModifiedDate = (Date) listedObject.getMetadata(
+            S3Object.METADATA_HEADER_LAST_MODIFIED_DATE);
+        long listedTime = (lastModifiedDate == null ? 0 : lastModifiedDate.getTime());
+        if (entry.lastModifiedTime == 0 && listedTime != 0) {
+            // The object was uploaded by JetS3t, now its date is known.
+            pendingChanges.put(entry.key, new Entry(entry.key, entry.eTag,
+                entry.contentLength, listedTime, entry.metadataNamesAndValues));
+        } else if (entry.lastModifiedTime != listedTime) {
+            return false;
+        }
+
+        for (int i = 0; i < entry.metadataNamesAndValues.length; i += 2) {
+            String name = entry.metadataNamesAndValues[i];
+            if (!listedObject.containsMetadata(name)) {
+                listedObject.addMetadata(name, entry.metadataNamesAndValues[i + 1]);
+            }
+        }
+        listedObject.setMetadataComplete(true);
+        return true;
+    }
+
+    /**
+     * Records the complete details of an object, as returned by a HEAD or GET request.
+     *
+     * @param object
+     * an object with complete metadata.
+     */
+    public synchronized void update(S3Object object) {
+        Date lastModifiedDate = (Date) object.getMetadata(
+            S3Object.METADATA_HEADER_LAST_MODIFIED_DATE);
+        record(object, (lastModifiedDate == null ? 0 : lastModifiedDate.getTime()));
+    }
+
+    /**
+     * Records the details of an object that has just been uploaded. S3 does not report the
+     * last modified date of an uploaded object, so the date is taken from the object's next
+     * listing, provided its ETag and size are unchanged.
+     *
+     * @param uploadedObject
+     * an object that has been uploaded, with the metadata returned by the upload request.
+     */
+    public synchronized void recordUpload(S3Object uploadedObject) {
+        record(uploadedObject, 0);
+    }
+
+    /**
+     * Records that an object is no longer in the bucket.
+     *
+     * @param key
+     * the key of the deleted object.
+     */
+    public synchronized void remove(String key) {
+        pendingChanges.put(key, REMOVED);
+    }
+
+    /**
+     * Removes the records of objects that should have appeared in a listing, but did not.
+     * The listing covered the keys beginning with the given prefix that lie after the prior
+     * last key and up to the last listed key.
+     *
+     * @param prefix
+     * the prefix of the listing, may be null.
+     * @param priorLastKey
+     * the key after which the listing started, or null if it started at the beginning.
+     * @param lastKey
+     * the key at which the listing stopped, or null if the listing was complete.
+     * @param listedKeys
+     * the keys of all the objects listed.
+     */
+    public synchronized void retainListed(String prefix, String priorLastKey, String lastKey,
+        Set listedKeys)
+    {
+        if (prefix == null) {
+            prefix = "";
+        }
+        String startKey = prefix;
+        if (priorLastKey != null && KEY_ORDER.compare(priorLastKey, prefix) > 0) {
+            startKey = priorLastKey;
+        }
+
+        List missingKeys = new ArrayList();
+        try {
+            for (long i = findFirstRecordNotBefore(startKey); i < recordCount; i++) {
+                String key = readKey(i);
+                if (isBeyondListingRange(key, prefix, lastKey)) {
+                    break;
+                }
+                if (isInListingRange(key, prefix, priorLastKey, lastKey)
+                    && !listedKeys.contains(key))
+                {
+                    missingKeys.add(key);
+                }
+            }
+        } catch (IOException e) {
+            if (log.isWarnEnabled()) {
+                log.warn("Unable to read listing index file " + indexFile, e);
+            }
+        }
+        Iterator changeIter = pendingChanges.tailMap(startKey).keySet().iterator();
+        while (changeIter.hasNext()) {
+            String key = (String) changeIter.next();
+            if (isBeyondListingRange(key, prefix, lastKey)) {
+                break;
+            }
+            if (isInListingRange(key, prefix, priorLastKey, lastKey)
+                && !listedKeys.contains(key))
+            {
+                missingKeys.add(key);
+            }
+        }
+
+        for (int i = 0; i < missingKeys.size(); i++) {
+            pendingChanges.put(missingKeys.get(i), REMOVED);
+        }
+        if (log.isDebugEnabled() && missingKeys.size() > 0) {
+            log.debug("Removed " + missingKeys.size() + " unlisted objects from listing index "
+                + indexFile);
+        }
+    }
+
+    /**
+     * @return
+     * the number of objects in the index, including changes that have not been saved.
+     */
+    public synchronized long size() {
+        long size = recordCount;
+        Iterator changeIter = pendingChanges.entrySet().iterator();
+        while (changeIter.hasNext()) {
+            Map.Entry change = (Map.Entry) changeIter.next();
+            boolean recorded = (findRecord((String) change.getKey()) >= 0);
+            if (change.getValue() == REMOVED && recorded) {
+                size--;
+            } else if (change.getValue() != REMOVED && !recorded) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Writes the index and all the changes made since it was last saved to a new generation
+     * file, and makes the index file name the new generation. Nothing is written if there are
+     * no changes.
+     *
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        if (pendingChanges.isEmpty()) {
+            return;
+        }
+        File newGenerationFile = new File(indexFile.getAbsoluteFile().getParentFile(),
+            indexFile.getName() + "." + (findLatestGeneration() + 1));
+        File tempFile = new File(newGenerationFile.getPath() + ".tmp");
+        File tableFile = new File(newGenerationFile.getPath() + ".table.tmp");
+        long writtenCount = 0;
+        long tableStart = 0;
+
+        DataOutputStream recordsOut = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tempFile), 65536));
+        DataOutputStream tableOut = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tableFile), 65536));
+        try {
+            recordsOut.write(new byte[HEADER_LENGTH]);
+            long position = HEADER_LENGTH;
+
+            Iterator changeIter = pendingChanges.entrySet().iterator();
+            Map.Entry change = (changeIter.hasNext() ? (Map.Entry) changeIter.next() : null);
+            long recordIndex = 0;
+            Entry record = (recordIndex < recordCount ? readEntry(recordIndex) : null);
+
+            while (record != null || change != null) {
+                Entry entry = null;
+                int order = (record == null ? 1 : (change == null ? -1
+                    : KEY_ORDER.compare(record.key, change.getKey())));
+                if (order <= 0) {
+                    entry = record;
+                    recordIndex++;
+                    record = (recordIndex < recordCount ? readEntry(recordIndex) : null);
+                }
+                if (order >= 0) {
+                    // Pending changes replace the recorded entry with the same key.
+                    entry = (change.getValue() == REMOVED ? null : (Entry) change.getValue());
+                    change = (changeIter.hasNext() ? (Map.Entry) changeIter.next() : null);
+                }
+                if (entry == null) {
+                    continue;
+                }
+
+                byte[] recordBytes = encodeEntry(entry);
+                long segmentRemaining = SEGMENT_SIZE - (position % SEGMENT_SIZE);
+                if (recordBytes.length > segmentRemaining) {
+                    recordsOut.write(new byte[(int) segmentRemaining]);
+                    position += segmentRemaining;
+                }
+                tableOut.writeLong(position);
+                recordsOut.write(recordBytes);
+                position += recordBytes.length;
+                writtenCount++;
+            }
+
+            // Align the offset table so that no offset crosses a segment boundary.
+            int padding = (int) ((8 - (position % 8)) % 8);
+            recordsOut.write(new byte[padding]);
+            tableStart = position + padding;
+            tableOut.close();
+            tableOut = null;
+
+            DataInputStream tableIn = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(tableFile), 65536));
+            try {
+                byte[] buffer = new byte[65536];
+                int read = -1;
+                while ((read = tableIn.read(buffer)) != -1) {
+                    recordsOut.write(buffer, 0, read);
+                }
+            } finally {
+                tableIn.close();
+            }
+        } finally {
+            recordsOut.close();
+            if (tableOut != null) {
+                tableOut.close();
+            }
+            tableFile.delete();
+        }
+
+        RandomAccessFile headerOut = new RandomAccessFile(tempFile, "rw");
+        try {
+            headerOut.writeInt(MAGIC_NUMBER);
+            headerOut.writeInt(FORMAT_VERSION);
+            headerOut.writeLong(writtenCount);
+            headerOut.writeLong(tableStart);
+        } finally {
+            headerOut.close();
+        }
+
+        if (!tempFile.renameTo(newGenerationFile)) {
+            throw new IOException("Unable to rename " + tempFile + " to " + newGenerationFile);
+        }
+        writeCurrentGeneration(newGenerationFile);
+        pendingChanges.clear();
+        mapGenerationFile(newGenerationFile);
+        deleteOldGenerations();
+
+        if (log.isDebugEnabled()) {
+            log.debug("Saved listing index " + newGenerationFile + " with " + writtenCount
+                + " objects");
+        }
+    }
+
+    /**
+     * @return
+     * the file named by the index file as the current generation of the records.
+     */
+    private File readCurrentGeneration() throws IOException {
+        byte[] bytes = new byte[(int) Math.min(indexFile.length(), 1024)];
+        DataInputStream in = new DataInputStream(new FileInputStream(indexFile));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        String name = new String(bytes, Constants.DEFAULT_ENCODING).trim();
+        if (getGenerationNumber(name) < 0) {
+            throw new IOException("Listing index file does not name a generation of records");
+        }
+        return new File(indexFile.getAbsoluteFile().getParentFile(), name);
+    }
+
+    /**
+     * Makes the index file name the given generation. The index file is small and never
+     * mapped, so it can be replaced on any platform.
+     */
+    private void writeCurrentGeneration(File newGenerationFile) throws IOException {
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(newGenerationFile.getName().getBytes(Constants.DEFAULT_ENCODING));
+        } finally {
+            out.close();
+        }
+        if (indexFile.exists() && !indexFile.delete()) {
+            throw new IOException("Unable to replace listing index file " + indexFile);
+        }
+        if (!tempFile.renameTo(indexFile)) {
+            throw new IOException("Unable to rename " + tempFile + " to " + indexFile);
+        }
+    }
+
+    /**
+     * @return
+     * the number of the generation file with the given name, or -1 if the name is not that of
+     * one of this index's generation files.
+     */
+    private long getGenerationNumber(String fileName) {
+        String prefix = indexFile.getName() + ".";
+        if (!fileName.startsWith(prefix) || fileName.length() == prefix.length()) {
+            return -1;
+        }
+        for (int i = prefix.length(); i < fileName.length(); i++) {
+            if (!Character.isDigit(fileName.charAt(i))) {
+                return -1;
+            }
+        }
+        try {
+            return Long.parseLong(fileName.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private long findLatestGeneration() {
+        long latest = 0;
+        String[] fileNames = indexFile.getAbsoluteFile().getParentFile().list();
+        for (int i = 0; fileNames != null && i < fileNames.length; i++) {
+            latest = Math.max(latest, getGenerationNumber(fileNames[i]));
+        }
+        return latest;
+    }
+
+    /**
+     * Deletes the generation files other than the current one. A file that is still mapped,
+     * by this or another index object, may not be deleted until a later save.
+     */
+    private void deleteOldGenerations() {
+        File[] files = indexFile.getAbsoluteFile().getParentFile().listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            if (getGenerationNumber(files[i].getName()) >= 0
+                && !files[i].getName().equals(generationFile.getName())
+                && !files[i].delete() && log.isDebugEnabled())
+            {
+                log.debug("Unable to delete old listing index file " + files[i]
+                    + ", it will be deleted by a later save");
+            }
+        }
+    }
+
+    private void record(S3Object object, long lastModifiedTime) {
+        List namesAndValues = new ArrayList();
+        Iterator metadataIter = object.getMetadataMap().entrySet().iterator();
+        while (metadataIter.hasNext()) {
+            Map.Entry metadata = (Map.Entry) metadataIter.next();
+            if (metadata.getValue() instanceof String && isCachedMetadata((String) metadata.getKey())) {
+                namesAndValues.add(metadata.getKey());
+                namesAndValues.add(metadata.getValue());
+            }
+        }
+        pendingChanges.put(object.getKey(), new Entry(object.getKey(), object.getETag(),
+            object.getContentLength(), lastModifiedTime,
+            (String[]) namesAndValues.toArray(new String[namesAndValues.size()])));
+    }
+
+    private boolean isCachedMetadata(String name) {
+        for (int i = 0; i < UNCACHED_METADATA_NAMES.length; i++) {
+            if (UNCACHED_METADATA_NAMES[i].equalsIgnoreCase(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isInListingRange(String key, String prefix, String priorLastKey,
+        String lastKey)
+    {
+        return key.startsWith(prefix)
+            && (priorLastKey == null || KEY_ORDER.compare(key, priorLastKey) > 0)
+            && (lastKey == null || KEY_ORDER.compare(key, lastKey) <= 0);
+    }
+
+    /**
+     * @return
+     * true if the key, and every key after it, lies beyond a listing's range.
+     */
+    private boolean isBeyondListingRange(String key, String prefix, String lastKey) {
+        return (lastKey != null && KEY_ORDER.compare(key, lastKey) > 0)
+            || (!key.startsWith(prefix) && KEY_ORDER.compare(key, prefix) > 0);
+    }
+
+    private Entry lookup(String key) {
+        Object change = pendingChanges.get(key);
+        if (change != null) {
+            return (change == REMOVED ? null : (Entry) change);
+        }
+        try {
+            long recordIndex = findRecord(key);
+            return (recordIndex < 0 ? null : readEntry(recordIndex));
+        } catch (IOException e) {
+            if (log.isWarnEnabled()) {
+                log.warn("Unable to read listing index file " + indexFile, e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return
+     * the index of the record with the given key, or -1 if there is none.
+     */
+    private long findRecord(String key) {
+        try {
+            long recordIndex = findFirstRecordNotBefore(key);
+            if (recordIndex < recordCount && readKey(recordIndex).equals(key)) {
+                return recordIndex;
+            }
+        } catch (IOException e) {
+            if (log.isWarnEnabled()) {
+                log.warn("Unable to read listing index file " + indexFile, e);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return
+     * the index of the first record whose key is not before the given key, or the number of
+     * records if all the keys are before it.
+     */
+    private long findFirstRecordNotBefore(String key) throws IOException {
+        byte[] keyBytes = key.getBytes(Constants.DEFAULT_ENCODING);
+        long low = 0;
+        long high = recordCount;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (compareRecordKey(middle, keyBytes) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private ByteBuffer getRecordBuffer(long recordIndex) {
+        long tablePosition = tableOffset + recordIndex * 8;
+        long recordPosition = segments[(int) (tablePosition / SEGMENT_SIZE)]
+            .getLong((int) (tablePosition % SEGMENT_SIZE));
+        ByteBuffer buffer = segments[(int) (recordPosition / SEGMENT_SIZE)].duplicate();
+        buffer.position((int) (recordPosition % SEGMENT_SIZE));
+        return buffer;
+    }
+
+    private int compareRecordKey(long recordIndex, byte[] keyBytes) {
+        ByteBuffer buffer = getRecordBuffer(recordIndex);
+        int length = buffer.getShort() & 0xFFFF;
+        int common = Math.min(length, keyBytes.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (buffer.get() & 0xFF) - (keyBytes[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - keyBytes.length;
+    }
+
+    private String readKey(long recordIndex) throws IOException {
+        return readString(getRecordBuffer(recordIndex));
+    }
+
+    private Entry readEntry(long recordIndex) throws IOException {
+        ByteBuffer buffer = getRecordBuffer(recordIndex);
+        String key = readString(buffer);
+        long contentLength = buffer.getLong();
+        long lastModifiedTime = buffer.getLong();
+        String eTag = readString(buffer);
+        String[] namesAndValues = new String[(buffer.getShort() & 0xFFFF) * 2];
+        for (int i = 0; i < namesAndValues.length; i++) {
+            namesAndValues[i] = readString(buffer);
+        }
+        return new Entry(key, (eTag.length() == 0 ? null : eTag), contentLength,
+            lastModifiedTime, namesAndValues);
+    }
+
+    private String readString(ByteBuffer buffer) throws UnsupportedEncodingException {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, Constants.DEFAULT_ENCODING);
+    }
+
+    private byte[] encodeEntry(Entry entry) throws IOException {
+        java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, entry.key);
+        out.writeLong(entry.contentLength);
+        out.writeLong(entry.lastModifiedTime);
+        writeString(out, (entry.eTag == null ? "" : entry.eTag));
+        out.writeShort(entry.metadataNamesAndValues.length / 2);
+        for (int i = 0; i < entry.metadataNamesAndValues.length; i++) {
+            writeString(out, entry.metadataNamesAndValues[i]);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(Constants.DEFAULT_ENCODING);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("Value is too long to be indexed: " + value.substring(0, 64));
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private void mapGenerationFile(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long fileSize = channel.size();
+            if (fileSize < HEADER_LENGTH) {
+                throw new IOException("Listing index file is truncated");
+            }
+            int segmentCount = (int) ((fileSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            MappedByteBuffer[] mappedSegments = new MappedByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long start = i * SEGMENT_SIZE;
+                mappedSegments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                    Math.min(SEGMENT_SIZE, fileSize - start));
+            }
+
+            ByteBuffer header = mappedSegments[0].duplicate();
+            if (header.getInt() != MAGIC_NUMBER || header.getInt() != FORMAT_VERSION) {
+                throw new IOException("File is not a listing index in a supported format");
+            }
+            long count = header.getLong();
+            long table = header.getLong();
+            if (count < 0 || table < HEADER_LENGTH || table + count * 8 > fileSize) {
+                throw new IOException("Listing index file is truncated");
+            }
+            generationFile = file;
+            segments = mappedSegments;
+            recordCount = count;
+            tableOffset = table;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+}
@@ -33,8 +33,10 @@ import org.jets3t.service.Constants;
 import org.jets3t.service.S3ServiceException;
 import org.jets3t.service.acl.AccessControlList;
 import org.jets3t.service.io.BytesProgressWatcher;
+import org.jets3t.service.io.DigestCalculatingInputStream;
 import org.jets3t.service.io.GZipDeflatingInputStream;
 import org.jets3t.service.io.ProgressMonitoredInputStream;
+import org.jets3t.service.io.TransformedFileInputStream;
 import org.jets3t.service.model.S3Object;
 import org.jets3t.service.multithread.DownloadPackage;
 import org.jets3t.service.security.EncryptionUtil;
@@ -86,6 +88,55 @@ public class ObjectUtils {
      */
     public static S3Object createObjectForUpload(String objectKey, File dataFile, 
         EncryptionUtil encryptionUtil, boolean gzipFile, BytesProgressWatcher progressWatcher) throws Exception 
+    {
+        return createObjectForUpload(objectKey, dataFile, encryptionUtil, gzipFile, false, 
+            progressWatcher);
+    }
+    
+    /**
+     * Prepares a file for upload to a named object in S3, potentially transforming it if 
+     * zipping or encryption is requested, as described for 
+     * {@link #createObjectForUpload(String, File, EncryptionUtil, boolean, BytesProgressWatcher)}.
+     * <p>
+     * If the data is transformed and <code>streamTransformedData</code> is false, the file is 
+     * read once to write the transformed data to a temporary file and to compute the MD5 
+     * hashes of both the original and the transformed data. 
+     * <p>
+     * If <code>streamTransformedData</code> is true no temporary file is written. Instead, the 
+     * file is read once to compute the original data's MD5 hash and, if the data is gzipped, 
+     * the length of the transformed data. The object's data is then transformed again as it is 
+     * uploaded, by a {@link TransformedFileInputStream}. The length of data that is only 
+     * encrypted is calculated with {@link EncryptionUtil#getEncryptedOutputSize(long)}. 
+     * Because the MD5 hash of the transformed data is not known in advance, the object has no
+     * <tt>MD5-Hash</tt>, and the upload is instead verified by comparing the ETag returned by
+     * S3 with the hash of the data sent.
+     *
+     * @param objectKey
+     * the object key name to use in S3 
+     * @param dataFile  
+     * the file to prepare for upload.
+     * @param encryptionUtil
+     * if this variable is null no encryption will be applied, otherwise the provided 
+     * encryption utility object will be used to encrypt the file's data. 
+     * @param gzipFile
+     * if true the file will be Gzipped.
+     * @param streamTransformedData
+     * if true, gzipped or encrypted data is transformed as it is uploaded rather than being 
+     * written to a temporary file.
+     * @param progressWatcher
+     * watcher to monitor progress of file transformation and hash generation, which is
+     * notified once of each byte in the file.
+     * 
+     * @return
+     * an S3Object representing the file, or a transformed copy of the file, complete with
+     * all JetS3t-specific metadata items set and ready for upload to S3.  
+     *  
+     * @throws Exception    
+     * exceptions could include IO failures, gzipping and encryption failures.
+     */
+    public static S3Object createObjectForUpload(String objectKey, File dataFile, 
+        EncryptionUtil encryptionUtil, boolean gzipFile, boolean streamTransformedData,
+        BytesProgressWatcher progressWatcher) throws Exception 
     {
         S3Object s3Object = new S3Object(objectKey);
         
@@ -100,30 +151,20 @@ public class ObjectUtils {
             s3Object.setContentType(Mimetypes.MIMETYPE_JETS3T_DIRECTORY);
         } else {
             s3Object.setContentType(Mimetypes.getInstance().getMimetype(dataFile));
-            File uploadFile = transformUploadFile(dataFile, s3Object, encryptionUtil, 
-                gzipFile, progressWatcher);
-            s3Object.setContentLength(uploadFile.length());
-            s3Object.setDataInputFile(uploadFile);
-            
-            // Compute the upload file's MD5 hash.
-            InputStream inputStream = new BufferedInputStream(new FileInputStream(uploadFile));
-            if (progressWatcher != null) {
-                inputStream = new ProgressMonitoredInputStream(inputStream, progressWatcher);
-            }
-            s3Object.setMd5Hash(ServiceUtils.computeMD5Hash(inputStream));
-            
-            if (!uploadFile.equals(dataFile)) {
-                // Compute the MD5 hash of the *original* file, if upload file has been altered
-                // through encryption or gzipping.
-                inputStream = new BufferedInputStream(new FileInputStream(dataFile));
+            if (!gzipFile && (encryptionUtil == null)) {
+                // No file pre-processing required, compute the file's MD5 hash.
+                InputStream inputStream = new BufferedInputStream(new FileInputStream(dataFile));
                 if (progressWatcher != null) {
                     inputStream = new ProgressMonitoredInputStream(inputStream, progressWatcher);
-                }                
-                
-                s3Object.addMetadata(
-                    S3Object.METADATA_HEADER_ORIGINAL_HASH_MD5,
-                    ServiceUtils.toBase64(ServiceUtils.computeMD5Hash(inputStream)));
-            }            
+                }
+                s3Object.setContentLength(dataFile.length());
+                s3Object.setDataInputFile(dataFile);
+                s3Object.setMd5Hash(ServiceUtils.computeMD5Hash(inputStream));
+            } else if (streamTransformedData) {
+                streamUploadFile(dataFile, s3Object, encryptionUtil, gzipFile, progressWatcher);
+            } else {
+                transformUploadFile(dataFile, s3Object, encryptionUtil, gzipFile, progressWatcher);
+            }
         }
         return s3Object;
     }    
@@ -168,9 +209,42 @@ public class ObjectUtils {
     }
     
     /**
-     * Prepares a file prior to upload by encrypting and/or gzipping it according to the
-     * options specified by the user, and returning the transformed file. If no
-     * transformations are required, the original dataFile will be returned.
+     * Adds the metadata items describing the gzip and encryption transformations that will be 
+     * applied to an object's data. 
+     * 
+     * @return
+     * a description of the transformations, for logging.
+     */
+    private static String addTransformMetadata(S3Object s3Object, EncryptionUtil encryptionUtil, 
+        boolean gzipFile) 
+    {
+        String actionText = "";
+        String contentEncoding = null;        
+        if (gzipFile) {
+            contentEncoding = "gzip";
+            s3Object.addMetadata(Constants.METADATA_JETS3T_COMPRESSED, "gzip"); 
+            actionText += "Compressing";                
+        } 
+        if (encryptionUtil != null) {
+            contentEncoding = null;
+            s3Object.setContentType(Mimetypes.MIMETYPE_OCTET_STREAM);
+            s3Object.addMetadata(Constants.METADATA_JETS3T_CRYPTO_ALGORITHM, 
+                encryptionUtil.getAlgorithm()); 
+            s3Object.addMetadata(Constants.METADATA_JETS3T_CRYPTO_VERSION, 
+                EncryptionUtil.DEFAULT_VERSION); 
+            actionText += (actionText.length() == 0? "Encrypting" : " and encrypting");                
+        }
+        if (contentEncoding != null) {
+            s3Object.addMetadata("Content-Encoding", contentEncoding);
+        }
+        return actionText;
+    }
+    
+    /**
+     * Prepares a file prior to upload by encrypting and/or gzipping it into a temporary file 
+     * according to the options specified by the user, and sets the temporary file as the 
+     * object's data. The original file is read only once: the MD5 hash of the original data 
+     * is computed as it is read, and the hash of the transformed data as it is written. 
      * 
      * @param dataFile  
      * the file to prepare for upload.
@@ -182,68 +256,47 @@ public class ObjectUtils {
      * @param gzipFile
      * if true the file will be Gzipped.
      * @param progressWatcher
-     * watcher to monitor progress of file transformation and hash generation. Note
-     * that if encryption and/or gzipping is enabled, the underlying file will be
-     * read 3 times instead of once.
-     * 
-     * @return  
-     * the original file if no encryption/gzipping options are set, otherwise a 
-     * temporary file with encrypted and/or gzipped data from the original file.
+     * watcher to monitor progress of file transformation and hash generation.
      *  
      * @throws Exception    
      * exceptions could include IO failures, gzipping and encryption failures.
      */
-    private static File transformUploadFile(File dataFile, S3Object s3Object, 
+    private static void transformUploadFile(File dataFile, S3Object s3Object, 
         EncryptionUtil encryptionUtil, boolean gzipFile, BytesProgressWatcher progressWatcher) throws Exception 
     {
-        if (!gzipFile && (encryptionUtil == null)) {
-            // No file pre-processing required.
-            return dataFile;
-        }
-
-        String actionText = "";
-
         // Create a temporary file to hold data transformed from the original file. 
         final File tempUploadFile = File.createTempFile("JetS3t",".tmp");        
         tempUploadFile.deleteOnExit();
 
-        // Transform data from original file, gzipping or encrypting as specified in user's options.
+        String actionText = addTransformMetadata(s3Object, encryptionUtil, gzipFile);
+        if (log.isDebugEnabled()) {
+            log.debug("Transforming upload file '" + dataFile + "' to temporary file '" 
+                + tempUploadFile.getAbsolutePath() + "': " + actionText);
+        }
+
+        // Transform data from original file, gzipping or encrypting as specified in user's options,
+        // and hash the data before and after it is transformed.
+        DigestCalculatingInputStream originalDigestStream = null;
+        DigestCalculatingInputStream transformedDigestStream = null;
         OutputStream outputStream = null;
         InputStream inputStream = null;
         
         try {
-            inputStream = new BufferedInputStream(new FileInputStream(dataFile));       
-            outputStream = new BufferedOutputStream(new FileOutputStream(tempUploadFile));
-            
-            String contentEncoding = null;        
+            inputStream = new BufferedInputStream(new FileInputStream(dataFile));
+            if (progressWatcher != null) {
+                inputStream = new ProgressMonitoredInputStream(inputStream, progressWatcher);
+            }
+            originalDigestStream = new DigestCalculatingInputStream(inputStream);
+            inputStream = originalDigestStream;
             if (gzipFile) {
                 inputStream = new GZipDeflatingInputStream(inputStream);
-                contentEncoding = "gzip";
-                s3Object.addMetadata(Constants.METADATA_JETS3T_COMPRESSED, "gzip"); 
-                actionText += "Compressing";                
             } 
             if (encryptionUtil != null) {
                 inputStream = encryptionUtil.encrypt(inputStream);
-                contentEncoding = null;
-                s3Object.setContentType(Mimetypes.MIMETYPE_OCTET_STREAM);
-                s3Object.addMetadata(Constants.METADATA_JETS3T_CRYPTO_ALGORITHM, 
-                    encryptionUtil.getAlgorithm()); 
-                s3Object.addMetadata(Constants.METADATA_JETS3T_CRYPTO_VERSION, 
-                    EncryptionUtil.DEFAULT_VERSION); 
-                actionText += (actionText.length() == 0? "Encrypting" : " and encrypting");                
-            }
-            if (contentEncoding != null) {
-                s3Object.addMetadata("Content-Encoding", contentEncoding);
-            }
-            
-            if (log.isDebugEnabled()) {
-	            log.debug("Transforming upload file '" + dataFile + "' to temporary file '" 
-	                + tempUploadFile.getAbsolutePath() + "': " + actionText);
-            }
-            
-            if (progressWatcher != null) {
-                inputStream = new ProgressMonitoredInputStream(inputStream, progressWatcher);
             }
+            transformedDigestStream = new DigestCalculatingInputStream(inputStream);
+            inputStream = transformedDigestStream;
+            outputStream = new BufferedOutputStream(new FileOutputStream(tempUploadFile));
     
             // Write transformed data to temporary file.
             byte[] buffer = new byte[8192];
@@ -260,7 +313,78 @@ public class ObjectUtils {
             }            
         }
         
-        return tempUploadFile;
+        s3Object.setContentLength(transformedDigestStream.getBytesRead());
+        s3Object.setDataInputFile(tempUploadFile);
+        s3Object.setMd5Hash(transformedDigestStream.getMD5Digest());
+        s3Object.addMetadata(S3Object.METADATA_HEADER_ORIGINAL_HASH_MD5,
+            ServiceUtils.toBase64(originalDigestStream.getMD5Digest()));
+    }
+    
+    /**
+     * Prepares a file prior to upload by setting a stream that will encrypt and/or gzip the 
+     * file's data as it is uploaded as the object's data. The original file is read once to 
+     * compute its MD5 hash and, if it is gzipped, the length of the transformed data, which 
+     * must be known before the upload starts. 
+     * 
+     * @param dataFile  
+     * the file to prepare for upload.
+     * @param s3Object     
+     * the object that will be created in S3 to store the file.
+     * @param encryptionUtil
+     * if this variable is null no encryption will be applied, otherwise the provided 
+     * encryption utility object will be used to encrypt the file's data. 
+     * @param gzipFile
+     * if true the file will be Gzipped.
+     * @param progressWatcher
+     * watcher to monitor progress of hash generation.
+     *  
+     * @throws Exception    
+     * exceptions could include IO failures, gzipping and encryption failures.
+     */
+    private static void streamUploadFile(File dataFile, S3Object s3Object, 
+        EncryptionUtil encryptionUtil, boolean gzipFile, BytesProgressWatcher progressWatcher) 
+        throws Exception
+    {
+        String actionText = addTransformMetadata(s3Object, encryptionUtil, gzipFile);
+        if (log.isDebugEnabled()) {
+            log.debug("Streaming upload file '" + dataFile + "': " + actionText);
+        }
+
+        DigestCalculatingInputStream originalDigestStream = null;
+        long transformedLength = 0;
+        InputStream inputStream = null;
+        try {
+            inputStream = new BufferedInputStream(new FileInputStream(dataFile));
+            if (progressWatcher != null) {
+                inputStream = new ProgressMonitoredInputStream(inputStream, progressWatcher);
+            }
+            originalDigestStream = new DigestCalculatingInputStream(inputStream);
+            inputStream = originalDigestStream;
+            if (gzipFile) {
+                // Only the gzipped data is measured, as encryption does not need to be 
+                // performed to know its output size.
+                inputStream = new GZipDeflatingInputStream(inputStream);
+            }
+            
+            byte[] buffer = new byte[8192];
+            int c = -1;
+            while ((c = inputStream.read(buffer)) >= 0) {
+                transformedLength += c;
+            }
+        } finally {
+            if (inputStream != null) {
+                inputStream.close();
+            }
+        }
+        if (encryptionUtil != null) {
+            transformedLength = encryptionUtil.getEncryptedOutputSize(transformedLength);
+        }
+        
+        s3Object.setContentLength(transformedLength);
+        s3Object.setDataInputStream(new TransformedFileInputStream(
+            dataFile, gzipFile, encryptionUtil, transformedLength));
+        s3Object.addMetadata(S3Object.METADATA_HEADER_ORIGINAL_HASH_MD5,
+            ServiceUtils.toBase64(originalDigestStream.getMD5Digest()));
     }
         
     /**
@@ -28,6 +28,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.regex.Pattern;
 
 import org.jets3t.service.Constants;
 import org.jets3t.service.S3ServiceException;
@@ -39,6 +40,21 @@ import org.jets3t.service.S3ServiceException;
  */
 public class RestUtils {
 
+    private static final Pattern ACL_PARAMETER_PATTERN = Pattern.compile(".*[&?]acl($|=|&).*");
+    private static final Pattern TORRENT_PARAMETER_PATTERN = Pattern.compile(".*[&?]torrent($|=|&).*");
+    private static final Pattern LOGGING_PARAMETER_PATTERN = Pattern.compile(".*[&?]logging($|=|&).*");
+    private static final Pattern LOCATION_PARAMETER_PATTERN = Pattern.compile(".*[&?]location($|=|&).*");
+    
+    /**
+     * A buffer for each thread in which canonical strings are built, so a new buffer does not 
+     * need to be allocated and grown for every request signed.
+     */
+    private static final ThreadLocal canonicalStringBuffer = new ThreadLocal() {
+        protected Object initialValue() {
+            return new StringBuffer(512);
+        }
+    };
+
     /**
      * A list of HTTP-specific header names, that may be present in S3Objects as metadata but
      * which should be treated as plain HTTP headers during transmission (ie not converted into
@@ -118,30 +134,59 @@ public class RestUtils {
      */
     public static String makeCanonicalString(String method, String resource, Map headersMap, String expires)
     {
-        StringBuffer buf = new StringBuffer();
-        buf.append(method + "\n");
-
-        // Add all interesting headers to a list, then sort them.  "Interesting"
-        // is defined as Content-MD5, Content-Type, Date, and x-amz-
+        // Add all interesting headers to a list, then sort them.
         SortedMap interestingHeaders = new TreeMap();
         if (headersMap != null && headersMap.size() > 0) {
             Iterator headerIter = headersMap.entrySet().iterator();
             while (headerIter.hasNext()) {
                 Map.Entry entry = (Map.Entry) headerIter.next();
-                Object key = entry.getKey();
-                Object value = entry.getValue();
-                
-                if (key == null) continue;                
-                String lk = key.toString().toLowerCase(Locale.getDefault());
-
-                // Ignore any headers that are not particularly interesting.
-                if (lk.equals("content-type") || lk.equals("content-md5") || lk.equals("date") ||
-                    lk.startsWith(Constants.REST_HEADER_PREFIX))
-                {                        
-                    interestingHeaders.put(lk, value);
-                }
+                addInterestingHeader(interestingHeaders, entry.getKey(), entry.getValue());
             }
         }
+        return buildCanonicalString(method, resource, interestingHeaders, expires);
+    }
+    
+    /**
+     * Calculate the canonical string for a REST/HTTP request to S3, from parallel arrays of 
+     * header names and values. This avoids building a map of all the request's headers when
+     * only a few of them are included in the canonical string.
+     * 
+     * When expires is non-null, it will be used instead of the Date header.
+     */
+    public static String makeCanonicalString(String method, String resource, 
+        String[] headerNames, Object[] headerValues, String expires)
+    {
+        SortedMap interestingHeaders = new TreeMap();
+        for (int i = 0; headerNames != null && i < headerNames.length; i++) {
+            addInterestingHeader(interestingHeaders, headerNames[i], headerValues[i]);
+        }
+        return buildCanonicalString(method, resource, interestingHeaders, expires);
+    }
+    
+    /**
+     * Adds a header to the sorted map of headers included in a canonical string, if it is
+     * "interesting". Interesting headers are Content-MD5, Content-Type, Date, and x-amz-*.
+     */
+    private static void addInterestingHeader(SortedMap interestingHeaders, Object key, Object value) {
+        if (key == null) {
+            return;
+        }
+        String lk = key.toString().toLowerCase(Locale.getDefault());
+
+        // Ignore any headers that are not particularly interesting.
+        if (lk.equals("content-type") || lk.equals("content-md5") || lk.equals("date") ||
+            lk.startsWith(Constants.REST_HEADER_PREFIX))
+        {                        
+            interestingHeaders.put(lk, value);
+        }
+    }
+    
+    private static String buildCanonicalString(String method, String resource, 
+        SortedMap interestingHeaders, String expires) 
+    {
+        StringBuffer buf = (StringBuffer) canonicalStringBuffer.get();
+        buf.setLength(0);
+        buf.append(method).append("\n");
 
         // Remove default date timestamp if "x-amz-date" is set. 
         if (interestingHeaders.containsKey(Constants.REST_METADATA_ALTERNATE_DATE)) {
@@ -186,14 +231,16 @@ public class RestUtils {
         }
 
         // ...unless there is an acl, torrent or logging parameter
-        if (resource.matches(".*[&?]acl($|=|&).*")) {
-            buf.append("?acl");
-        } else if (resource.matches(".*[&?]torrent($|=|&).*")) {
-            buf.append("?torrent");
-        } else if (resource.matches(".*[&?]logging($|=|&).*")) {
-            buf.append("?logging");
-        } else if (resource.matches(".*[&?]location($|=|&).*")) {
-            buf.append("?location");
+        if (queryIndex >= 0) {
+            if (ACL_PARAMETER_PATTERN.matcher(resource).matches()) {
+                buf.append("?acl");
+            } else if (TORRENT_PARAMETER_PATTERN.matcher(resource).matches()) {
+                buf.append("?torrent");
+            } else if (LOGGING_PARAMETER_PATTERN.matcher(resource).matches()) {
+                buf.append("?logging");
+            } else if (LOCATION_PARAMETER_PATTERN.matcher(resource).matches()) {
+                buf.append("?location");
+            }
         }
 
         return buf.toString();
@@ -0,0 +1,65 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.utils;
+
+import java.util.Comparator;
+
+/**
+ * Orders object keys the way S3 lists them, by the UTF-8 encoding of the keys. This is the
+ * order of Unicode code points, which differs from the natural order of Strings only for
+ * characters above the surrogate range, such as those in the CJK compatibility and half-width
+ * forms blocks.
+ *
+ * @author James Murty
+ */
+public class S3KeyComparator implements Comparator {
+
+    /**
+     * A shared instance of the comparator, which is stateless.
+     */
+    public static final S3KeyComparator INSTANCE = new S3KeyComparator();
+
+    public int compare(Object o1, Object o2) {
+        String s1 = (String) o1;
+        String s2 = (String) o2;
+        int length = Math.min(s1.length(), s2.length());
+        for (int i = 0; i < length; i++) {
+            char c1 = s1.charAt(i);
+            char c2 = s2.charAt(i);
+            if (c1 != c2) {
+                return toCodePointOrder(c1) - toCodePointOrder(c2);
+            }
+        }
+        return s1.length() - s2.length();
+    }
+
+    /**
+     * Moves surrogates above the other characters of the basic multilingual plane, so that
+     * characters outside that plane sort after all the characters in it.
+     */
+    private int toCodePointOrder(char c) {
+        if (c >= 0xE000) {
+            return c - 0x800;
+        } else if (c >= 0xD800) {
+            return c + 0x2000;
+        }
+        return c;
+    }
+
+}
@@ -0,0 +1,372 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.utils;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.SimpleTimeZone;
+
+/**
+ * Formats and parses the two fixed date formats used by S3: the RFC 822 format of HTTP
+ * headers, such as <code>Tue, 01 Jan 2008 12:00:00 GMT</code>, and the ISO 8601 format of
+ * XML documents, such as <code>2008-01-01T12:00:00.000Z</code>.
+ * <p>
+ * Dates are converted to and from these formats with simple arithmetic on the GMT calendar,
+ * so no locks are held and no {@link java.util.Calendar} objects are created. Any date or
+ * string outside the exact formats S3 uses, such as a date before 1900 or an RFC 822 date in
+ * a time zone other than GMT, is handled instead by a {@link SimpleDateFormat} kept for each
+ * thread, so results are always identical to those of the date formats this class replaces.
+ * <p>
+ * Every request sent in the same second has the same Date header, so the most recently
+ * formatted RFC 822 date is cached and reused until the second changes.
+ *
+ * @author James Murty
+ */
+public class ServiceDateFormatter {
+
+    private static final String ISO8601_PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+    private static final String RFC822_PATTERN = "EEE, dd MMM yyyy HH:mm:ss z";
+
+    private static final String[] DAY_NAMES = new String[] {
+        "Thu", "Fri", "Sat", "Sun", "Mon", "Tue", "Wed"  // 1 Jan 1970 was a Thursday.
+    };
+    private static final String[] MONTH_NAMES = new String[] {
+        "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"
+    };
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    /**
+     * Dates from 1 Jan 1900 until the end of 9999 are converted with arithmetic, other dates
+     * are left to SimpleDateFormat because of the Julian calendar cutover and year padding.
+     */
+    private static final long MIN_FAST_PATH_MILLIS = -2208988800000L;
+    private static final long MAX_FAST_PATH_MILLIS = 253402300800000L;
+
+    private static final ThreadLocal threadIso8601Format = new ThreadLocal() {
+        protected Object initialValue() {
+            SimpleDateFormat format = new SimpleDateFormat(ISO8601_PATTERN);
+            format.setTimeZone(new SimpleTimeZone(0, "GMT"));
+            return format;
+        }
+    };
+
+    private static final ThreadLocal threadRfc822Format = new ThreadLocal() {
+        protected Object initialValue() {
+            SimpleDateFormat format = new SimpleDateFormat(RFC822_PATTERN, Locale.US);
+            format.setTimeZone(new SimpleTimeZone(0, "GMT"));
+            return format;
+        }
+    };
+
+    /**
+     * The most recently formatted RFC 822 date. The holder is immutable and replaced as a
+     * whole, so threads always see a consistent second and string without locking.
+     */
+    private static volatile CachedRfc822Date lastRfc822Date = new CachedRfc822Date(Long.MIN_VALUE, null);
+
+    private static class CachedRfc822Date {
+        private final long second;
+        private final String text;
+
+        private CachedRfc822Date(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+
+    private ServiceDateFormatter() {
+    }
+
+    /**
+     * @param date
+     * the date to format.
+     * @return
+     * the date in the ISO 8601 format, such as <code>2008-01-01T12:00:00.000Z</code>.
+     */
+    public static String formatIso8601Date(Date date) {
+        long millis = date.getTime();
+        if (millis < MIN_FAST_PATH_MILLIS || millis >= MAX_FAST_PATH_MILLIS) {
+            return ((SimpleDateFormat) threadIso8601Format.get()).format(date);
+        }
+        int[] fields = toFields(millis);
+        char[] chars = new char[24];
+        appendDigits(chars, 0, fields[0], 4);
+        chars[4] = '-';
+        appendDigits(chars, 5, fields[1] + 1, 2);
+        chars[7] = '-';
+        appendDigits(chars, 8, fields[2], 2);
+        chars[10] = 'T';
+        appendTime(chars, 11, fields);
+        chars[19] = '.';
+        appendDigits(chars, 20, fields[6], 3);
+        chars[23] = 'Z';
+        return new String(chars);
+    }
+
+    /**
+     * @param date
+     * the date to format.
+     * @return
+     * the date in the RFC 822 format, such as <code>Tue, 01 Jan 2008 12:00:00 GMT</code>.
+     */
+    public static String formatRfc822Date(Date date) {
+        long millis = date.getTime();
+        if (millis < MIN_FAST_PATH_MILLIS || millis >= MAX_FAST_PATH_MILLIS) {
+            return ((SimpleDateFormat) threadRfc822Format.get()).format(date);
+        }
+        long second = floorDiv(millis, 1000);
+        CachedRfc822Date cached = lastRfc822Date;
+        if (cached.second == second) {
+            return cached.text;
+        }
+
+        int[] fields = toFields(millis);
+        char[] chars = new char[29];
+        DAY_NAMES[fields[7]].getChars(0, 3, chars, 0);
+        chars[3] = ',';
+        chars[4] = ' ';
+        appendDigits(chars, 5, fields[2], 2);
+        chars[7] = ' ';
+        MONTH_NAMES[fields[1]].getChars(0, 3, chars, 8);
+        chars[11] = ' ';
+        appendDigits(chars, 12, fields[0], 4);
+        chars[16] = ' ';
+        appendTime(chars, 17, fields);
+        chars[25] = ' ';
+        "GMT".getChars(0, 3, chars, 26);
+        String text = new String(chars);
+
+        lastRfc822Date = new CachedRfc822Date(second, text);
+        return text;
+    }
+
+    /**
+     * @param dateString
+     * a date in the ISO 8601 format, such as <code>2008-01-01T12:00:00.000Z</code>.
+     * @return
+     * the date.
+     * @throws ParseException
+     * if the string is not a valid date.
+     */
+    public static Date parseIso8601Date(String dateString) throws ParseException {
+        long millis = parseIso8601Fields(dateString);
+        if (millis != Long.MIN_VALUE) {
+            return new Date(millis);
+        }
+        return ((SimpleDateFormat) threadIso8601Format.get()).parse(dateString);
+    }
+
+    /**
+     * Parses a date in the ISO 8601 format without creating a {@link Date} object, or any
+     * other object when the text is in the exact format used by S3.
+     *
+     * @param dateText
+     * a date in the ISO 8601 format, such as <code>2008-01-01T12:00:00.000Z</code>.
+     * @return
+     * the date as a number of milliseconds since January 1, 1970, 00:00:00 GMT.
+     * @throws ParseException
+     * if the text is not a valid date.
+     */
+    public static long parseIso8601Time(CharSequence dateText) throws ParseException {
+        long millis = parseIso8601Fields(dateText);
+        if (millis != Long.MIN_VALUE) {
+            return millis;
+        }
+        return ((SimpleDateFormat) threadIso8601Format.get()).parse(dateText.toString()).getTime();
+    }
+
+    /**
+     * @return
+     * the time of a date in the exact ISO 8601 format used by S3, or Long.MIN_VALUE if the
+     * text is in any other form.
+     */
+    private static long parseIso8601Fields(CharSequence dateText) {
+        if (dateText.length() == 24
+            && dateText.charAt(4) == '-' && dateText.charAt(7) == '-'
+            && dateText.charAt(10) == 'T' && dateText.charAt(13) == ':'
+            && dateText.charAt(16) == ':' && dateText.charAt(19) == '.'
+            && dateText.charAt(23) == 'Z')
+        {
+            return toMillis(
+                parseDigits(dateText, 0, 4), parseDigits(dateText, 5, 2) - 1,
+                parseDigits(dateText, 8, 2), parseDigits(dateText, 11, 2),
+                parseDigits(dateText, 14, 2), parseDigits(dateText, 17, 2),
+                parseDigits(dateText, 20, 3));
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * @param dateString
+     * a date in the RFC 822 format, such as <code>Tue, 01 Jan 2008 12:00:00 GMT</code>.
+     * @return
+     * the date.
+     * @throws ParseException
+     * if the string is not a valid date.
+     */
+    public static Date parseRfc822Date(String dateString) throws ParseException {
+        if (dateString.length() == 29
+            && dateString.charAt(3) == ',' && dateString.charAt(4) == ' '
+            && dateString.charAt(7) == ' ' && dateString.charAt(11) == ' '
+            && dateString.charAt(16) == ' ' && dateString.charAt(19) == ':'
+            && dateString.charAt(22) == ':' && dateString.endsWith(" GMT"))
+        {
+            boolean isDayName = false;
+            for (int i = 0; i < DAY_NAMES.length && !isDayName; i++) {
+                isDayName = dateString.startsWith(DAY_NAMES[i]);
+            }
+            int month = -1;
+            for (int i = 0; i < MONTH_NAMES.length; i++) {
+                if (dateString.regionMatches(8, MONTH_NAMES[i], 0, 3)) {
+                    month = i;
+                    break;
+                }
+            }
+            if (isDayName && month >= 0) {
+                long millis = toMillis(
+                    parseDigits(dateString, 12, 4), month, parseDigits(dateString, 5, 2),
+                    parseDigits(dateString, 17, 2), parseDigits(dateString, 20, 2),
+                    parseDigits(dateString, 23, 2), 0);
+                if (millis != Long.MIN_VALUE) {
+                    return new Date(millis);
+                }
+            }
+        }
+        SimpleDateFormat format = (SimpleDateFormat) threadRfc822Format.get();
+        try {
+            return format.parse(dateString);
+        } finally {
+            // Parsing a zone name sets the format's time zone, so restore GMT for formatting.
+            format.setTimeZone(new SimpleTimeZone(0, "GMT"));
+        }
+    }
+
+    /**
+     * @return
+     * the year, month (0-11), day of month, hour, minute, second, millisecond and day of
+     * week (0 for Thursday) of a time in GMT.
+     */
+    private static int[] toFields(long millis) {
+        long days = floorDiv(millis, MILLIS_PER_DAY);
+        int millisOfDay = (int) (millis - days * MILLIS_PER_DAY);
+
+        // Convert days since the epoch to a civil date, using eras of 400 years that
+        // begin on 1 March so the leap day falls at the end of each year.
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long marchMonth = (5 * dayOfYear + 2) / 153;
+        int dayOfMonth = (int) (dayOfYear - (153 * marchMonth + 2) / 5 + 1);
+        int month = (int) (marchMonth < 10 ? marchMonth + 2 : marchMonth - 10);
+        int year = (int) (yearOfEra + era * 400 + (month <= 1 ? 1 : 0));
+
+        return new int[] {
+            year, month, dayOfMonth,
+            millisOfDay / 3600000, (millisOfDay / 60000) % 60, (millisOfDay / 1000) % 60,
+            millisOfDay % 1000, (int) (days - floorDiv(days, 7) * 7)
+        };
+    }
+
+    /**
+     * @return
+     * the time in GMT for the given fields, or Long.MIN_VALUE if any field is out of range
+     * and the date should be parsed by SimpleDateFormat instead.
+     */
+    private static long toMillis(int year, int month, int dayOfMonth, int hour, int minute,
+        int second, int millisecond)
+    {
+        if (year < 1900 || month < 0 || month > 11 || dayOfMonth < 1 || dayOfMonth > 31
+            || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59
+            || millisecond < 0)
+        {
+            return Long.MIN_VALUE;
+        }
+        // Inverse of the conversion in toFields.
+        long y = (month <= 1 ? year - 1 : year);
+        long era = floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long marchMonth = (month > 1 ? month - 2 : month + 10);
+        long dayOfYear = (153 * marchMonth + 2) / 5 + dayOfMonth - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097 + dayOfEra - 719468;
+
+        if (dayOfMonth > daysInMonth(year, month)) {
+            // A day that does not exist in the month, such as 31 April.
+            return Long.MIN_VALUE;
+        }
+        return days * MILLIS_PER_DAY + hour * 3600000L + minute * 60000L + second * 1000L
+            + millisecond;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 1) {
+            boolean isLeapYear = (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+            return (isLeapYear ? 29 : 28);
+        } else if (month == 3 || month == 5 || month == 8 || month == 10) {
+            return 30;
+        } else {
+            return 31;
+        }
+    }
+
+    private static void appendTime(char[] chars, int offset, int[] fields) {
+        appendDigits(chars, offset, fields[3], 2);
+        chars[offset + 2] = ':';
+        appendDigits(chars, offset + 3, fields[4], 2);
+        chars[offset + 5] = ':';
+        appendDigits(chars, offset + 6, fields[5], 2);
+    }
+
+    private static void appendDigits(char[] chars, int offset, int value, int digitCount) {
+        for (int i = offset + digitCount - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * @return
+     * the value of the decimal digits, or -1 if any of the characters is not a digit.
+     */
+    private static int parseDigits(CharSequence text, int offset, int digitCount) {
+        int value = 0;
+        for (int i = offset; i < offset + digitCount; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        if ((dividend % divisor != 0) && ((dividend < 0) != (divisor < 0))) {
+            quotient--;
+        }
+        return quotient;
+    }
+
+}
@@ -27,7 +27,6 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
-import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
@@ -41,9 +40,6 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.SimpleTimeZone;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -51,6 +47,7 @@ import org.jets3t.service.Constants;
 import org.jets3t.service.S3Service;
 import org.jets3t.service.S3ServiceException;
 import org.jets3t.service.model.S3Object;
+import org.jets3t.service.security.RequestSigner;
 
 /**
  * General utility methods used throughout the jets3t project.
@@ -60,9 +57,21 @@ import org.jets3t.service.model.S3Object;
 public class ServiceUtils {
     private static final Log log = LogFactory.getLog(ServiceUtils.class);
 
+    private static final ThreadLocal threadRequestSigner = new ThreadLocal();
+
+    /**
+     * @deprecated as of JetS3t version 0.6.2, dates are converted by 
+     * {@link ServiceDateFormatter}, which does not lock. This parser is no longer used by 
+     * JetS3t, and subclasses that use it must synchronize on it.
+     */
     protected static final SimpleDateFormat iso8601DateParser = new SimpleDateFormat(
         "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
 
+    /**
+     * @deprecated as of JetS3t version 0.6.2, dates are converted by 
+     * {@link ServiceDateFormatter}, which does not lock. This parser is no longer used by 
+     * JetS3t, and subclasses that use it must synchronize on it.
+     */
     protected static final SimpleDateFormat rfc822DateParser = new SimpleDateFormat(
         "EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
 
@@ -71,32 +80,43 @@ public class ServiceUtils {
         rfc822DateParser.setTimeZone(new SimpleTimeZone(0, "GMT"));
     }
 
+    /**
+     * Parses a date in the ISO 8601 format used by S3's XML documents. The conversion does
+     * not lock, see {@link ServiceDateFormatter}.
+     */
     public static Date parseIso8601Date(String dateString) throws ParseException {
-        synchronized (iso8601DateParser) {
-            return iso8601DateParser.parse(dateString);
-        }
+        return ServiceDateFormatter.parseIso8601Date(dateString);
     }
 
+    /**
+     * Formats a date in the ISO 8601 format used by S3's XML documents.
+     */
     public static String formatIso8601Date(Date date) {
-        synchronized (iso8601DateParser) {
-            return iso8601DateParser.format(date);
-        }
+        return ServiceDateFormatter.formatIso8601Date(date);
     }
 
+    /**
+     * Parses a date in the RFC 822 format used by HTTP headers.
+     */
     public static Date parseRfc822Date(String dateString) throws ParseException {
-        synchronized (rfc822DateParser) {
-            return rfc822DateParser.parse(dateString);
-        }
+        return ServiceDateFormatter.parseRfc822Date(dateString);
     }
 
+    /**
+     * Formats a date in the RFC 822 format used by HTTP headers. Dates in the same second
+     * share a cached result, so formatting the Date header of each request is cheap.
+     */
     public static String formatRfc822Date(Date date) {
-        synchronized (rfc822DateParser) {
-            return rfc822DateParser.format(date);
-        }
+        return ServiceDateFormatter.formatRfc822Date(date);
     }
 
     /**
      * Calculate the HMAC/SHA1 on a string.
+     * <p>
+     * Each thread keeps a {@link RequestSigner} for the last secret key it signed with, so 
+     * repeated signatures with the same key do not need to create and initialise a new Mac.
+     * Callers that hold {@link org.jets3t.service.security.AWSCredentials} can use
+     * {@link org.jets3t.service.security.AWSCredentials#getRequestSigner()} directly instead.
      * 
      * @param awsSecretKey
      * AWS secret key.
@@ -115,41 +135,13 @@ public class ServiceUtils {
             return null;
         }
         
-        // The following HMAC/SHA1 code for the signature is taken from the
-        // AWS Platform's implementation of RFC2104 (amazon.webservices.common.Signature)
-        //
-        // Acquire an HMAC/SHA1 from the raw key bytes.
-        SecretKeySpec signingKey = null;
-        try {
-            signingKey = new SecretKeySpec(awsSecretKey.getBytes(Constants.DEFAULT_ENCODING),
-                Constants.HMAC_SHA1_ALGORITHM);
-        } catch (UnsupportedEncodingException e) {
-            throw new S3ServiceException("Unable to get bytes from secret string", e);
-        }
-
-        // Acquire the MAC instance and initialize with the signing key.
-        Mac mac = null;
-        try {
-            mac = Mac.getInstance(Constants.HMAC_SHA1_ALGORITHM);
-        } catch (NoSuchAlgorithmException e) {
-            // should not happen
-            throw new RuntimeException("Could not find sha1 algorithm", e);
-        }
-        try {
-            mac.init(signingKey);
-        } catch (InvalidKeyException e) {
-            // also should not happen
-            throw new RuntimeException("Could not initialize the MAC algorithm", e);
-        }
-
-        // Compute the HMAC on the digest, and set it.
-        try {
-            byte[] b64 = Base64.encodeBase64(mac.doFinal(
-                canonicalString.getBytes(Constants.DEFAULT_ENCODING))); 
-            return new String(b64);
-        } catch (UnsupportedEncodingException e) {
-            throw new S3ServiceException("Unable to get bytes from canonical string", e);
+        // Reuse the signer of the most recent secret key used by this thread, if possible.
+        RequestSigner signer = (RequestSigner) threadRequestSigner.get();
+        if (signer == null || !signer.getAWSSecretKey().equals(awsSecretKey)) {
+            signer = new RequestSigner(awsSecretKey);
+            threadRequestSigner.set(signer);
         }
+        return signer.sign(canonicalString);
     }
 
     /**
@@ -0,0 +1,198 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.service.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import org.jets3t.service.Constants;
+
+/**
+ * Iterates over local files in the order of their path keys according to
+ * {@link S3KeyComparator}, which is the order in which S3 lists objects. Local files can
+ * therefore be compared with a bucket listing as it arrives, by merging the two sequences.
+ * <p>
+ * When iterating over directory trees, each directory is only listed when the iteration
+ * reaches it, so the iterator holds the entries of the directories on the path to the current
+ * file rather than the whole tree. Because the key of a directory's contents always follows
+ * the directory's own key, the entries waiting to be returned are kept in key order and the
+ * first of them is expanded whenever it is a directory that has not been listed.
+ * <p>
+ * Iterators are created by the <tt>iterateFilesInKeyOrder</tt> methods of
+ * {@link FileComparer}, and apply the same <code>.jets3t-ignore</code> rules as its
+ * <tt>buildFileMap</tt> methods.
+ *
+ * @author James Murty
+ */
+public class SortedFileIterator {
+    private final FileComparer fileComparer;
+    private final boolean includeDirectories;
+    private final List defaultIgnorePatternList;
+
+    /**
+     * Maps the keys of files and directories waiting to be returned or listed to
+     * {@link PendingFile} objects.
+     */
+    private final TreeMap pendingFiles = new TreeMap(S3KeyComparator.INSTANCE);
+
+    private String currentKey = null;
+    private File currentFile = null;
+
+    private static class PendingFile {
+        final File file;
+        /**
+         * true if this is a directory whose contents have not yet been listed.
+         */
+        boolean unlisted;
+        /**
+         * true if the file itself is returned by the iterator.
+         */
+        final boolean included;
+
+        PendingFile(File file, boolean unlisted, boolean included) {
+            this.file = file;
+            this.unlisted = unlisted;
+            this.included = included;
+        }
+    }
+
+    /**
+     * @param fileComparer
+     * the comparer whose ignore rules are applied.
+     * @param filesMap
+     * a map of path keys to the files to return, which are returned as they are.
+     * @param directoriesMap
+     * a map of path keys to directories whose contents are returned, with keys prefixed by
+     * the directory's key and a '/' character. The directories themselves are only returned
+     * if directories are included. Keys may be empty for directories whose contents should
+     * have unprefixed keys.
+     * @param includeDirectories
+     * if true, directories found inside the given directories are returned.
+     */
+    SortedFileIterator(FileComparer fileComparer, Map filesMap, Map directoriesMap,
+        boolean includeDirectories)
+    {
+        this.fileComparer = fileComparer;
+        this.includeDirectories = includeDirectories;
+        this.defaultIgnorePatternList = fileComparer.buildDefaultIgnoreRegexpList();
+
+        Iterator fileIter = filesMap.entrySet().iterator();
+        while (fileIter.hasNext()) {
+            Map.Entry entry = (Map.Entry) fileIter.next();
+            pendingFiles.put(entry.getKey(), new PendingFile((File) entry.getValue(), false, true));
+        }
+        Iterator directoryIter = directoriesMap.entrySet().iterator();
+        while (directoryIter.hasNext()) {
+            Map.Entry entry = (Map.Entry) directoryIter.next();
+            String key = (String) entry.getKey();
+            File directory = (File) entry.getValue();
+            if (key.length() == 0) {
+                listDirectory(directory, "");
+            } else {
+                boolean included = pendingFiles.containsKey(key);
+                pendingFiles.put(key, new PendingFile(directory, true, included));
+            }
+        }
+    }
+
+    /**
+     * @return
+     * true if there are more files.
+     */
+    public boolean hasNext() {
+        return peekKey() != null;
+    }
+
+    /**
+     * @return
+     * the key of the next file without moving to it, or null if there are no more files.
+     */
+    public String peekKey() {
+        while (!pendingFiles.isEmpty()) {
+            String key = (String) pendingFiles.firstKey();
+            PendingFile pendingFile = (PendingFile) pendingFiles.get(key);
+            if (pendingFile.unlisted) {
+                // The directory's contents all follow its key, so listing it now cannot
+                // add an entry before it.
+                pendingFile.unlisted = false;
+                listDirectory(pendingFile.file, key + Constants.FILE_PATH_DELIM);
+            }
+            if (pendingFile.included) {
+                return key;
+            }
+            pendingFiles.remove(key);
+        }
+        return null;
+    }
+
+    /**
+     * Moves to the next file.
+     *
+     * @return
+     * the key of the next file, which is available from {@link #getFile()}.
+     * @throws NoSuchElementException
+     * if there are no more files.
+     */
+    public String nextKey() {
+        String key = peekKey();
+        if (key == null) {
+            throw new NoSuchElementException("No more files");
+        }
+        currentKey = key;
+        currentFile = ((PendingFile) pendingFiles.remove(key)).file;
+        return currentKey;
+    }
+
+    /**
+     * @return
+     * the file whose key was last returned by {@link #nextKey()}.
+     */
+    public File getFile() {
+        return currentFile;
+    }
+
+    private void listDirectory(File directory, String fileKeyPrefix) {
+        final List files = new ArrayList();
+        List subdirectories = new ArrayList();
+        List subdirectoryKeyPrefixes = new ArrayList();
+        fileComparer.walkDirectory(directory, fileKeyPrefix, includeDirectories,
+            defaultIgnorePatternList, new FileComparer.FileVisitor() {
+                public void visitFile(String fileKey, File file) {
+                    files.add(fileKey);
+                    files.add(file);
+                }
+            }, subdirectories, subdirectoryKeyPrefixes);
+
+        for (int i = 0; i < files.size(); i += 2) {
+            pendingFiles.put(files.get(i), new PendingFile((File) files.get(i + 1), false, true));
+        }
+        for (int i = 0; i < subdirectories.size(); i++) {
+            String keyPrefix = (String) subdirectoryKeyPrefixes.get(i);
+            String key = keyPrefix.substring(0, keyPrefix.length() - 1);
+            pendingFiles.put(key, new PendingFile((File) subdirectories.get(i), true,
+                includeDirectories));
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.tests;
+
+import junit.framework.TestCase;
+
+import org.jets3t.service.io.BandwidthLimiter;
+import org.jets3t.service.io.BandwidthShaper;
+
+/**
+ * Checks that {@link BandwidthShaper} keeps the per-host limiters of a bounded number of
+ * recently used hosts.
+ *
+ * @author James Murty
+ */
+public class BandwidthShaperTest extends TestCase {
+
+    public void testPerHostLimitersAreBounded() {
+        BandwidthShaper shaper = new BandwidthShaper(null, 0, 0, 1000, 2000);
+        BandwidthLimiter firstUploadLimiter = shaper.getUploadLimiter("host-0");
+        BandwidthLimiter firstDownloadLimiter = shaper.getDownloadLimiter("host-0");
+        BandwidthLimiter usedUploadLimiter = shaper.getUploadLimiter("host-1");
+        BandwidthLimiter usedDownloadLimiter = shaper.getDownloadLimiter("host-1");
+        assertSame(firstUploadLimiter, shaper.getUploadLimiter("host-0"));
+        assertSame(shaper.getUploadLimiter(), firstUploadLimiter.getParent());
+        assertSame(shaper.getDownloadLimiter(), firstDownloadLimiter.getParent());
+
+        for (int i = 2; i <= BandwidthShaper.MAX_PER_HOST_LIMITERS; i++) {
+            // Keep host-1 in use while other hosts are added.
+            assertSame(usedUploadLimiter, shaper.getUploadLimiter("host-1"));
+            assertSame(usedDownloadLimiter, shaper.getDownloadLimiter("host-1"));
+            shaper.getUploadLimiter("host-" + i);
+            shaper.getDownloadLimiter("host-" + i);
+        }
+
+        // The least recently used host is given a new limiter, with the current per-host limit.
+        shaper.setPerHostUploadBytesPerSecond(3000);
+        BandwidthLimiter uploadLimiter = shaper.getUploadLimiter("host-0");
+        assertNotSame(firstUploadLimiter, uploadLimiter);
+        assertEquals(3000, uploadLimiter.getBytesPerSecond());
+        BandwidthLimiter downloadLimiter = shaper.getDownloadLimiter("host-0");
+        assertNotSame(firstDownloadLimiter, downloadLimiter);
+        assertEquals(2000, downloadLimiter.getBytesPerSecond());
+
+        assertSame(usedUploadLimiter, shaper.getUploadLimiter("host-1"));
+        assertSame(usedDownloadLimiter, shaper.getDownloadLimiter("host-1"));
+        assertEquals(3000, usedUploadLimiter.getBytesPerSecond());
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.jets3t.service.io.BufferPool;
+import org.jets3t.service.io.GZipDeflatingInputStream;
+
+/**
+ * Checks that {@link BufferPool} limits the memory it retains, and that a stream whose buffers
+ * have been returned to the pool cannot be read.
+ *
+ * @author James Murty
+ */
+public class BufferPoolTest extends TestCase {
+
+    public void testRetainedBytesAreLimited() {
+        BufferPool bufferPool = BufferPool.getInstance();
+        int maxRetainedCount = (int) (BufferPool.MAX_RETAINED_BYTES / BufferPool.MAX_POOLED_SIZE);
+
+        // Release more of the largest buffers than the pool may retain.
+        Map releasedBuffers = new IdentityHashMap();
+        for (int i = 0; i < maxRetainedCount * 2; i++) {
+            byte[] buffer = new byte[BufferPool.MAX_POOLED_SIZE];
+            releasedBuffers.put(buffer, buffer);
+            bufferPool.releaseBuffer(buffer);
+        }
+
+        int reusedCount = 0;
+        for (int i = 0; i < maxRetainedCount * 2; i++) {
+            if (releasedBuffers.containsKey(bufferPool.takeBuffer(BufferPool.MAX_POOLED_SIZE))) {
+                reusedCount++;
+            }
+        }
+        assertTrue("Reused " + reusedCount + " buffers", reusedCount > 0);
+        assertTrue("Reused " + reusedCount + " buffers", reusedCount <= maxRetainedCount);
+    }
+
+    public void testClosedGZipStreamCannotBeRead() throws Exception {
+        GZipDeflatingInputStream is = new GZipDeflatingInputStream(
+            new ByteArrayInputStream("Some data to deflate".getBytes()));
+        assertTrue(is.read() >= 0);
+        is.close();
+        // Closing again has no effect.
+        is.close();
+
+        try {
+            is.read();
+            fail("A closed stream should not be read");
+        } catch (IOException e) {
+            assertEquals("Stream closed", e.getMessage());
+        }
+        try {
+            is.read(new byte[10], 0, 10);
+            fail("A closed stream should not be read");
+        } catch (IOException e) {
+            assertEquals("Stream closed", e.getMessage());
+        }
+        try {
+            is.available();
+            fail("A closed stream should not be read");
+        } catch (IOException e) {
+            assertEquals("Stream closed", e.getMessage());
+        }
+    }
+
+}
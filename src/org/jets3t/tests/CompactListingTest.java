@@ -0,0 +1,125 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+import org.jets3t.service.S3CompactObjectsChunk;
+import org.jets3t.service.impl.rest.XmlResponsesSaxParser;
+import org.jets3t.service.impl.rest.XmlResponsesSaxParser.CompactListBucketHandler;
+import org.jets3t.service.impl.rest.XmlResponsesSaxParser.ListBucketHandler;
+import org.jets3t.service.model.S3Object;
+
+/**
+ * Checks that compact bucket listings hold the same details as the S3Objects of normal
+ * listings parsed from the same ListBucket document.
+ *
+ * @author James Murty
+ */
+public class CompactListingTest extends TestCase {
+
+    private static final String LISTING_XML =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">"
+        + "<Name>test-bucket</Name><Prefix>photos/</Prefix><Marker></Marker>"
+        + "<MaxKeys>3</MaxKeys><Delimiter>/</Delimiter><IsTruncated>true</IsTruncated>"
+        + object("photos/a.jpg", "2008-01-01T12:00:00.000Z", "1111", 1024, "owner-1", "One")
+        + object("photos/b &amp; c.jpg", "2008-02-29T23:59:59.999Z", "2222", 0, "owner-1", "One")
+        + object("photos/d.jpg", "1999-12-31T00:00:00.001Z", "3333", 12345678901L, "owner-2", "Two")
+        + "<CommonPrefixes><Prefix>photos/2008/</Prefix></CommonPrefixes>"
+        + "</ListBucketResult>";
+
+    private static String object(String key, String lastModified, String etag, long size,
+        String ownerId, String ownerName)
+    {
+        return "<Contents><Key>" + key + "</Key><LastModified>" + lastModified
+            + "</LastModified><ETag>&quot;" + etag + "&quot;</ETag><Size>" + size
+            + "</Size><Owner><ID>" + ownerId + "</ID><DisplayName>" + ownerName
+            + "</DisplayName></Owner><StorageClass>STANDARD</StorageClass></Contents>";
+    }
+
+    private InputStream getListingStream() throws Exception {
+        return new ByteArrayInputStream(LISTING_XML.getBytes("UTF-8"));
+    }
+
+    public void testCompactListingMatchesObjectListing() throws Exception {
+        XmlResponsesSaxParser parser = new XmlResponsesSaxParser();
+        ListBucketHandler handler = parser.parseListBucketObjectsResponse(getListingStream());
+        S3Object[] objects = handler.getObjects();
+
+        S3CompactObjectsChunk chunk = new S3CompactObjectsChunk("test-bucket", "photos/", "/");
+        CompactListBucketHandler compactHandler =
+            parser.parseListBucketObjectsCompactResponse(getListingStream(), chunk);
+
+        assertEquals(3, objects.length);
+        assertEquals(objects.length, chunk.getObjectCount());
+        assertEquals(objects.length, compactHandler.getObjectCount());
+        assertEquals(handler.isListingTruncated(), compactHandler.isListingTruncated());
+        assertEquals(handler.getMarkerForNextListing(), compactHandler.getMarkerForNextListing());
+        assertEquals("photos/d.jpg", compactHandler.getMarkerForNextListing());
+
+        for (int i = 0; i < objects.length; i++) {
+            assertEquals(objects[i].getKey(), chunk.getKey(i));
+            assertEquals(objects[i].getContentLength(), chunk.getContentLength(i));
+            assertEquals(objects[i].getLastModifiedDate(), chunk.getLastModifiedDate(i));
+            assertEquals(objects[i].getLastModifiedDate().getTime(), chunk.getLastModifiedTime(i));
+            assertEquals(objects[i].getETag(), chunk.getETag(i));
+            assertEquals(objects[i].getStorageClass(), chunk.getStorageClass(i));
+            assertEquals(objects[i].getOwner().getId(), chunk.getOwner(i).getId());
+            assertEquals(objects[i].getOwner().getDisplayName(),
+                chunk.getOwner(i).getDisplayName());
+
+            S3Object compactObject = chunk.getObject(i);
+            assertEquals(objects[i].getKey(), compactObject.getKey());
+            assertEquals(objects[i].getETag(), compactObject.getETag());
+            assertEquals(objects[i].getContentLength(), compactObject.getContentLength());
+        }
+        assertEquals("photos/b & c.jpg", chunk.getKey(1));
+        assertEquals("2222", chunk.getETag(1));
+        assertEquals(12345678901L, chunk.getContentLength(2));
+
+        assertEquals(1, chunk.getCommonPrefixes().length);
+        assertEquals(handler.getCommonPrefixes()[0], chunk.getCommonPrefixes()[0]);
+    }
+
+    public void testAppendKeepsOrderAndSharesOwners() {
+        S3CompactObjectsChunk first = new S3CompactObjectsChunk("test-bucket", null, null);
+        S3CompactObjectsChunk second = new S3CompactObjectsChunk("test-bucket", null, null);
+        for (int i = 0; i < 1500; i++) {
+            S3CompactObjectsChunk chunk = (i < 1000 ? first : second);
+            chunk.addObject("key-" + i, i, 1000L * i, "\"etag-" + i + "\"", "STANDARD",
+                "owner", "Owner");
+        }
+        second.setPriorLastKey("key-1499");
+        first.append(second);
+
+        assertEquals(1500, first.getObjectCount());
+        assertEquals("key-1499", first.getPriorLastKey());
+        for (int i = 0; i < 1500; i++) {
+            assertEquals("key-" + i, first.getKey(i));
+            assertEquals(i, first.getContentLength(i));
+            assertEquals("etag-" + i, first.getETag(i));
+        }
+        assertSame(first.getStorageClass(0), first.getStorageClass(1499));
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.jets3t.service.io.DigestCalculatingInputStream;
+import org.jets3t.service.io.GZipDeflatingInputStream;
+import org.jets3t.service.model.S3Object;
+import org.jets3t.service.security.EncryptionUtil;
+import org.jets3t.service.utils.ObjectUtils;
+import org.jets3t.service.utils.ServiceUtils;
+
+/**
+ * Checks that {@link DigestCalculatingInputStream} computes the same digests as hashing the
+ * data separately, and that ObjectUtils uses it to give prepared uploads the hash of their
+ * original data, and of their transformed data when it is written to a temporary file.
+ *
+ * @author James Murty
+ */
+public class DigestCalculatingInputStreamTest extends TestCase {
+    private byte[] data = null;
+
+    protected void setUp() {
+        Random random = new Random(2008);
+        data = new byte[250000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+    }
+
+    private byte[] digest(String algorithm, byte[] bytes) throws Exception {
+        return MessageDigest.getInstance(algorithm).digest(bytes);
+    }
+
+    /**
+     * Reads all the data from a stream, mixing single-byte and buffered reads.
+     */
+    private byte[] readAll(InputStream is) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[10000];
+        int readCount = 0;
+        while (true) {
+            if (readCount++ % 2 == 0) {
+                int b = is.read();
+                if (b < 0) {
+                    break;
+                }
+                baos.write(b);
+            } else {
+                // Read into the middle of the buffer, to check the offset is respected.
+                int count = is.read(buffer, 7, 1 + readCount % (buffer.length - 7));
+                if (count < 0) {
+                    break;
+                }
+                baos.write(buffer, 7, count);
+            }
+        }
+        is.close();
+        return baos.toByteArray();
+    }
+
+    public void testDigestsMatchMessageDigest() throws Exception {
+        DigestCalculatingInputStream dcis = new DigestCalculatingInputStream(
+            new ByteArrayInputStream(data), new String[] {"MD5", "SHA-1"});
+        assertTrue(Arrays.equals(data, readAll(dcis)));
+
+        assertEquals(data.length, dcis.getBytesRead());
+        assertTrue(Arrays.equals(digest("MD5", data), dcis.getMD5Digest()));
+        assertTrue(Arrays.equals(digest("SHA-1", data), dcis.getDigest("SHA-1")));
+        assertTrue(Arrays.equals(digest("SHA-1", data), dcis.getDigest("sha-1")));
+        // The digest is kept once completed.
+        assertTrue(Arrays.equals(digest("MD5", data), dcis.getDigest("MD5")));
+        assertFalse(dcis.markSupported());
+
+        try {
+            dcis.getDigest("SHA-256");
+            fail("A digest that is not computed should not be returned");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testEmptyData() throws Exception {
+        DigestCalculatingInputStream dcis = new DigestCalculatingInputStream(
+            new ByteArrayInputStream(new byte[0]));
+        assertEquals(-1, dcis.read());
+        assertEquals(0, dcis.getBytesRead());
+        assertTrue(Arrays.equals(digest("MD5", new byte[0]), dcis.getMD5Digest()));
+    }
+
+    public void testDigestsBeforeAndAfterTransformation() throws Exception {
+        DigestCalculatingInputStream originalStream = new DigestCalculatingInputStream(
+            new ByteArrayInputStream(data));
+        DigestCalculatingInputStream transformedStream = new DigestCalculatingInputStream(
+            new GZipDeflatingInputStream(originalStream));
+        byte[] transformed = readAll(transformedStream);
+
+        assertEquals(data.length, originalStream.getBytesRead());
+        assertEquals(transformed.length, transformedStream.getBytesRead());
+        assertTrue(Arrays.equals(digest("MD5", data), originalStream.getMD5Digest()));
+        assertTrue(Arrays.equals(digest("MD5", transformed), transformedStream.getMD5Digest()));
+    }
+
+    public void testPreparedUploadHashes() throws Exception {
+        File file = File.createTempFile("DigestCalculatingInputStreamTest", ".dat");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(data);
+            out.close();
+
+            EncryptionUtil encryptionUtil = new EncryptionUtil("digest-stream-test-password");
+            boolean[] streamOptions = new boolean[] {false, true};
+            for (int i = 0; i < streamOptions.length; i++) {
+                S3Object object = ObjectUtils.createObjectForUpload("key", file,
+                    encryptionUtil, true, streamOptions[i], null);
+                byte[] uploadData = readAll(object.getDataInputStream());
+
+                String description = "Upload with streamTransformedData=" + streamOptions[i];
+                assertEquals(description, uploadData.length, object.getContentLength());
+                if (streamOptions[i]) {
+                    // Streamed data is not hashed until it is uploaded.
+                    assertNull(description, object.getMd5HashAsBase64());
+                } else {
+                    assertEquals(description, ServiceUtils.toBase64(digest("MD5", uploadData)),
+                        object.getMd5HashAsBase64());
+                }
+                assertEquals(description, ServiceUtils.toBase64(digest("MD5", data)),
+                    object.getMetadata(S3Object.METADATA_HEADER_ORIGINAL_HASH_MD5));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+}
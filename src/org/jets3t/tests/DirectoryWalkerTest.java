@@ -0,0 +1,189 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.jets3t.service.Constants;
+import org.jets3t.service.Jets3tProperties;
+import org.jets3t.service.utils.FileComparer;
+
+/**
+ * Checks that FileComparer's multi-threaded directory walker finds the same files as a
+ * single-threaded walk, honouring <code>.jets3t-ignore</code> files at every level.
+ *
+ * @author James Murty
+ */
+public class DirectoryWalkerTest extends TestCase {
+    private File directory = null;
+
+    /**
+     * Records the directories passed to {@link FileComparer#buildFileMapImpl}.
+     */
+    private static class RecordingFileComparer extends FileComparer {
+        private final List directories = new ArrayList();
+
+        public RecordingFileComparer(Jets3tProperties properties) {
+            super(properties);
+        }
+
+        protected void buildFileMapImpl(File directory, String fileKeyPrefix, Map fileMap,
+            boolean includeDirectories)
+        {
+            directories.add(fileKeyPrefix);
+            super.buildFileMapImpl(directory, fileKeyPrefix, fileMap, includeDirectories);
+        }
+    }
+
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("DirectoryWalkerTest", "");
+        directory.delete();
+        directory.mkdir();
+        createTree(directory, 3);
+        writeFile(new File(directory, Constants.JETS3T_IGNORE_FILENAME), "*.tmp\nskipped\n");
+        writeFile(new File(directory, "dir-1/" + Constants.JETS3T_IGNORE_FILENAME), "secret*\n");
+        writeFile(new File(directory, "dir-2/dir-0/" + Constants.JETS3T_IGNORE_FILENAME),
+            "dir-1\n");
+    }
+
+    protected void tearDown() {
+        delete(directory);
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        for (int i = 0; children != null && i < children.length; i++) {
+            delete(children[i]);
+        }
+        file.delete();
+    }
+
+    private void writeFile(File file, String data) throws Exception {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data.getBytes());
+        out.close();
+    }
+
+    /**
+     * Creates a tree of directories, each holding plain, temporary, secret and skipped files,
+     * and an empty directory.
+     */
+    private void createTree(File parent, int depth) throws Exception {
+        for (int i = 0; i < 3; i++) {
+            writeFile(new File(parent, "file-" + i), parent.getPath() + i);
+        }
+        writeFile(new File(parent, "file.tmp"), "temporary");
+        writeFile(new File(parent, "secret-file"), "secret");
+        new File(parent, "skipped").mkdir();
+        writeFile(new File(parent, "skipped/file"), "skipped");
+        new File(parent, "empty").mkdir();
+        if (depth > 0) {
+            for (int i = 0; i < 3; i++) {
+                File subdirectory = new File(parent, "dir-" + i);
+                subdirectory.mkdir();
+                createTree(subdirectory, depth - 1);
+            }
+        }
+    }
+
+    private FileComparer createFileComparer(int threadCount) throws Exception {
+        Jets3tProperties properties = Jets3tProperties.getInstance(
+            new ByteArrayInputStream(new byte[0]), "DirectoryWalkerTest");
+        properties.setProperty("filecomparer.directory-walker-thread-count",
+            String.valueOf(threadCount));
+        return new RecordingFileComparer(properties);
+    }
+
+    public void testMultiThreadedWalkMatchesSingleThreadedWalk() throws Exception {
+        FileComparer singleThreaded = createFileComparer(1);
+        FileComparer multiThreaded = createFileComparer(8);
+        for (int i = 0; i < 2; i++) {
+            boolean includeDirectories = (i == 0);
+            Map expected = singleThreaded.buildFileMap(directory, "root", includeDirectories);
+            for (int j = 0; j < 5; j++) {
+                assertEquals(expected,
+                    multiThreaded.buildFileMap(directory, "root", includeDirectories));
+            }
+
+            File[] files = directory.listFiles();
+            expected = singleThreaded.buildFileMap(files, includeDirectories);
+            for (int j = 0; j < 5; j++) {
+                assertEquals(expected, multiThreaded.buildFileMap(files, includeDirectories));
+            }
+        }
+    }
+
+    public void testIgnoreFilesApplyAtEveryLevel() throws Exception {
+        Map fileMap = createFileComparer(8).buildFileMap(directory, null, true);
+
+        assertTrue(fileMap.containsKey("file-0"));
+        assertTrue(fileMap.containsKey("empty"));
+        assertTrue(fileMap.containsKey("dir-0/dir-1/dir-2/file-2"));
+        assertTrue(fileMap.containsKey("dir-0/secret-file"));
+        assertTrue(fileMap.containsKey("dir-0/skipped/file"));
+        assertTrue(fileMap.containsKey("dir-1/file.tmp"));
+        assertTrue(fileMap.containsKey("dir-2/dir-1/file-0"));
+
+        // Ignore files apply to their own directory only.
+        assertFalse(fileMap.containsKey("file.tmp"));
+        assertFalse(fileMap.containsKey("skipped"));
+        assertFalse(fileMap.containsKey("skipped/file"));
+        assertFalse(fileMap.containsKey("dir-1/secret-file"));
+        assertFalse(fileMap.containsKey("dir-2/dir-0/dir-1"));
+        assertFalse(fileMap.containsKey("dir-2/dir-0/dir-1/file-0"));
+        assertTrue(fileMap.containsKey("dir-2/dir-0/dir-2/file-0"));
+    }
+
+    public void testFileArrayIsWalkedThroughBuildFileMapImpl() throws Exception {
+        RecordingFileComparer fileComparer = (RecordingFileComparer) createFileComparer(4);
+        File[] files = new File[] {
+            new File(directory, "dir-0"), new File(directory, "dir-1"),
+            new File(directory, "file-0")};
+        Map fileMap = fileComparer.buildFileMap(files, false);
+
+        assertEquals(2, fileComparer.directories.size());
+        assertTrue(fileComparer.directories.contains("dir-0/"));
+        assertTrue(fileComparer.directories.contains("dir-1/"));
+        assertTrue(fileMap.containsKey("file-0"));
+        assertTrue(fileMap.containsKey("dir-1/dir-0/file-0"));
+    }
+
+    public void testInterruptedWalkKeepsInterruptFlag() throws Exception {
+        FileComparer fileComparer = createFileComparer(4);
+        Thread.currentThread().interrupt();
+        try {
+            fileComparer.buildFileMap(directory, null, false);
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+
+        // An interrupt does not stop later walks.
+        assertEquals(createFileComparer(1).buildFileMap(directory, null, false),
+            fileComparer.buildFileMap(directory, null, false));
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.jets3t.service.Jets3tProperties;
+import org.jets3t.service.utils.FileComparer;
+import org.jets3t.service.utils.ServiceUtils;
+
+/**
+ * Checks that FileComparer hashes local files correctly with its pool of hashing threads, and
+ * that the MD5 hash cache is only written when it is saved.
+ *
+ * @author James Murty
+ */
+public class FileComparerHashingTest extends TestCase {
+    private File directory = null;
+    private File cacheFile = null;
+    private Jets3tProperties properties = null;
+
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("FileComparerHashingTest", "");
+        directory.delete();
+        directory.mkdir();
+        cacheFile = new File(directory, "md5-cache");
+
+        properties = Jets3tProperties.getInstance(
+            new ByteArrayInputStream(new byte[0]), "FileComparerHashingTest");
+        properties.setProperty("filecomparer.md5-hashing-thread-count", "4");
+        properties.setProperty("filecomparer.md5-cache-file", cacheFile.getPath());
+    }
+
+    protected void tearDown() {
+        File[] files = directory.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        directory.delete();
+    }
+
+    private List createFiles(int count) throws Exception {
+        Random random = new Random(count);
+        List files = new ArrayList();
+        for (int i = 0; i < count; i++) {
+            File file = new File(directory, "file-" + i);
+            byte[] data = new byte[random.nextInt(100000)];
+            random.nextBytes(data);
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(data);
+            out.close();
+            files.add(file);
+        }
+        return files;
+    }
+
+    private int countHasherThreads() {
+        Thread[] threads = new Thread[Thread.activeCount() * 2 + 10];
+        int threadCount = Thread.enumerate(threads);
+        int hasherCount = 0;
+        for (int i = 0; i < threadCount; i++) {
+            if (threads[i].getName().startsWith("jets3t-md5-hasher-")) {
+                hasherCount++;
+            }
+        }
+        return hasherCount;
+    }
+
+    public void testHashesInGroupsWithPooledThreads() throws Exception {
+        List files = createFiles(200);
+        FileComparer fileComparer = FileComparer.getInstance(properties);
+        int initialHasherCount = countHasherThreads();
+
+        for (int group = 0; group < files.size(); group += 10) {
+            List groupFiles = files.subList(group, group + 10);
+            Map fileHashes = fileComparer.computeMD5Hashes(groupFiles, null);
+            assertEquals(groupFiles.size(), fileHashes.size());
+            for (int i = 0; i < groupFiles.size(); i++) {
+                File file = (File) groupFiles.get(i);
+                byte[] expectedHash = ServiceUtils.computeMD5Hash(new FileInputStream(file));
+                assertEquals("MD5 hash of " + file.getName(), ServiceUtils.toHex(expectedHash),
+                    ServiceUtils.toHex((byte[]) fileHashes.get(file)));
+            }
+            // The threads of earlier groups are reused rather than replaced.
+            assertTrue("Hashing threads should be reused",
+                countHasherThreads() - initialHasherCount <= 3);
+        }
+        assertFalse("Cache should not be written before it is saved", cacheFile.exists());
+
+        fileComparer.saveMD5HashCache();
+        assertTrue(cacheFile.exists());
+    }
+
+}
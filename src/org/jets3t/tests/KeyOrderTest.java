@@ -0,0 +1,191 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.tests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.jets3t.service.utils.FileComparer;
+import org.jets3t.service.utils.S3KeyComparator;
+import org.jets3t.service.utils.SortedFileIterator;
+
+/**
+ * Checks that {@link S3KeyComparator} and {@link SortedFileIterator} put keys in the order S3
+ * lists them, which is the order of the keys' UTF-8 bytes.
+ *
+ * @author James Murty
+ */
+public class KeyOrderTest extends TestCase {
+
+    /**
+     * Orders keys by their UTF-8 bytes, as S3 does.
+     */
+    private static final Comparator UTF8_ORDER = new Comparator() {
+        public int compare(Object o1, Object o2) {
+            byte[] bytes1 = toUtf8((String) o1);
+            byte[] bytes2 = toUtf8((String) o2);
+            int length = Math.min(bytes1.length, bytes2.length);
+            for (int i = 0; i < length; i++) {
+                int b1 = bytes1[i] & 0xFF;
+                int b2 = bytes2[i] & 0xFF;
+                if (b1 != b2) {
+                    return b1 - b2;
+                }
+            }
+            return bytes1.length - bytes2.length;
+        }
+    };
+
+    private File directory = null;
+
+    private static byte[] toUtf8(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported");
+        }
+    }
+
+    private static int sign(int value) {
+        return (value < 0 ? -1 : (value > 0 ? 1 : 0));
+    }
+
+    protected void tearDown() {
+        if (directory != null) {
+            delete(directory);
+        }
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        for (int i = 0; children != null && i < children.length; i++) {
+            delete(children[i]);
+        }
+        file.delete();
+    }
+
+    public void testComparatorMatchesUtf8Order() {
+        // Characters from each region where UTF-16 and UTF-8 orders could differ.
+        char[] characters = new char[] {
+            'a', 'b', '/', '-', ' ', '~', '\u007F', '\u0080', '\u00E9', '\u07FF', '\u0800',
+            '\u4E2D', '\uD7FF', '\uE000', '\uFF21', '\uFFFD', '\uFFFF'
+        };
+        String[] supplementary = new String[] {"\uD800\uDC00", "\uD840\uDC00", "\uDBFF\uDFFF"};
+
+        Random random = new Random(2008);
+        List keys = new ArrayList();
+        for (int i = 0; i < 2000; i++) {
+            StringBuffer key = new StringBuffer();
+            int length = random.nextInt(5);
+            for (int j = 0; j < length; j++) {
+                if (random.nextInt(4) == 0) {
+                    key.append(supplementary[random.nextInt(supplementary.length)]);
+                } else {
+                    key.append(characters[random.nextInt(characters.length)]);
+                }
+            }
+            keys.add(key.toString());
+        }
+
+        for (int i = 1; i < keys.size(); i++) {
+            String key1 = (String) keys.get(i - 1);
+            String key2 = (String) keys.get(i);
+            assertEquals("Order of '" + key1 + "' and '" + key2 + "'",
+                sign(UTF8_ORDER.compare(key1, key2)),
+                sign(S3KeyComparator.INSTANCE.compare(key1, key2)));
+        }
+
+        List sortedKeys = new ArrayList(keys);
+        Collections.sort(sortedKeys, S3KeyComparator.INSTANCE);
+        Collections.sort(keys, UTF8_ORDER);
+        assertEquals(keys, sortedKeys);
+    }
+
+    private void createFile(String path) throws Exception {
+        File file = new File(directory, path.replace('/', File.separatorChar));
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(path.getBytes("UTF-8"));
+        out.close();
+    }
+
+    /**
+     * Creates files whose names put the characters either side of the '/' delimiter next to
+     * directory names, so that directory contents sort between other files.
+     */
+    private void createFileTree() throws Exception {
+        directory = File.createTempFile("KeyOrderTest", "");
+        directory.delete();
+        directory.mkdir();
+        String[] paths = new String[] {
+            "a b", "a!", "a-1", "a.txt", "a0", "a_", "a~",
+            "a-dir/x", "a-dir/y/z", "a.dir/x", "adir/x", "a/b/c", "a/b!", "a/b.txt",
+            "a/b-c/d/e", "a/b0", "b/a", "B/a", "0", " leading space"
+        };
+        for (int i = 0; i < paths.length; i++) {
+            createFile(paths[i]);
+        }
+        new File(directory, "empty").mkdir();
+        new File(directory, "empty.dir").mkdir();
+    }
+
+    private List getKeys(SortedFileIterator iterator) {
+        List keys = new ArrayList();
+        while (iterator.hasNext()) {
+            String peekedKey = iterator.peekKey();
+            String key = iterator.nextKey();
+            assertEquals(peekedKey, key);
+            assertNotNull(iterator.getFile());
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    public void testSortedFileIteratorMatchesUtf8Order() throws Exception {
+        createFileTree();
+        FileComparer fileComparer = FileComparer.getInstance();
+        File[] files = directory.listFiles();
+        boolean[] includeDirectoriesOptions = new boolean[] {false, true};
+
+        for (int i = 0; i < includeDirectoriesOptions.length; i++) {
+            boolean includeDirectories = includeDirectoriesOptions[i];
+            Map filesMap = fileComparer.buildFileMap(files, includeDirectories);
+            List expectedKeys = new ArrayList(filesMap.keySet());
+            Collections.sort(expectedKeys, UTF8_ORDER);
+
+            List keys = getKeys(fileComparer.iterateFilesInKeyOrder(files, includeDirectories));
+            assertEquals("Keys with includeDirectories=" + includeDirectories,
+                expectedKeys, keys);
+
+            keys = getKeys(fileComparer.iterateFilesInKeyOrder(filesMap));
+            assertEquals("Keys of file map with includeDirectories=" + includeDirectories,
+                expectedKeys, keys);
+        }
+    }
+
+}
@@ -0,0 +1,487 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.jets3t.service.Jets3tProperties;
+import org.jets3t.service.S3ObjectsChunk;
+import org.jets3t.service.S3Service;
+import org.jets3t.service.S3ServiceException;
+import org.jets3t.service.acl.AccessControlList;
+import org.jets3t.service.model.S3Bucket;
+import org.jets3t.service.model.S3BucketLoggingStatus;
+import org.jets3t.service.model.S3Object;
+import org.jets3t.service.security.AWSCredentials;
+import org.jets3t.service.utils.S3KeyComparator;
+import org.jets3t.service.utils.ServiceUtils;
+
+/**
+ * An S3Service that keeps buckets and objects in memory, so code built on S3Service can be
+ * tested without a connection to S3. Objects are listed in the same order as S3 lists them,
+ * listings honour prefixes, delimiters, markers and maximum lengths, GET requests honour
+ * byte ranges and If-Match preconditions, and uploads are given an MD5 ETag and checked
+ * against any Content-MD5 value.
+ * <p>
+ * Tests can make requests fail by overriding {@link #beforeRequest(String, String, String)},
+ * and can count the requests made with {@link #getRequestCount(String)}. Access control
+ * lists and logging status are accepted but not stored.
+ *
+ * @author James Murty
+ */
+public class MemoryS3Service extends S3Service {
+    private static final long serialVersionUID = 4101390465138453613L;
+
+    public static final String REQUEST_LIST = "LIST";
+    public static final String REQUEST_HEAD = "HEAD";
+    public static final String REQUEST_GET = "GET";
+    public static final String REQUEST_PUT = "PUT";
+    public static final String REQUEST_COPY = "COPY";
+    public static final String REQUEST_DELETE = "DELETE";
+
+    private final Map buckets = new HashMap();
+    private final Map requestCounts = new HashMap();
+
+    /**
+     * A stored object's data and the details returned by HEAD requests.
+     */
+    private static class StoredObject {
+        private final byte[] data;
+        private final Map metadata;
+        private final String etag;
+        private final Date lastModifiedDate;
+
+        private StoredObject(byte[] data, Map metadata) throws S3ServiceException {
+            this.data = data;
+            this.metadata = metadata;
+            try {
+                this.etag = ServiceUtils.toHex(ServiceUtils.computeMD5Hash(data));
+            } catch (Exception e) {
+                throw new S3ServiceException("Unable to compute MD5 hash of object data", e);
+            }
+            this.lastModifiedDate = new Date();
+        }
+
+        private S3Object toObject(String bucketName, String key) {
+            S3Object object = new S3Object(key);
+            object.setBucketName(bucketName);
+            object.addAllMetadata(metadata);
+            object.setContentLength(data.length);
+            object.setETag("\"" + etag + "\"");
+            object.setLastModifiedDate(lastModifiedDate);
+            return object;
+        }
+    }
+
+    public MemoryS3Service(Jets3tProperties jets3tProperties) throws S3ServiceException {
+        super(new AWSCredentials("memory-access-key", "memory-secret-key"),
+            "MemoryS3Service", jets3tProperties);
+    }
+
+    /**
+     * Called at the start of every request. This implementation only counts the request,
+     * tests can override it to make requests fail or run slowly.
+     *
+     * @param requestType
+     * one of the REQUEST_ constants of this class.
+     * @param bucketName
+     * @param key
+     * the key of the object, or the prefix of a listing.
+     * @throws S3ServiceException
+     * to make the request fail.
+     */
+    protected void beforeRequest(String requestType, String bucketName, String key)
+        throws S3ServiceException
+    {
+    }
+
+    /**
+     * @param requestType
+     * one of the REQUEST_ constants of this class.
+     * @return
+     * the number of requests of the given type that have been made, including those that
+     * failed.
+     */
+    public synchronized int getRequestCount(String requestType) {
+        Integer count = (Integer) requestCounts.get(requestType);
+        return (count == null ? 0 : count.intValue());
+    }
+
+    private void startRequest(String requestType, String bucketName, String key)
+        throws S3ServiceException
+    {
+        synchronized (this) {
+            requestCounts.put(requestType, new Integer(getRequestCount(requestType) + 1));
+        }
+        beforeRequest(requestType, bucketName, key);
+    }
+
+    /**
+     * @return
+     * the stored data of an object, or null if there is no such object.
+     */
+    public byte[] getObjectData(String bucketName, String key) {
+        StoredObject storedObject = getStoredObject(bucketName, key);
+        return (storedObject == null ? null : storedObject.data);
+    }
+
+    /**
+     * @return
+     * the keys of the objects in a bucket, in the order S3 lists them.
+     */
+    public String[] getKeys(String bucketName) {
+        SortedMap objects = getBucketObjects(bucketName);
+        synchronized (objects) {
+            return (String[]) objects.keySet().toArray(new String[objects.size()]);
+        }
+    }
+
+    private synchronized SortedMap getBucketObjects(String bucketName) {
+        SortedMap objects = (SortedMap) buckets.get(bucketName);
+        if (objects == null) {
+            objects = new TreeMap(new S3KeyComparator());
+            buckets.put(bucketName, objects);
+        }
+        return objects;
+    }
+
+    private StoredObject getStoredObject(String bucketName, String key) {
+        SortedMap objects = getBucketObjects(bucketName);
+        synchronized (objects) {
+            return (StoredObject) objects.get(key);
+        }
+    }
+
+    private StoredObject getExistingObject(String bucketName, String key)
+        throws S3ServiceException
+    {
+        StoredObject storedObject = getStoredObject(bucketName, key);
+        if (storedObject == null) {
+            throw newServiceException(404, "NoSuchKey", "No object '" + key + "' in bucket "
+                + bucketName);
+        }
+        return storedObject;
+    }
+
+    private S3ServiceException newServiceException(int responseCode, String errorCode,
+        String message)
+    {
+        S3ServiceException e = new S3ServiceException(message,
+            "<Error><Code>" + errorCode + "</Code><Message>" + message + "</Message></Error>");
+        e.setResponseCode(responseCode);
+        return e;
+    }
+
+    private void checkPreconditions(StoredObject storedObject, String key,
+        String[] ifMatchTags, String[] ifNoneMatchTags) throws S3ServiceException
+    {
+        if (ifMatchTags != null) {
+            boolean matched = false;
+            for (int i = 0; i < ifMatchTags.length && !matched; i++) {
+                matched = storedObject.etag.equals(ifMatchTags[i]);
+            }
+            if (!matched) {
+                throw newServiceException(412, "PreconditionFailed",
+                    "ETag of '" + key + "' does not match");
+            }
+        }
+        if (ifNoneMatchTags != null) {
+            for (int i = 0; i < ifNoneMatchTags.length; i++) {
+                if (storedObject.etag.equals(ifNoneMatchTags[i])) {
+                    throw newServiceException(304, "NotModified", "'" + key + "' not modified");
+                }
+            }
+        }
+    }
+
+    public boolean isBucketAccessible(String bucketName) throws S3ServiceException {
+        return true;
+    }
+
+    public int checkBucketStatus(String bucketName) throws S3ServiceException {
+        synchronized (this) {
+            return (buckets.containsKey(bucketName)
+                ? BUCKET_STATUS__MY_BUCKET : BUCKET_STATUS__DOES_NOT_EXIST);
+        }
+    }
+
+    protected String getBucketLocationImpl(String bucketName) throws S3ServiceException {
+        return null;
+    }
+
+    protected S3BucketLoggingStatus getBucketLoggingStatusImpl(String bucketName)
+        throws S3ServiceException
+    {
+        return new S3BucketLoggingStatus();
+    }
+
+    protected void setBucketLoggingStatusImpl(String bucketName, S3BucketLoggingStatus status)
+        throws S3ServiceException
+    {
+    }
+
+    protected synchronized S3Bucket[] listAllBucketsImpl() throws S3ServiceException {
+        List bucketList = new ArrayList();
+        Iterator iter = buckets.keySet().iterator();
+        while (iter.hasNext()) {
+            bucketList.add(new S3Bucket((String) iter.next()));
+        }
+        return (S3Bucket[]) bucketList.toArray(new S3Bucket[bucketList.size()]);
+    }
+
+    protected S3Object[] listObjectsImpl(String bucketName, String prefix, String delimiter,
+        long maxListingLength) throws S3ServiceException
+    {
+        return listObjectsChunkedImpl(bucketName, prefix, delimiter, maxListingLength, null,
+            true).getObjects();
+    }
+
+    protected S3ObjectsChunk listObjectsChunkedImpl(String bucketName, String prefix,
+        String delimiter, long maxListingLength, String priorLastKey, boolean completeListing)
+        throws S3ServiceException
+    {
+        startRequest(REQUEST_LIST, bucketName, prefix);
+
+        List objects = new ArrayList();
+        List commonPrefixes = new ArrayList();
+        String lastListedKey = null;
+        boolean truncated = false;
+
+        SortedMap bucketObjects = getBucketObjects(bucketName);
+        synchronized (bucketObjects) {
+            SortedMap remainingObjects = bucketObjects;
+            if (priorLastKey != null) {
+                remainingObjects = bucketObjects.tailMap(priorLastKey + "\0");
+            } else if (prefix != null) {
+                remainingObjects = bucketObjects.tailMap(prefix);
+            }
+
+            Iterator iter = remainingObjects.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry entry = (Map.Entry) iter.next();
+                String key = (String) entry.getKey();
+                if (prefix != null && !key.startsWith(prefix)) {
+                    if (new S3KeyComparator().compare(key, prefix) > 0) {
+                        break;
+                    }
+                    continue;
+                }
+
+                String commonPrefix = null;
+                if (delimiter != null) {
+                    int delimiterIndex = key.indexOf(delimiter,
+                        (prefix == null ? 0 : prefix.length()));
+                    if (delimiterIndex >= 0) {
+                        commonPrefix = key.substring(0, delimiterIndex + delimiter.length());
+                    }
+                }
+                if (commonPrefix != null && commonPrefix.equals(lastListedKey)) {
+                    continue;
+                }
+
+                if (!completeListing && maxListingLength > 0
+                    && objects.size() + commonPrefixes.size() >= maxListingLength)
+                {
+                    truncated = true;
+                    break;
+                }
+                if (commonPrefix != null) {
+                    commonPrefixes.add(commonPrefix);
+                    lastListedKey = commonPrefix;
+                } else {
+                    objects.add(((StoredObject) entry.getValue()).toObject(bucketName, key));
+                    lastListedKey = key;
+                }
+            }
+        }
+
+        return new S3ObjectsChunk(prefix, delimiter,
+            (S3Object[]) objects.toArray(new S3Object[objects.size()]),
+            (String[]) commonPrefixes.toArray(new String[commonPrefixes.size()]),
+            (truncated ? lastListedKey : null));
+    }
+
+    protected synchronized S3Bucket createBucketImpl(String bucketName, String location,
+        AccessControlList acl) throws S3ServiceException
+    {
+        getBucketObjects(bucketName);
+        return new S3Bucket(bucketName, location);
+    }
+
+    protected synchronized void deleteBucketImpl(String bucketName) throws S3ServiceException {
+        buckets.remove(bucketName);
+    }
+
+    protected S3Object putObjectImpl(String bucketName, S3Object object)
+        throws S3ServiceException
+    {
+        startRequest(REQUEST_PUT, bucketName, object.getKey());
+
+        byte[] data = new byte[0];
+        InputStream inputStream = object.getDataInputStream();
+        if (inputStream != null) {
+            try {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int byteCount = -1;
+                while ((byteCount = inputStream.read(buffer)) != -1) {
+                    baos.write(buffer, 0, byteCount);
+                }
+                data = baos.toByteArray();
+            } catch (Exception e) {
+                throw new S3ServiceException("Unable to read data for '" + object.getKey() + "'", e);
+            } finally {
+                try {
+                    object.closeDataInputStream();
+                } catch (Exception e) {
+                    // Nothing more we can do.
+                }
+            }
+        }
+        if (object.containsMetadata(S3Object.METADATA_HEADER_CONTENT_LENGTH)
+            && object.getContentLength() != data.length)
+        {
+            throw newServiceException(400, "IncompleteBody", "Received " + data.length
+                + " of " + object.getContentLength() + " bytes for '" + object.getKey() + "'");
+        }
+
+        StoredObject storedObject = new StoredObject(data, object.getModifiableMetadata());
+        String contentMD5 = (String) object.getMetadata(S3Object.METADATA_HEADER_CONTENT_MD5);
+        if (contentMD5 != null
+            && !storedObject.etag.equals(ServiceUtils.toHex(ServiceUtils.fromBase64(contentMD5))))
+        {
+            throw newServiceException(400, "BadDigest", "Content-MD5 of '" + object.getKey()
+                + "' does not match its data");
+        }
+
+        SortedMap objects = getBucketObjects(bucketName);
+        synchronized (objects) {
+            objects.put(object.getKey(), storedObject);
+        }
+        object.setBucketName(bucketName);
+        object.setETag("\"" + storedObject.etag + "\"");
+        object.setLastModifiedDate(storedObject.lastModifiedDate);
+        object.setDataInputStream(null);
+        return object;
+    }
+
+    protected Map copyObjectImpl(String sourceBucketName, String sourceObjectKey,
+        String destinationBucketName, String destinationObjectKey, AccessControlList acl,
+        Map destinationMetadata, Calendar ifModifiedSince, Calendar ifUnmodifiedSince,
+        String[] ifMatchTags, String[] ifNoneMatchTags) throws S3ServiceException
+    {
+        startRequest(REQUEST_COPY, destinationBucketName, destinationObjectKey);
+
+        StoredObject source = getExistingObject(sourceBucketName, sourceObjectKey);
+        checkPreconditions(source, sourceObjectKey, ifMatchTags, ifNoneMatchTags);
+        StoredObject copy = new StoredObject(source.data,
+            (destinationMetadata != null ? new HashMap(destinationMetadata) : source.metadata));
+        SortedMap objects = getBucketObjects(destinationBucketName);
+        synchronized (objects) {
+            objects.put(destinationObjectKey, copy);
+        }
+
+        Map result = new HashMap();
+        result.put("ETag", "\"" + copy.etag + "\"");
+        result.put("Last-Modified", copy.lastModifiedDate);
+        return result;
+    }
+
+    protected void deleteObjectImpl(String bucketName, String objectKey)
+        throws S3ServiceException
+    {
+        startRequest(REQUEST_DELETE, bucketName, objectKey);
+
+        SortedMap objects = getBucketObjects(bucketName);
+        synchronized (objects) {
+            objects.remove(objectKey);
+        }
+    }
+
+    protected S3Object getObjectDetailsImpl(String bucketName, String objectKey,
+        Calendar ifModifiedSince, Calendar ifUnmodifiedSince, String[] ifMatchTags,
+        String[] ifNoneMatchTags) throws S3ServiceException
+    {
+        startRequest(REQUEST_HEAD, bucketName, objectKey);
+
+        StoredObject storedObject = getExistingObject(bucketName, objectKey);
+        checkPreconditions(storedObject, objectKey, ifMatchTags, ifNoneMatchTags);
+        S3Object object = storedObject.toObject(bucketName, objectKey);
+        object.setMetadataComplete(true);
+        return object;
+    }
+
+    protected S3Object getObjectImpl(String bucketName, String objectKey,
+        Calendar ifModifiedSince, Calendar ifUnmodifiedSince, String[] ifMatchTags,
+        String[] ifNoneMatchTags, Long byteRangeStart, Long byteRangeEnd)
+        throws S3ServiceException
+    {
+        startRequest(REQUEST_GET, bucketName, objectKey);
+
+        StoredObject storedObject = getExistingObject(bucketName, objectKey);
+        checkPreconditions(storedObject, objectKey, ifMatchTags, ifNoneMatchTags);
+
+        int start = (byteRangeStart == null ? 0 : (int) byteRangeStart.longValue());
+        int end = (byteRangeEnd == null ? storedObject.data.length - 1
+            : (int) Math.min(byteRangeEnd.longValue(), storedObject.data.length - 1));
+        if (start > 0 && start >= storedObject.data.length) {
+            throw newServiceException(416, "InvalidRange", "Range " + start + "-" + end
+                + " is not satisfiable for '" + objectKey + "'");
+        }
+
+        S3Object object = storedObject.toObject(bucketName, objectKey);
+        object.setMetadataComplete(true);
+        object.setContentLength(end - start + 1);
+        object.setDataInputStream(
+            new ByteArrayInputStream(storedObject.data, start, end - start + 1));
+        return object;
+    }
+
+    protected void putBucketAclImpl(String bucketName, AccessControlList acl)
+        throws S3ServiceException
+    {
+    }
+
+    protected void putObjectAclImpl(String bucketName, String objectKey, AccessControlList acl)
+        throws S3ServiceException
+    {
+    }
+
+    protected AccessControlList getObjectAclImpl(String bucketName, String objectKey)
+        throws S3ServiceException
+    {
+        return null;
+    }
+
+    protected AccessControlList getBucketAclImpl(String bucketName) throws S3ServiceException {
+        return null;
+    }
+
+}
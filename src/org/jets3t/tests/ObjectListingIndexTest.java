@@ -0,0 +1,228 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.jets3t.service.Jets3tProperties;
+import org.jets3t.service.model.S3Bucket;
+import org.jets3t.service.model.S3Object;
+import org.jets3t.service.utils.FileComparer;
+import org.jets3t.service.utils.ObjectListingIndex;
+
+/**
+ * Checks that an {@link ObjectListingIndex} saved to a file and opened again provides the same
+ * details for unchanged objects, and none for changed or removed objects, and that saving an
+ * index does not depend on replacing a file that is still mapped.
+ *
+ * @author James Murty
+ */
+public class ObjectListingIndexTest extends TestCase {
+    private File directory = null;
+    private File indexFile = null;
+
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("ObjectListingIndexTest", "");
+        directory.delete();
+        directory.mkdir();
+        indexFile = new File(directory, "bucket.index");
+    }
+
+    protected void tearDown() {
+        File[] files = directory.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        directory.delete();
+    }
+
+    private S3Object createListedObject(String key, String eTag, long contentLength,
+        long lastModifiedTime)
+    {
+        S3Object object = new S3Object(key);
+        object.setETag(eTag);
+        object.setContentLength(contentLength);
+        object.setLastModifiedDate(new Date(lastModifiedTime));
+        return object;
+    }
+
+    private S3Object createDetailedObject(String key, String eTag, long contentLength,
+        long lastModifiedTime)
+    {
+        S3Object object = createListedObject(key, eTag, contentLength, lastModifiedTime);
+        object.setContentType("text/plain");
+        object.addMetadata("jets3t-original-file-date-iso8601", "2008-01-01T00:00:00.000Z");
+        object.addMetadata("description", key + " \u00E9\u4E2D");
+        return object;
+    }
+
+    private String getKey(int i) {
+        return "dir-" + (i % 10) + "/object-\u00E9-" + i;
+    }
+
+    public void testSaveAndLoad() throws Exception {
+        ObjectListingIndex index = new ObjectListingIndex(indexFile);
+        for (int i = 0; i < 500; i++) {
+            index.update(createDetailedObject(getKey(i), "etag-" + i, i, 1000L * i));
+        }
+        assertEquals(500, index.size());
+        index.save();
+        assertTrue(indexFile.exists());
+
+        ObjectListingIndex loadedIndex = new ObjectListingIndex(indexFile);
+        assertEquals(500, loadedIndex.size());
+        for (int i = 0; i < 500; i++) {
+            S3Object listedObject = createListedObject(getKey(i), "etag-" + i, i, 1000L * i);
+            assertTrue("Indexed details for " + getKey(i),
+                loadedIndex.applyCachedDetails(listedObject));
+            assertTrue(listedObject.isMetadataComplete());
+            assertEquals("text/plain", listedObject.getContentType());
+            assertEquals(getKey(i) + " \u00E9\u4E2D", listedObject.getMetadata("description"));
+            assertEquals("2008-01-01T00:00:00.000Z",
+                listedObject.getMetadata("jets3t-original-file-date-iso8601"));
+            assertEquals("etag-" + i, listedObject.getETag());
+            assertEquals(i, listedObject.getContentLength());
+        }
+
+        // Changed objects get no details.
+        assertFalse(loadedIndex.applyCachedDetails(createListedObject(getKey(1), "other", 1, 1000L)));
+        assertFalse(loadedIndex.applyCachedDetails(createListedObject(getKey(1), "etag-1", 2, 1000L)));
+        assertFalse(loadedIndex.applyCachedDetails(createListedObject(getKey(1), "etag-1", 1, 1001L)));
+        assertFalse(loadedIndex.applyCachedDetails(createListedObject("unknown", "etag-1", 1, 1000L)));
+    }
+
+    public void testSaveMergesChanges() throws Exception {
+        ObjectListingIndex index = new ObjectListingIndex(indexFile);
+        for (int i = 0; i < 100; i++) {
+            index.update(createDetailedObject(getKey(i), "etag-" + i, i, 1000L * i));
+        }
+        index.save();
+
+        index = new ObjectListingIndex(indexFile);
+        index.remove(getKey(5));
+        index.update(createDetailedObject(getKey(6), "etag-changed", 6, 6001L));
+        index.recordUpload(createDetailedObject("new-object", "etag-new", 3, 0));
+        // A complete listing of dir-7/ in which one object no longer appears.
+        Set listedKeys = new HashSet();
+        for (int i = 7; i < 100; i += 10) {
+            if (i != 17) {
+                listedKeys.add(getKey(i));
+            }
+        }
+        index.retainListed("dir-7/", null, null, listedKeys);
+        assertEquals(99, index.size());
+        index.save();
+
+        ObjectListingIndex loadedIndex = new ObjectListingIndex(indexFile);
+        assertEquals(99, loadedIndex.size());
+        assertFalse(loadedIndex.applyCachedDetails(createListedObject(getKey(5), "etag-5", 5, 5000L)));
+        assertFalse(loadedIndex.applyCachedDetails(createListedObject(getKey(17), "etag-17", 17, 17000L)));
+        assertFalse(loadedIndex.applyCachedDetails(createListedObject(getKey(6), "etag-6", 6, 6000L)));
+        assertTrue(loadedIndex.applyCachedDetails(createListedObject(getKey(6), "etag-changed", 6, 6001L)));
+        assertTrue(loadedIndex.applyCachedDetails(createListedObject(getKey(27), "etag-27", 27, 27000L)));
+
+        // An uploaded object takes its date from its first listing, and keeps it once saved.
+        assertTrue(loadedIndex.applyCachedDetails(createListedObject("new-object", "etag-new", 3, 9000L)));
+        loadedIndex.save();
+        loadedIndex = new ObjectListingIndex(indexFile);
+        assertTrue(loadedIndex.applyCachedDetails(createListedObject("new-object", "etag-new", 3, 9000L)));
+        assertFalse(loadedIndex.applyCachedDetails(createListedObject("new-object", "etag-new", 3, 9999L)));
+    }
+
+    public void testUnreadableFileIsIgnored() throws Exception {
+        FileOutputStream out = new FileOutputStream(indexFile);
+        out.write("not an index".getBytes());
+        out.close();
+
+        ObjectListingIndex index = new ObjectListingIndex(indexFile);
+        assertEquals(0, index.size());
+        index.update(createDetailedObject("key", "etag", 1, 1000L));
+        index.save();
+        assertEquals(1, new ObjectListingIndex(indexFile).size());
+    }
+
+    public void testReopenWhileOldGenerationIsMapped() throws Exception {
+        ObjectListingIndex index = new ObjectListingIndex(indexFile);
+        for (int i = 0; i < 50; i++) {
+            index.update(createDetailedObject(getKey(i), "etag-" + i, i, 1000L * i));
+        }
+        index.save();
+
+        // This index keeps the first generation mapped while the other index saves twice.
+        ObjectListingIndex oldIndex = new ObjectListingIndex(indexFile);
+        assertEquals(50, oldIndex.size());
+
+        index.remove(getKey(1));
+        index.save();
+        index.update(createDetailedObject("added", "etag-added", 1, 1000L));
+        index.save();
+
+        ObjectListingIndex reopenedIndex = new ObjectListingIndex(indexFile);
+        assertEquals(50, reopenedIndex.size());
+        assertFalse(reopenedIndex.applyCachedDetails(createListedObject(getKey(1), "etag-1", 1, 1000L)));
+        assertTrue(reopenedIndex.applyCachedDetails(createListedObject("added", "etag-added", 1, 1000L)));
+
+        // The old mapping still reads the records as they were when it was opened.
+        assertTrue(oldIndex.applyCachedDetails(createListedObject(getKey(1), "etag-1", 1, 1000L)));
+        assertFalse(oldIndex.applyCachedDetails(createListedObject("added", "etag-added", 1, 1000L)));
+
+        // Only the index file and its current generation are left.
+        assertEquals(2, directory.listFiles().length);
+        oldIndex.update(createDetailedObject("from-old", "etag-old", 1, 1000L));
+        oldIndex.save();
+        assertEquals(2, directory.listFiles().length);
+        assertTrue(new ObjectListingIndex(indexFile).applyCachedDetails(
+            createListedObject("from-old", "etag-old", 1, 1000L)));
+    }
+
+    public void testCompleteListingSavesIndex() throws Exception {
+        Jets3tProperties properties = Jets3tProperties.getInstance(
+            new ByteArrayInputStream(new byte[0]), "ObjectListingIndexTest");
+        properties.setProperty("filecomparer.listing-index-directory", directory.getPath());
+        MemoryS3Service s3Service = new MemoryS3Service(properties);
+        S3Bucket bucket = s3Service.createBucket("index-test-bucket");
+        for (int i = 0; i < 20; i++) {
+            S3Object object = new S3Object(getKey(i));
+            object.setDataInputStream(new ByteArrayInputStream(new byte[i]));
+            object.setContentLength(i);
+            s3Service.putObject(bucket, object);
+        }
+
+        FileComparer fileComparer = FileComparer.getInstance(properties);
+        Map objectsMap = fileComparer.buildS3ObjectMap(s3Service, bucket, "", false, null);
+        assertEquals(20, objectsMap.size());
+        assertEquals(20, s3Service.getRequestCount(MemoryS3Service.REQUEST_HEAD));
+
+        // The index was saved without the caller's help, and spares the HEAD requests.
+        ObjectListingIndex savedIndex = new ObjectListingIndex(
+            new File(directory, "index-test-bucket.index"));
+        assertEquals(20, savedIndex.size());
+        fileComparer.buildS3ObjectMap(s3Service, bucket, "", false, null);
+        assertEquals(20, s3Service.getRequestCount(MemoryS3Service.REQUEST_HEAD));
+    }
+
+}
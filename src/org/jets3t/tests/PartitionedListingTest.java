@@ -0,0 +1,179 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.tests;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.jets3t.service.Jets3tProperties;
+import org.jets3t.service.S3ObjectsChunk;
+import org.jets3t.service.model.S3Object;
+import org.jets3t.service.multithread.ListObjectsEvent;
+import org.jets3t.service.multithread.S3ServiceEventAdaptor;
+import org.jets3t.service.multithread.S3ServiceMulti;
+import org.jets3t.service.utils.FileComparer;
+import org.jets3t.service.utils.S3KeyComparator;
+
+/**
+ * Checks that partitioned bucket listings list every key below a prefix exactly once, whatever
+ * the layout of the keys, and that FileComparer returns them in the order S3 lists them.
+ *
+ * @author James Murty
+ */
+public class PartitionedListingTest extends TestCase {
+    private static final String BUCKET_NAME = "partitioned-listing-test";
+
+    private MemoryS3Service s3Service = null;
+
+    protected void setUp() throws Exception {
+        Jets3tProperties properties = Jets3tProperties.getInstance(
+            new ByteArrayInputStream(new byte[0]), "PartitionedListingTest");
+        properties.setProperty("s3service.admin-max-thread-count", "6");
+        s3Service = new MemoryS3Service(properties);
+        s3Service.createBucket(BUCKET_NAME);
+    }
+
+    /**
+     * Stores objects with clustered numeric keys, keys of very different lengths, keys with
+     * characters outside printable ASCII, and keys either side of the "photos/" prefix.
+     */
+    private void createObjects() throws Exception {
+        Random random = new Random(2008);
+        List keys = new ArrayList();
+        for (int i = 0; i < 1500; i++) {
+            keys.add("logs/2008/" + (100000 + random.nextInt(900000)) + ".log");
+        }
+        for (int i = 0; i < 700; i++) {
+            keys.add("photos/" + Integer.toString(random.nextInt(Integer.MAX_VALUE), 36)
+                + (i % 7 == 0 ? "/\u00E9t\u00E9-" + i : "") + ".jpg");
+        }
+        for (int i = 0; i < 300; i++) {
+            keys.add("photos/\uFF21\uFF22-" + i);
+            keys.add("photos/\uD840\uDC00-" + i);
+            keys.add("photos/\u00FF~" + i);
+        }
+        keys.add("photos");
+        keys.add("photos.");
+        keys.add("photos/");
+        keys.add("photos0");
+        keys.add(" ");
+        keys.add("~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~");
+
+        Iterator iter = keys.iterator();
+        while (iter.hasNext()) {
+            s3Service.putObject(BUCKET_NAME, new S3Object((String) iter.next()));
+        }
+    }
+
+    private List getExpectedKeys(String prefix) {
+        String[] allKeys = s3Service.getKeys(BUCKET_NAME);
+        List expectedKeys = new ArrayList();
+        for (int i = 0; i < allKeys.length; i++) {
+            if (prefix == null || allKeys[i].startsWith(prefix)) {
+                expectedKeys.add(allKeys[i]);
+            }
+        }
+        return expectedKeys;
+    }
+
+    private List listKeysPartitioned(String prefix, long maxListingLength) {
+        final List keys = Collections.synchronizedList(new ArrayList());
+        final Throwable[] errors = new Throwable[1];
+        S3ServiceMulti s3ServiceMulti = new S3ServiceMulti(s3Service, new S3ServiceEventAdaptor() {
+            public void s3ServiceEventPerformed(ListObjectsEvent event) {
+                if (ListObjectsEvent.EVENT_IN_PROGRESS == event.getEventCode()) {
+                    Iterator chunkIter = event.getChunkList().iterator();
+                    while (chunkIter.hasNext()) {
+                        S3Object[] objects = ((S3ObjectsChunk) chunkIter.next()).getObjects();
+                        for (int i = 0; i < objects.length; i++) {
+                            keys.add(objects[i].getKey());
+                        }
+                    }
+                } else if (ListObjectsEvent.EVENT_ERROR == event.getEventCode()) {
+                    errors[0] = event.getErrorCause();
+                }
+            }
+        });
+        assertTrue(s3ServiceMulti.listObjectsPartitioned(BUCKET_NAME, prefix, maxListingLength));
+        assertNull(errors[0]);
+        return keys;
+    }
+
+    public void testEveryKeyListedOnce() throws Exception {
+        createObjects();
+        String[] prefixes = new String[] {null, "photos/", "logs/2008/", "photos", "missing/"};
+        for (int i = 0; i < prefixes.length; i++) {
+            List expectedKeys = getExpectedKeys(prefixes[i]);
+            List listedKeys = listKeysPartitioned(prefixes[i], 50);
+            Collections.sort(listedKeys, S3KeyComparator.INSTANCE);
+            // Any gap or overlap between ranges shows up as a missing or repeated key.
+            assertEquals("Keys listed with prefix " + prefixes[i], expectedKeys, listedKeys);
+        }
+        assertTrue("Listing should use many requests",
+            s3Service.getRequestCount(MemoryS3Service.REQUEST_LIST) > 100);
+    }
+
+    public void testFileComparerListsInKeyOrder() throws Exception {
+        createObjects();
+        FileComparer fileComparer = FileComparer.getInstance(s3Service.getJetS3tProperties());
+        String[] prefixes = new String[] {null, "photos/"};
+        for (int i = 0; i < prefixes.length; i++) {
+            S3Object[] objects = fileComparer.listObjectsPartitioned(
+                s3Service, BUCKET_NAME, prefixes[i]);
+            List listedKeys = new ArrayList();
+            for (int j = 0; j < objects.length; j++) {
+                listedKeys.add(objects[j].getKey());
+            }
+            assertEquals("Keys listed with prefix " + prefixes[i],
+                getExpectedKeys(prefixes[i]), listedKeys);
+        }
+    }
+
+    public void testFileComparerOrdersPagesByUtf8() throws Exception {
+        // Pages that start with characters either side of the surrogate range are ordered
+        // differently by String.compareTo than by S3.
+        for (int i = 0; i < 2000; i++) {
+            s3Service.putObject(BUCKET_NAME, new S3Object("\uFF21\uFF22-" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            s3Service.putObject(BUCKET_NAME, new S3Object("\uD840\uDC00-" + i));
+        }
+        S3Object[] objects = FileComparer.getInstance(s3Service.getJetS3tProperties())
+            .listObjectsPartitioned(s3Service, BUCKET_NAME, null);
+        List listedKeys = new ArrayList();
+        for (int i = 0; i < objects.length; i++) {
+            listedKeys.add(objects[i].getKey());
+        }
+        assertEquals(getExpectedKeys(null), listedKeys);
+        assertEquals("\uD840\uDC00-999", listedKeys.get(listedKeys.size() - 1));
+    }
+
+    public void testEmptyBucket() throws Exception {
+        assertEquals(0, listKeysPartitioned(null, 50).size());
+        assertEquals(0, FileComparer.getInstance(s3Service.getJetS3tProperties())
+            .listObjectsPartitioned(s3Service, BUCKET_NAME, null).length);
+    }
+
+}
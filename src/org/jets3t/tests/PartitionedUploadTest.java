@@ -0,0 +1,348 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.jets3t.service.Jets3tProperties;
+import org.jets3t.service.S3ServiceException;
+import org.jets3t.service.model.S3Bucket;
+import org.jets3t.service.model.S3Object;
+import org.jets3t.service.multithread.DownloadPackage;
+import org.jets3t.service.multithread.PartitionedUpload;
+import org.jets3t.service.multithread.S3ServiceEventAdaptor;
+import org.jets3t.service.multithread.S3ServiceMulti;
+import org.jets3t.service.multithread.S3ServiceSimpleMulti;
+
+/**
+ * Checks that objects uploaded in parts survive failed parts and interrupted uploads, that
+ * parts left over from larger versions of an object are deleted, and that downloads reassemble
+ * the parts into the original data.
+ *
+ * @author James Murty
+ */
+public class PartitionedUploadTest extends TestCase {
+    private static final String BUCKET_NAME = "partitioned-upload-test";
+    private static final String KEY = "backups/data file.bin";
+    private static final int PART_SIZE = 1000;
+
+    private Jets3tProperties properties = null;
+    private S3Bucket bucket = new S3Bucket(BUCKET_NAME);
+    private File directory = null;
+
+    /**
+     * Counts PUT requests for each key, and fails the PUT requests for chosen keys.
+     */
+    private static class FailingS3Service extends MemoryS3Service {
+        private final List putKeys = Collections.synchronizedList(new ArrayList());
+        private final Set failingKeys = Collections.synchronizedSet(new HashSet());
+        private int failureResponseCode = 503;
+        private int failureCount = 0;
+
+        public FailingS3Service(Jets3tProperties properties) throws S3ServiceException {
+            super(properties);
+            createBucket(BUCKET_NAME);
+        }
+
+        /**
+         * Makes the next PUT requests for a key fail with the given response code.
+         */
+        public synchronized void failPuts(String key, int responseCode, int count) {
+            failingKeys.add(key);
+            failureResponseCode = responseCode;
+            failureCount = count;
+        }
+
+        protected void beforeRequest(String requestType, String bucketName, String key)
+            throws S3ServiceException
+        {
+            if (!REQUEST_PUT.equals(requestType)) {
+                return;
+            }
+            putKeys.add(key);
+            synchronized (this) {
+                if (failingKeys.contains(key) && failureCount > 0) {
+                    failureCount--;
+                    S3ServiceException e = new S3ServiceException("Failing PUT of '" + key + "'");
+                    e.setResponseCode(failureResponseCode);
+                    throw e;
+                }
+            }
+        }
+
+        public int countPuts(String key) {
+            int count = 0;
+            synchronized (putKeys) {
+                for (int i = 0; i < putKeys.size(); i++) {
+                    if (key.equals(putKeys.get(i))) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+    }
+
+    protected void setUp() throws Exception {
+        properties = Jets3tProperties.getInstance(
+            new ByteArrayInputStream(new byte[0]), "PartitionedUploadTest");
+        properties.setProperty("uploads.part-size", String.valueOf(PART_SIZE));
+        properties.setProperty("uploads.part-retry-max", "2");
+        properties.setProperty("s3service.max-thread-count", "2");
+
+        directory = File.createTempFile("PartitionedUploadTest", "");
+        directory.delete();
+        directory.mkdir();
+        properties.setProperty("uploads.state-directory",
+            new File(directory, "state").getAbsolutePath());
+    }
+
+    protected void tearDown() {
+        delete(directory);
+    }
+
+    private void delete(File file) {
+        File[] files = file.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            delete(files[i]);
+        }
+        file.delete();
+    }
+
+    private File getStateFile(File file) {
+        return PartitionedUpload.getStateFile(PartitionedUpload.getStateDirectory(properties),
+            BUCKET_NAME, KEY, file);
+    }
+
+    private byte[] createData(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private File createFile(String name, byte[] data) throws Exception {
+        File file = new File(directory, name);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+        return file;
+    }
+
+    private String[] sortedNames(File dir) {
+        String[] names = dir.list();
+        Arrays.sort(names);
+        return names;
+    }
+
+    private byte[] readFile(File file) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        InputStream in = new FileInputStream(file);
+        byte[] buffer = new byte[4096];
+        int count = -1;
+        while ((count = in.read(buffer)) != -1) {
+            baos.write(buffer, 0, count);
+        }
+        in.close();
+        return baos.toByteArray();
+    }
+
+    private S3ServiceEventAdaptor upload(MemoryS3Service s3Service, File file) {
+        S3ServiceEventAdaptor adaptor = new S3ServiceEventAdaptor();
+        S3Object object = new S3Object(KEY);
+        object.setContentType("application/x-test");
+        object.addMetadata("original-name", file.getName());
+        new S3ServiceMulti(s3Service, adaptor).putObjectInParts(bucket, object, file);
+        return adaptor;
+    }
+
+    private S3Object getListedObject(MemoryS3Service s3Service) throws Exception {
+        S3Object[] objects = s3Service.listObjects(bucket, KEY, null);
+        for (int i = 0; i < objects.length; i++) {
+            if (KEY.equals(objects[i].getKey())) {
+                return objects[i];
+            }
+        }
+        fail("Object '" + KEY + "' is not listed");
+        return null;
+    }
+
+    private File download(MemoryS3Service s3Service, String name) throws Exception {
+        File outputFile = new File(directory, name);
+        new S3ServiceSimpleMulti(s3Service).downloadObjects(bucket, new DownloadPackage[] {
+            new DownloadPackage(getListedObject(s3Service), outputFile)});
+        return outputFile;
+    }
+
+    public void testFailedPartIsRetried() throws Exception {
+        byte[] data = createData(PART_SIZE * 4 + 500);
+        File file = createFile("data", data);
+        FailingS3Service s3Service = new FailingS3Service(properties);
+        String failingPartKey = PartitionedUpload.getPartKey(KEY, 2);
+        s3Service.failPuts(failingPartKey, 503, 1);
+
+        S3ServiceEventAdaptor adaptor = upload(s3Service, file);
+        assertFalse(String.valueOf(adaptor.getErrorThrown()), adaptor.wasErrorThrown());
+        assertEquals(2, s3Service.countPuts(failingPartKey));
+        assertEquals(1, s3Service.countPuts(PartitionedUpload.getPartKey(KEY, 1)));
+        assertFalse(getStateFile(file).exists());
+
+        S3Object manifest = s3Service.getObjectDetails(bucket, KEY);
+        assertTrue(PartitionedUpload.isManifest(manifest));
+        assertEquals(5, PartitionedUpload.getPartCount(manifest));
+        assertEquals("data", manifest.getMetadata("original-name"));
+        for (int i = 0; i < 5; i++) {
+            int partLength = Math.min(PART_SIZE, data.length - i * PART_SIZE);
+            byte[] partData = new byte[partLength];
+            System.arraycopy(data, i * PART_SIZE, partData, 0, partLength);
+            assertTrue("Data of part " + i, Arrays.equals(partData,
+                s3Service.getObjectData(BUCKET_NAME, PartitionedUpload.getPartKey(KEY, i))));
+        }
+    }
+
+    public void testInterruptedUploadResumes() throws Exception {
+        byte[] data = createData(PART_SIZE * 6);
+        File file = createFile("data", data);
+        FailingS3Service s3Service = new FailingS3Service(properties);
+        String failingPartKey = PartitionedUpload.getPartKey(KEY, 3);
+        // A 403 is not retried, so the upload fails with this part missing.
+        s3Service.failPuts(failingPartKey, 403, 1);
+
+        S3ServiceEventAdaptor adaptor = upload(s3Service, file);
+        assertTrue(adaptor.wasErrorThrown());
+        assertNull(s3Service.getObjectData(BUCKET_NAME, KEY));
+        File stateFile = getStateFile(file);
+        assertTrue(stateFile.exists());
+        assertEquals(new File(directory, "state"), stateFile.getParentFile());
+        // Nothing is written alongside the data file.
+        assertEquals(Arrays.asList(new String[] {"data", "state"}),
+            Arrays.asList(sortedNames(directory)));
+
+        Properties state = new Properties();
+        InputStream in = new FileInputStream(stateFile);
+        state.load(in);
+        in.close();
+        assertNull(state.getProperty("part.3"));
+        int recordedCount = 0;
+        for (int i = 0; i < 6; i++) {
+            if (state.getProperty("part." + i) != null) {
+                recordedCount++;
+            }
+        }
+        assertTrue("Some parts should be recorded as uploaded", recordedCount > 0);
+
+        FailingS3Service resumedS3Service = new FailingS3Service(properties);
+        for (int i = 0; i < 6; i++) {
+            String partKey = PartitionedUpload.getPartKey(KEY, i);
+            byte[] partData = s3Service.getObjectData(BUCKET_NAME, partKey);
+            if (partData != null) {
+                S3Object part = new S3Object(partKey);
+                part.setDataInputStream(new ByteArrayInputStream(partData));
+                resumedS3Service.putObject(bucket, part);
+            }
+        }
+        int initialPutCount = resumedS3Service.getRequestCount(MemoryS3Service.REQUEST_PUT);
+
+        adaptor = upload(resumedS3Service, file);
+        assertFalse(String.valueOf(adaptor.getErrorThrown()), adaptor.wasErrorThrown());
+        assertFalse(stateFile.exists());
+        // Only the parts missing from the state file, and the manifest, are uploaded.
+        assertEquals(6 - recordedCount + 1,
+            resumedS3Service.getRequestCount(MemoryS3Service.REQUEST_PUT) - initialPutCount);
+        assertTrue(resumedS3Service.countPuts(failingPartKey) > 0);
+        assertTrue(Arrays.equals(data, readFile(download(resumedS3Service, "downloaded"))));
+    }
+
+    public void testStateFileIsKeyedByBucketKeyAndPath() throws Exception {
+        File stateDirectory = PartitionedUpload.getStateDirectory(properties);
+        File file = createFile("data", createData(10));
+        File stateFile = getStateFile(file);
+        assertEquals(stateFile, PartitionedUpload.getStateFile(stateDirectory, BUCKET_NAME, KEY,
+            new File(directory.getAbsolutePath() + File.separator + "data")));
+        assertFalse(stateFile.equals(PartitionedUpload.getStateFile(stateDirectory,
+            "other-bucket", KEY, file)));
+        assertFalse(stateFile.equals(PartitionedUpload.getStateFile(stateDirectory,
+            BUCKET_NAME, KEY + ".other", file)));
+        assertFalse(stateFile.equals(PartitionedUpload.getStateFile(stateDirectory,
+            BUCKET_NAME, KEY, new File(directory, "other"))));
+    }
+
+    public void testStalePartsAreDeleted() throws Exception {
+        MemoryS3Service s3Service = new FailingS3Service(properties);
+        File largeFile = createFile("large", createData(PART_SIZE * 5));
+        assertFalse(upload(s3Service, largeFile).wasErrorThrown());
+        assertEquals(6, s3Service.getKeys(BUCKET_NAME).length);
+
+        byte[] smallData = createData(PART_SIZE * 2 - 1);
+        File smallFile = createFile("small", smallData);
+        assertFalse(upload(s3Service, smallFile).wasErrorThrown());
+
+        String[] keys = s3Service.getKeys(BUCKET_NAME);
+        assertEquals(Arrays.asList(new String[] {KEY, PartitionedUpload.getPartKey(KEY, 0),
+            PartitionedUpload.getPartKey(KEY, 1)}), Arrays.asList(keys));
+        assertTrue(Arrays.equals(smallData, readFile(download(s3Service, "downloaded"))));
+    }
+
+    public void testDownloadReassemblesParts() throws Exception {
+        byte[] data = createData(PART_SIZE * 3 + 1);
+        File file = createFile("data", data);
+        MemoryS3Service s3Service = new FailingS3Service(properties);
+        assertFalse(upload(s3Service, file).wasErrorThrown());
+
+        File outputFile = download(s3Service, "downloaded");
+        assertTrue(Arrays.equals(data, readFile(outputFile)));
+    }
+
+    public void testChangedPartFailsDownload() throws Exception {
+        byte[] data = createData(PART_SIZE * 3);
+        File file = createFile("data", data);
+        MemoryS3Service s3Service = new FailingS3Service(properties);
+        assertFalse(upload(s3Service, file).wasErrorThrown());
+
+        S3Object part = new S3Object(PartitionedUpload.getPartKey(KEY, 1));
+        part.setDataInputStream(new ByteArrayInputStream(createData(PART_SIZE)));
+        s3Service.putObject(bucket, part);
+
+        try {
+            download(s3Service, "downloaded");
+            fail("A part that does not match the manifest should fail the download");
+        } catch (S3ServiceException e) {
+            Throwable cause = e;
+            while (cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            assertEquals(412, ((S3ServiceException) cause).getResponseCode());
+        }
+    }
+
+}
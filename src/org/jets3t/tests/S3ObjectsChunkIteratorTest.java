@@ -0,0 +1,205 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.tests;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.jets3t.service.Jets3tProperties;
+import org.jets3t.service.S3ObjectsChunk;
+import org.jets3t.service.S3ObjectsChunkIterator;
+import org.jets3t.service.S3ServiceException;
+import org.jets3t.service.model.S3Bucket;
+import org.jets3t.service.model.S3Object;
+import org.jets3t.service.utils.S3KeyComparator;
+
+/**
+ * Checks that {@link S3ObjectsChunkIterator} returns the chunks of a listing in order, passes
+ * listing failures to the caller, and stops its listing thread when it is closed early.
+ *
+ * @author James Murty
+ */
+public class S3ObjectsChunkIteratorTest extends TestCase {
+    private static final String BUCKET_NAME = "chunk-iterator-test";
+    private static final String THREAD_NAME = "jets3t-listing-" + BUCKET_NAME;
+
+    private Jets3tProperties properties = null;
+
+    /**
+     * Fails one of its listing requests.
+     */
+    private static class FailingS3Service extends MemoryS3Service {
+        private int failingListNumber = -1;
+        private int listCount = 0;
+
+        public FailingS3Service(Jets3tProperties properties) throws S3ServiceException {
+            super(properties);
+        }
+
+        public synchronized void failList(int listNumber) {
+            failingListNumber = listNumber;
+        }
+
+        protected synchronized void beforeRequest(String requestType, String bucketName,
+            String key) throws S3ServiceException
+        {
+            if (REQUEST_LIST.equals(requestType) && ++listCount == failingListNumber) {
+                S3ServiceException e = new S3ServiceException("Failing listing request");
+                e.setResponseCode(503);
+                throw e;
+            }
+        }
+    }
+
+    protected void setUp() throws Exception {
+        properties = Jets3tProperties.getInstance(
+            new ByteArrayInputStream(new byte[0]), "S3ObjectsChunkIteratorTest");
+        properties.setProperty("s3service.listing-prefetch-count", "2");
+    }
+
+    private List createObjects(MemoryS3Service s3Service, int count) throws Exception {
+        S3Bucket bucket = s3Service.createBucket(BUCKET_NAME);
+        List keys = new ArrayList();
+        for (int i = 0; i < count; i++) {
+            // Mix keys whose UTF-16 and UTF-8 orders differ.
+            String key = (i % 3 == 0 ? "\uFF21-" : (i % 3 == 1 ? "\uD800\uDC00-" : "a-")) + i;
+            S3Object object = new S3Object(key);
+            object.setDataInputStream(new ByteArrayInputStream(new byte[0]));
+            s3Service.putObject(bucket, object);
+            keys.add(key);
+        }
+        Collections.sort(keys, S3KeyComparator.INSTANCE);
+        return keys;
+    }
+
+    private Thread findListingThread() {
+        Thread[] threads = new Thread[Thread.activeCount() + 10];
+        int count = Thread.enumerate(threads);
+        for (int i = 0; i < count; i++) {
+            if (THREAD_NAME.equals(threads[i].getName()) && threads[i].isAlive()) {
+                return threads[i];
+            }
+        }
+        return null;
+    }
+
+    public void testChunksAreReturnedInListingOrder() throws Exception {
+        MemoryS3Service s3Service = new FailingS3Service(properties);
+        List expectedKeys = createObjects(s3Service, 95);
+
+        S3ObjectsChunkIterator iterator = s3Service.listObjectsChunkedIterator(
+            BUCKET_NAME, null, null, 10, null);
+        List keys = new ArrayList();
+        int chunkCount = 0;
+        while (iterator.hasNextChunk()) {
+            S3ObjectsChunk chunk = iterator.nextChunk();
+            chunkCount++;
+            S3Object[] objects = chunk.getObjects();
+            assertTrue(objects.length <= 10);
+            for (int i = 0; i < objects.length; i++) {
+                keys.add(objects[i].getKey());
+            }
+            if (iterator.hasNextChunk()) {
+                assertEquals(objects[objects.length - 1].getKey(), chunk.getPriorLastKey());
+            } else {
+                assertNull(chunk.getPriorLastKey());
+            }
+        }
+        assertEquals(10, chunkCount);
+        assertEquals(expectedKeys, keys);
+        assertEquals(keys.size(), new HashSet(keys).size());
+        assertFalse(iterator.hasNextChunk());
+
+        // A listing that starts after a prior last key continues in the same order.
+        String priorLastKey = (String) expectedKeys.get(44);
+        iterator = s3Service.listObjectsChunkedIterator(BUCKET_NAME, null, null, 10,
+            priorLastKey);
+        keys.clear();
+        while (iterator.hasNextChunk()) {
+            S3Object[] objects = iterator.nextChunk().getObjects();
+            for (int i = 0; i < objects.length; i++) {
+                keys.add(objects[i].getKey());
+            }
+        }
+        assertEquals(expectedKeys.subList(45, expectedKeys.size()), keys);
+    }
+
+    public void testListingFailureReachesCaller() throws Exception {
+        FailingS3Service s3Service = new FailingS3Service(properties);
+        List expectedKeys = createObjects(s3Service, 50);
+        s3Service.failList(3);
+
+        S3ObjectsChunkIterator iterator = s3Service.listObjectsChunkedIterator(
+            BUCKET_NAME, null, null, 10, null);
+        // The chunks fetched before the failure are returned first.
+        List keys = new ArrayList();
+        for (int i = 0; i < 2; i++) {
+            assertTrue(iterator.hasNextChunk());
+            S3Object[] objects = iterator.nextChunk().getObjects();
+            for (int j = 0; j < objects.length; j++) {
+                keys.add(objects[j].getKey());
+            }
+        }
+        assertEquals(expectedKeys.subList(0, 20), keys);
+
+        try {
+            iterator.hasNextChunk();
+            fail("The failed listing request should be reported");
+        } catch (S3ServiceException e) {
+            assertEquals(503, e.getResponseCode());
+        }
+        try {
+            iterator.nextChunk();
+            fail("The failed listing request should be reported again");
+        } catch (S3ServiceException e) {
+            assertEquals(503, e.getResponseCode());
+        }
+        assertEquals(3, s3Service.getRequestCount(MemoryS3Service.REQUEST_LIST));
+    }
+
+    public void testListingThreadStopsWhenIterationIsAbandoned() throws Exception {
+        MemoryS3Service s3Service = new FailingS3Service(properties);
+        createObjects(s3Service, 500);
+
+        S3ObjectsChunkIterator iterator = s3Service.listObjectsChunkedIterator(
+            BUCKET_NAME, null, null, 10, null);
+        assertTrue(iterator.hasNextChunk());
+        assertEquals(10, iterator.nextChunk().getObjects().length);
+        iterator.close();
+
+        long endTimeMS = System.currentTimeMillis() + 10000;
+        while (findListingThread() != null && System.currentTimeMillis() < endTimeMS) {
+            Thread.sleep(10);
+        }
+        assertNull("The listing thread should stop", findListingThread());
+
+        // The thread fetched at most the chunk taken, the chunks it could hold, and one more.
+        int listCount = s3Service.getRequestCount(MemoryS3Service.REQUEST_LIST);
+        assertTrue("Listed " + listCount + " chunks", listCount <= 4);
+        Thread.sleep(100);
+        assertEquals(listCount, s3Service.getRequestCount(MemoryS3Service.REQUEST_LIST));
+        assertFalse(iterator.hasNextChunk());
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.tests;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.SimpleTimeZone;
+
+import junit.framework.TestCase;
+
+import org.jets3t.service.utils.ServiceDateFormatter;
+
+/**
+ * Checks that {@link ServiceDateFormatter} formats and parses dates exactly as the
+ * SimpleDateFormat patterns it replaces.
+ *
+ * @author James Murty
+ */
+public class ServiceDateFormatterTest extends TestCase {
+    private SimpleDateFormat iso8601Format = null;
+    private SimpleDateFormat rfc822Format = null;
+
+    protected void setUp() {
+        iso8601Format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        iso8601Format.setTimeZone(new SimpleTimeZone(0, "GMT"));
+        rfc822Format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+        rfc822Format.setTimeZone(new SimpleTimeZone(0, "GMT"));
+    }
+
+    /**
+     * @return
+     * dates that include leap days, the ends of years and centuries, and the limits of the
+     * formatter's arithmetic conversion, followed by random dates across those limits.
+     */
+    private long[] getTestTimes() {
+        long[] fixedTimes = new long[] {
+            0L,
+            -1L,
+            951782400000L,          // 2000-02-29
+            951868799999L,          // 2000-02-29 23:59:59.999
+            1204243200123L,         // 2008-02-29 00:00:00.123
+            1230767999999L,         // 2008-12-31 23:59:59.999
+            4107542400000L,         // 2100-02-28, not a leap year
+            -2208988800000L,        // 1900-01-01, the earliest arithmetic conversion
+            -2208988800001L,        // just before 1900
+            253402300799999L,       // 9999-12-31 23:59:59.999, the latest arithmetic conversion
+            -12219292800000L,       // 1582-10-15, the Gregorian cutover
+        };
+        Random random = new Random(2008);
+        long[] times = new long[fixedTimes.length + 2000];
+        System.arraycopy(fixedTimes, 0, times, 0, fixedTimes.length);
+        for (int i = fixedTimes.length; i < times.length; i++) {
+            // Dates between about 1850 and 2250.
+            times[i] = (long) ((random.nextDouble() - 0.3) * 400 * 365.25 * 24 * 3600 * 1000);
+        }
+        return times;
+    }
+
+    public void testIso8601MatchesSimpleDateFormat() throws ParseException {
+        long[] times = getTestTimes();
+        for (int i = 0; i < times.length; i++) {
+            Date date = new Date(times[i]);
+            String expected = iso8601Format.format(date);
+            assertEquals("Formatted ISO 8601 date for time " + times[i],
+                expected, ServiceDateFormatter.formatIso8601Date(date));
+            assertEquals("Parsed ISO 8601 date " + expected,
+                iso8601Format.parse(expected), ServiceDateFormatter.parseIso8601Date(expected));
+            assertEquals("Parsed ISO 8601 time " + expected,
+                times[i], ServiceDateFormatter.parseIso8601Time(expected));
+        }
+    }
+
+    public void testRfc822MatchesSimpleDateFormat() throws ParseException {
+        long[] times = getTestTimes();
+        for (int i = 0; i < times.length; i++) {
+            Date date = new Date(times[i]);
+            String expected = rfc822Format.format(date);
+            assertEquals("Formatted RFC 822 date for time " + times[i],
+                expected, ServiceDateFormatter.formatRfc822Date(date));
+            // The cached result for the same second must be returned for a later millisecond.
+            Date sameSecond = new Date(times[i] - (((times[i] % 1000) + 1000) % 1000) + 999);
+            assertEquals("Formatted RFC 822 date for time " + sameSecond.getTime(),
+                rfc822Format.format(sameSecond), ServiceDateFormatter.formatRfc822Date(sameSecond));
+            assertEquals("Parsed RFC 822 date " + expected,
+                rfc822Format.parse(expected), ServiceDateFormatter.parseRfc822Date(expected));
+        }
+    }
+
+    public void testParsesOtherFormsLikeSimpleDateFormat() throws ParseException {
+        String[] rfc822Dates = new String[] {
+            "Tue, 1 Jan 2008 12:00:00 GMT",
+            "Tue, 01 Jan 2008 12:00:00 PST",
+            "Tue, 01 Jan 2008 12:00:00 +1000",
+        };
+        for (int i = 0; i < rfc822Dates.length; i++) {
+            assertEquals("Parsed RFC 822 date " + rfc822Dates[i],
+                rfc822Format.parse(rfc822Dates[i]),
+                ServiceDateFormatter.parseRfc822Date(rfc822Dates[i]));
+        }
+    }
+
+    public void testRejectsInvalidDates() {
+        String[] invalidDates = new String[] {"", "2008-01-01", "not a date"};
+        for (int i = 0; i < invalidDates.length; i++) {
+            try {
+                ServiceDateFormatter.parseIso8601Date(invalidDates[i]);
+                fail("Invalid ISO 8601 date should not parse: " + invalidDates[i]);
+            } catch (ParseException e) {
+            }
+            try {
+                ServiceDateFormatter.parseRfc822Date(invalidDates[i]);
+                fail("Invalid RFC 822 date should not parse: " + invalidDates[i]);
+            } catch (ParseException e) {
+            }
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.tests;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.jets3t.service.Jets3tProperties;
+import org.jets3t.service.S3ObjectsChunk;
+import org.jets3t.service.model.S3Object;
+import org.jets3t.service.multithread.ListObjectsEvent;
+import org.jets3t.service.multithread.S3ServiceEventAdaptor;
+import org.jets3t.service.multithread.S3ServiceMulti;
+
+/**
+ * Checks that streamed listings deliver every page exactly once to a slow event listener, and
+ * that listing threads wait rather than listing more than maxBufferedPages pages ahead of it.
+ *
+ * @author James Murty
+ */
+public class StreamedListingTest extends TestCase {
+    private static final String BUCKET_NAME = "streamed-listing-test";
+    private static final int THREAD_COUNT = 2;
+    private static final int MAX_BUFFERED_PAGES = 2;
+    private static final long PAGE_LENGTH = 5;
+
+    private MemoryS3Service s3Service = null;
+
+    /**
+     * Takes a while over each progress event, recording the pages it receives and the greatest
+     * number of pages listed but not yet received.
+     */
+    private class SlowListener extends S3ServiceEventAdaptor {
+        private final List keys = new ArrayList();
+        private int pageCount = 0;
+        private int maxPagesAhead = 0;
+
+        public void s3ServiceEventPerformed(ListObjectsEvent event) {
+            super.s3ServiceEventPerformed(event);
+            if (ListObjectsEvent.EVENT_IN_PROGRESS != event.getEventCode()) {
+                return;
+            }
+            Iterator chunkIter = event.getChunkList().iterator();
+            while (chunkIter.hasNext()) {
+                S3ObjectsChunk chunk = (S3ObjectsChunk) chunkIter.next();
+                pageCount++;
+                S3Object[] objects = chunk.getObjects();
+                assertTrue(objects.length <= PAGE_LENGTH);
+                for (int i = 0; i < objects.length; i++) {
+                    keys.add(objects[i].getKey());
+                }
+            }
+            // Give the listing threads time to run ahead, if they could.
+            try {
+                Thread.sleep(30);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            int pagesAhead = s3Service.getRequestCount(MemoryS3Service.REQUEST_LIST) - pageCount;
+            maxPagesAhead = Math.max(maxPagesAhead, pagesAhead);
+        }
+    }
+
+    protected void setUp() throws Exception {
+        Jets3tProperties properties = Jets3tProperties.getInstance(
+            new ByteArrayInputStream(new byte[0]), "StreamedListingTest");
+        properties.setProperty("s3service.admin-max-thread-count", String.valueOf(THREAD_COUNT));
+        s3Service = new MemoryS3Service(properties);
+        s3Service.createBucket(BUCKET_NAME);
+        for (int i = 0; i < 100; i++) {
+            s3Service.putObject(BUCKET_NAME, new S3Object((i % 2 == 0 ? "a/" : "b/") + i));
+        }
+    }
+
+    private void assertEveryKeyReceivedOnce(SlowListener listener) {
+        List expectedKeys = Arrays.asList(s3Service.getKeys(BUCKET_NAME));
+        assertEquals(expectedKeys.size(), listener.keys.size());
+        assertEquals(new HashSet(expectedKeys), new HashSet(listener.keys));
+    }
+
+    /**
+     * Each listing thread may hold one page that is not in the buffer: the page it is
+     * waiting to add, or its final page.
+     */
+    private void assertListingWaitedForListener(SlowListener listener) {
+        assertTrue("Listed " + listener.maxPagesAhead + " pages ahead of the listener",
+            listener.maxPagesAhead <= MAX_BUFFERED_PAGES + THREAD_COUNT);
+        assertTrue("The listing should fill the buffer",
+            listener.maxPagesAhead >= MAX_BUFFERED_PAGES);
+    }
+
+    public void testListingWaitsForSlowListener() throws Exception {
+        SlowListener listener = new SlowListener();
+        S3ServiceMulti s3ServiceMulti = new S3ServiceMulti(s3Service, listener, 10);
+        assertTrue(s3ServiceMulti.listObjects(BUCKET_NAME, new String[] {"a/", "b/"}, null,
+            PAGE_LENGTH, MAX_BUFFERED_PAGES));
+        assertFalse(listener.wasErrorThrown());
+
+        // Every request's page is delivered, and none twice.
+        assertEquals(s3Service.getRequestCount(MemoryS3Service.REQUEST_LIST), listener.pageCount);
+        assertEquals(20, listener.pageCount);
+        assertEveryKeyReceivedOnce(listener);
+        assertListingWaitedForListener(listener);
+    }
+
+    public void testPartitionedListingWaitsForSlowListener() throws Exception {
+        SlowListener listener = new SlowListener();
+        S3ServiceMulti s3ServiceMulti = new S3ServiceMulti(s3Service, listener, 10);
+        assertTrue(s3ServiceMulti.listObjectsPartitioned(BUCKET_NAME, null, PAGE_LENGTH,
+            MAX_BUFFERED_PAGES));
+        assertFalse(listener.wasErrorThrown());
+
+        assertEquals(s3Service.getRequestCount(MemoryS3Service.REQUEST_LIST), listener.pageCount);
+        assertEveryKeyReceivedOnce(listener);
+        assertListingWaitedForListener(listener);
+    }
+
+}
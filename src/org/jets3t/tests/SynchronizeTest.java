@@ -0,0 +1,287 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.jets3t.apps.synchronize.Synchronize;
+import org.jets3t.service.Constants;
+import org.jets3t.service.Jets3tProperties;
+import org.jets3t.service.S3ServiceException;
+import org.jets3t.service.model.S3Bucket;
+import org.jets3t.service.model.S3Object;
+
+/**
+ * Runs Synchronize uploads against an in-memory S3 service, checking that batched uploads
+ * spanning several listings and compare groups upload each changed file exactly once, and
+ * that transform and upload failures are reported as themselves.
+ *
+ * @author James Murty
+ */
+public class SynchronizeTest extends TestCase {
+    private static final String BUCKET_NAME = "synchronize-test";
+    // More files than fit in one listing batch, so the batch mode lists several times.
+    private static final int FILE_COUNT = (int) Constants.DEFAULT_OBJECT_LIST_CHUNK_SIZE + 250;
+
+    private Jets3tProperties properties = null;
+    private S3Bucket bucket = new S3Bucket(BUCKET_NAME);
+    private File directory = null;
+
+    /**
+     * Counts the PUT requests for each key, and optionally fails the PUT or HEAD of one key.
+     * When a PUT fails, the next listing waits for the failure so it always follows the failed
+     * upload.
+     */
+    private static class RecordingS3Service extends MemoryS3Service {
+        private final Map putCounts = new HashMap();
+        private String failingKey = null;
+        private String failingHeadKey = null;
+        private boolean failed = false;
+        private int listCount = 0;
+
+        public RecordingS3Service(Jets3tProperties properties) throws S3ServiceException {
+            super(properties);
+            createBucket(BUCKET_NAME);
+        }
+
+        public synchronized void failPut(String key) {
+            failingKey = key;
+        }
+
+        public synchronized void failHead(String key) {
+            failingHeadKey = key;
+        }
+
+        protected void beforeRequest(String requestType, String bucketName, String key)
+            throws S3ServiceException
+        {
+            if (REQUEST_LIST.equals(requestType)) {
+                waitForFailureBeforeNextListing();
+            } else if (REQUEST_HEAD.equals(requestType)) {
+                synchronized (this) {
+                    if (key.equals(failingHeadKey)) {
+                        S3ServiceException e = new S3ServiceException("Failing HEAD of '" + key + "'");
+                        e.setResponseCode(403);
+                        throw e;
+                    }
+                }
+            } else if (REQUEST_PUT.equals(requestType)) {
+                synchronized (this) {
+                    Integer count = (Integer) putCounts.get(key);
+                    putCounts.put(key, new Integer(count == null ? 1 : count.intValue() + 1));
+                    if (key.equals(failingKey)) {
+                        failed = true;
+                        notifyAll();
+                        S3ServiceException e = new S3ServiceException("Failing PUT of '" + key + "'");
+                        e.setResponseCode(403);
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        private synchronized void waitForFailureBeforeNextListing() {
+            listCount++;
+            long endTimeMS = System.currentTimeMillis() + 10000;
+            while (listCount > 1 && failingKey != null && !failed
+                && System.currentTimeMillis() < endTimeMS)
+            {
+                try {
+                    wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        public synchronized int countPuts(String key) {
+            Integer count = (Integer) putCounts.get(key);
+            return (count == null ? 0 : count.intValue());
+        }
+
+        public synchronized int getListCount() {
+            return listCount;
+        }
+    }
+
+    protected void setUp() throws Exception {
+        properties = Jets3tProperties.getInstance(
+            new ByteArrayInputStream(new byte[0]), "SynchronizeTest");
+        properties.setProperty("s3service.max-thread-count", "4");
+
+        directory = File.createTempFile("SynchronizeTest", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    protected void tearDown() {
+        File[] files = directory.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        directory.delete();
+    }
+
+    private String getKey(int index) {
+        String number = String.valueOf(index);
+        while (number.length() < 5) {
+            number = "0" + number;
+        }
+        return "file" + number;
+    }
+
+    private byte[] getData(int index) {
+        return ("Data of file " + index).getBytes();
+    }
+
+    private Map createFiles() throws Exception {
+        Map filesMap = new HashMap();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            File file = new File(directory, getKey(i));
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(getData(i));
+            out.close();
+            filesMap.put(getKey(i), file);
+        }
+        return filesMap;
+    }
+
+    private void putObject(MemoryS3Service s3Service, String key, byte[] data) throws Exception {
+        S3Object object = new S3Object(key);
+        object.setDataInputStream(new ByteArrayInputStream(data));
+        object.setContentLength(data.length);
+        s3Service.putObject(bucket, object);
+    }
+
+    private Synchronize createSynchronize(MemoryS3Service s3Service) {
+        return createSynchronize(s3Service, true);
+    }
+
+    private Synchronize createSynchronize(MemoryS3Service s3Service, boolean isSkipMetadata) {
+        return new Synchronize(s3Service, true, true, true, false, false, false, false,
+            true, isSkipMetadata, false, false, 0, properties);
+    }
+
+    public void testBatchedUploadTransfersEachChangedFileOnce() throws Exception {
+        Map filesMap = createFiles();
+        RecordingS3Service s3Service = new RecordingS3Service(properties);
+        // Some files are already in S3, some are changed, and some objects have no file.
+        for (int i = 0; i < FILE_COUNT; i += 3) {
+            putObject(s3Service, getKey(i), getData(i));
+        }
+        for (int i = 1; i < FILE_COUNT; i += 7) {
+            putObject(s3Service, getKey(i), "Changed".getBytes());
+        }
+        for (int i = 0; i < FILE_COUNT; i += 2) {
+            putObject(s3Service, getKey(i) + "-deleted", "Deleted".getBytes());
+        }
+        putObject(s3Service, "zzz-deleted", "Deleted".getBytes());
+        int initialPutCount = s3Service.getRequestCount(MemoryS3Service.REQUEST_PUT);
+
+        createSynchronize(s3Service).uploadLocalDirectoryToS3(filesMap, bucket, "",
+            "PRIVATE", null);
+
+        assertTrue("Batch mode should list several times", s3Service.getListCount() > 1);
+        int expectedPutCount = 0;
+        for (int i = 0; i < FILE_COUNT; i++) {
+            String key = getKey(i);
+            int initialCount = (i % 3 == 0 ? 1 : 0) + (i % 7 == 1 ? 1 : 0);
+            int expectedCount = (i % 3 == 0 && i % 7 != 1 ? 0 : 1);
+            assertEquals("PUTs of " + key, initialCount + expectedCount, s3Service.countPuts(key));
+            assertEquals("Data of " + key, new String(getData(i)),
+                new String(s3Service.getObjectData(BUCKET_NAME, key)));
+            expectedPutCount += expectedCount;
+        }
+        assertEquals(expectedPutCount,
+            s3Service.getRequestCount(MemoryS3Service.REQUEST_PUT) - initialPutCount);
+        assertEquals(FILE_COUNT, s3Service.getKeys(BUCKET_NAME).length);
+    }
+
+    public void testUploadFailureIsReported() throws Exception {
+        Map filesMap = createFiles();
+        RecordingS3Service s3Service = new RecordingS3Service(properties);
+        // Fail an upload from the first listing batch, before the next batch is listed.
+        String failingKey = getKey((int) Constants.DEFAULT_OBJECT_LIST_CHUNK_SIZE / 2);
+        s3Service.failPut(failingKey);
+        putObject(s3Service, getKey(FILE_COUNT - 1), "Changed".getBytes());
+        for (int i = 0; i < Constants.DEFAULT_OBJECT_LIST_CHUNK_SIZE; i++) {
+            putObject(s3Service, getKey(i) + "-other", "Other".getBytes());
+        }
+
+        try {
+            createSynchronize(s3Service).uploadLocalDirectoryToS3(filesMap, bucket, "",
+                "PRIVATE", null);
+            fail("The failed upload should be reported");
+        } catch (S3ServiceException e) {
+            assertEquals(403, e.getResponseCode());
+            assertEquals(1, s3Service.countPuts(failingKey));
+        }
+        for (int i = 0; i < FILE_COUNT; i++) {
+            assertTrue("Uploaded at most once: " + getKey(i), s3Service.countPuts(getKey(i)) <= 1);
+        }
+    }
+
+    public void testListingFailureIsReportedByCompareStage() throws Exception {
+        Map filesMap = createFiles();
+        RecordingS3Service s3Service = new RecordingS3Service(properties);
+        for (int i = 0; i < FILE_COUNT; i += 2) {
+            putObject(s3Service, getKey(i), "Changed".getBytes());
+        }
+        // The object details are retrieved while the first files are uploaded.
+        s3Service.failHead(getKey(FILE_COUNT - 2));
+
+        try {
+            createSynchronize(s3Service, false).uploadLocalDirectoryToS3(filesMap, bucket, "",
+                "PRIVATE", null);
+            fail("The failed listing should be reported");
+        } catch (S3ServiceException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(
+                "Failed to retrieve detailed information about all S3 objects"));
+            assertEquals(403, ((S3ServiceException) e.getCause()).getResponseCode());
+        }
+    }
+
+    public void testTransformFailureIsReported() throws Exception {
+        Map filesMap = createFiles();
+        RecordingS3Service s3Service = new RecordingS3Service(properties);
+        // A file that disappears after it was found cannot be prepared for upload.
+        String missingKey = getKey(FILE_COUNT / 2);
+        ((File) filesMap.get(missingKey)).delete();
+
+        try {
+            createSynchronize(s3Service).uploadLocalDirectoryToS3(filesMap, bucket, "",
+                "PRIVATE", null);
+            fail("The failed transform should be reported");
+        } catch (FileNotFoundException e) {
+            assertEquals(0, s3Service.countPuts(missingKey));
+        }
+        for (int i = 0; i < FILE_COUNT; i++) {
+            assertTrue("Uploaded at most once: " + getKey(i), s3Service.countPuts(getKey(i)) <= 1);
+        }
+    }
+
+}
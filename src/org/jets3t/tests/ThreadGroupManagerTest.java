@@ -0,0 +1,357 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.tests;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+import org.jets3t.service.Jets3tProperties;
+import org.jets3t.service.S3ServiceException;
+import org.jets3t.service.model.S3Bucket;
+import org.jets3t.service.model.S3Object;
+import org.jets3t.service.multithread.DeleteObjectsEvent;
+import org.jets3t.service.multithread.S3ServiceEventAdaptor;
+import org.jets3t.service.multithread.S3ServiceMulti;
+import org.jets3t.service.multithread.ThreadWatcher;
+
+/**
+ * Checks how S3ServiceMulti schedules the requests of an operation on its worker threads.
+ *
+ * @author James Murty
+ */
+public class ThreadGroupManagerTest extends TestCase {
+    private static final String BUCKET_NAME = "thread-group-manager-test";
+
+    private Jets3tProperties properties = null;
+    private S3Bucket bucket = new S3Bucket(BUCKET_NAME);
+
+    /**
+     * Makes each DELETE request take a while, and records how many run at once. Requests
+     * beyond a given number can be held until they are released.
+     */
+    private static class ConcurrencyS3Service extends MemoryS3Service {
+        private final long requestTimeMS;
+        private int startedCount = 0;
+        private int runningCount = 0;
+        private int maxRunningCount = 0;
+        private int completedCount = 0;
+        private int unheldCount = Integer.MAX_VALUE;
+
+        public ConcurrencyS3Service(Jets3tProperties properties, long requestTimeMS)
+            throws S3ServiceException
+        {
+            super(properties);
+            this.requestTimeMS = requestTimeMS;
+            createBucket(BUCKET_NAME);
+        }
+
+        protected void beforeRequest(String requestType, String bucketName, String key)
+            throws S3ServiceException
+        {
+            if (!REQUEST_DELETE.equals(requestType)) {
+                return;
+            }
+            try {
+                synchronized (this) {
+                    startedCount++;
+                    runningCount++;
+                    maxRunningCount = Math.max(maxRunningCount, runningCount);
+                    while (startedCount > unheldCount) {
+                        wait();
+                    }
+                }
+                Thread.sleep(requestTimeMS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                synchronized (this) {
+                    runningCount--;
+                    completedCount++;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Holds every DELETE request after the given number until {@link #release()}.
+         */
+        public synchronized void holdRequestsAfter(int count) {
+            unheldCount = count;
+        }
+
+        public synchronized void release() {
+            unheldCount = Integer.MAX_VALUE;
+            notifyAll();
+        }
+
+        /**
+         * Waits until the given numbers of requests are running and have completed.
+         */
+        public synchronized void waitFor(int running, int completed) throws InterruptedException {
+            long endTimeMS = System.currentTimeMillis() + 10000;
+            while ((runningCount != running || completedCount != completed)
+                && System.currentTimeMillis() < endTimeMS)
+            {
+                wait(100);
+            }
+            assertEquals(running, runningCount);
+            assertEquals(completed, completedCount);
+        }
+
+        public synchronized int getMaxRunningCount() {
+            return maxRunningCount;
+        }
+
+        public synchronized int getCompletedCount() {
+            return completedCount;
+        }
+    }
+
+    /**
+     * Counts the objects taken from a list, and the most that were taken but not yet deleted.
+     */
+    private static class CountingIterator implements Iterator {
+        private final Iterator iterator;
+        private final ConcurrencyS3Service s3Service;
+        private int nextCount = 0;
+        private int maxOutstandingCount = 0;
+
+        public CountingIterator(S3Object[] objects, ConcurrencyS3Service s3Service) {
+            this.iterator = Arrays.asList(objects).iterator();
+            this.s3Service = s3Service;
+        }
+
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        public synchronized Object next() {
+            Object next = iterator.next();
+            nextCount++;
+            maxOutstandingCount = Math.max(maxOutstandingCount,
+                nextCount - s3Service.getCompletedCount());
+            return next;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public synchronized int getNextCount() {
+            return nextCount;
+        }
+
+        public synchronized int getMaxOutstandingCount() {
+            return maxOutstandingCount;
+        }
+    }
+
+    /**
+     * Records the thread watcher of a delete operation, and the objects it reports as cancelled.
+     */
+    private static class DeleteListener extends S3ServiceEventAdaptor {
+        private ThreadWatcher threadWatcher = null;
+        private S3Object[] cancelledObjects = null;
+
+        public synchronized void s3ServiceEventPerformed(DeleteObjectsEvent event) {
+            super.s3ServiceEventPerformed(event);
+            if (DeleteObjectsEvent.EVENT_STARTED == event.getEventCode()) {
+                threadWatcher = event.getThreadWatcher();
+            } else if (DeleteObjectsEvent.EVENT_CANCELLED == event.getEventCode()) {
+                cancelledObjects = event.getCancelledObjects();
+            }
+        }
+
+        public synchronized ThreadWatcher getThreadWatcher() {
+            return threadWatcher;
+        }
+
+        public synchronized S3Object[] getCancelledObjects() {
+            return cancelledObjects;
+        }
+    }
+
+    /**
+     * Records the largest concurrency window reported by a delete operation's thread watcher.
+     */
+    private static class WindowListener extends S3ServiceEventAdaptor {
+        private int maxWindow = 0;
+        private boolean adaptive = true;
+
+        public void s3ServiceEventPerformed(DeleteObjectsEvent event) {
+            super.s3ServiceEventPerformed(event);
+            if (DeleteObjectsEvent.EVENT_STARTED == event.getEventCode()
+                || DeleteObjectsEvent.EVENT_IN_PROGRESS == event.getEventCode())
+            {
+                ThreadWatcher threadWatcher = event.getThreadWatcher();
+                adaptive &= threadWatcher.isConcurrencyAdaptive();
+                maxWindow = Math.max(maxWindow, threadWatcher.getConcurrencyWindow());
+            }
+        }
+    }
+
+    /**
+     * Deletes objects from an iterator in its own thread.
+     */
+    private class DeleteThread extends Thread {
+        private final S3ServiceMulti s3ServiceMulti;
+        private final Iterator objects;
+        private boolean result = false;
+
+        public DeleteThread(S3ServiceMulti s3ServiceMulti, Iterator objects) {
+            this.s3ServiceMulti = s3ServiceMulti;
+            this.objects = objects;
+        }
+
+        public void run() {
+            result = s3ServiceMulti.deleteObjects(bucket, objects);
+        }
+
+        public boolean finish() throws InterruptedException {
+            join(10000);
+            assertFalse("The operation should finish", isAlive());
+            return result;
+        }
+    }
+
+    protected void setUp() throws Exception {
+        properties = Jets3tProperties.getInstance(
+            new ByteArrayInputStream(new byte[0]), "ThreadGroupManagerTest");
+        properties.setProperty("s3service.admin-max-thread-count", "3");
+        properties.setProperty("httpclient.max-connections", "10");
+    }
+
+    private S3Object[] createObjects(MemoryS3Service s3Service, int count) throws Exception {
+        S3Object[] objects = new S3Object[count];
+        for (int i = 0; i < count; i++) {
+            objects[i] = s3Service.putObject(bucket, new S3Object("object-" + i));
+        }
+        return objects;
+    }
+
+    public void testRunningRequestsNeverExceedMaxThreadCount() throws Exception {
+        ConcurrencyS3Service s3Service = new ConcurrencyS3Service(properties, 20);
+        S3Object[] objects = createObjects(s3Service, 30);
+
+        S3ServiceEventAdaptor adaptor = new S3ServiceEventAdaptor();
+        assertTrue(new S3ServiceMulti(s3Service, adaptor, 10).deleteObjects(bucket, objects));
+        assertFalse(adaptor.wasErrorThrown());
+
+        assertEquals(30, s3Service.getCompletedCount());
+        assertEquals(0, s3Service.getKeys(BUCKET_NAME).length);
+        // The pool is larger than the operation's thread count, which still limits it.
+        assertEquals(3, s3Service.getMaxRunningCount());
+    }
+
+    public void testIteratorIsPulledOnDemand() throws Exception {
+        ConcurrencyS3Service s3Service = new ConcurrencyS3Service(properties, 10);
+        CountingIterator objects = new CountingIterator(createObjects(s3Service, 30), s3Service);
+        s3Service.holdRequestsAfter(0);
+
+        S3ServiceEventAdaptor adaptor = new S3ServiceEventAdaptor();
+        DeleteThread deleteThread = new DeleteThread(
+            new S3ServiceMulti(s3Service, adaptor, 10), objects);
+        deleteThread.start();
+        try {
+            // While requests are held, no more objects are taken than can be deleted at once.
+            s3Service.waitFor(3, 0);
+            Thread.sleep(100);
+            assertEquals(3, objects.getNextCount());
+        } finally {
+            s3Service.release();
+        }
+        assertTrue(deleteThread.finish());
+        assertFalse(adaptor.wasErrorThrown());
+
+        assertEquals(30, objects.getNextCount());
+        assertEquals(3, objects.getMaxOutstandingCount());
+        assertEquals(3, s3Service.getMaxRunningCount());
+        assertEquals(0, s3Service.getKeys(BUCKET_NAME).length);
+    }
+
+    public void testCancellationReportsOnlyPendingObjects() throws Exception {
+        ConcurrencyS3Service s3Service = new ConcurrencyS3Service(properties, 0);
+        S3Object[] objects = createObjects(s3Service, 30);
+        CountingIterator objectIterator = new CountingIterator(objects, s3Service);
+        s3Service.holdRequestsAfter(5);
+
+        DeleteListener listener = new DeleteListener();
+        DeleteThread deleteThread = new DeleteThread(
+            new S3ServiceMulti(s3Service, listener, 10), objectIterator);
+        deleteThread.start();
+        try {
+            s3Service.waitFor(3, 5);
+            listener.getThreadWatcher().cancelTask();
+            assertFalse(deleteThread.finish());
+            assertFalse(listener.wasErrorThrown());
+
+            // Only the objects being deleted are cancelled, not those deleted or never taken.
+            S3Object[] cancelledObjects = listener.getCancelledObjects();
+            assertNotNull(cancelledObjects);
+            assertEquals(
+                new HashSet(Arrays.asList(new S3Object[] {objects[5], objects[6], objects[7]})),
+                new HashSet(Arrays.asList(cancelledObjects)));
+            assertEquals(8, objectIterator.getNextCount());
+            assertEquals(25, s3Service.getKeys(BUCKET_NAME).length);
+        } finally {
+            s3Service.release();
+        }
+    }
+
+    public void testAdaptiveWindowStartsWithinMaximum() throws Exception {
+        properties.setProperty("s3service.adaptive-concurrency-enabled", "true");
+        properties.setProperty("s3service.adaptive-max-thread-count", "3");
+        properties.setProperty("s3service.admin-max-thread-count", "8");
+        ConcurrencyS3Service s3Service = new ConcurrencyS3Service(properties, 20);
+        S3Object[] objects = createObjects(s3Service, 40);
+
+        WindowListener listener = new WindowListener();
+        assertTrue(new S3ServiceMulti(s3Service, listener, 10).deleteObjects(bucket, objects));
+        assertFalse(listener.wasErrorThrown());
+
+        // The configured thread count is larger than the adaptive maximum, which limits it.
+        assertTrue(listener.adaptive);
+        assertEquals(3, listener.maxWindow);
+        assertEquals(3, s3Service.getMaxRunningCount());
+        assertEquals(40, s3Service.getCompletedCount());
+    }
+
+    public void testAdaptiveWindowGrowsNoFurtherThanMaximum() throws Exception {
+        properties.setProperty("s3service.adaptive-concurrency-enabled", "true");
+        properties.setProperty("s3service.adaptive-max-thread-count", "3");
+        properties.setProperty("s3service.admin-max-thread-count", "2");
+        ConcurrencyS3Service s3Service = new ConcurrencyS3Service(properties, 20);
+        S3Object[] objects = createObjects(s3Service, 200);
+
+        // The operation runs for several sampling periods, in which the window could grow.
+        WindowListener listener = new WindowListener();
+        assertTrue(new S3ServiceMulti(s3Service, listener, 10).deleteObjects(bucket, objects));
+        assertFalse(listener.wasErrorThrown());
+
+        assertTrue(listener.adaptive);
+        assertTrue("Window grew to " + listener.maxWindow, listener.maxWindow <= 3);
+        assertTrue(s3Service.getMaxRunningCount() <= 3);
+        assertEquals(200, s3Service.getCompletedCount());
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+import org.jets3t.service.io.TransformedFileInputStream;
+import org.jets3t.service.security.EncryptionUtil;
+
+/**
+ * Checks that {@link TransformedFileInputStream} produces the same transformed data after a
+ * reset, and enforces the expected length of the data.
+ *
+ * @author James Murty
+ */
+public class TransformedFileInputStreamTest extends TestCase {
+    private File file = null;
+    private byte[] fileData = null;
+
+    protected void setUp() throws Exception {
+        // Data that compresses, so the gzipped length differs from the file's length.
+        Random random = new Random(2008);
+        fileData = new byte[300000];
+        for (int i = 0; i < fileData.length; i++) {
+            fileData[i] = (byte) ('a' + random.nextInt(4));
+        }
+        file = File.createTempFile("TransformedFileInputStreamTest", ".dat");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(fileData);
+        out.close();
+    }
+
+    protected void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Reads up to maxLength bytes, in reads of varying sizes that include single bytes.
+     */
+    private byte[] read(InputStream is, int maxLength) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int readCount = 0;
+        while (baos.size() < maxLength) {
+            if (readCount++ % 3 == 0) {
+                int b = is.read();
+                if (b < 0) {
+                    break;
+                }
+                baos.write(b);
+            } else {
+                int length = Math.min(buffer.length / readCount + 1, maxLength - baos.size());
+                int count = is.read(buffer, 0, length);
+                if (count < 0) {
+                    break;
+                }
+                baos.write(buffer, 0, count);
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    private byte[] gunzip(byte[] data) throws IOException {
+        return read(new GZIPInputStream(new ByteArrayInputStream(data)), Integer.MAX_VALUE);
+    }
+
+    public void testResetReproducesGzippedData() throws Exception {
+        TransformedFileInputStream tfis = new TransformedFileInputStream(file, true, null, -1);
+        byte[] transformed = read(tfis, Integer.MAX_VALUE);
+        tfis.close();
+        assertTrue(transformed.length < fileData.length);
+        assertTrue(Arrays.equals(fileData, gunzip(transformed)));
+
+        tfis = new TransformedFileInputStream(file, true, null, transformed.length);
+        assertTrue(tfis.markSupported());
+        tfis.mark(0);
+        byte[] partial = read(tfis, transformed.length / 2);
+        assertEquals(transformed.length / 2, partial.length);
+        tfis.reset();
+        assertTrue(Arrays.equals(transformed, read(tfis, Integer.MAX_VALUE)));
+        // A reset after reaching the end starts again too.
+        tfis.reset();
+        assertTrue(Arrays.equals(transformed, read(tfis, Integer.MAX_VALUE)));
+        tfis.close();
+    }
+
+    public void testResetReproducesEncryptedData() throws Exception {
+        EncryptionUtil encryptionUtil = new EncryptionUtil("transformed-stream-test-password");
+        TransformedFileInputStream tfis =
+            new TransformedFileInputStream(file, true, encryptionUtil, -1);
+        byte[] transformed = read(tfis, Integer.MAX_VALUE);
+        tfis.reset();
+        byte[] afterReset = read(tfis, Integer.MAX_VALUE);
+        tfis.close();
+
+        assertTrue(Arrays.equals(transformed, afterReset));
+        assertTrue(Arrays.equals(fileData, gunzip(encryptionUtil.decrypt(transformed))));
+    }
+
+    public void testLengthIsChecked() throws Exception {
+        TransformedFileInputStream tfis = new TransformedFileInputStream(file, false, null,
+            fileData.length);
+        assertTrue(Arrays.equals(fileData, read(tfis, Integer.MAX_VALUE)));
+        tfis.close();
+
+        tfis = new TransformedFileInputStream(file, false, null, fileData.length - 1);
+        try {
+            read(tfis, Integer.MAX_VALUE);
+            fail("Data longer than the expected length should not be read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().indexOf("longer than") >= 0);
+        } finally {
+            tfis.close();
+        }
+
+        tfis = new TransformedFileInputStream(file, false, null, fileData.length + 1);
+        try {
+            read(tfis, Integer.MAX_VALUE);
+            fail("Data shorter than the expected length should not be read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().indexOf("rather than the expected") >= 0);
+        } finally {
+            tfis.close();
+        }
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * jets3t : Java Extra-Tasty S3 Toolkit (for Amazon S3 online storage service)
+ * This is a java.net project, see https://jets3t.dev.java.net/
+ *
+ * Copyright 2008 James Murty
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jets3t.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import junit.framework.TestCase;
+
+import org.jets3t.service.multithread.WorkQueue;
+
+/**
+ * Checks how a {@link WorkQueue} hands items from producers to consumers, and how closing and
+ * aborting the queue release the threads waiting on it.
+ *
+ * @author James Murty
+ */
+public class WorkQueueTest extends TestCase {
+    private static final long WAIT_MS = 5000;
+
+    /**
+     * Runs a task in a new thread, recording any failure.
+     */
+    private static class TestThread extends Thread {
+        private final Runnable task;
+        private Throwable failure = null;
+
+        TestThread(Runnable task) {
+            this.task = task;
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                failure = t;
+            }
+        }
+
+        void finish() throws Throwable {
+            join(WAIT_MS);
+            assertFalse("Thread should have finished", isAlive());
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Gives a thread time to reach a call that should block, and checks that it is blocked.
+     */
+    private void waitUntilBlocked(Thread thread) throws InterruptedException {
+        thread.join(200);
+        assertTrue("Thread should be waiting on the queue", thread.isAlive());
+    }
+
+    public void testItemsPassInOrderUntilClosed() throws Throwable {
+        final WorkQueue queue = new WorkQueue(3);
+        final List consumed = new ArrayList();
+        TestThread consumer = new TestThread(new Runnable() {
+            public void run() {
+                while (queue.hasNext()) {
+                    consumed.add(queue.next());
+                }
+            }
+        });
+        consumer.start();
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(queue.put(new Integer(i)));
+        }
+        queue.close();
+        consumer.finish();
+
+        assertEquals(100, consumed.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(new Integer(i), consumed.get(i));
+        }
+        assertFalse(queue.hasNext());
+        assertTrue(queue.isNextReady());
+        try {
+            queue.next();
+            fail("next() should fail on a closed, empty queue");
+        } catch (NoSuchElementException e) {
+        }
+    }
+
+    public void testCloseKeepsQueuedItems() throws Exception {
+        WorkQueue queue = new WorkQueue(10);
+        assertFalse(queue.isNextReady());
+        queue.put("first");
+        queue.put("second");
+        queue.close();
+
+        assertFalse(queue.isAborted());
+        assertTrue(queue.hasNext());
+        assertEquals("first", queue.next());
+        assertEquals("second", queue.next());
+        assertFalse(queue.hasNext());
+        try {
+            queue.put("third");
+            fail("put() should fail on a closed queue");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    public void testCloseReleasesWaitingConsumer() throws Throwable {
+        final WorkQueue queue = new WorkQueue(1);
+        final boolean[] hasNext = new boolean[] {true};
+        TestThread consumer = new TestThread(new Runnable() {
+            public void run() {
+                hasNext[0] = queue.hasNext();
+            }
+        });
+        consumer.start();
+        waitUntilBlocked(consumer);
+
+        queue.close();
+        consumer.finish();
+        assertFalse(hasNext[0]);
+    }
+
+    public void testAbortReleasesWaitingProducer() throws Throwable {
+        final WorkQueue queue = new WorkQueue(2);
+        queue.put("first");
+        queue.put("second");
+        final boolean[] added = new boolean[] {true};
+        TestThread producer = new TestThread(new Runnable() {
+            public void run() {
+                try {
+                    added[0] = queue.put("third");
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        producer.start();
+        waitUntilBlocked(producer);
+
+        queue.abort();
+        producer.finish();
+        assertFalse("Item should be refused by an aborted queue", added[0]);
+        assertTrue(queue.isAborted());
+        // Queued items are discarded, and later items are refused without an exception.
+        assertFalse(queue.hasNext());
+        assertFalse(queue.put("fourth"));
+    }
+
+    public void testAbortReleasesWaitingConsumer() throws Throwable {
+        final WorkQueue queue = new WorkQueue(1);
+        final boolean[] hasNext = new boolean[] {true};
+        TestThread consumer = new TestThread(new Runnable() {
+            public void run() {
+                hasNext[0] = queue.hasNext();
+            }
+        });
+        consumer.start();
+        waitUntilBlocked(consumer);
+
+        queue.abort();
+        consumer.finish();
+        assertFalse(hasNext[0]);
+    }
+
+    public void testFullQueueBlocksProducer() throws Throwable {
+        final WorkQueue queue = new WorkQueue(1);
+        queue.put("first");
+        TestThread producer = new TestThread(new Runnable() {
+            public void run() {
+                try {
+                    assertTrue(queue.put("second"));
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        producer.start();
+        waitUntilBlocked(producer);
+
+        assertEquals("first", queue.next());
+        producer.finish();
+        assertEquals("second", queue.next());
+    }
+
+}